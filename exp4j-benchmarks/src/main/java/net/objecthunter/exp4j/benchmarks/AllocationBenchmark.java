@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import net.objecthunter.exp4j.VariableHandle;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the memory allocated by binding the variables and evaluating the reference formulas. Run with the gc
+ * profiler, the <code>gc.alloc.rate.norm</code> metric has to be 0 B/op:
+ * <pre>
+ * java -jar target/benchmarks.jar AllocationBenchmark -prof gc
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AllocationBenchmark {
+
+    @Param({"log(x) - y * (sqrt(x^cos(y)))", "2pi*x/360 + (1+0.05)^12 - y%3",
+            "-x + +y * x^2 + signum(y) - cot(x) + abs(-y)", "3x(y+1)^-2 + log2(x) + floor(x) / ceil(y)"})
+    public String expression;
+
+    @Param({"false", "true"})
+    public boolean compiled;
+
+    private Expression e;
+
+    private VariableHandle x;
+
+    private VariableHandle y;
+
+    private double value;
+
+    @Setup
+    public void setup() {
+        e = new ExpressionBuilder(expression)
+                .variables("x", "y")
+                .compiled(compiled)
+                .build();
+        x = e.handle("x");
+        y = e.handle("y");
+        value = 0.5d;
+    }
+
+    @Benchmark
+    public double evaluate() {
+        value += 0.25d;
+        x.set(value);
+        y.set(value + 1d);
+        return e.evaluate();
+    }
+}
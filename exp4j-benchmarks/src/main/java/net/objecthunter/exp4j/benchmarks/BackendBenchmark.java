@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.benchmarks;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.program.Interpreter;
+import net.objecthunter.exp4j.program.RegisterMachine;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the evaluation backends for expressions without generated bytecode: the stack based {@link Interpreter}
+ * and the {@link RegisterMachine}. Both evaluate the same tokens generated by {@link Formulas}:
+ * <pre>
+ * java -jar target/benchmarks.jar BackendBenchmark -p functions=builtin
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BackendBenchmark {
+
+    /* the number of terms of the formula */
+    @Param({"10", "100", "1000"})
+    public int size;
+
+    @Param({"4", "16"})
+    public int variables;
+
+    /* none, builtin or custom */
+    @Param({"none", "builtin", "custom"})
+    public String functions;
+
+    /* whether the interpreter fuses common operand patterns */
+    @Param({"false", "true"})
+    public boolean superinstructions;
+
+    private Interpreter interpreter;
+
+    private RegisterMachine registerMachine;
+
+    private double[] values;
+
+    private boolean[] bound;
+
+    private double[] stack;
+
+    private double[] registers;
+
+    @Setup
+    public void setup() {
+        final List<String> names = Arrays.asList(Formulas.variables(variables));
+        final Map<String, Function> customFunctions = new HashMap<String, Function>();
+        for (Function f : Formulas.customFunctions()) {
+            customFunctions.put(f.getName(), f);
+        }
+        final Token[] tokens = ShuntingYard.convertToRPN(Formulas.formula(size, variables, functions),
+                customFunctions, null, new LinkedHashSet<String>(names), true);
+        for (int i = 0; i < tokens.length; i++) {
+            if (tokens[i].getType() == Token.TOKEN_VARIABLE) {
+                final String name = ((VariableToken) tokens[i]).getName();
+                tokens[i] = new VariableToken(name, names.indexOf(name));
+            }
+        }
+        interpreter = Interpreter.compile(tokens, superinstructions);
+        registerMachine = RegisterMachine.compile(tokens);
+        values = new double[variables];
+        bound = new boolean[variables];
+        for (int i = 0; i < variables; i++) {
+            values[i] = 0.5d + i;
+            bound[i] = true;
+        }
+        stack = new double[interpreter.getStackSize()];
+        registers = new double[registerMachine.getNumRegisters()];
+    }
+
+    @Benchmark
+    public double interpreter() {
+        return interpreter.evaluate(values, bound, stack, 0);
+    }
+
+    @Benchmark
+    public double registerMachine() {
+        return registerMachine.evaluate(values, bound, registers, 0);
+    }
+}
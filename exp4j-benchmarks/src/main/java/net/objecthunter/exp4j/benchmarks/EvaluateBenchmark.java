@@ -0,0 +1,138 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.benchmarks;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures working with a built {@link Expression}: evaluating it, setting its variables by name, copying it and
+ * evaluating it asynchronously on a single thread executor. The variables are set to precomputed values, so no
+ * random numbers are generated during the measurement. The formulas are generated by {@link Formulas}:
+ * <pre>
+ * java -jar target/benchmarks.jar EvaluateBenchmark -prof gc
+ * java -jar target/benchmarks.jar EvaluateBenchmark.evaluate -p size=100 -p compiled=true -prof perfnorm
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EvaluateBenchmark {
+
+    /* the number of values the variables cycle through */
+    private static final int NUM_VALUES = 1024;
+
+    /* the number of terms of the formula */
+    @Param({"10", "100", "1000"})
+    public int size;
+
+    @Param({"1", "4", "16"})
+    public int variables;
+
+    /* none, builtin or custom */
+    @Param({"none", "builtin", "custom"})
+    public String functions;
+
+    @Param({"false", "true"})
+    public boolean compiled;
+
+    private Expression e;
+
+    private String[] variableNames;
+
+    private double[] values;
+
+    private int index;
+
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() {
+        variableNames = Formulas.variables(variables);
+        e = new ExpressionBuilder(Formulas.formula(size, variables, functions))
+                .variables(variableNames)
+                .functions(Formulas.customFunctions())
+                .compiled(compiled)
+                .build();
+        values = new double[NUM_VALUES];
+        for (int i = 0; i < NUM_VALUES; i++) {
+            values[i] = 0.5d + i / (double) NUM_VALUES;
+        }
+        for (String name : variableNames) {
+            e.setVariable(name, values[0]);
+        }
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public double evaluate() {
+        return e.evaluate();
+    }
+
+    @Benchmark
+    public Expression setVariable() {
+        final double value = values[index++ & (NUM_VALUES - 1)];
+        for (String name : variableNames) {
+            e.setVariable(name, value);
+        }
+        return e;
+    }
+
+    @Benchmark
+    public double setVariableAndEvaluate() {
+        final double value = values[index++ & (NUM_VALUES - 1)];
+        for (String name : variableNames) {
+            e.setVariable(name, value);
+        }
+        return e.evaluate();
+    }
+
+    @Benchmark
+    public Expression copy() {
+        return new Expression(e);
+    }
+
+    @Benchmark
+    public double evaluateAsync() throws InterruptedException, ExecutionException {
+        return e.evaluateAsync(executor).get();
+    }
+}
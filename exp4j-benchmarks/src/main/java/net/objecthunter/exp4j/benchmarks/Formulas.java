@@ -0,0 +1,93 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.benchmarks;
+
+import java.util.Random;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.function.FunctionN;
+
+/**
+ * Generates the formulas of the parse and evaluation benchmarks. A formula is a sum of <code>size</code> terms, each
+ * scaling one of <code>variables</code> variables by a constant. Depending on the function mix the terms are passed
+ * to no functions (<code>none</code>), to builtin functions (<code>builtin</code>) or to custom functions
+ * (<code>custom</code>). The same parameters always yield the same formula.
+ */
+final class Formulas {
+
+    private static final String[] BUILTIN = {"sin(%s)", "cos(%s)", "sqrt(abs(%s))", "log(1 + abs(%s))",
+            "exp(-abs(%s))", "pow(abs(%s), 1.5)"};
+
+    private static final String[] CUSTOM = {"half(%s)", "clamp(%s, -1, 1)"};
+
+    private Formulas() {
+    }
+
+    static String[] variables(int count) {
+        final String[] variables = new String[count];
+        for (int i = 0; i < count; i++) {
+            variables[i] = "x" + i;
+        }
+        return variables;
+    }
+
+    static String formula(int size, int variables, String functions) {
+        final String[] templates;
+        if (functions.equals("none")) {
+            templates = null;
+        } else if (functions.equals("builtin")) {
+            templates = BUILTIN;
+        } else if (functions.equals("custom")) {
+            templates = CUSTOM;
+        } else {
+            throw new IllegalArgumentException("Unknown function mix '" + functions + "'");
+        }
+        final Random random = new Random(size * 31 + variables);
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                sb.append(random.nextBoolean() ? " + " : " - ");
+            }
+            final String variable = "x" + random.nextInt(variables);
+            final String constant = Double.toString(1 + random.nextInt(1000) / 100d);
+            String term = random.nextBoolean() ? constant + " * " + variable : variable + " / " + constant;
+            /* apply a function to every other term */
+            if (templates != null && i % 2 == 1) {
+                term = String.format(templates[random.nextInt(templates.length)], term);
+            }
+            sb.append(term);
+        }
+        return sb.toString();
+    }
+
+    static Function[] customFunctions() {
+        return new Function[] {
+                new Function1("half") {
+                    @Override
+                    public double apply(double arg) {
+                        return arg / 2d;
+                    }
+                },
+                new FunctionN("clamp", 3) {
+                    @Override
+                    public double apply(double[] args, int offset) {
+                        return Math.max(args[offset + 1], Math.min(args[offset + 2], args[offset]));
+                    }
+                }
+        };
+    }
+}
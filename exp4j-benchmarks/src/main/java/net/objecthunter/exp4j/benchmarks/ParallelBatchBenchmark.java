@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.benchmarks;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how the parallel batch evaluation scales with the number of threads. <code>threads = 0</code> is the
+ * sequential batch evaluation on the benchmark thread. Use e.g. <code>-p threads=1,2,4,8,16</code> to match the
+ * number of cores:
+ * <pre>
+ * java -jar target/benchmarks.jar ParallelBatchBenchmark -p threads=0,1,2,4,8
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelBatchBenchmark {
+
+    @Param({"log(x) - y * (sqrt(x^cos(y)))", "x * y + 2 * x - y / 3"})
+    public String expression;
+
+    @Param({"0", "1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"4000000"})
+    public int rows;
+
+    private Expression e;
+
+    private ExecutorService executor;
+
+    private double[][] columns;
+
+    private double[] out;
+
+    @Setup
+    public void setup() {
+        e = new ExpressionBuilder(expression)
+                .variables("x", "y")
+                .build();
+        columns = new double[2][rows];
+        for (int i = 0; i < rows; i++) {
+            columns[0][i] = 1d + i * 1e-6d;
+            columns[1][i] = 2d + i * 1e-7d;
+        }
+        out = new double[rows];
+        if (threads > 0) {
+            executor = Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public double[] evaluateBatch() throws InterruptedException {
+        if (executor == null) {
+            e.evaluateBatch(columns, out, 0, rows);
+        } else {
+            e.evaluateBatchParallel(columns, out, 0, rows, executor);
+        }
+        return out;
+    }
+}
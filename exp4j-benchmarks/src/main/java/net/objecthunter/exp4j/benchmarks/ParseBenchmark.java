@@ -0,0 +1,132 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.benchmarks;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.program.Program;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.Tokenizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the stages of turning a formula into an {@link Expression}: tokenizing it with and without creating
+ * tokens, converting it to reverse polish notation, the fused single pass conversion to a {@link Program} and the
+ * whole {@link ExpressionBuilder#build()}. The formulas are generated by {@link Formulas}:
+ * <pre>
+ * java -jar target/benchmarks.jar ParseBenchmark -prof gc
+ * java -jar target/benchmarks.jar ParseBenchmark -p size=1000 -p functions=builtin -prof perfnorm
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseBenchmark {
+
+    /* the number of terms of the formula */
+    @Param({"10", "100", "1000"})
+    public int size;
+
+    @Param({"1", "4", "16"})
+    public int variables;
+
+    /* none, builtin or custom */
+    @Param({"none", "builtin", "custom"})
+    public String functions;
+
+    private String formula;
+
+    private String[] variableNames;
+
+    private Set<String> variableSet;
+
+    private Function[] customFunctions;
+
+    private Map<String, Function> customFunctionMap;
+
+    @Setup
+    public void setup() {
+        formula = Formulas.formula(size, variables, functions);
+        variableNames = Formulas.variables(variables);
+        variableSet = new LinkedHashSet<String>(Arrays.asList(variableNames));
+        customFunctions = Formulas.customFunctions();
+        customFunctionMap = new HashMap<String, Function>();
+        for (Function f : customFunctions) {
+            customFunctionMap.put(f.getName(), f);
+        }
+    }
+
+    @Benchmark
+    public int tokenize() {
+        final Tokenizer tokenizer = new Tokenizer(formula, customFunctionMap, null, variableSet);
+        int count = 0;
+        while (tokenizer.hasNext()) {
+            count += tokenizer.nextToken().getType();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int tokenizeWithoutTokens() {
+        final Tokenizer tokenizer = new Tokenizer(formula, customFunctionMap, null, variableSet);
+        int count = 0;
+        while (tokenizer.hasNext()) {
+            count += tokenizer.next();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public Token[] convertToRPN() {
+        return ShuntingYard.convertToRPN(formula, customFunctionMap, null, variableSet, true);
+    }
+
+    @Benchmark
+    public Program compile() {
+        return ShuntingYard.compile(formula, customFunctionMap, null, variableSet, true);
+    }
+
+    @Benchmark
+    public Expression build() {
+        return new ExpressionBuilder(formula)
+                .variables(variableNames)
+                .functions(customFunctions)
+                .build();
+    }
+}
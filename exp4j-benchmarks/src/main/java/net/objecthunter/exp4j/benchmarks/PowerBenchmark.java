@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evaluates a mix of polynomial formulas from physics and finance, which raise to constant and variable integral
+ * powers, with and without fast math:
+ * <pre>
+ * java -jar target/benchmarks.jar PowerBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PowerBenchmark {
+
+    static final String[] FORMULAS = {
+            "a * x^3 + b * x^2 + c * x + d",
+            "x^4 - 2 * x^2 + 1",
+            "sqrt(x^2 + y^2)",
+            "0.5 * m * v^2",
+            "6.674e-11 * m * M / r^2",
+            "1 / (1 + x^2)",
+            "P * (1 + r)^n",
+            "P * r / (1 - (1 + r)^-n)",
+            "(x - a)^2 / b^2 + (y - c)^2 / d^2",
+            "x^5 / 120 - x^3 / 6 + x",
+            "(a * x + b)^3",
+            "x^0.5 * y^-1"
+    };
+
+    static final String[] VARIABLES = {"a", "b", "c", "d", "x", "y", "m", "M", "v", "r", "P", "n"};
+
+    @Param({"false", "true"})
+    public boolean fastMath;
+
+    private Expression[] expressions;
+
+    @Setup
+    public void setup() {
+        expressions = new Expression[FORMULAS.length];
+        for (int i = 0; i < FORMULAS.length; i++) {
+            final Expression e = new ExpressionBuilder(FORMULAS[i])
+                    .variables(VARIABLES)
+                    .fastMath(fastMath)
+                    .build();
+            for (int j = 0; j < VARIABLES.length; j++) {
+                e.setVariable(VARIABLES[j], 0.75d + j / 4d);
+            }
+            /* a number of periods */
+            e.setVariable("n", 12d);
+            expressions[i] = e;
+        }
+    }
+
+    @Benchmark
+    public double evaluate() {
+        double sum = 0d;
+        for (Expression e : expressions) {
+            sum += e.evaluate();
+        }
+        return sum;
+    }
+}
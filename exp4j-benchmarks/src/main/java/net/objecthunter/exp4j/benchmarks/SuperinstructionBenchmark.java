@@ -0,0 +1,158 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.benchmarks;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.objecthunter.exp4j.optimizer.CommonSubexpressionEliminator;
+import net.objecthunter.exp4j.optimizer.ConstantFolder;
+import net.objecthunter.exp4j.program.Interpreter;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the superinstructions of the {@link Interpreter} on a mix of everyday formulas from physics, finance and
+ * statistics, which are prepared like {@link net.objecthunter.exp4j.ExpressionBuilder} does. Besides the time per
+ * evaluation of the whole mix, the "dispatches" counter reports the number of instructions executed, i.e. the number
+ * of dispatches of the interpreter's loop, per evaluation of the mix:
+ * <pre>
+ * java -jar target/benchmarks.jar SuperinstructionBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SuperinstructionBenchmark {
+
+    static final String[] FORMULAS = {
+            "0.5 * m * v^2",
+            "m * 9.81 * h",
+            "a * x^2 + b * x + c",
+            "(-b + sqrt(b^2 - 4 * a * c)) / (2 * a)",
+            "sqrt(x^2 + y^2 + z^2)",
+            "P * (1 + r / 12)^(12 * t)",
+            "P * exp(-r * t)",
+            "exp(-(x - mu)^2 / (2 * sigma^2)) / (sigma * sqrt(2 * pi))",
+            "(x - mu) / sigma",
+            "1 / (1 + exp(-x))",
+            "(log(S / K) + (r + sigma^2 / 2) * t) / (sigma * sqrt(t))",
+            "6.674e-11 * m * M / r^2",
+            "x * cos(theta) - y * sin(theta)",
+            "x * sin(theta) + y * cos(theta)",
+            "abs(x - y) / (abs(x) + abs(y) + 1)",
+            "100 * (y - x^2)^2 + (1 - x)^2",
+            "v * t - 0.5 * 9.81 * t^2",
+            "(x - 32) * 5 / 9",
+            "x * 1.08 - 20",
+            "(a + b + c) / 3"
+    };
+
+    static final String[] VARIABLES = {"a", "b", "c", "x", "y", "z", "m", "M", "v", "h", "P", "r", "t", "mu",
+            "sigma", "S", "K", "theta"};
+
+    @Param({"false", "true"})
+    public boolean superinstructions;
+
+    private Interpreter[] interpreters;
+
+    private double[] values;
+
+    private boolean[] bound;
+
+    private double[] stack;
+
+    private int dispatchesPerMix;
+
+    /**
+     * The number of instructions executed
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long dispatches;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            dispatches = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        final List<String> names = Arrays.asList(VARIABLES);
+        final Map<String, Double> constants = new HashMap<String, Double>();
+        constants.put("pi", Math.PI);
+        constants.put("e", Math.E);
+        final LinkedHashSet<String> variableNames = new LinkedHashSet<String>(names);
+        variableNames.addAll(constants.keySet());
+        interpreters = new Interpreter[FORMULAS.length];
+        int maxStackSize = 0;
+        dispatchesPerMix = 0;
+        for (int i = 0; i < FORMULAS.length; i++) {
+            final Token[] tokens = CommonSubexpressionEliminator.eliminate(ConstantFolder.fold(
+                    ShuntingYard.convertToRPN(FORMULAS[i], null, null, variableNames, true), constants));
+            for (int j = 0; j < tokens.length; j++) {
+                if (tokens[j].getType() == Token.TOKEN_VARIABLE) {
+                    final String name = ((VariableToken) tokens[j]).getName();
+                    tokens[j] = new VariableToken(name, names.indexOf(name));
+                }
+            }
+            interpreters[i] = Interpreter.compile(tokens, superinstructions);
+            maxStackSize = Math.max(maxStackSize, interpreters[i].getStackSize());
+            dispatchesPerMix += interpreters[i].size();
+        }
+        values = new double[VARIABLES.length];
+        bound = new boolean[VARIABLES.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 0.75d + i / 4d;
+            bound[i] = true;
+        }
+        stack = new double[maxStackSize];
+    }
+
+    @Benchmark
+    public double evaluate(Counters counters) {
+        double sum = 0d;
+        for (Interpreter interpreter : interpreters) {
+            sum += interpreter.evaluate(values, bound, stack, 0);
+        }
+        counters.dispatches += dispatchesPerMix;
+        return sum;
+    }
+}
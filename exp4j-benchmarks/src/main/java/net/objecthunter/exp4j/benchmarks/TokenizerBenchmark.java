@@ -0,0 +1,116 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.benchmarks;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import net.objecthunter.exp4j.tokenizer.Tokenizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures tokenizing a polynomial with a large table of coefficients, the way generated formulas look like. The
+ * <code>parseDouble</code> benchmark parses the same literals the way the tokenizer used to, by creating a string
+ * for every literal and passing it to {@link Double#parseDouble(String)}:
+ * <pre>
+ * java -jar target/benchmarks.jar TokenizerBenchmark -prof gc
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TokenizerBenchmark {
+
+    /* short: literals like 0.125, full: the shortest representation of a random double, like 0.7308781907032909,
+       scientific: like 1.4826635279660003E-7 */
+    @Param({"short", "full", "scientific"})
+    public String literals;
+
+    @Param({"500"})
+    public int coefficients;
+
+    private final Set<String> variables = Collections.singleton("x");
+
+    private String expression;
+
+    private char[] chars;
+
+    private int[] offsets;
+
+    private int[] lengths;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(42);
+        final StringBuilder sb = new StringBuilder();
+        offsets = new int[coefficients];
+        lengths = new int[coefficients];
+        for (int i = 0; i < coefficients; i++) {
+            final String literal;
+            if (literals.equals("short")) {
+                literal = Double.toString(random.nextInt(100000) / 1000d);
+            } else if (literals.equals("full")) {
+                literal = Double.toString(random.nextDouble());
+            } else {
+                literal = Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20)).replace('E', 'e');
+            }
+            if (i > 0) {
+                sb.append('+');
+            }
+            offsets[i] = sb.length();
+            lengths[i] = literal.length();
+            sb.append(literal).append("*x^").append(i);
+        }
+        expression = sb.toString();
+        chars = expression.toCharArray();
+    }
+
+    @Benchmark
+    public int tokenize() {
+        final Tokenizer tokenizer = new Tokenizer(expression, null, null, variables);
+        int count = 0;
+        while (tokenizer.hasNext()) {
+            tokenizer.nextToken();
+            count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public double parseDouble() {
+        double sum = 0d;
+        for (int i = 0; i < offsets.length; i++) {
+            sum += Double.parseDouble(String.valueOf(chars, offsets[i], lengths[i]));
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.vector;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import net.objecthunter.exp4j.BatchBackend;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+
+/**
+ * A {@link BatchBackend} evaluating the builtin operators <code>+ - * /</code>, unary minus and plus and the builtin
+ * functions <code>abs sqrt signum</code> on the lanes of {@link DoubleVector#SPECIES_PREFERRED} vectors. These
+ * operations are exact, so the results are identical to the scalar evaluation. All other operators and functions use
+ * their own scalar batch methods: the transcendental builtins and <code>^</code> since the vectorized versions may
+ * differ in the last bit, <code>%</code> since there is no vectorized remainder, <code>floor</code> and
+ * <code>ceil</code> since the JIT already vectorizes their scalar loops and custom ones since they are unknown.
+ */
+public final class VectorBatchBackend implements BatchBackend {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private static final Operator ADDITION = Operators.getBuiltinOperator('+', 2);
+    private static final Operator SUBTRACTION = Operators.getBuiltinOperator('-', 2);
+    private static final Operator MULTIPLICATION = Operators.getBuiltinOperator('*', 2);
+    private static final Operator DIVISION = Operators.getBuiltinOperator('/', 2);
+    private static final Operator UNARY_MINUS = Operators.getBuiltinOperator('-', 1);
+    private static final Operator UNARY_PLUS = Operators.getBuiltinOperator('+', 1);
+
+    private static final Function ABS = Functions.getBuiltinFunction("abs");
+    private static final Function SQRT = Functions.getBuiltinFunction("sqrt");
+    private static final Function SIGNUM = Functions.getBuiltinFunction("signum");
+
+    @Override
+    public void apply(Operator operator, double[][] args, int offset, double[] result, int length) {
+        if (operator == ADDITION) {
+            binary(VectorOperators.ADD, args[offset], args[offset + 1], result, length);
+        } else if (operator == SUBTRACTION) {
+            binary(VectorOperators.SUB, args[offset], args[offset + 1], result, length);
+        } else if (operator == MULTIPLICATION) {
+            binary(VectorOperators.MUL, args[offset], args[offset + 1], result, length);
+        } else if (operator == DIVISION) {
+            divide(args[offset], args[offset + 1], result, length);
+        } else if (operator == UNARY_MINUS) {
+            unary(VectorOperators.NEG, args[offset], result, length);
+        } else if (operator == UNARY_PLUS) {
+            if (args[offset] != result) {
+                System.arraycopy(args[offset], 0, result, 0, length);
+            }
+        } else {
+            operator.apply(args, offset, result, length);
+        }
+    }
+
+    @Override
+    public void apply(Function function, double[][] args, int offset, double[] result, int length) {
+        if (function == ABS) {
+            unary(VectorOperators.ABS, args[offset], result, length);
+        } else if (function == SQRT) {
+            unary(VectorOperators.SQRT, args[offset], result, length);
+        } else if (function == SIGNUM) {
+            signum(args[offset], result, length);
+        } else {
+            function.apply(args, offset, result, length);
+        }
+    }
+
+    private static void unary(VectorOperators.Unary op, double[] a, double[] result, int length) {
+        for (int i = 0; i < length; i += SPECIES.length()) {
+            store(load(a, i, length).lanewise(op), result, i, length);
+        }
+    }
+
+    private static void binary(VectorOperators.Binary op, double[] a, double[] b, double[] result, int length) {
+        for (int i = 0; i < length; i += SPECIES.length()) {
+            store(load(a, i, length).lanewise(op, load(b, i, length)), result, i, length);
+        }
+    }
+
+    private static void divide(double[] a, double[] b, double[] result, int length) {
+        for (int i = 0; i < length; i += SPECIES.length()) {
+            final DoubleVector divisor = load(b, i, length);
+            VectorMask<Double> zero = divisor.eq(0d);
+            if (i + SPECIES.length() > length) {
+                zero = zero.and(SPECIES.indexInRange(i, length));
+            }
+            if (zero.anyTrue()) {
+                throw new ArithmeticException("Division by zero!");
+            }
+            store(load(a, i, length).div(divisor), result, i, length);
+        }
+    }
+
+    private static void signum(double[] a, double[] result, int length) {
+        final DoubleVector zero = DoubleVector.zero(SPECIES);
+        for (int i = 0; i < length; i += SPECIES.length()) {
+            final DoubleVector x = load(a, i, length);
+            store(zero.blend(1d, x.compare(VectorOperators.GT, 0d)).blend(-1d, x.lt(0d)), result, i, length);
+        }
+    }
+
+    /* only the last, partial vector of a chunk is accessed using a mask */
+    private static DoubleVector load(double[] a, int i, int length) {
+        if (i + SPECIES.length() <= length) {
+            return DoubleVector.fromArray(SPECIES, a, i);
+        }
+        return DoubleVector.fromArray(SPECIES, a, i, SPECIES.indexInRange(i, length));
+    }
+
+    private static void store(DoubleVector v, double[] result, int i, int length) {
+        if (i + SPECIES.length() <= length) {
+            v.intoArray(result, i);
+        } else {
+            v.intoArray(result, i, SPECIES.indexInRange(i, length));
+        }
+    }
+}
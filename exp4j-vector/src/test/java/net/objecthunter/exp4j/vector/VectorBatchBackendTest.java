@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.vector;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import net.objecthunter.exp4j.function.Function1;
+
+import org.junit.Test;
+
+public class VectorBatchBackendTest {
+
+    private static final double[] SPECIAL_VALUES = {0d, -0d, 0.5d, -0.5d, 0.49999999999999994d, -0.49999999999999994d,
+            1d, -1d, 1.5d, -1.5d, 2.5d, -2.5d, 0x1p52, -0x1p52, 0x1p52 - 0.5d, -0x1p52 + 0.5d, 0x1p53 + 2d, 1e300,
+            -1e300, Double.MIN_VALUE, -Double.MIN_VALUE, Double.MAX_VALUE, Double.POSITIVE_INFINITY,
+            Double.NEGATIVE_INFINITY, Double.NaN};
+
+    private static final String[] EXPRESSIONS = {"x + y", "x - y", "x * y", "x / y", "-x", "+x", "abs(x)", "sqrt(x)",
+            "floor(x)", "ceil(x)", "signum(x)", "floor(x / y) * ceil(-x) + abs(x - y) * signum(y)",
+            "sqrt(x^2 + y^2) - x % y", "sin(x) + log(y)"};
+
+    private static double[][] columns(int length) {
+        final double[][] columns = new double[2][length];
+        for (int i = 0; i < length; i++) {
+            columns[0][i] = i < SPECIAL_VALUES.length ? SPECIAL_VALUES[i] : (i - length / 2) * 0.37d;
+            columns[1][i] = (i % 7 + 1) * (i % 2 == 0 ? 0.75d : -1.25d);
+        }
+        return columns;
+    }
+
+    private static void assertSameResults(String expression, Expression scalar, Expression vector, int length) {
+        final double[][] columns = columns(length);
+        final double[] expected = new double[length];
+        final double[] actual = new double[length];
+        scalar.evaluateBatch(columns, expected, 0, length);
+        vector.evaluateBatch(columns, actual, 0, length);
+        for (int i = 0; i < length; i++) {
+            assertEquals(expression + " at row " + i, Double.doubleToLongBits(expected[i]),
+                    Double.doubleToLongBits(actual[i]));
+        }
+    }
+
+    @Test
+    public void testSameResultsAsScalar() throws Exception {
+        for (String expression : EXPRESSIONS) {
+            Expression scalar = new ExpressionBuilder(expression)
+                    .variables("x", "y")
+                    .build();
+            Expression vector = new ExpressionBuilder(expression)
+                    .variables("x", "y")
+                    .batchBackend(new VectorBatchBackend())
+                    .build();
+            /* full chunks and partial vectors */
+            assertSameResults(expression, scalar, vector, 1000);
+            assertSameResults(expression, scalar, vector, 3);
+        }
+    }
+
+    @Test
+    public void testCustomFunctionFallsBack() throws Exception {
+        Function1 twice = new Function1("twice") {
+            @Override
+            public double apply(double arg) {
+                return 2 * arg;
+            }
+        };
+        final double[] out = new double[5];
+        new ExpressionBuilder("twice(x) + 1")
+                .variables("x")
+                .function(twice)
+                .batchBackend(new VectorBatchBackend())
+                .build()
+                .evaluateBatch(new double[][] {{1d, 2d, 3d, 4d, 5d}}, out, 0, 5);
+        assertEquals(11d, out[4], 0d);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZero() throws Exception {
+        final double[] ys = new double[100];
+        Arrays.fill(ys, 1d);
+        ys[97] = 0d;
+        new ExpressionBuilder("x / y")
+                .variables("x", "y")
+                .batchBackend(new VectorBatchBackend())
+                .build()
+                .setVariable("x", 1d)
+                .evaluateBatch(new double[][] {null, ys}, new double[100], 0, 100);
+    }
+
+    @Test
+    public void testPartialVectorIsNotDivisionByZero() throws Exception {
+        final double[] out = new double[3];
+        new ExpressionBuilder("1 / y")
+                .variables("y")
+                .batchBackend(new VectorBatchBackend())
+                .build()
+                .evaluateBatch(new double[][] {{1d, 2d, 4d}}, out, 0, 3);
+        assertEquals(0.25d, out[2], 0d);
+    }
+}
@@ -18,6 +18,9 @@ package net.objecthunter.exp4j;
 
 import java.util.EmptyStackException;
 
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+
 /**
  * Simple double stack using a double array as data storage
  *
@@ -67,6 +70,84 @@ class ArrayStack {
         return data[idx--];
     }
 
+    /**
+     * Replace the function's arguments on top of the stack with the result of the function. The arguments are
+     * passed to the function in place, so that no argument array has to be allocated.
+     */
+    void apply(Function function) {
+        final int offset = idx + 1 - function.getNumArguments();
+        if (offset < 0) {
+            throw new EmptyStackException();
+        }
+        final double result = function.apply(data, offset);
+        idx = offset - 1;
+        push(result);
+    }
+
+    /**
+     * Replace the operator's operands on top of the stack with the result of the operation. The operands are
+     * passed to the operator in place, so that no operand array has to be allocated.
+     */
+    void apply(Operator operator) {
+        final int offset = idx + 1 - operator.getNumOperands();
+        if (offset < 0) {
+            throw new EmptyStackException();
+        }
+        final double result = operator.apply(data, offset);
+        idx = offset - 1;
+        push(result);
+    }
+
+    /**
+     * Get the value at the given index, counting from the bottom of the stack
+     */
+    double get(int index) {
+        return data[index];
+    }
+
+    /**
+     * Set the value at the given index, counting from the bottom of the stack
+     */
+    void set(int index, double value) {
+        data[index] = value;
+    }
+
+    /**
+     * Get the array holding the values of the stack. The array is replaced when the stack grows, so it must not be
+     * used after pushing values or reserving space.
+     */
+    double[] array() {
+        return data;
+    }
+
+    /**
+     * Push the given number of values, which are not initialized
+     */
+    void reserve(int count) {
+        ensureCapacity(idx + 1 + count);
+        idx += count;
+    }
+
+    /**
+     * Make sure the stack can hold the given number of values without having to grow
+     */
+    void ensureCapacity(int capacity) {
+        if (capacity > data.length) {
+            double[] temp = new double[capacity];
+            System.arraycopy(data, 0, temp, 0, idx + 1);
+            data = temp;
+        }
+    }
+
+    /**
+     * Remove values from the top of the stack until it holds the given number of values
+     */
+    void truncate(int size) {
+        if (size < idx + 1) {
+            idx = size - 1;
+        }
+    }
+
     boolean isEmpty() {
         return idx == -1;
     }
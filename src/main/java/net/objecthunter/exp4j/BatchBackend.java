@@ -0,0 +1,50 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+
+/**
+ * Applies operators and functions to chunks of rows during the batch evaluation of an expression. Backends
+ * can use specialized implementations e.g. vector instructions for the builtin operators and functions, and have to
+ * fall back to the operators' and functions' own batch methods for all others. A backend is used for an expression by
+ * passing it to {@link ExpressionBuilder#batchBackend(BatchBackend)}.
+ */
+public interface BatchBackend {
+
+    /**
+     * Apply an operator to a chunk of rows
+     * @param operator the operator
+     * @param args the arrays holding the operands: <code>args[offset + i][row]</code> is the i-th operand of a row
+     * @param offset the index of the first operand's array
+     * @param result the array to store the results in, it may be the same as one of the operands' arrays
+     * @param length the number of rows
+     * @see Operator#apply(double[][], int, double[], int)
+     */
+    void apply(Operator operator, double[][] args, int offset, double[] result, int length);
+
+    /**
+     * Apply a function to a chunk of rows
+     * @param function the function
+     * @param args the arrays holding the arguments: <code>args[offset + i][row]</code> is the i-th argument of a row
+     * @param offset the index of the first argument's array
+     * @param result the array to store the results in, it may be the same as one of the arguments' arrays
+     * @param length the number of rows
+     * @see Function#apply(double[][], int, double[], int)
+     */
+    void apply(Function function, double[][] args, int offset, double[] result, int length);
+}
@@ -0,0 +1,102 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The values of the variables of a {@link CompiledExpression}. Bindings are cheap to create via
+ * {@link CompiledExpression#bindings()} and are meant to be used by a single thread, while the expression itself can
+ * be shared.
+ */
+public final class Bindings {
+
+    private final CompiledExpression expression;
+
+    final double[] values;
+
+    final boolean[] bound;
+
+    Bindings(final CompiledExpression expression, final double[] values, final boolean[] bound) {
+        this.expression = expression;
+        this.values = values;
+        this.bound = bound;
+    }
+
+    /**
+     * Creates new bindings holding the same values as the existing ones.
+     *
+     * @param existing the bindings to copy
+     */
+    public Bindings(final Bindings existing) {
+        this(existing.expression, existing.values.clone(), existing.bound.clone());
+    }
+
+    CompiledExpression getExpression() {
+        return expression;
+    }
+
+    public Bindings setVariable(final String name, final double value) {
+        if (expression.isFoldedConstant(name)) {
+            throw new IllegalArgumentException("The value of the constant '" + name + "' has been folded into the expression. Declare it via ExpressionBuilder.variables(\"" + name + "\") to set it");
+        }
+        final Integer slot = expression.slot(name);
+        if (slot == null) {
+            /* the variable is not used in the expression, but the name still has to be valid */
+            expression.checkVariableName(name);
+            return this;
+        }
+        this.values[slot] = value;
+        this.bound[slot] = true;
+        return this;
+    }
+
+    public Bindings setVariables(final Map<String, Double> variables) {
+        for (Map.Entry<String, Double> v : variables.entrySet()) {
+            this.setVariable(v.getKey(), v.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Set the values of the variables in the order they have been declared via the {@link ExpressionBuilder}.
+     * This does neither look up the variable names nor box the values.
+     * @param values the values of the first <code>values.length</code> declared variables
+     * @return the bindings
+     */
+    public Bindings setVariables(final double[] values) {
+        final int numDeclaredVariables = expression.getNumDeclaredVariables();
+        if (values.length > numDeclaredVariables) {
+            throw new IllegalArgumentException("Unable to set " + values.length + " variables, since only " + numDeclaredVariables + " variables have been declared");
+        }
+        System.arraycopy(values, 0, this.values, 0, values.length);
+        Arrays.fill(this.bound, 0, values.length, true);
+        return this;
+    }
+
+    void setValue(final int slot, final double value) {
+        this.values[slot] = value;
+        this.bound[slot] = true;
+    }
+
+    double getValue(final int slot) {
+        if (!bound[slot]) {
+            throw new MissingVariableException(expression.variableName(slot));
+        }
+        return values[slot];
+    }
+}
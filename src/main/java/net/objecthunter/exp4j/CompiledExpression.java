@@ -0,0 +1,863 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.bytecode.BytecodeCompiler;
+import net.objecthunter.exp4j.bytecode.GeneratedExpression;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.optimizer.Simplifier;
+import net.objecthunter.exp4j.program.Interpreter;
+import net.objecthunter.exp4j.program.RegisterMachine;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.LoadToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.StoreToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EmptyStackException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The immutable part of an expression: the tokens in reverse polish notation, the slots of the variables and the
+ * generated code. The values of the variables are held by separate {@link Bindings}, so a single instance can be
+ * evaluated by any number of threads at once without copying or synchronization, as long as every thread uses its own
+ * bindings. Instances can be created via {@link ExpressionBuilder#buildCompiled()}.
+ */
+public final class CompiledExpression {
+
+    private static final String[] CONSTANT_NAMES = {"pi", "π", "φ", "e"};
+
+    private static final double[] CONSTANT_VALUES = {Math.PI, Math.PI, 1.61803398874d, Math.E};
+
+    /* the number of rows evaluated at once by the batch evaluation */
+    private static final int BATCH_SIZE = 256;
+
+    /* the number of rows evaluated by a single task of the parallel batch evaluation */
+    private static final int PARALLEL_TASK_SIZE = 64 * BATCH_SIZE;
+
+    /* the states of the tasks of the parallel batch evaluation */
+    private static final int TASK_PENDING = 0;
+    private static final int TASK_STARTED = 1;
+    private static final int TASK_CLAIMED = 2;
+
+    private static final ThreadLocal<ArrayStack> stacks = new ThreadLocal<ArrayStack>() {
+        @Override
+        protected ArrayStack initialValue() {
+            return new ArrayStack();
+        }
+    };
+
+    private final Token[] tokens;
+
+    private final int maxStackDepth;
+
+    /* the number of temporary slots used by the store and load tokens */
+    private final int numTemps;
+
+    /* the variable names in the order of their slots */
+    private final String[] variableNames;
+
+    private final Map<String, Integer> slots;
+
+    /* the number of variables declared via the ExpressionBuilder, these occupy the first slots */
+    private final int numDeclaredVariables;
+
+    /* the initial values of the bindings, i.e. the values of the constants */
+    private final double[] constantValues;
+
+    private final boolean[] constantBound;
+
+    private final Set<String> userFunctionNames;
+
+    /* the builtin constants used by the expression, which have been replaced by their values */
+    private final Set<String> foldedConstants;
+
+    private final GeneratedExpression generated;
+
+    /* the slots read by the generated code or the register machine, which check them before evaluating */
+    private final int[] usedSlots;
+
+    /* the interpreter used if there is no generated code, null if the tokens do not form a valid expression */
+    private final Interpreter interpreter;
+
+    /* the register machine used instead of the interpreter if it has been requested */
+    private final RegisterMachine registerMachine;
+
+    private final BatchBackend batchBackend;
+
+    /* notified about evaluations and validations, null if there is no listener */
+    private final EvaluationListener listener;
+
+    /* the rules applied by the simplifier when the expression was built */
+    private final List<Simplifier.Rule> simplifications;
+
+    /* whether the interpreter may raise to integral powers by multiplications */
+    private final boolean fastMath;
+
+    CompiledExpression(final Token[] tokens, String[] declaredVariables, Set<String> userFunctionNames,
+            boolean compile, BatchBackend batchBackend) {
+        this(tokens, declaredVariables, Collections.<String>emptySet(), userFunctionNames, compile, false, false,
+                batchBackend, null, Collections.<Simplifier.Rule>emptyList());
+    }
+
+    /**
+     * Create a new compiled expression
+     * @param tokens the expression in reverse polish notation
+     * @param declaredVariables the variable names declared by the user, which are assigned the first slots in the
+     *                          given order
+     * @param foldedConstants the names of the builtin constants replaced by their values in the tokens
+     * @param userFunctionNames the names of the custom functions
+     * @param compile set to true to compile the expression to bytecode
+     * @param registers set to true to evaluate the expression with a {@link RegisterMachine} if there is no bytecode
+     * @param fastMath set to true to let the {@link Interpreter} raise to integral powers by multiplications
+     * @param batchBackend the backend used by the batch evaluation or null
+     * @param listener the listener notified about evaluations and validations or null
+     * @param simplifications the rules applied by the {@link Simplifier} to the tokens
+     */
+    CompiledExpression(final Token[] tokens, String[] declaredVariables, Set<String> foldedConstants,
+            Set<String> userFunctionNames, boolean compile, boolean registers, boolean fastMath, BatchBackend batchBackend,
+            EvaluationListener listener, List<Simplifier.Rule> simplifications) {
+        /* assign a slot to every variable: first the declared ones, then the remaining ones used in the
+           expression and finally the constants */
+        final Map<String, Integer> slots = new LinkedHashMap<String, Integer>();
+        for (String name : declaredVariables) {
+            if (!slots.containsKey(name)) {
+                slots.put(name, slots.size());
+            }
+        }
+        this.numDeclaredVariables = slots.size();
+        this.tokens = new Token[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            Token t = tokens[i];
+            if (t.getType() == Token.TOKEN_VARIABLE) {
+                final String name = ((VariableToken) t).getName();
+                Integer slot = slots.get(name);
+                if (slot == null) {
+                    slot = slots.size();
+                    slots.put(name, slot);
+                }
+                t = new VariableToken(name, slot);
+            }
+            this.tokens[i] = t;
+        }
+        this.maxStackDepth = maxStackDepth(this.tokens);
+        this.numTemps = numTemps(this.tokens);
+        this.foldedConstants = new LinkedHashSet<String>();
+        for (String name : CONSTANT_NAMES) {
+            if (!slots.containsKey(name)) {
+                slots.put(name, slots.size());
+            }
+            if (foldedConstants.contains(name)) {
+                this.foldedConstants.add(name);
+            }
+        }
+        this.slots = slots;
+        this.variableNames = slots.keySet().toArray(new String[slots.size()]);
+        this.constantValues = new double[slots.size()];
+        this.constantBound = new boolean[slots.size()];
+        for (int i = 0; i < CONSTANT_NAMES.length; i++) {
+            final int slot = slots.get(CONSTANT_NAMES[i]);
+            this.constantValues[slot] = CONSTANT_VALUES[i];
+            this.constantBound[slot] = true;
+        }
+        /* copy the names, since the builder passes a view of its functions */
+        this.userFunctionNames = new HashSet<String>(userFunctionNames);
+        this.batchBackend = batchBackend;
+        this.listener = listener;
+        this.fastMath = fastMath;
+        this.simplifications = Collections.unmodifiableList(new ArrayList<Simplifier.Rule>(simplifications));
+        if (compile) {
+            /* fall back to interpreting the tokens if the expression can not be compiled */
+            this.generated = BytecodeCompiler.compile(this.tokens);
+        } else {
+            this.generated = null;
+        }
+        /* invalid expressions are left to the token interpreter, which reports what is wrong with them */
+        this.registerMachine = generated == null && registers ? RegisterMachine.compile(this.tokens) : null;
+        this.usedSlots = generated != null || registerMachine != null ? usedSlots() : null;
+        this.interpreter = generated == null && registerMachine == null
+                ? Interpreter.compile(this.tokens, true, fastMath) : null;
+    }
+
+    /**
+     * Get the builtin constants
+     * @return a new map containing the names and values of the builtin constants
+     */
+    static Map<String, Double> constants() {
+        final Map<String, Double> constants = new LinkedHashMap<String, Double>();
+        for (int i = 0; i < CONSTANT_NAMES.length; i++) {
+            constants.put(CONSTANT_NAMES[i], CONSTANT_VALUES[i]);
+        }
+        return constants;
+    }
+
+    private int[] usedSlots() {
+        final boolean[] used = new boolean[variableNames.length];
+        int count = 0;
+        for (final Token t : tokens) {
+            if (t.getType() == Token.TOKEN_VARIABLE) {
+                final int slot = ((VariableToken) t).getIndex();
+                if (!used[slot]) {
+                    used[slot] = true;
+                    count++;
+                }
+            }
+        }
+        final int[] usedSlots = new int[count];
+        count = 0;
+        for (int i = 0; i < used.length; i++) {
+            if (used[i]) {
+                usedSlots[count++] = i;
+            }
+        }
+        return usedSlots;
+    }
+
+    /**
+     * Create new bindings for this expression. Only the builtin constants are bound initially.
+     * @return the new bindings
+     */
+    public Bindings bindings() {
+        return new Bindings(this, constantValues.clone(), constantBound.clone());
+    }
+
+    /**
+     * Get the slot of a variable
+     * @param name the name of the variable
+     * @return the slot or null if the variable is neither declared nor used in the expression
+     */
+    Integer slot(final String name) {
+        return slots.get(name);
+    }
+
+    String variableName(final int slot) {
+        return variableNames[slot];
+    }
+
+    int getNumDeclaredVariables() {
+        return numDeclaredVariables;
+    }
+
+    boolean isFastMath() {
+        return fastMath;
+    }
+
+    /**
+     * Check if a builtin constant has been replaced by its value when the expression was built, so setting it has
+     * no effect
+     * @param name the name of the constant
+     * @return true if the expression used the constant and it has not been declared as a variable
+     */
+    boolean isFoldedConstant(final String name) {
+        return foldedConstants.contains(name);
+    }
+
+    Set<String> getFoldedConstants() {
+        return Collections.unmodifiableSet(foldedConstants);
+    }
+
+    void checkVariableName(String name) {
+        if (this.userFunctionNames.contains(name) || Functions.getBuiltinFunction(name) != null) {
+            throw new IllegalArgumentException("The variable name '" + name + "' is invalid. Since there exists a function with the same name");
+        }
+    }
+
+    private void checkBindings(final Bindings bindings) {
+        if (bindings.getExpression() != this) {
+            throw new IllegalArgumentException("The bindings have been created for a different expression");
+        }
+    }
+
+    /**
+     * Get the rules applied by the {@link Simplifier} when the expression was built, see
+     * {@link ExpressionBuilder#simplify(boolean)}. Expressions read by an {@link ExpressionSerializer} or from an
+     * {@link ExpressionLibrary} do not know them.
+     * @return the rules in the order they were applied, empty if the expression was not simplified
+     */
+    public List<Simplifier.Rule> getSimplifications() {
+        return simplifications;
+    }
+
+    /**
+     * Get the names of the variables used by the expression, including the builtin constants which have been
+     * replaced by their values
+     * @return the names of the variables
+     */
+    public Set<String> getVariableNames() {
+        final Set<String> variables = new HashSet<String>(foldedConstants);
+        for (final Token t: tokens) {
+            if (t.getType() == Token.TOKEN_VARIABLE)
+                variables.add(((VariableToken)t).getName());
+        }
+        return variables;
+    }
+
+    /**
+     * Validate the expression
+     * @param bindings the bindings to check for values of all variables or null to skip the check
+     * @return the result of the validation
+     */
+    public ValidationResult validate(Bindings bindings) {
+        final ValidationResult result = validateTokens(bindings);
+        if (listener != null) {
+            listener.validated(this, result);
+        }
+        return result;
+    }
+
+    private ValidationResult validateTokens(Bindings bindings) {
+        final List<String> errors = new ArrayList<String>(0);
+        if (bindings != null) {
+            checkBindings(bindings);
+            /* check that all vars have a value set */
+            for (final Token t : this.tokens) {
+                if (t.getType() == Token.TOKEN_VARIABLE) {
+                    final VariableToken var = ((VariableToken) t);
+                    if (!bindings.bound[var.getIndex()]) {
+                        errors.add("The setVariable '" + var.getName() + "' has not been set");
+                    }
+                }
+            }
+        }
+
+        /* Check if the number of operands, functions and operators match.
+           The idea is to increment a counter for operands and decrease it for operators.
+           When a function occurs the number of available arguments has to be greater
+           than or equals to the function's expected number of arguments.
+           The count has to be larger than 1 at all times and exactly 1 after all tokens
+           have been processed */
+        int count = 0;
+        for (Token tok : this.tokens) {
+            switch (tok.getType()) {
+                case Token.TOKEN_NUMBER:
+                case Token.TOKEN_VARIABLE:
+                case Token.TOKEN_LOAD:
+                    count++;
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    final Function func = ((FunctionToken) tok).getFunction();
+                    final int argsNum = func.getNumArguments(); 
+                    if (argsNum > count) {
+                        errors.add("Not enough arguments for '" + func.getName() + "'");
+                    }
+                    if (argsNum > 1) {
+                        count -= argsNum - 1;
+                    } else if (argsNum == 0) {
+                        // see https://github.com/fasseg/exp4j/issues/59
+                        count++;
+                    }
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    Operator op = ((OperatorToken) tok).getOperator();
+                    if (op.getNumOperands() == 2) {
+                        count--;
+                    }
+                    break;
+            }
+            if (count < 1) {
+                errors.add("Too many operators");
+                return new ValidationResult(false, errors);
+            }
+        }
+        if (count > 1) {
+            errors.add("Too many operands");
+        }
+        return errors.size() == 0 ? ValidationResult.SUCCESS : new ValidationResult(false, errors);
+
+    }
+
+    /**
+     * Evaluate the expression using the values of the given bindings. This method may be called by multiple threads
+     * at once, as long as the bindings are not modified during the evaluation.
+     * @param bindings the values of the variables
+     * @return the result of the evaluation
+     */
+    public double evaluate(final Bindings bindings) {
+        if (listener != null) {
+            return evaluateAndNotify(bindings);
+        }
+        return evaluateBindings(bindings);
+    }
+
+    private double evaluateAndNotify(final Bindings bindings) {
+        final long start = System.nanoTime();
+        final double result;
+        try {
+            result = evaluateBindings(bindings);
+        } catch (RuntimeException e) {
+            listener.failed(this, e);
+            throw e;
+        }
+        listener.evaluated(this, System.nanoTime() - start);
+        return result;
+    }
+
+    private double evaluateBindings(final Bindings bindings) {
+        checkBindings(bindings);
+        if (generated != null && isBound(bindings, usedSlots)) {
+            return generated.evaluate(bindings.values);
+        }
+        if (interpreter != null) {
+            return evaluateInterpreted(bindings);
+        }
+        if (registerMachine != null && isBound(bindings, usedSlots)) {
+            return evaluateRegisters(bindings);
+        }
+        /* the stack is shared by all expressions evaluated on this thread. Nested evaluations, e.g. from within a
+           custom function, simply use the part of the stack above the current one. The temporary slots are
+           located at the bottom of the expression's part of the stack */
+        final ArrayStack output = stacks.get();
+        final int temps = output.size();
+        output.ensureCapacity(temps + numTemps + maxStackDepth);
+        output.reserve(numTemps);
+        try {
+            return evaluate(bindings.values, bindings.bound, output, temps, temps + numTemps);
+        } finally {
+            output.truncate(temps);
+        }
+    }
+
+    private double evaluateInterpreted(final Bindings bindings) {
+        /* the interpreter works on the shared stack's array directly. Its whole part of the stack is reserved up
+           front, so nested evaluations use the part above it even if they replace the array */
+        final ArrayStack output = stacks.get();
+        final int base = output.size();
+        output.reserve(interpreter.getStackSize());
+        try {
+            return interpreter.evaluate(bindings.values, bindings.bound, output.array(), base);
+        } finally {
+            output.truncate(base);
+        }
+    }
+
+    private double evaluateRegisters(final Bindings bindings) {
+        /* the register file is located on the shared stack just like the interpreter's part of it */
+        final ArrayStack output = stacks.get();
+        final int base = output.size();
+        output.reserve(registerMachine.getNumRegisters());
+        try {
+            return registerMachine.evaluate(bindings.values, bindings.bound, output.array(), base);
+        } finally {
+            output.truncate(base);
+        }
+    }
+
+    private double evaluate(final double[] values, final boolean[] bound, final ArrayStack output, final int temps,
+            final int base) {
+        for (int i = 0; i < tokens.length; i++) {
+            Token t = tokens[i];
+            if (t.getType() == Token.TOKEN_NUMBER) {
+                output.push(((NumberToken) t).getValue());
+            } else if (t.getType() == Token.TOKEN_VARIABLE) {
+                final int slot = ((VariableToken) t).getIndex();
+                if (!bound[slot]) {
+                    throw new MissingVariableException(variableNames[slot]);
+                }
+                output.push(values[slot]);
+            } else if (t.getType() == Token.TOKEN_OPERATOR) {
+                final Operator operator = ((OperatorToken) t).getOperator();
+                final int numOperands = operator.getNumOperands();
+                if (output.size() - base < numOperands) {
+                    throw new IllegalArgumentException("Invalid number of operands available for '" + operator.getSymbol() + "' operator");
+                }
+                if (numOperands == 1 || numOperands == 2) {
+                    /* replace the operands with the result of the operation */
+                    output.apply(operator);
+                }
+            } else if (t.getType() == Token.TOKEN_FUNCTION) {
+                FunctionToken func = (FunctionToken) t;
+                final int numArguments = func.getFunction().getNumArguments();
+                if (output.size() - base < numArguments) {
+                    throw new IllegalArgumentException("Invalid number of arguments available for '" + func.getFunction().getName() + "' function");
+                }
+                output.apply(func.getFunction());
+            } else if (t.getType() == Token.TOKEN_STORE) {
+                output.set(temps + ((StoreToken) t).getIndex(), output.peek());
+            } else if (t.getType() == Token.TOKEN_LOAD) {
+                output.push(output.get(temps + ((LoadToken) t).getIndex()));
+            }
+        }
+        if (output.size() - base > 1) {
+            throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
+        }
+        if (output.size() == base) {
+            throw new EmptyStackException();
+        }
+        return output.pop();
+    }
+
+    /**
+     * Evaluate the expression for a batch of rows. Variables without a column use the value of the given bindings.
+     * @param bindings the values of the variables without a column
+     * @param columns the values of the variables by name, each array has to hold at least <code>out.length</code>
+     *                values
+     * @param out the array to store the result of each row in
+     * @see Expression#evaluateBatch(Map, double[])
+     */
+    public void evaluateBatch(final Bindings bindings, final Map<String, double[]> columns, final double[] out) {
+        evaluateBatch(bindings, slotColumns(columns, out.length), out, 0, out.length, BATCH_SIZE);
+    }
+
+    /**
+     * Evaluate the expression for the rows <code>from</code> to <code>to - 1</code> of the given columns, which
+     * hold the values of the variables in the order they have been declared via the {@link ExpressionBuilder}.
+     * Variables without a column use the value of the given bindings.
+     * @param bindings the values of the variables without a column
+     * @param columns the values of the first <code>columns.length</code> declared variables, a column may be null
+     * @param out the array to store the result of each row in
+     * @param from the index of the first row
+     * @param to the index after the last row
+     * @see Expression#evaluateBatch(double[][], double[], int, int)
+     */
+    public void evaluateBatch(final Bindings bindings, final double[][] columns, final double[] out, final int from,
+            final int to) {
+        evaluateBatch(bindings, slotColumns(columns, out, from, to), out, from, to, BATCH_SIZE);
+    }
+
+    /**
+     * Evaluate the expression for a batch of rows in parallel. The tasks use the values of the bindings at the time
+     * of the call, so modifying the bindings while the tasks run has no effect. If a task fails, the remaining ones
+     * are stopped and its exception is thrown once no task writes to <code>out</code> anymore, the rows not
+     * evaluated yet are left unchanged. The calling thread blocks until the tasks are done, so calling this from a
+     * thread of a bounded <code>executor</code> can deadlock when all of its threads wait for tasks queued behind
+     * them.
+     * @param bindings the values of the variables without a column
+     * @param columns the values of the variables by name, each array has to hold at least <code>out.length</code>
+     *                values
+     * @param out the array to store the result of each row in
+     * @param executor the executor running the tasks, a bounded executor must not be the one running the caller
+     * @throws InterruptedException if the current thread is interrupted while waiting for the tasks
+     * @see Expression#evaluateBatchParallel(Map, double[], ExecutorService)
+     */
+    public void evaluateBatchParallel(final Bindings bindings, final Map<String, double[]> columns,
+            final double[] out, final ExecutorService executor) throws InterruptedException {
+        evaluateInParallel(bindings, slotColumns(columns, out.length), out, 0, out.length, executor);
+    }
+
+    /**
+     * Evaluate the expression for the rows <code>from</code> to <code>to - 1</code> in parallel. The tasks use the
+     * values of the bindings at the time of the call, so modifying the bindings while the tasks run has no effect.
+     * Failures and the use of a bounded executor are handled as described for
+     * {@link #evaluateBatchParallel(Bindings, Map, double[], ExecutorService)}.
+     * @param bindings the values of the variables without a column
+     * @param columns the values of the first <code>columns.length</code> declared variables, a column may be null
+     * @param out the array to store the result of each row in
+     * @param from the index of the first row
+     * @param to the index after the last row
+     * @param executor the executor running the tasks, a bounded executor must not be the one running the caller
+     * @throws InterruptedException if the current thread is interrupted while waiting for the tasks
+     * @see Expression#evaluateBatchParallel(double[][], double[], int, int, ExecutorService)
+     */
+    public void evaluateBatchParallel(final Bindings bindings, final double[][] columns, final double[] out,
+            final int from, final int to, final ExecutorService executor) throws InterruptedException {
+        evaluateInParallel(bindings, slotColumns(columns, out, from, to), out, from, to, executor);
+    }
+
+    private void evaluateInParallel(final Bindings bindings, final double[][] columns, final double[] out,
+            final int from, final int to, final ExecutorService executor) throws InterruptedException {
+        checkBindings(bindings);
+        checkBound(bindings, columns);
+        final double[] values = bindings.values.clone();
+        final int numTasks = (to - from + PARALLEL_TASK_SIZE - 1) / PARALLEL_TASK_SIZE;
+        /* a task only runs if it is still pending when it starts, so after a failure the pending tasks are claimed
+           and only the started ones have to be waited for. These check the flag between their chunks. */
+        final AtomicIntegerArray states = new AtomicIntegerArray(numTasks);
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final CountDownLatch finished = new CountDownLatch(numTasks);
+        final List<Future<?>> tasks = new ArrayList<Future<?>>(numTasks);
+        boolean completed = false;
+        try {
+            for (int i = 0; i < numTasks; i++) {
+                final int task = i;
+                final int taskFrom = from + i * PARALLEL_TASK_SIZE;
+                final int taskTo = Math.min(to, taskFrom + PARALLEL_TASK_SIZE);
+                tasks.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!states.compareAndSet(task, TASK_PENDING, TASK_STARTED)) {
+                            return;
+                        }
+                        try {
+                            evaluateChunks(columns, values, out, taskFrom, taskTo, BATCH_SIZE, stopped);
+                        } finally {
+                            finished.countDown();
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> task : tasks) {
+                task.get();
+            }
+            completed = true;
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            if (!completed) {
+                /* stop the remaining tasks and wait until none of them writes to out anymore */
+                stopped.set(true);
+                for (int i = 0; i < numTasks; i++) {
+                    if (states.compareAndSet(i, TASK_PENDING, TASK_CLAIMED)) {
+                        finished.countDown();
+                        if (i < tasks.size()) {
+                            tasks.get(i).cancel(false);
+                        }
+                    }
+                }
+                awaitUninterruptibly(finished);
+            }
+        }
+    }
+
+    private static void awaitUninterruptibly(final CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* map the columns passed by name onto the slots */
+    private double[][] slotColumns(final Map<String, double[]> columns, final int length) {
+        final double[][] slotColumns = new double[variableNames.length][];
+        for (Map.Entry<String, double[]> column : columns.entrySet()) {
+            final Integer slot = this.slots.get(column.getKey());
+            if (slot == null) {
+                /* the variable is not used in the expression, but the name still has to be valid */
+                this.checkVariableName(column.getKey());
+                continue;
+            }
+            checkColumnLength(column.getKey(), column.getValue(), length);
+            slotColumns[slot] = column.getValue();
+        }
+        return slotColumns;
+    }
+
+    /* map the columns passed in declaration order onto the slots */
+    private double[][] slotColumns(final double[][] columns, final double[] out, final int from, final int to) {
+        if (columns.length > numDeclaredVariables) {
+            throw new IllegalArgumentException("Unable to use " + columns.length + " columns, since only " + numDeclaredVariables + " variables have been declared");
+        }
+        if (from < 0 || from > to || to > out.length) {
+            throw new IndexOutOfBoundsException("Invalid range of rows [" + from + ", " + to + ") for " + out.length + " results");
+        }
+        final double[][] slotColumns = new double[variableNames.length][];
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] != null) {
+                checkColumnLength(variableNames[i], columns[i], to);
+                slotColumns[i] = columns[i];
+            }
+        }
+        return slotColumns;
+    }
+
+    private static void checkColumnLength(final String name, final double[] column, final int length) {
+        if (column.length < length) {
+            throw new IllegalArgumentException("The column of the variable '" + name + "' holds less than " + length + " values");
+        }
+    }
+
+    /**
+     * Evaluate a batch of rows in chunks of the given size
+     * @param columns the columns indexed by slot, null for the variables using their bound value
+     */
+    void evaluateBatch(final Bindings bindings, final double[][] columns, final double[] out, final int from,
+            final int to, final int chunkSize) {
+        checkBindings(bindings);
+        checkBound(bindings, columns);
+        evaluateChunks(columns, bindings.values, out, from, to, chunkSize, null);
+    }
+
+    /* check that every variable has either a column or a value */
+    private void checkBound(final Bindings bindings, final double[][] columns) {
+        for (final Token t : tokens) {
+            if (t.getType() == Token.TOKEN_VARIABLE) {
+                final int slot = ((VariableToken) t).getIndex();
+                if (columns[slot] == null && !bindings.bound[slot]) {
+                    throw new MissingVariableException(variableNames[slot]);
+                }
+            }
+        }
+    }
+
+    /* evaluate the rows in chunks, stopping before the next chunk once the flag is set if there is one */
+    private void evaluateChunks(final double[][] columns, final double[] values, final double[] out, final int from,
+            final int to, final int chunkSize, final AtomicBoolean stopped) {
+        final int size = Math.min(chunkSize, to - from);
+        final double[][] temps = new double[numTemps][size];
+        final double[][] stack = new double[maxStackDepth][size];
+        for (int start = from; start < to && (stopped == null || !stopped.get()); start += size) {
+            final int length = Math.min(size, to - start);
+            int depth = 0;
+            for (final Token t : tokens) {
+                switch (t.getType()) {
+                    case Token.TOKEN_NUMBER:
+                        Arrays.fill(stack[depth++], 0, length, ((NumberToken) t).getValue());
+                        break;
+                    case Token.TOKEN_VARIABLE:
+                        final int slot = ((VariableToken) t).getIndex();
+                        if (columns[slot] != null) {
+                            System.arraycopy(columns[slot], start, stack[depth++], 0, length);
+                        } else {
+                            Arrays.fill(stack[depth++], 0, length, values[slot]);
+                        }
+                        break;
+                    case Token.TOKEN_OPERATOR:
+                        final Operator operator = ((OperatorToken) t).getOperator();
+                        final int numOperands = operator.getNumOperands();
+                        if (depth < numOperands) {
+                            throw new IllegalArgumentException("Invalid number of operands available for '" + operator.getSymbol() + "' operator");
+                        }
+                        if (numOperands == 1 || numOperands == 2) {
+                            depth -= numOperands;
+                            if (batchBackend != null) {
+                                batchBackend.apply(operator, stack, depth, stack[depth], length);
+                            } else {
+                                operator.apply(stack, depth, stack[depth], length);
+                            }
+                            depth++;
+                        }
+                        break;
+                    case Token.TOKEN_FUNCTION:
+                        final Function function = ((FunctionToken) t).getFunction();
+                        final int numArguments = function.getNumArguments();
+                        if (depth < numArguments) {
+                            throw new IllegalArgumentException("Invalid number of arguments available for '" + function.getName() + "' function");
+                        }
+                        depth -= numArguments;
+                        if (batchBackend != null) {
+                            batchBackend.apply(function, stack, depth, stack[depth], length);
+                        } else {
+                            function.apply(stack, depth, stack[depth], length);
+                        }
+                        depth++;
+                        break;
+                    case Token.TOKEN_STORE:
+                        System.arraycopy(stack[depth - 1], 0, temps[((StoreToken) t).getIndex()], 0, length);
+                        break;
+                    case Token.TOKEN_LOAD:
+                        System.arraycopy(temps[((LoadToken) t).getIndex()], 0, stack[depth++], 0, length);
+                        break;
+                }
+            }
+            if (depth > 1) {
+                throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
+            }
+            if (depth == 0) {
+                throw new EmptyStackException();
+            }
+            System.arraycopy(stack[0], 0, out, start, length);
+        }
+    }
+
+    /**
+     * Get the maximum number of values on the operand stack while evaluating the expression
+     * @return the maximum stack depth
+     */
+    int getMaxStackDepth() {
+        return maxStackDepth;
+    }
+
+    /**
+     * Get the tokens in reverse polish notation, which must not be modified
+     * @return the tokens
+     */
+    Token[] getTokens() {
+        return tokens;
+    }
+
+    private static int maxStackDepth(final Token[] tokens) {
+        int depth = 0;
+        int max = 0;
+        for (final Token t : tokens) {
+            switch (t.getType()) {
+                case Token.TOKEN_NUMBER:
+                case Token.TOKEN_VARIABLE:
+                case Token.TOKEN_LOAD:
+                    depth++;
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    final int numOperands = ((OperatorToken) t).getOperator().getNumOperands();
+                    if (numOperands == 1 || numOperands == 2) {
+                        depth -= numOperands - 1;
+                    }
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    depth -= ((FunctionToken) t).getFunction().getNumArguments() - 1;
+                    break;
+            }
+            if (depth > max) {
+                max = depth;
+            }
+        }
+        return max;
+    }
+
+    private static int numTemps(final Token[] tokens) {
+        int count = 0;
+        for (final Token t : tokens) {
+            if (t.getType() == Token.TOKEN_STORE) {
+                count = Math.max(count, ((StoreToken) t).getIndex() + 1);
+            }
+        }
+        return count;
+    }
+
+    /*
+     * Check up front whether the variables read by the generated code or the register machine are set. If one of
+     * them is not, the tokens are evaluated instead, so every backend throws the same exception as the interpreter: the
+     * first one raised in the order of evaluation, be it a missing variable or e.g. a division by zero before it.
+     */
+    private static boolean isBound(final Bindings bindings, final int[] slots) {
+        for (final int slot : slots) {
+            if (!bindings.bound[slot]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
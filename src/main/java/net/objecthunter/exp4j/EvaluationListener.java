@@ -0,0 +1,57 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j;
+
+/**
+ * Receives events about building, evaluating and validating expressions, e.g. to export them to a metrics system.
+ * A listener is added via {@link ExpressionBuilder#listener(EvaluationListener)} and is called by all the threads
+ * using the expressions built, so implementations have to be thread safe and should return quickly. Expressions
+ * built without a listener do not report any events. {@link ExpressionMetrics} is a ready to use implementation.
+ */
+public interface EvaluationListener {
+
+    /**
+     * Called after an expression has been parsed and compiled. Expressions taken from an {@link ExpressionCache}
+     * are not reported again.
+     * @param expression the text of the expression
+     * @param compiled the compiled expression
+     * @param numTokens the number of tokens of the expression in reverse polish notation
+     * @param nanos the time it took to build the expression in nanoseconds
+     */
+    void built(String expression, CompiledExpression compiled, int numTokens, long nanos);
+
+    /**
+     * Called after an expression has been evaluated successfully
+     * @param expression the expression
+     * @param nanos the time the evaluation took in nanoseconds
+     */
+    void evaluated(CompiledExpression expression, long nanos);
+
+    /**
+     * Called when the evaluation of an expression throws an exception, before it is passed on to the caller
+     * @param expression the expression
+     * @param e the exception, e.g. an {@link ArithmeticException} on a division by zero or a
+     *          {@link MissingVariableException}
+     */
+    void failed(CompiledExpression expression, RuntimeException e);
+
+    /**
+     * Called after an expression has been validated
+     * @param expression the expression
+     * @param result the result of the validation
+     */
+    void validated(CompiledExpression expression, ValidationResult result);
+}
@@ -15,214 +15,212 @@
  */
 package net.objecthunter.exp4j;
 
-import net.objecthunter.exp4j.function.Function;
-import net.objecthunter.exp4j.function.Functions;
-import net.objecthunter.exp4j.operator.Operator;
-import net.objecthunter.exp4j.tokenizer.FunctionToken;
-import net.objecthunter.exp4j.tokenizer.NumberToken;
-import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.optimizer.Simplifier;
 import net.objecthunter.exp4j.tokenizer.Token;
-import net.objecthunter.exp4j.tokenizer.VariableToken;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
+/**
+ * An expression together with the values of its variables. The expression itself is a {@link CompiledExpression},
+ * which is shared by all copies of this expression, while every copy holds its own {@link Bindings}.
+ */
 public class Expression {
 
-    private final Token[] tokens;
-
-    private final Map<String, Double> variables;
+    private final CompiledExpression program;
 
-    private final Set<String> userFunctionNames;
+    private final Bindings bindings;
 
-    private static Map<String, Double> createDefaultVariables() {
-        final Map<String, Double> vars = new HashMap<String, Double>(4);
-        vars.put("pi", Math.PI);
-        vars.put("π", Math.PI);
-        vars.put("φ", 1.61803398874d);
-        vars.put("e", Math.E);
-        return vars;
-    }
-    
     /**
-     * Creates a new expression that is a copy of the existing one.
+     * Creates a new expression that is a copy of the existing one. The copy shares the immutable
+     * {@link CompiledExpression} with the existing expression and only copies the values of the variables.
      * 
      * @param existing the expression to copy
      */
     public Expression(final Expression existing) {
-    	this.tokens = Arrays.copyOf(existing.tokens, existing.tokens.length);
-    	this.variables = new HashMap<String,Double>();
-    	this.variables.putAll(existing.variables);
-    	this.userFunctionNames = new HashSet<String>(existing.userFunctionNames);
+    	this.program = existing.program;
+    	this.bindings = new Bindings(existing.bindings);
     }
 
     Expression(final Token[] tokens) {
-        this.tokens = tokens;
-        this.variables = createDefaultVariables();
-        this.userFunctionNames = Collections.<String>emptySet();
+        this(tokens, Collections.<String>emptySet());
     }
 
     Expression(final Token[] tokens, Set<String> userFunctionNames) {
-        this.tokens = tokens;
-        this.variables = createDefaultVariables();
-        this.userFunctionNames = userFunctionNames;
+        this(new CompiledExpression(tokens, new String[0], userFunctionNames, false, null));
+    }
+
+    Expression(final CompiledExpression program) {
+        this.program = program;
+        this.bindings = program.bindings();
     }
 
     public Expression setVariable(final String name, final double value) {
-        this.checkVariableName(name);
-        this.variables.put(name, Double.valueOf(value));
+        this.bindings.setVariable(name, value);
         return this;
     }
 
-    private void checkVariableName(String name) {
-        if (this.userFunctionNames.contains(name) || Functions.getBuiltinFunction(name) != null) {
-            throw new IllegalArgumentException("The variable name '" + name + "' is invalid. Since there exists a function with the same name");
-        }
+    public Expression setVariables(Map<String, Double> variables) {
+        this.bindings.setVariables(variables);
+        return this;
     }
 
-    public Expression setVariables(Map<String, Double> variables) {
-        for (Map.Entry<String, Double> v : variables.entrySet()) {
-            this.setVariable(v.getKey(), v.getValue());
-        }
+    /**
+     * Set the values of the variables in the order they have been declared via the {@link ExpressionBuilder}.
+     * This does neither look up the variable names nor box the values.
+     * @param values the values of the first <code>values.length</code> declared variables
+     * @return the expression
+     */
+    public Expression setVariables(double[] values) {
+        this.bindings.setVariables(values);
         return this;
     }
 
-    public Set<String> getVariableNames() {
-        final Set<String> variables = new HashSet<String>();
-        for (final Token t: tokens) {
-            if (t.getType() == Token.TOKEN_VARIABLE)
-                variables.add(((VariableToken)t).getName());
+    /**
+     * Get a handle for a variable which can be used to set the variable's value without looking up its name.
+     * The handle is only valid for this expression and not for copies of it.
+     * @param name the name of the variable
+     * @return the handle for the variable
+     */
+    public VariableHandle handle(final String name) {
+        final Integer slot = this.program.slot(name);
+        if (slot == null || this.program.isFoldedConstant(name)) {
+            throw new IllegalArgumentException("The variable '" + name + "' has not been declared");
         }
-        return variables;
+        return new VariableHandle(this, name, slot);
     }
 
-    public ValidationResult validate(boolean checkVariablesSet) {
-        final List<String> errors = new ArrayList<String>(0);
-        if (checkVariablesSet) {
-            /* check that all vars have a value set */
-            for (final Token t : this.tokens) {
-                if (t.getType() == Token.TOKEN_VARIABLE) {
-                    final String var = ((VariableToken) t).getName();
-                    if (!variables.containsKey(var)) {
-                        errors.add("The setVariable '" + var + "' has not been set");
-                    }
-                }
-            }
-        }
+    void setValue(final int slot, final double value) {
+        this.bindings.setValue(slot, value);
+    }
 
-        /* Check if the number of operands, functions and operators match.
-           The idea is to increment a counter for operands and decrease it for operators.
-           When a function occurs the number of available arguments has to be greater
-           than or equals to the function's expected number of arguments.
-           The count has to be larger than 1 at all times and exactly 1 after all tokens
-           have been processed */
-        int count = 0;
-        for (Token tok : this.tokens) {
-            switch (tok.getType()) {
-                case Token.TOKEN_NUMBER:
-                case Token.TOKEN_VARIABLE:
-                    count++;
-                    break;
-                case Token.TOKEN_FUNCTION:
-                    final Function func = ((FunctionToken) tok).getFunction();
-                    final int argsNum = func.getNumArguments(); 
-                    if (argsNum > count) {
-                        errors.add("Not enough arguments for '" + func.getName() + "'");
-                    }
-                    if (argsNum > 1) {
-                        count -= argsNum - 1;
-                    } else if (argsNum == 0) {
-                        // see https://github.com/fasseg/exp4j/issues/59
-                        count++;
-                    }
-                    break;
-                case Token.TOKEN_OPERATOR:
-                    Operator op = ((OperatorToken) tok).getOperator();
-                    if (op.getNumOperands() == 2) {
-                        count--;
-                    }
-                    break;
-            }
-            if (count < 1) {
-                errors.add("Too many operators");
-                return new ValidationResult(false, errors);
-            }
-        }
-        if (count > 1) {
-            errors.add("Too many operands");
-        }
-        return errors.size() == 0 ? ValidationResult.SUCCESS : new ValidationResult(false, errors);
+    double getValue(final int slot) {
+        return this.bindings.getValue(slot);
+    }
 
+    public Set<String> getVariableNames() {
+        return program.getVariableNames();
+    }
+
+    /**
+     * Get the rules applied by the simplifier when the expression was built
+     * @return the rules in the order they were applied, empty if the expression was not simplified
+     * @see CompiledExpression#getSimplifications()
+     */
+    public List<Simplifier.Rule> getSimplifications() {
+        return program.getSimplifications();
+    }
+
+    public ValidationResult validate(boolean checkVariablesSet) {
+        return program.validate(checkVariablesSet ? bindings : null);
     }
 
     public ValidationResult validate() {
         return validate(true);
     }
 
+    /**
+     * Evaluate the expression asynchronously. The task evaluates a copy of the expression holding the values of the
+     * variables at the time of the call, so the variables can be changed while the task runs.
+     * @param executor the executor running the task
+     * @return the future result of the evaluation
+     */
     public Future<Double> evaluateAsync(ExecutorService executor) {
+        final Expression snapshot = new Expression(this);
         return executor.submit(new Callable<Double>() {
             @Override
             public Double call() throws Exception {
-                return evaluate();
+                return snapshot.evaluate();
             }
         });
     }
 
     public double evaluate() {
-        final ArrayStack output = new ArrayStack();
-        for (int i = 0; i < tokens.length; i++) {
-            Token t = tokens[i];
-            if (t.getType() == Token.TOKEN_NUMBER) {
-                output.push(((NumberToken) t).getValue());
-            } else if (t.getType() == Token.TOKEN_VARIABLE) {
-                final String name = ((VariableToken) t).getName();
-                final Double value = this.variables.get(name);
-                if (value == null) {
-                    throw new IllegalArgumentException("No value has been set for the setVariable '" + name + "'.");
-                }
-                output.push(value);
-            } else if (t.getType() == Token.TOKEN_OPERATOR) {
-                OperatorToken op = (OperatorToken) t;
-                if (output.size() < op.getOperator().getNumOperands()) {
-                    throw new IllegalArgumentException("Invalid number of operands available for '" + op.getOperator().getSymbol() + "' operator");
-                }
-                if (op.getOperator().getNumOperands() == 2) {
-                    /* pop the operands and push the result of the operation */
-                    double rightArg = output.pop();
-                    double leftArg = output.pop();
-                    output.push(op.getOperator().apply(leftArg, rightArg));
-                } else if (op.getOperator().getNumOperands() == 1) {
-                    /* pop the operand and push the result of the operation */
-                    double arg = output.pop();
-                    output.push(op.getOperator().apply(arg));
-                }
-            } else if (t.getType() == Token.TOKEN_FUNCTION) {
-                FunctionToken func = (FunctionToken) t;
-                final int numArguments = func.getFunction().getNumArguments();
-                if (output.size() < numArguments) {
-                    throw new IllegalArgumentException("Invalid number of arguments available for '" + func.getFunction().getName() + "' function");
-                }
-                /* collect the arguments from the stack */
-                Double[] args = new Double[numArguments];
-                for (int j = numArguments - 1; j >= 0; j--) {
-                    args[j] = output.pop();
-                }
-                output.push(func.getFunction().apply(args));
-            }
-        }
-        if (output.size() > 1) {
-            throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
-        }
-        return output.pop();
+        return program.evaluate(bindings);
+    }
+
+    /**
+     * Evaluate the expression for a batch of rows. Every token is applied to a chunk of rows at once, so the cost of
+     * interpreting the expression is shared by all the rows of a chunk. Variables without a column use the value
+     * set via {@link #setVariable(String, double)}.
+     * @param columns the values of the variables by name, each array has to hold at least <code>out.length</code>
+     *                values
+     * @param out the array to store the result of each row in
+     */
+    public void evaluateBatch(final Map<String, double[]> columns, final double[] out) {
+        program.evaluateBatch(bindings, columns, out);
+    }
+
+    /**
+     * Evaluate the expression for the rows <code>from</code> to <code>to - 1</code> of the given columns, which
+     * hold the values of the variables in the order they have been declared via the {@link ExpressionBuilder}.
+     * Every token is applied to a chunk of rows at once, so the cost of interpreting the expression is shared by all
+     * the rows of a chunk. Variables without a column use the value set via {@link #setVariable(String, double)}.
+     * @param columns the values of the first <code>columns.length</code> declared variables, a column may be null
+     * @param out the array to store the result of each row in
+     * @param from the index of the first row
+     * @param to the index after the last row
+     */
+    public void evaluateBatch(final double[][] columns, final double[] out, final int from, final int to) {
+        program.evaluateBatch(bindings, columns, out, from, to);
+    }
+
+    /**
+     * Evaluate the expression for a batch of rows in parallel. The rows are split into ranges, which are evaluated
+     * by the executor's threads using {@link #evaluateBatch(Map, double[])}. The tasks use the values of the
+     * variables without a column at the time of the call, so setting variables while the tasks run has no effect.
+     * If a task fails, the remaining ones are stopped and its exception is thrown once no task writes to
+     * <code>out</code> anymore. The calling thread blocks until the tasks are done, so calling this from a thread of
+     * a bounded <code>executor</code> can deadlock.
+     * @param columns the values of the variables by name, each array has to hold at least <code>out.length</code>
+     *                values
+     * @param out the array to store the result of each row in
+     * @param executor the executor running the tasks, a bounded executor must not be the one running the caller
+     * @throws InterruptedException if the current thread is interrupted while waiting for the tasks
+     */
+    public void evaluateBatchParallel(final Map<String, double[]> columns, final double[] out,
+            final ExecutorService executor) throws InterruptedException {
+        program.evaluateBatchParallel(bindings, columns, out, executor);
+    }
+
+    /**
+     * Evaluate the expression for the rows <code>from</code> to <code>to - 1</code> in parallel. The rows are split
+     * into ranges, which are evaluated by the executor's threads using
+     * {@link #evaluateBatch(double[][], double[], int, int)}. The tasks use the values of the variables without a
+     * column at the time of the call, so setting variables while the tasks run has no effect. Failures and the use
+     * of a bounded executor are handled as described for
+     * {@link #evaluateBatchParallel(Map, double[], ExecutorService)}.
+     * @param columns the values of the first <code>columns.length</code> declared variables, a column may be null
+     * @param out the array to store the result of each row in
+     * @param from the index of the first row
+     * @param to the index after the last row
+     * @param executor the executor running the tasks, a bounded executor must not be the one running the caller
+     * @throws InterruptedException if the current thread is interrupted while waiting for the tasks
+     */
+    public void evaluateBatchParallel(final double[][] columns, final double[] out, final int from, final int to,
+            final ExecutorService executor) throws InterruptedException {
+        program.evaluateBatchParallel(bindings, columns, out, from, to, executor);
+    }
+
+    /**
+     * Evaluate a batch of rows in chunks of the given size
+     * @param columns the columns indexed by slot, null for the variables using their bound value
+     */
+    void evaluateBatch(final double[][] columns, final double[] out, final int from, final int to,
+            final int chunkSize) {
+        program.evaluateBatch(bindings, columns, out, from, to, chunkSize);
+    }
+
+    /**
+     * Get the maximum number of values on the operand stack while evaluating the expression
+     * @return the maximum stack depth
+     */
+    int getMaxStackDepth() {
+        return program.getMaxStackDepth();
     }
 }
@@ -21,7 +21,11 @@ import java.util.*;
 import net.objecthunter.exp4j.function.Function;
 import net.objecthunter.exp4j.function.Functions;
 import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.optimizer.CommonSubexpressionEliminator;
+import net.objecthunter.exp4j.optimizer.ConstantFolder;
+import net.objecthunter.exp4j.optimizer.Simplifier;
 import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.Token;
 
 /**
  * Factory class for {@link Expression} instances. This class is the main API entrypoint. Users should create new
@@ -39,6 +43,20 @@ public class ExpressionBuilder {
 
     private boolean implicitMultiplication = true;
 
+    private boolean compiled = false;
+
+    private boolean registerMachine = false;
+
+    private boolean simplify = false;
+
+    private boolean fastMath = false;
+
+    private BatchBackend batchBackend;
+
+    private ExpressionCache cache;
+
+    private EvaluationListener listener;
+
     /**
      * Create a new ExpressionBuilder instance and initialize it with a given expression string.
      * @param expression the expression to be parsed
@@ -50,7 +68,7 @@ public class ExpressionBuilder {
         this.expression = expression;
         this.userOperators = new HashMap<String, Operator>(4);
         this.userFunctions = new HashMap<String, Function>(4);
-        this.variableNames = new HashSet<String>(4);
+        this.variableNames = new LinkedHashSet<String>(4);
     }
 
     /**
@@ -122,6 +140,93 @@ public class ExpressionBuilder {
         return this;
     }
 
+    /**
+     * Compile the expression to java bytecode when building it. The builtin operators and functions of a compiled
+     * expression are evaluated without any dispatch overhead, which pays off for expressions that are evaluated
+     * many times. If the expression can not be compiled in the current environment it is interpreted as usual.
+     * @param enabled set to true to compile the expression
+     * @return the ExpressionBuilder instance
+     */
+    public ExpressionBuilder compiled(boolean enabled) {
+        this.compiled = enabled;
+        return this;
+    }
+
+    /**
+     * Evaluate the expression with a {@link net.objecthunter.exp4j.program.RegisterMachine} instead of the stack
+     * based interpreter if it is not compiled to bytecode. The register machine executes about half as many
+     * instructions and pays off especially for large expressions of arithmetic operators.
+     * @param enabled set to true to use the register machine
+     * @return the ExpressionBuilder instance
+     */
+    public ExpressionBuilder registerMachine(boolean enabled) {
+        this.registerMachine = enabled;
+        return this;
+    }
+
+    /**
+     * Simplify the expression when building it by removing the operations which do not change the result, e.g.
+     * <code>x * 1</code>, <code>x - 0</code>, <code>+x</code> or <code>-(-x)</code>. The result is bit for bit the
+     * same as without the simplification. The applied rules are reported by
+     * {@link CompiledExpression#getSimplifications()}.
+     * @param enabled set to true to simplify the expression
+     * @return the ExpressionBuilder instance
+     * @see Simplifier
+     */
+    public ExpressionBuilder simplify(boolean enabled) {
+        this.simplify = enabled;
+        return this;
+    }
+
+    /**
+     * Simplify the expression with identities which may change the result as well, e.g. <code>x + 0 = x</code>
+     * although <code>-0 + 0</code> is <code>0</code> or <code>x * 0 = 0</code> although x might be NaN or infinite.
+     * The dropped operands are not evaluated anymore, so e.g. a missing variable in them is not reported. Implies
+     * {@link #simplify(boolean)}. The interpreter also raises to small integral powers, e.g. <code>x^3</code>,
+     * <code>x^-1</code> or <code>x^n</code> with an integral value of n, by multiplications instead of
+     * {@link Math#pow(double, double)}, which may change the last bits of the result.
+     * @param enabled set to true to apply the identities which may change the result
+     * @return the ExpressionBuilder instance
+     */
+    public ExpressionBuilder fastMath(boolean enabled) {
+        this.fastMath = enabled;
+        return this;
+    }
+
+    /**
+     * Set the backend applying the operators and functions in {@link Expression#evaluateBatch(double[][], double[],
+     * int, int)}, e.g. the vectorized backend of the exp4j-vector module
+     * @param backend the backend to use or null to use the operators' and functions' batch methods directly
+     * @return the ExpressionBuilder instance
+     */
+    public ExpressionBuilder batchBackend(BatchBackend backend) {
+        this.batchBackend = backend;
+        return this;
+    }
+
+    /**
+     * Look up the expression in the given cache when building it and add it to the cache if it is missing. The
+     * expression is looked up by its text, the declared variables, the custom functions and operators and the
+     * settings of this builder.
+     * @param cache the cache to use or null to always build the expression
+     * @return the ExpressionBuilder instance
+     */
+    public ExpressionBuilder cache(ExpressionCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * Notify the given listener about building the expression and about every evaluation and validation of it. The
+     * evaluation is not measured if there is no listener.
+     * @param listener the listener, e.g. an {@link ExpressionMetrics} instance, or null for none
+     * @return the ExpressionBuilder instance
+     */
+    public ExpressionBuilder listener(EvaluationListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
     /**
      * Add an {@link net.objecthunter.exp4j.operator.Operator} which should be available for use in the expression
      * @param operator the custom {@link net.objecthunter.exp4j.operator.Operator} to add
@@ -171,10 +276,36 @@ public class ExpressionBuilder {
      * @return an {@link Expression} instance which can be used to evaluate the result of the expression
      */
     public Expression build() {
+        return new Expression(buildCompiled());
+    }
+
+    /**
+     * Build an immutable {@link CompiledExpression} using the custom operators and functions set. The compiled
+     * expression can be shared by multiple threads, which evaluate it using their own {@link Bindings}.
+     * @return a {@link CompiledExpression} instance which can be used to evaluate the result of the expression
+     */
+    public CompiledExpression buildCompiled() {
+        if (cache == null) {
+            return compile();
+        }
+        final ExpressionCache.Key key = new ExpressionCache.Key(this.expression, this.variableNames,
+                this.userFunctions, this.userOperators, this.implicitMultiplication, this.compiled, this.registerMachine,
+                this.simplify, this.fastMath, this.batchBackend, this.listener);
+        final CompiledExpression cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        return cache.put(key, compile());
+    }
+
+    private CompiledExpression compile() {
+        final long start = listener != null ? System.nanoTime() : 0L;
         if (expression.length() == 0) {
             throw new IllegalArgumentException("The expression can not be empty");
         }
+        final String[] declaredVariables = variableNames.toArray(new String[variableNames.size()]);
         /* set the contants' varibale names */
+        final Set<String> variableNames = new LinkedHashSet<String>(this.variableNames);
         variableNames.add("pi");
         variableNames.add("π");
         variableNames.add("e");
@@ -185,8 +316,29 @@ public class ExpressionBuilder {
                 throw new IllegalArgumentException("A variable can not have the same name as a function [" + var + "]");
             }
         }
-        return new Expression(ShuntingYard.convertToRPN(this.expression, this.userFunctions, this.userOperators,
-                this.variableNames, this.implicitMultiplication), this.userFunctions.keySet());
+        /* fold the constant subtrees, simplify and share the common subexpressions. Declared variables shadow the
+           constants and are never folded */
+        final Map<String, Double> constants = CompiledExpression.constants();
+        constants.keySet().removeAll(this.variableNames);
+        final Set<String> foldedConstants = new HashSet<String>();
+        Token[] tokens = ConstantFolder.fold(ShuntingYard.compile(this.expression, this.userFunctions,
+                this.userOperators, variableNames, this.implicitMultiplication), constants, foldedConstants);
+        final List<Simplifier.Rule> simplifications = new ArrayList<Simplifier.Rule>();
+        if (this.simplify || this.fastMath) {
+            tokens = Simplifier.simplify(tokens, this.fastMath, simplifications);
+            if (!simplifications.isEmpty()) {
+                /* e.g. (x - x) * 2 has become 0 * 2 */
+                tokens = ConstantFolder.fold(tokens, constants);
+            }
+        }
+        tokens = CommonSubexpressionEliminator.eliminate(tokens);
+        final CompiledExpression result = new CompiledExpression(tokens, declaredVariables, foldedConstants,
+                this.userFunctions.keySet(), this.compiled, this.registerMachine, this.fastMath, this.batchBackend,
+                this.listener, simplifications);
+        if (listener != null) {
+            listener.built(this.expression, result, tokens.length, System.nanoTime() - start);
+        }
+        return result;
     }
 
 }
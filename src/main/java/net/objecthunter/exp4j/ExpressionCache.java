@@ -0,0 +1,308 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size bounded cache of {@link CompiledExpression}s, which can be shared by multiple {@link ExpressionBuilder}s
+ * via {@link ExpressionBuilder#cache(ExpressionCache)}. An expression is looked up by its text, the declared
+ * variables, the identity of the custom functions and operators and the builder's flags, so a hit skips tokenizing,
+ * parsing and optimizing the expression completely.
+ * <p>
+ * The cache is split into segments, each of which evicts its least recently used expression once it is full.
+ * Lookups in different segments do not block each other.
+ */
+public final class ExpressionCache {
+
+    /* the minimum number of entries per segment */
+    private static final int MIN_SEGMENT_SIZE = 16;
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private final int maxSize;
+
+    private final Segment[] segments;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Create a new cache
+     * @param maxSize the maximum number of expressions held by the cache
+     */
+    public ExpressionCache(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("The size of the cache has to be positive");
+        }
+        this.maxSize = maxSize;
+        int numSegments = 1;
+        while (numSegments < MAX_SEGMENTS && numSegments * 2 * MIN_SEGMENT_SIZE <= maxSize) {
+            numSegments *= 2;
+        }
+        this.segments = new Segment[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            /* distribute the remainder, so that the capacities add up to the maximum size */
+            segments[i] = new Segment(maxSize / numSegments + (i < maxSize % numSegments ? 1 : 0));
+        }
+    }
+
+    /**
+     * Get a cached expression
+     * @param key the key of the expression
+     * @return the expression or null if it is not cached
+     */
+    CompiledExpression get(final Key key) {
+        final Segment segment = segmentFor(key);
+        final CompiledExpression expression;
+        synchronized (segment) {
+            expression = segment.get(key);
+        }
+        if (expression == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return expression;
+    }
+
+    /**
+     * Add an expression to the cache unless another thread has added one for the same key in the meantime
+     * @param key the key of the expression
+     * @param expression the expression
+     * @return the expression held by the cache
+     */
+    CompiledExpression put(final Key key, final CompiledExpression expression) {
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            final CompiledExpression existing = segment.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            segment.put(key, expression);
+            return expression;
+        }
+    }
+
+    private Segment segmentFor(final Key key) {
+        final int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+    }
+
+    /**
+     * Remove all expressions from the cache. The statistics are not reset.
+     */
+    public void clear() {
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Get the number of expressions held by the cache
+     * @return the number of cached expressions
+     */
+    public int size() {
+        int size = 0;
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get the number of lookups which returned a cached expression
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of lookups which had to build the expression
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of expressions removed from the cache to make room for new ones
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressionCache[size=" + size() + ", maxSize=" + maxSize + ", hits=" + getHitCount() + ", misses="
+                + getMissCount() + ", evictions=" + getEvictionCount() + "]";
+    }
+
+    private final class Segment extends LinkedHashMap<Key, CompiledExpression> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(final int capacity) {
+            /* access order, so that the eldest entry is the least recently used one */
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Key, CompiledExpression> eldest) {
+            if (size() > capacity) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The key of a cached expression. It holds copies of the builder's settings, so that changing the builder
+     * afterwards does not affect the key. Functions, operators and the batch backend are compared by identity.
+     */
+    static final class Key {
+
+        private final String expression;
+
+        private final List<String> variableNames;
+
+        private final Map<String, Function> functions;
+
+        private final Map<String, Operator> operators;
+
+        private final boolean implicitMultiplication;
+
+        private final boolean compiled;
+
+        private final boolean registerMachine;
+
+        private final boolean simplify;
+
+        private final boolean fastMath;
+
+        private final BatchBackend batchBackend;
+
+        private final EvaluationListener listener;
+
+        private final int hash;
+
+        Key(final String expression, final Set<String> variableNames, final Map<String, Function> functions,
+                final Map<String, Operator> operators, final boolean implicitMultiplication, final boolean compiled,
+                final boolean registerMachine, final boolean simplify, final boolean fastMath,
+                final BatchBackend batchBackend, final EvaluationListener listener) {
+            this.expression = expression;
+            /* the order of the variables determines their slots */
+            this.variableNames = new ArrayList<String>(variableNames);
+            this.functions = new HashMap<String, Function>(functions);
+            this.operators = new HashMap<String, Operator>(operators);
+            this.implicitMultiplication = implicitMultiplication;
+            this.compiled = compiled;
+            this.registerMachine = registerMachine;
+            this.simplify = simplify;
+            this.fastMath = fastMath;
+            this.batchBackend = batchBackend;
+            this.listener = listener;
+            int hash = expression.hashCode();
+            hash = 31 * hash + this.variableNames.hashCode();
+            hash = 31 * hash + identityHashCode(this.functions);
+            hash = 31 * hash + identityHashCode(this.operators);
+            hash = 31 * hash + (implicitMultiplication ? 1 : 0);
+            hash = 31 * hash + (compiled ? 1 : 0);
+            hash = 31 * hash + (registerMachine ? 1 : 0);
+            hash = 31 * hash + (simplify ? 1 : 0);
+            hash = 31 * hash + (fastMath ? 1 : 0);
+            hash = 31 * hash + System.identityHashCode(batchBackend);
+            hash = 31 * hash + System.identityHashCode(listener);
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return hash == other.hash
+                    && implicitMultiplication == other.implicitMultiplication
+                    && compiled == other.compiled
+                    && registerMachine == other.registerMachine
+                    && simplify == other.simplify
+                    && fastMath == other.fastMath
+                    && batchBackend == other.batchBackend
+                    && listener == other.listener
+                    && expression.equals(other.expression)
+                    && variableNames.equals(other.variableNames)
+                    && identical(functions, other.functions)
+                    && identical(operators, other.operators);
+        }
+
+        /* the hash code of the names and the identities of the values, which is independent of their order */
+        private static int identityHashCode(final Map<String, ?> map) {
+            int hash = 0;
+            for (Map.Entry<String, ?> entry : map.entrySet()) {
+                hash += entry.getKey().hashCode() ^ System.identityHashCode(entry.getValue());
+            }
+            return hash;
+        }
+
+        /* check if both maps hold the same instances under the same names */
+        private static boolean identical(final Map<String, ?> a, final Map<String, ?> b) {
+            if (a.size() != b.size()) {
+                return false;
+            }
+            for (Map.Entry<String, ?> entry : a.entrySet()) {
+                if (b.get(entry.getKey()) != entry.getValue()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A file holding any number of named expressions written by an {@link ExpressionSerializer}. The file is mapped into
+ * memory, so processes opening the same library share the operating system's page cache. Opening a library only
+ * checks its header, and an expression is read from the mapped file the first time it is requested, so the cost of
+ * opening a library does not depend on its size. The expressions read evaluate exactly like the expressions written.
+ * <p>
+ * The file starts with the magic number <code>0x6578704C</code>, the format version as an unsigned short, the number
+ * of expressions and the capacity of the index as ints. The index is an open addressing hash table of
+ * <code>capacity</code> slots, each holding the hash code of a name and the offset of its entry or zero for an empty
+ * slot. An entry consists of the length of the name's UTF-8 representation as an unsigned short, the name itself
+ * and the expression as written by {@link ExpressionSerializer}.
+ * </p>
+ */
+public final class ExpressionLibrary {
+
+    private static final int MAGIC = 0x6578704C;
+
+    /**
+     * The version of the format written by this class
+     */
+    public static final int VERSION = 3;
+
+    /* the size of the magic number, the version, the number of expressions and the capacity */
+    private static final int HEADER_SIZE = 4 + 2 + 4 + 4;
+
+    /* the size of a slot of the index: the hash code of the name and the offset of the entry */
+    private static final int SLOT_SIZE = 4 + 4;
+
+    private static final int MAX_NAME_LENGTH = 0xFFFF;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+
+    private final ExpressionSerializer serializer;
+
+    private final int size;
+
+    private final int capacity;
+
+    /* the expressions read so far */
+    private final ConcurrentMap<String, CompiledExpression> expressions =
+            new ConcurrentHashMap<String, CompiledExpression>();
+
+    private ExpressionLibrary(ByteBuffer buffer, ExpressionSerializer serializer) {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("The data is not an expression library");
+        }
+        final int version = buffer.getShort(4) & 0xFFFF;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("The version " + version + " of the format is not supported");
+        }
+        this.size = buffer.getInt(6);
+        this.capacity = buffer.getInt(10);
+        if (size < 0 || capacity <= size || Integer.bitCount(capacity) != 1
+                || capacity > (buffer.limit() - HEADER_SIZE) / SLOT_SIZE) {
+            throw new IllegalArgumentException("The index of the expression library is invalid");
+        }
+        this.buffer = buffer;
+        this.serializer = serializer;
+    }
+
+    /**
+     * Open a library by mapping it into memory
+     * @param file the library
+     * @param serializer the serializer reading the expressions, which resolves their custom functions and operators
+     * @return the library
+     * @throws IOException if the file can not be mapped
+     */
+    public static ExpressionLibrary open(File file, ExpressionSerializer serializer) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("The expression library is too large");
+            }
+            /* the mapping stays valid after the file is closed */
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ExpressionLibrary(mapped, serializer);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Open a library held by a buffer, which must not be modified afterwards
+     * @param buffer the buffer holding the library from its position to its limit
+     * @param serializer the serializer reading the expressions, which resolves their custom functions and operators
+     * @return the library
+     */
+    public static ExpressionLibrary open(ByteBuffer buffer, ExpressionSerializer serializer) {
+        return new ExpressionLibrary(buffer.slice(), serializer);
+    }
+
+    /**
+     * Write a library
+     * @param expressions the expressions by name
+     * @param file the file to write the library to
+     * @param serializer the serializer writing the expressions
+     * @throws IOException if the file can not be written to
+     */
+    public static void write(Map<String, CompiledExpression> expressions, File file, ExpressionSerializer serializer)
+            throws IOException {
+        final int size = expressions.size();
+        /* keep the load factor of the index at most 0.5, so a lookup stops at an empty slot after a few probes */
+        int capacity = 1;
+        while (capacity <= 2 * size) {
+            capacity <<= 1;
+        }
+        final int[] hashes = new int[capacity];
+        final int[] offsets = new int[capacity];
+        final List<byte[]> names = new ArrayList<byte[]>(size);
+        final List<byte[]> data = new ArrayList<byte[]>(size);
+        long offset = HEADER_SIZE + (long) capacity * SLOT_SIZE;
+        for (Map.Entry<String, CompiledExpression> entry : expressions.entrySet()) {
+            final byte[] name = entry.getKey().getBytes(UTF8);
+            if (name.length > MAX_NAME_LENGTH) {
+                throw new IllegalArgumentException("The name '" + entry.getKey() + "' is too long");
+            }
+            final byte[] bytes = serializer.toByteArray(entry.getValue());
+            final int hash = entry.getKey().hashCode();
+            int slot = mix(hash) & (capacity - 1);
+            while (offsets[slot] != 0) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            if (offset > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("The expression library is too large");
+            }
+            hashes[slot] = hash;
+            offsets[slot] = (int) offset;
+            names.add(name);
+            data.add(bytes);
+            offset += 2 + name.length + bytes.length;
+        }
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(size);
+            out.writeInt(capacity);
+            for (int i = 0; i < capacity; i++) {
+                out.writeInt(hashes[i]);
+                out.writeInt(offsets[i]);
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeShort(names.get(i).length);
+                out.write(names.get(i));
+                out.write(data.get(i));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Get an expression, which is read from the library the first time it is requested
+     * @param name the name of the expression
+     * @return the expression or null if the library does not contain an expression of that name
+     */
+    public CompiledExpression get(String name) {
+        CompiledExpression expression = expressions.get(name);
+        if (expression == null) {
+            final int offset = find(name);
+            if (offset == 0) {
+                return null;
+            }
+            final ByteBuffer data = buffer.duplicate();
+            data.position(offset + 2 + (buffer.getShort(offset) & 0xFFFF));
+            expression = serializer.read(data);
+            final CompiledExpression existing = expressions.putIfAbsent(name, expression);
+            if (existing != null) {
+                expression = existing;
+            }
+        }
+        return expression;
+    }
+
+    public boolean contains(String name) {
+        return expressions.containsKey(name) || find(name) != 0;
+    }
+
+    /**
+     * Get the number of expressions in the library
+     * @return the number of expressions
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the names of the expressions in the library. This reads the names of all the expressions.
+     * @return the names
+     */
+    public Set<String> getNames() {
+        final Set<String> names = new HashSet<String>(2 * size);
+        for (int slot = 0; slot < capacity; slot++) {
+            final int offset = buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE + 4);
+            if (offset != 0) {
+                final byte[] name = new byte[buffer.getShort(offset) & 0xFFFF];
+                final ByteBuffer data = buffer.duplicate();
+                data.position(offset + 2);
+                data.get(name);
+                names.add(new String(name, UTF8));
+            }
+        }
+        return names;
+    }
+
+    /* find the offset of the entry of an expression or 0 if there is none */
+    private int find(String name) {
+        final int hash = name.hashCode();
+        byte[] bytes = null;
+        int slot = mix(hash) & (capacity - 1);
+        for (int probes = 0; probes < capacity; probes++) {
+            final int index = HEADER_SIZE + slot * SLOT_SIZE;
+            final int offset = buffer.getInt(index + 4);
+            if (offset == 0) {
+                return 0;
+            }
+            if (buffer.getInt(index) == hash) {
+                if (bytes == null) {
+                    bytes = name.getBytes(UTF8);
+                }
+                if (nameEquals(offset, bytes)) {
+                    return offset;
+                }
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+        return 0;
+    }
+
+    private boolean nameEquals(int offset, byte[] name) {
+        if ((buffer.getShort(offset) & 0xFFFF) != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (buffer.get(offset + 2 + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* spread the bits of a String's hash code, which are poorly distributed in the lower bits for similar names */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        return hash ^ (hash >>> 13);
+    }
+}
@@ -0,0 +1,246 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An {@link EvaluationListener} collecting statistics about the expressions it is added to: the number of expressions
+ * built, their tokens and build times, the number of evaluations and their latencies, the number of validations and
+ * the number of exceptions thrown by evaluations. All counters are updated without locking, so a single instance can
+ * be shared by any number of expressions and threads. To tell expressions apart, add a separate instance to each of
+ * them.
+ */
+public final class ExpressionMetrics implements EvaluationListener {
+
+    private final Histogram buildTimes = new Histogram();
+
+    private final AtomicLong tokens = new AtomicLong();
+
+    private final Histogram evaluationTimes = new Histogram();
+
+    private final AtomicLong validations = new AtomicLong();
+
+    private final AtomicLong validationFailures = new AtomicLong();
+
+    private final AtomicLong divisionsByZero = new AtomicLong();
+
+    private final AtomicLong missingVariables = new AtomicLong();
+
+    private final AtomicLong otherErrors = new AtomicLong();
+
+    @Override
+    public void built(String expression, CompiledExpression compiled, int numTokens, long nanos) {
+        buildTimes.record(nanos);
+        tokens.addAndGet(numTokens);
+    }
+
+    @Override
+    public void evaluated(CompiledExpression expression, long nanos) {
+        evaluationTimes.record(nanos);
+    }
+
+    @Override
+    public void failed(CompiledExpression expression, RuntimeException e) {
+        if (e instanceof ArithmeticException) {
+            divisionsByZero.incrementAndGet();
+        } else if (e instanceof MissingVariableException) {
+            missingVariables.incrementAndGet();
+        } else {
+            otherErrors.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void validated(CompiledExpression expression, ValidationResult result) {
+        validations.incrementAndGet();
+        if (!result.isValid()) {
+            validationFailures.incrementAndGet();
+        }
+    }
+
+    public long getBuildCount() {
+        return buildTimes.getCount();
+    }
+
+    /**
+     * Get the build times of the expressions
+     * @return the histogram of the build times in nanoseconds
+     */
+    public Histogram getBuildTimes() {
+        return buildTimes;
+    }
+
+    /**
+     * Get the number of tokens of all the expressions built
+     * @return the number of tokens
+     */
+    public long getTokenCount() {
+        return tokens.get();
+    }
+
+    /**
+     * Get the number of successful evaluations
+     * @return the number of evaluations
+     */
+    public long getEvaluationCount() {
+        return evaluationTimes.getCount();
+    }
+
+    /**
+     * Get the latencies of the successful evaluations
+     * @return the histogram of the latencies in nanoseconds
+     */
+    public Histogram getEvaluationTimes() {
+        return evaluationTimes;
+    }
+
+    public long getValidationCount() {
+        return validations.get();
+    }
+
+    public long getValidationFailureCount() {
+        return validationFailures.get();
+    }
+
+    /**
+     * Get the number of evaluations which failed with an {@link ArithmeticException}, which exp4j throws on a
+     * division by zero
+     * @return the number of divisions by zero
+     */
+    public long getDivisionByZeroCount() {
+        return divisionsByZero.get();
+    }
+
+    /**
+     * Get the number of evaluations which failed with a {@link MissingVariableException}
+     * @return the number of evaluations with missing variables
+     */
+    public long getMissingVariableCount() {
+        return missingVariables.get();
+    }
+
+    /**
+     * Get the number of evaluations which failed with any other exception
+     * @return the number of other errors
+     */
+    public long getOtherErrorCount() {
+        return otherErrors.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressionMetrics[builds=" + getBuildCount() + ", tokens=" + getTokenCount()
+                + ", evaluations=" + getEvaluationCount() + ", p50=" + evaluationTimes.getValueAtPercentile(50d)
+                + "ns, p99=" + evaluationTimes.getValueAtPercentile(99d) + "ns, max=" + evaluationTimes.getMax()
+                + "ns, validations=" + getValidationCount() + ", invalid=" + getValidationFailureCount()
+                + ", divisionsByZero=" + getDivisionByZeroCount() + ", missingVariables=" + getMissingVariableCount()
+                + ", otherErrors=" + getOtherErrorCount() + "]";
+    }
+
+    /**
+     * A histogram of non-negative values with a relative precision of about 3%. Values below 32 are counted exactly,
+     * larger values are counted in 32 linear sub-buckets per power of two, like HdrHistogram does. Values are
+     * recorded without locking.
+     */
+    public static final class Histogram {
+
+        private static final int SUB_BUCKET_BITS = 5;
+
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        /* the buckets of the values below 2^SUB_BUCKET_BITS plus SUB_BUCKETS per power of two up to 2^63 */
+        private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong sum = new AtomicLong();
+
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * Record a value, negative values are recorded as 0
+         * @param value the value
+         */
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            counts.incrementAndGet(index(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public double getMean() {
+            final long n = count.get();
+            return n == 0 ? 0d : sum.get() / (double) n;
+        }
+
+        /**
+         * Get the value below which the given percentage of the recorded values lie
+         * @param percentile the percentage between 0 and 100
+         * @return the lowest value of the bucket holding the percentile or 0 if no values have been recorded
+         */
+        public long getValueAtPercentile(double percentile) {
+            final long n = count.get();
+            if (n == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(Math.min(100d, percentile) / 100d * n));
+            long seen = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(lowestValue(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+            /* the highest SUB_BUCKET_BITS + 1 bits of the value, the highest one of which is always set */
+            final int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS));
+            return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket - SUB_BUCKETS;
+        }
+
+        static long lowestValue(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            final int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            return (long) (index % SUB_BUCKETS + SUB_BUCKETS) << (magnitude - SUB_BUCKET_BITS);
+        }
+    }
+}
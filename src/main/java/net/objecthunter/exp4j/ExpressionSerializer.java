@@ -0,0 +1,433 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.optimizer.Simplifier;
+import net.objecthunter.exp4j.program.Program;
+
+/**
+ * Writes {@link CompiledExpression} instances in a compact binary format and reads them back without parsing the
+ * expressions again. Functions and operators are written by name and resolved against the custom functions and
+ * operators added to the serializer when reading, falling back to the builtin ones.
+ * <p>
+ * An expression starts with the magic number <code>0x65787034</code>, the format version as an unsigned short and
+ * the length of the remaining data as an int. The data holds the flags the expression was built with, bit 0 being
+ * set for fast math, the declared variables, the builtin constants folded into the expression, the variables,
+ * operators and functions used, the constant pool and the instructions of the expression's {@link Program}. Flags,
+ * counts, lengths and instructions are written as variable length integers, constants as the 8 bytes of their
+ * IEEE 754 representation.
+ * </p>
+ */
+public final class ExpressionSerializer {
+
+    private static final int MAGIC = 0x65787034;
+
+    /**
+     * The version of the format written by this class
+     */
+    public static final int VERSION = 3;
+
+    /* the size of the magic number, the version and the length */
+    private static final int HEADER_SIZE = 4 + 2 + 4;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /* the data of an expression read from a stream is read in chunks of this size */
+    private static final int CHUNK_SIZE = 8192;
+
+    /* the flag set if the expression was built with fast math */
+    private static final int FLAG_FAST_MATH = 1;
+
+    private final Map<String, Function> userFunctions = new HashMap<String, Function>(4);
+
+    private final Map<String, Operator> userOperators = new HashMap<String, Operator>(4);
+
+    private boolean compiled = false;
+
+    /**
+     * Add a custom function used by the expressions read
+     * @param function the function
+     * @return the ExpressionSerializer instance
+     */
+    public ExpressionSerializer function(Function function) {
+        this.userFunctions.put(function.getName(), function);
+        return this;
+    }
+
+    /**
+     * Add custom functions used by the expressions read
+     * @param functions the functions
+     * @return the ExpressionSerializer instance
+     */
+    public ExpressionSerializer functions(Function... functions) {
+        for (Function f : functions) {
+            this.function(f);
+        }
+        return this;
+    }
+
+    /**
+     * Add custom functions used by the expressions read
+     * @param functions the functions
+     * @return the ExpressionSerializer instance
+     */
+    public ExpressionSerializer functions(List<Function> functions) {
+        for (Function f : functions) {
+            this.function(f);
+        }
+        return this;
+    }
+
+    /**
+     * Add a custom operator used by the expressions read
+     * @param operator the operator
+     * @return the ExpressionSerializer instance
+     */
+    public ExpressionSerializer operator(Operator operator) {
+        this.userOperators.put(operator.getSymbol(), operator);
+        return this;
+    }
+
+    /**
+     * Add custom operators used by the expressions read
+     * @param operators the operators
+     * @return the ExpressionSerializer instance
+     */
+    public ExpressionSerializer operator(Operator... operators) {
+        for (Operator o : operators) {
+            this.operator(o);
+        }
+        return this;
+    }
+
+    /**
+     * Compile the expressions read to bytecode, see {@link ExpressionBuilder#compiled(boolean)}
+     * @param compiled set to true to compile the expressions read
+     * @return the ExpressionSerializer instance
+     */
+    public ExpressionSerializer compiled(boolean compiled) {
+        this.compiled = compiled;
+        return this;
+    }
+
+    /**
+     * Write an expression to a stream
+     * @param expression the expression to write
+     * @param out the stream to write to
+     * @throws IOException if the stream can not be written to
+     */
+    public void write(CompiledExpression expression, OutputStream out) throws IOException {
+        out.write(encode(expression));
+    }
+
+    /**
+     * Write an expression to a buffer, starting at the buffer's position
+     * @param expression the expression to write
+     * @param buffer the buffer to write to
+     * @throws java.nio.BufferOverflowException if the buffer has not enough space remaining
+     */
+    public void write(CompiledExpression expression, ByteBuffer buffer) {
+        buffer.put(encode(expression));
+    }
+
+    /**
+     * Write an expression to a byte array
+     * @param expression the expression to write
+     * @return the bytes of the expression
+     */
+    public byte[] toByteArray(CompiledExpression expression) {
+        return encode(expression);
+    }
+
+    /**
+     * Read an expression from a stream. Exactly the bytes of the expression are read, so expressions written one
+     * after another can be read one after another.
+     * @param in the stream to read from
+     * @return the expression
+     * @throws IOException if the stream can not be read from or ends before the expression
+     */
+    public CompiledExpression read(InputStream in) throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        final byte[] header = new byte[HEADER_SIZE];
+        data.readFully(header);
+        final int length = readHeader(ByteBuffer.wrap(header));
+        return decode(ByteBuffer.wrap(readData(data, length)));
+    }
+
+    /* read the data in chunks, so a corrupt length ends in an EOFException instead of allocating that much memory */
+    private static byte[] readData(DataInputStream in, int length) throws IOException {
+        if (length <= CHUNK_SIZE) {
+            final byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return bytes;
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(CHUNK_SIZE);
+        final byte[] chunk = new byte[CHUNK_SIZE];
+        int remaining = length;
+        while (remaining > 0) {
+            final int n = Math.min(remaining, CHUNK_SIZE);
+            in.readFully(chunk, 0, n);
+            out.write(chunk, 0, n);
+            remaining -= n;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Read an expression from a buffer, starting at the buffer's position. The position is advanced to the end of
+     * the expression.
+     * @param buffer the buffer to read from
+     * @return the expression
+     */
+    public CompiledExpression read(ByteBuffer buffer) {
+        try {
+            final int length = readHeader(buffer);
+            if (length > buffer.remaining()) {
+                throw new IllegalArgumentException("The data of the expression is truncated");
+            }
+            final ByteBuffer data = buffer.slice();
+            data.limit(length);
+            final CompiledExpression expression = decode(data);
+            buffer.position(buffer.position() + length);
+            return expression;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("The data of the expression is truncated");
+        }
+    }
+
+    /**
+     * Read an expression from a byte array
+     * @param bytes the bytes of the expression
+     * @return the expression
+     */
+    public CompiledExpression read(byte[] bytes) {
+        return read(ByteBuffer.wrap(bytes));
+    }
+
+    private static byte[] encode(CompiledExpression expression) {
+        final Program program = Program.fromTokens(expression.getTokens());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        /* leave room for the header, which is filled in when the length is known */
+        out.write(new byte[HEADER_SIZE], 0, HEADER_SIZE);
+        writeVarint(out, expression.isFastMath() ? FLAG_FAST_MATH : 0);
+        final int numDeclared = expression.getNumDeclaredVariables();
+        writeVarint(out, numDeclared);
+        for (int i = 0; i < numDeclared; i++) {
+            writeString(out, expression.variableName(i));
+        }
+        final Set<String> foldedConstants = expression.getFoldedConstants();
+        writeVarint(out, foldedConstants.size());
+        for (String constant : foldedConstants) {
+            writeString(out, constant);
+        }
+        final String[] variables = program.getVariables();
+        writeVarint(out, variables.length);
+        for (String variable : variables) {
+            writeString(out, variable);
+        }
+        final Operator[] operators = program.getOperators();
+        writeVarint(out, operators.length);
+        for (Operator operator : operators) {
+            writeString(out, operator.getSymbol());
+            writeVarint(out, operator.getNumOperands());
+        }
+        final Function[] functions = program.getFunctions();
+        writeVarint(out, functions.length);
+        for (Function function : functions) {
+            writeString(out, function.getName());
+            writeVarint(out, function.getNumArguments());
+        }
+        final double[] constants = program.getConstants();
+        writeVarint(out, constants.length);
+        for (double constant : constants) {
+            final long bits = Double.doubleToRawLongBits(constant);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (bits >>> shift));
+            }
+        }
+        final int[] code = program.getCode();
+        writeVarint(out, code.length);
+        for (int instruction : code) {
+            writeVarint(out, instruction);
+        }
+        final byte[] bytes = out.toByteArray();
+        ByteBuffer.wrap(bytes)
+                .putInt(MAGIC)
+                .putShort((short) VERSION)
+                .putInt(bytes.length - HEADER_SIZE);
+        return bytes;
+    }
+
+    /* check the magic number and the version and return the length of the data */
+    private static int readHeader(ByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("The data is not an expression written by the ExpressionSerializer");
+        }
+        final int version = buffer.getShort() & 0xFFFF;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("The version " + version + " of the format is not supported");
+        }
+        final int length = buffer.getInt();
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid length " + length);
+        }
+        return length;
+    }
+
+    private CompiledExpression decode(ByteBuffer data) {
+        try {
+            final int flags = readVarint(data);
+            if ((flags & ~FLAG_FAST_MATH) != 0) {
+                throw new IllegalArgumentException("Unknown flags " + flags);
+            }
+            final String[] declaredVariables = new String[readCount(data)];
+            for (int i = 0; i < declaredVariables.length; i++) {
+                declaredVariables[i] = readString(data);
+            }
+            final Set<String> foldedConstants = new HashSet<String>();
+            final int numFoldedConstants = readCount(data);
+            for (int i = 0; i < numFoldedConstants; i++) {
+                foldedConstants.add(readString(data));
+            }
+            final String[] variables = new String[readCount(data)];
+            for (int i = 0; i < variables.length; i++) {
+                variables[i] = readString(data);
+            }
+            final Operator[] operators = new Operator[readCount(data)];
+            for (int i = 0; i < operators.length; i++) {
+                operators[i] = resolveOperator(readString(data), readVarint(data));
+            }
+            final Function[] functions = new Function[readCount(data)];
+            for (int i = 0; i < functions.length; i++) {
+                functions[i] = resolveFunction(readString(data), readVarint(data));
+            }
+            final double[] constants = new double[readCount(data)];
+            for (int i = 0; i < constants.length; i++) {
+                constants[i] = Double.longBitsToDouble(data.getLong());
+            }
+            final int[] code = new int[readCount(data)];
+            for (int i = 0; i < code.length; i++) {
+                code[i] = readVarint(data);
+            }
+            if (data.hasRemaining()) {
+                throw new IllegalArgumentException("Unexpected data after the instructions of the expression");
+            }
+            final Program program = new Program(code, constants, variables, operators, functions);
+            return new CompiledExpression(program.toTokens(), declaredVariables, foldedConstants,
+                    userFunctions.keySet(), compiled, false, (flags & FLAG_FAST_MATH) != 0, null, null,
+                    Collections.<Simplifier.Rule>emptyList());
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("The data of the expression is truncated");
+        }
+    }
+
+    private Operator resolveOperator(String symbol, int numOperands) {
+        final Operator user = userOperators.get(symbol);
+        if (user != null && user.getNumOperands() == numOperands) {
+            return user;
+        }
+        final Operator builtin = symbol.length() == 1 ? Operators.getBuiltinOperator(symbol.charAt(0), numOperands)
+                : null;
+        if (builtin == null) {
+            throw new IllegalArgumentException("Unknown operator '" + symbol + "' with " + numOperands + " operands");
+        }
+        return builtin;
+    }
+
+    private Function resolveFunction(String name, int numArguments) {
+        Function function = userFunctions.get(name);
+        if (function == null) {
+            function = Functions.getBuiltinFunction(name);
+        }
+        if (function == null) {
+            throw new IllegalArgumentException("Unknown function '" + name + "'");
+        }
+        if (function.getNumArguments() != numArguments) {
+            throw new IllegalArgumentException("The function '" + name + "' takes " + function.getNumArguments()
+                    + " arguments instead of " + numArguments);
+        }
+        return function;
+    }
+
+    /* write an unsigned int in groups of 7 bits, the highest bit of a byte is set if more bytes follow */
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        final byte[] bytes = value.getBytes(UTF8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static int readVarint(ByteBuffer data) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final byte b = data.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Invalid variable length integer");
+    }
+
+    /* read the number of elements of a table, every element takes at least one byte */
+    private static int readCount(ByteBuffer data) {
+        final int count = readVarint(data);
+        if (count < 0 || count > data.remaining()) {
+            throw new IllegalArgumentException("The data of the expression is truncated");
+        }
+        return count;
+    }
+
+    private static String readString(ByteBuffer data) {
+        final int length = readCount(data);
+        final String value;
+        if (data.hasArray()) {
+            value = new String(data.array(), data.arrayOffset() + data.position(), length, UTF8);
+            data.position(data.position() + length);
+        } else {
+            final byte[] bytes = new byte[length];
+            data.get(bytes);
+            value = new String(bytes, UTF8);
+        }
+        return value;
+    }
+}
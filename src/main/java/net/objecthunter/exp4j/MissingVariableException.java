@@ -0,0 +1,38 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j;
+
+/**
+ * Thrown when an expression is evaluated before a value has been set for one of its variables
+ */
+public class MissingVariableException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String variableName;
+
+    public MissingVariableException(String variableName) {
+        super("No value has been set for the setVariable '" + variableName + "'.");
+        this.variableName = variableName;
+    }
+
+    /**
+     * @return The name of the variable without a value
+     */
+    public String getVariableName() {
+        return variableName;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+/**
+ * A handle to a variable of an {@link Expression}. The handle refers to the slot holding the variable's value, so
+ * setting a value via the handle involves neither a lookup of the name nor boxing of the value.
+ * Handles can be obtained via {@link Expression#handle(String)}.
+ */
+public final class VariableHandle {
+
+    private final Expression expression;
+
+    private final String name;
+
+    private final int slot;
+
+    VariableHandle(Expression expression, String name, int slot) {
+        this.expression = expression;
+        this.name = name;
+        this.slot = slot;
+    }
+
+    /**
+     * Set the value of the variable
+     * @param value the value
+     * @return the expression the variable belongs to
+     */
+    public Expression set(double value) {
+        expression.setValue(slot, value);
+        return expression;
+    }
+
+    /**
+     * Get the value of the variable
+     * @return the value
+     * @throws IllegalArgumentException if no value has been set for the variable
+     */
+    public double get() {
+        return expression.getValue(slot);
+    }
+
+    /**
+     * Get the name of the variable
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+}
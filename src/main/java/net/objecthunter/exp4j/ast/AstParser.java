@@ -0,0 +1,293 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.ast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.LoadToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.StoreToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.Tokenizer;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+/**
+ * Precedence climbing parser building the abstract syntax tree of an expression. The operators are grouped by the
+ * same rules the {@link net.objecthunter.exp4j.shuntingyard.ShuntingYard} applies, so lowering the tree with
+ * {@link Lowering#toTokens(Node)} yields the same tokens as
+ * {@link net.objecthunter.exp4j.shuntingyard.ShuntingYard#convertToRPN(String, Map, Map, Set, boolean)}. Unary
+ * operators are prefix operators where an operand is expected and postfix operators after an operand. The parser
+ * keeps the operands and the pending operators on explicit stacks instead of recursing, so expressions of any depth
+ * can be parsed.
+ */
+public final class AstParser {
+
+    private final Tokenizer tokenizer;
+
+    /* the operands which are not yet applied to an operator or function */
+    private Node[] operands = new Node[16];
+
+    private int numOperands;
+
+    /* the pending operators and the functions and parentheses not closed yet, an opening parenthesis is null */
+    private Object[] pending = new Object[16];
+
+    /* the number of operands below each function and parenthesis, i.e. where its arguments start */
+    private int[] marks = new int[16];
+
+    private int numPending;
+
+    private AstParser(Tokenizer tokenizer) {
+        this.tokenizer = tokenizer;
+    }
+
+    /**
+     * Parse an expression
+     * @param expression the expression to parse
+     * @param userFunctions the custom functions used
+     * @param userOperators the custom operators used
+     * @param variableNames the variable names used in the expression
+     * @param implicitMultiplication set to false to turn off implicit multiplication
+     * @return the root of the abstract syntax tree
+     */
+    public static Node parse(final String expression, final Map<String, Function> userFunctions,
+            final Map<String, Operator> userOperators, final Set<String> variableNames, final boolean implicitMultiplication) {
+        return new AstParser(new Tokenizer(expression, userFunctions, userOperators, variableNames,
+                implicitMultiplication)).parse();
+    }
+
+    /**
+     * Build the abstract syntax tree of tokens in reverse polish notation. A value which is stored in a temporary
+     * slot is shared by all the nodes loading it.
+     * @param tokens the tokens e.g. as returned by
+     *               {@link net.objecthunter.exp4j.shuntingyard.ShuntingYard#convertToRPN(String, Map, Map, Set, boolean)}
+     * @return the root of the abstract syntax tree
+     */
+    public static Node fromTokens(final Token[] tokens) {
+        final Node[] stack = new Node[tokens.length];
+        int size = 0;
+        final List<Node> temps = new ArrayList<Node>();
+        for (Token t : tokens) {
+            switch (t.getType()) {
+                case Token.TOKEN_NUMBER:
+                    stack[size++] = new ConstantNode(((NumberToken) t).getValue());
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    stack[size++] = new VariableNode(((VariableToken) t).getName());
+                    break;
+                case Token.TOKEN_OPERATOR: {
+                    final Operator operator = ((OperatorToken) t).getOperator();
+                    final int numOperands = operator.getNumOperands();
+                    if (size < numOperands) {
+                        throw new IllegalArgumentException("Invalid number of operands available for '" + operator.getSymbol() + "' operator");
+                    }
+                    final Node[] operands = new Node[numOperands];
+                    size -= numOperands;
+                    System.arraycopy(stack, size, operands, 0, numOperands);
+                    stack[size++] = new OperatorNode(operator, operands);
+                    break;
+                }
+                case Token.TOKEN_FUNCTION: {
+                    final Function function = ((FunctionToken) t).getFunction();
+                    final int numArguments = function.getNumArguments();
+                    if (size < numArguments) {
+                        throw new IllegalArgumentException("Invalid number of arguments available for '" + function.getName() + "' function");
+                    }
+                    final Node[] arguments = new Node[numArguments];
+                    size -= numArguments;
+                    System.arraycopy(stack, size, arguments, 0, numArguments);
+                    stack[size++] = new FunctionNode(function, arguments);
+                    break;
+                }
+                case Token.TOKEN_STORE: {
+                    final int index = ((StoreToken) t).getIndex();
+                    if (size == 0) {
+                        throw new IllegalArgumentException("No value available to store in temporary " + index);
+                    }
+                    while (temps.size() <= index) {
+                        temps.add(null);
+                    }
+                    temps.set(index, stack[size - 1]);
+                    break;
+                }
+                case Token.TOKEN_LOAD: {
+                    final int index = ((LoadToken) t).getIndex();
+                    if (index >= temps.size() || temps.get(index) == null) {
+                        throw new IllegalArgumentException("The temporary " + index + " is loaded before it is stored");
+                    }
+                    stack[size++] = temps.get(index);
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown Token type encountered. This should not happen");
+            }
+        }
+        if (size != 1) {
+            throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
+        }
+        return stack[0];
+    }
+
+    private Node parse() {
+        if (!tokenizer.hasNext()) {
+            throw new IllegalArgumentException("Empty expression");
+        }
+        /* whether an operand is expected next, i.e. at the start, after an opening parenthesis, a separator and a
+           binary or prefix operator */
+        boolean operandExpected = true;
+        while (tokenizer.hasNext()) {
+            final int type = tokenizer.next();
+            switch (type) {
+                case Token.TOKEN_NUMBER:
+                case Token.TOKEN_VARIABLE:
+                    if (!operandExpected) {
+                        throw new IllegalArgumentException("Missing operator between two operands");
+                    }
+                    pushOperand(type == Token.TOKEN_NUMBER ? new ConstantNode(tokenizer.getNumber())
+                            : new VariableNode(tokenizer.getVariableName()));
+                    operandExpected = false;
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    if (!operandExpected) {
+                        throw new IllegalArgumentException("Missing operator between two operands");
+                    }
+                    final Function function = tokenizer.getFunction();
+                    if (!tokenizer.hasNext() || tokenizer.next() != Token.TOKEN_PARENTHESES_OPEN) {
+                        throw new IllegalArgumentException("The arguments of the '" + function.getName() + "' function have to be enclosed in parentheses");
+                    }
+                    pushPending(function);
+                    break;
+                case Token.TOKEN_PARENTHESES_OPEN:
+                    if (!operandExpected) {
+                        throw new IllegalArgumentException("Missing operator between two operands");
+                    }
+                    pushPending(null);
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    final Operator operator = tokenizer.getOperator();
+                    if (operandExpected) {
+                        if (operator.getNumOperands() != 1) {
+                            throw new IllegalArgumentException("Invalid number of operands available for '" + operator.getSymbol() + "' operator");
+                        }
+                        /* a prefix operator applies to the operand following it */
+                        pushPending(operator);
+                        break;
+                    }
+                    reduceOperators(operator);
+                    /* a postfix operator applies to the operand on the stack once it is reduced */
+                    pushPending(operator);
+                    operandExpected = operator.getNumOperands() == 2;
+                    break;
+                case Token.TOKEN_SEPARATOR:
+                    if (operandExpected) {
+                        throw new IllegalArgumentException("Missing operand");
+                    }
+                    reduceOperators(null);
+                    if (numPending == 0 || !(pending[numPending - 1] instanceof Function)) {
+                        throw new IllegalArgumentException("Misplaced function separator ',' or mismatched parentheses");
+                    }
+                    operandExpected = true;
+                    break;
+                case Token.TOKEN_PARENTHESES_CLOSE:
+                    /* only the argument list of a function may be empty */
+                    if (operandExpected && (numPending == 0 || !(pending[numPending - 1] instanceof Function)
+                            || marks[numPending - 1] != numOperands)) {
+                        throw new IllegalArgumentException("Missing operand");
+                    }
+                    reduceOperators(null);
+                    if (numPending == 0) {
+                        throw new IllegalArgumentException("Mismatched parentheses detected. Please check the expression");
+                    }
+                    closeParentheses();
+                    operandExpected = false;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown Token type encountered. This should not happen");
+            }
+        }
+        if (operandExpected) {
+            throw new IllegalArgumentException("Unexpected end of expression");
+        }
+        reduceOperators(null);
+        if (numPending > 0) {
+            throw new IllegalArgumentException("Mismatched parentheses detected. Please check the expression");
+        }
+        return operands[0];
+    }
+
+    /*
+     * Apply the pending operators the operator o1 pops from the stack of the shunting yard, all of them up to the
+     * next function or parenthesis if o1 is null. A prefix operator o1 is never passed, since it pops nothing, and a
+     * postfix operator o1 only pops unary operators, the operand of a binary one is not complete yet.
+     */
+    private void reduceOperators(final Operator o1) {
+        while (numPending > 0 && pending[numPending - 1] instanceof Operator) {
+            final Operator o2 = (Operator) pending[numPending - 1];
+            if (o1 != null && (o1.getNumOperands() == 1 && o2.getNumOperands() == 2 || !pops(o1, o2))) {
+                return;
+            }
+            numPending--;
+            final int numArguments = o2.getNumOperands();
+            numOperands -= numArguments;
+            final Node[] arguments = new Node[numArguments];
+            System.arraycopy(operands, numOperands, arguments, 0, numArguments);
+            pushOperand(new OperatorNode(o2, arguments));
+        }
+    }
+
+    /* remove the innermost parenthesis, calling its function with the operands above it */
+    private void closeParentheses() {
+        final Object entry = pending[--numPending];
+        if (entry == null) {
+            return;
+        }
+        final int mark = marks[numPending];
+        final Node[] arguments = new Node[numOperands - mark];
+        System.arraycopy(operands, mark, arguments, 0, arguments.length);
+        numOperands = mark;
+        pushOperand(new FunctionNode((Function) entry, arguments));
+    }
+
+    private void pushOperand(final Node node) {
+        if (numOperands == operands.length) {
+            operands = Arrays.copyOf(operands, 2 * numOperands);
+        }
+        operands[numOperands++] = node;
+    }
+
+    private void pushPending(final Object entry) {
+        if (numPending == pending.length) {
+            pending = Arrays.copyOf(pending, 2 * numPending);
+            marks = Arrays.copyOf(marks, 2 * numPending);
+        }
+        marks[numPending] = numOperands;
+        pending[numPending++] = entry;
+    }
+
+    /* check whether the shunting yard pops the operator o2 from its stack when it encounters the operator o1 */
+    private static boolean pops(final Operator o1, final Operator o2) {
+        return (o1.isLeftAssociative() && o1.getPrecedence() <= o2.getPrecedence())
+                || o1.getPrecedence() < o2.getPrecedence();
+    }
+}
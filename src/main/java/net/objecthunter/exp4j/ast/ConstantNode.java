@@ -0,0 +1,59 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.ast;
+
+/**
+ * A constant number
+ */
+public final class ConstantNode extends Node {
+    private final double value;
+
+    /**
+     * Create a new instance
+     * @param value the value of the constant
+     */
+    public ConstantNode(double value) {
+        super(Node.NODE_CONSTANT);
+        this.value = value;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    @Override
+    public int size() {
+        return 1;
+    }
+
+    /* constants are compared by their bits, so NaN equals NaN while 0 and -0 differ */
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof ConstantNode
+                && Double.doubleToLongBits(((ConstantNode) obj).value) == Double.doubleToLongBits(value);
+    }
+
+    @Override
+    public int hashCode() {
+        final long bits = Double.doubleToLongBits(value);
+        return (int) (bits ^ (bits >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(value);
+    }
+}
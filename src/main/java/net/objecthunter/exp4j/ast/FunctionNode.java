@@ -0,0 +1,103 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.ast;
+
+import java.util.Arrays;
+
+import net.objecthunter.exp4j.function.Function;
+
+/**
+ * The call of a function with its arguments
+ */
+public final class FunctionNode extends Node {
+    private final Function function;
+
+    private final Node[] arguments;
+
+    private final int size;
+
+    private final int hash;
+
+    /**
+     * Create a new instance
+     * @param function the function
+     * @param arguments the arguments, as many as the function takes
+     */
+    public FunctionNode(Function function, Node... arguments) {
+        super(Node.NODE_FUNCTION);
+        if (function == null) {
+            throw new IllegalArgumentException("Function is unknown for node.");
+        }
+        if (arguments.length != function.getNumArguments()) {
+            throw new IllegalArgumentException("Invalid number of arguments available for '" + function.getName() + "' function");
+        }
+        this.function = function;
+        this.arguments = arguments.clone();
+        int size = 1;
+        for (Node argument : this.arguments) {
+            size += argument.size();
+        }
+        this.size = size;
+        this.hash = 31 * System.identityHashCode(function) + Arrays.hashCode(this.arguments);
+    }
+
+    public Function getFunction() {
+        return function;
+    }
+
+    public int getNumArguments() {
+        return arguments.length;
+    }
+
+    public Node getArgument(int index) {
+        return arguments[index];
+    }
+
+    /**
+     * Get the arguments
+     * @return a copy of the arguments
+     */
+    public Node[] getArguments() {
+        return arguments.clone();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof FunctionNode)) {
+            return false;
+        }
+        final FunctionNode other = (FunctionNode) obj;
+        return other.function == function && other.hash == hash && equalTrees(other, this);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return format(this);
+    }
+}
@@ -0,0 +1,113 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.ast;
+
+import net.objecthunter.exp4j.program.Program;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+/**
+ * Lowers an abstract syntax tree to the forms the evaluators work on. Subtrees which occur more than once are lowered
+ * each time they occur.
+ */
+public final class Lowering {
+
+    /**
+     * Lower a tree to tokens in reverse polish notation, which can be evaluated by
+     * {@link net.objecthunter.exp4j.CompiledExpression} and compiled to bytecode
+     * @param root the root of the tree
+     * @return the tokens
+     */
+    public static Token[] toTokens(final Node root) {
+        final Node[] nodes = postOrder(root);
+        final Token[] tokens = new Token[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            final Node node = nodes[i];
+            switch (node.getType()) {
+                case Node.NODE_CONSTANT:
+                    tokens[i] = new NumberToken(((ConstantNode) node).getValue());
+                    break;
+                case Node.NODE_VARIABLE:
+                    tokens[i] = new VariableToken(((VariableNode) node).getName());
+                    break;
+                case Node.NODE_OPERATOR:
+                    tokens[i] = new OperatorToken(((OperatorNode) node).getOperator());
+                    break;
+                default:
+                    tokens[i] = new FunctionToken(((FunctionNode) node).getFunction());
+                    break;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Lower a tree to the compact encoding of a {@link Program}
+     * @param root the root of the tree
+     * @return the program
+     */
+    public static Program toProgram(final Node root) {
+        final Program.Builder builder = new Program.Builder();
+        for (final Node node : postOrder(root)) {
+            switch (node.getType()) {
+                case Node.NODE_CONSTANT:
+                    builder.emit(Program.CONSTANT, builder.constantIndex(((ConstantNode) node).getValue()));
+                    break;
+                case Node.NODE_VARIABLE:
+                    builder.emit(Program.VARIABLE, builder.variableIndex(((VariableNode) node).getName()));
+                    break;
+                case Node.NODE_OPERATOR:
+                    builder.emit(Program.OPERATOR, builder.operatorIndex(((OperatorNode) node).getOperator()));
+                    break;
+                default:
+                    builder.emit(Program.FUNCTION, builder.functionIndex(((FunctionNode) node).getFunction()));
+                    break;
+            }
+        }
+        return builder.build();
+    }
+
+    /*
+     * List the nodes in the order of reverse polish notation without recursing, so trees of any depth can be
+     * lowered. Visiting every node before its children, the last child first, yields this order backwards.
+     */
+    private static Node[] postOrder(final Node root) {
+        final Node[] nodes = new Node[root.size()];
+        final Node[] stack = new Node[nodes.length];
+        int size = 0;
+        int pos = nodes.length;
+        stack[size++] = root;
+        while (size > 0) {
+            final Node node = stack[--size];
+            nodes[--pos] = node;
+            if (node.getType() == Node.NODE_OPERATOR) {
+                final OperatorNode operator = (OperatorNode) node;
+                for (int i = 0; i < operator.getNumOperands(); i++) {
+                    stack[size++] = operator.getOperand(i);
+                }
+            } else if (node.getType() == Node.NODE_FUNCTION) {
+                final FunctionNode function = (FunctionNode) node;
+                for (int i = 0; i < function.getNumArguments(); i++) {
+                    stack[size++] = function.getArgument(i);
+                }
+            }
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,150 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.ast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Abstract class for the nodes of the abstract syntax tree of an expression. Nodes are immutable and compare equal if
+ * they have the same structure, operators and functions are compared by identity.
+ * <p>
+ * The tree is built by {@link AstParser} for tools and by the {@link net.objecthunter.exp4j.optimizer.Simplifier},
+ * whose rules match on the shape of subtrees. The constant folding and the elimination of common subexpressions
+ * stay on the tokens in reverse polish notation, which the shunting yard emits without building a tree: the
+ * folding is a single pass over the tokens, and the elimination numbers the structurally equal subtrees so they are
+ * compared by an id instead of node by node.
+ */
+public abstract class Node {
+    public static final short NODE_CONSTANT = 1;
+    public static final short NODE_VARIABLE = 2;
+    public static final short NODE_OPERATOR = 3;
+    public static final short NODE_FUNCTION = 4;
+
+    protected final int type;
+
+    Node(int type) {
+        this.type = type;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Get the number of nodes in the tree rooted at this node, which is the number of tokens the tree is lowered to
+     * @return the size of the tree
+     */
+    public abstract int size();
+
+    /*
+     * Compare two trees node by node without recursing, so trees of any depth can be compared. The pairs of nodes
+     * still to compare are kept on two parallel stacks, which never hold more pairs than the first tree has nodes.
+     */
+    static boolean equalTrees(final Node a, final Node b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        final Node[] left = new Node[a.size()];
+        final Node[] right = new Node[a.size()];
+        int size = 0;
+        left[size] = a;
+        right[size++] = b;
+        while (size > 0) {
+            final Node x = left[--size];
+            final Node y = right[size];
+            if (x == y) {
+                continue;
+            }
+            if (x.type != y.type || x.hashCode() != y.hashCode() || x.size() != y.size()) {
+                return false;
+            }
+            if (x.type == NODE_OPERATOR) {
+                final OperatorNode opX = (OperatorNode) x;
+                final OperatorNode opY = (OperatorNode) y;
+                if (opX.getOperator() != opY.getOperator()) {
+                    return false;
+                }
+                for (int i = 0; i < opX.getNumOperands(); i++) {
+                    left[size] = opX.getOperand(i);
+                    right[size++] = opY.getOperand(i);
+                }
+            } else if (x.type == NODE_FUNCTION) {
+                final FunctionNode fnX = (FunctionNode) x;
+                final FunctionNode fnY = (FunctionNode) y;
+                if (fnX.getFunction() != fnY.getFunction()) {
+                    return false;
+                }
+                for (int i = 0; i < fnX.getNumArguments(); i++) {
+                    left[size] = fnX.getArgument(i);
+                    right[size++] = fnY.getArgument(i);
+                }
+            } else if (!x.equals(y)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Write a tree in infix notation without recursing, so trees of any depth can be written. The stack holds the
+     * nodes still to write and the text between them, the parts of a node are pushed in reverse order.
+     */
+    static String format(final Node root) {
+        final StringBuilder sb = new StringBuilder();
+        final List<Object> stack = new ArrayList<Object>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            final Object item = stack.remove(stack.size() - 1);
+            if (item instanceof String) {
+                sb.append((String) item);
+                continue;
+            }
+            final Node node = (Node) item;
+            if (node.type == NODE_OPERATOR) {
+                final OperatorNode operator = (OperatorNode) node;
+                final String symbol = operator.getOperator().getSymbol();
+                stack.add(")");
+                if (operator.getNumOperands() == 2) {
+                    stack.add(operator.getOperand(1));
+                    stack.add(" " + symbol + " ");
+                    stack.add(operator.getOperand(0));
+                } else if (operator.getOperator().isLeftAssociative()) {
+                    /* unary operators which are left associative are written after their operand */
+                    stack.add(symbol);
+                    stack.add(operator.getOperand(0));
+                } else {
+                    stack.add(operator.getOperand(0));
+                    stack.add(symbol);
+                }
+                stack.add("(");
+            } else if (node.type == NODE_FUNCTION) {
+                final FunctionNode function = (FunctionNode) node;
+                stack.add(")");
+                for (int i = function.getNumArguments() - 1; i >= 0; i--) {
+                    stack.add(function.getArgument(i));
+                    if (i > 0) {
+                        stack.add(", ");
+                    }
+                }
+                stack.add(function.getFunction().getName() + "(");
+            } else {
+                sb.append(node.toString());
+            }
+        }
+        return sb.toString();
+    }
+}
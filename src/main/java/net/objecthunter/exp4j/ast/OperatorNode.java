@@ -0,0 +1,103 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.ast;
+
+import java.util.Arrays;
+
+import net.objecthunter.exp4j.operator.Operator;
+
+/**
+ * The application of a unary or binary operator to its operands
+ */
+public final class OperatorNode extends Node {
+    private final Operator operator;
+
+    private final Node[] operands;
+
+    private final int size;
+
+    private final int hash;
+
+    /**
+     * Create a new instance
+     * @param operator the operator
+     * @param operands the operands, as many as the operator takes
+     */
+    public OperatorNode(Operator operator, Node... operands) {
+        super(Node.NODE_OPERATOR);
+        if (operator == null) {
+            throw new IllegalArgumentException("Operator is unknown for node.");
+        }
+        if (operands.length != operator.getNumOperands()) {
+            throw new IllegalArgumentException("Invalid number of operands available for '" + operator.getSymbol() + "' operator");
+        }
+        this.operator = operator;
+        this.operands = operands.clone();
+        int size = 1;
+        for (Node operand : this.operands) {
+            size += operand.size();
+        }
+        this.size = size;
+        this.hash = 31 * System.identityHashCode(operator) + Arrays.hashCode(this.operands);
+    }
+
+    public Operator getOperator() {
+        return operator;
+    }
+
+    public int getNumOperands() {
+        return operands.length;
+    }
+
+    public Node getOperand(int index) {
+        return operands[index];
+    }
+
+    /**
+     * Get the operands
+     * @return a copy of the operands
+     */
+    public Node[] getOperands() {
+        return operands.clone();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof OperatorNode)) {
+            return false;
+        }
+        final OperatorNode other = (OperatorNode) obj;
+        return other.operator == operator && other.hash == hash && equalTrees(other, this);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return format(this);
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.bytecode;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.function.Function2;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.LoadToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.StoreToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+/**
+ * Compiles an expression in reverse polish notation to a java class extending {@link GeneratedExpression}. The RPN
+ * maps directly onto the JVM's operand stack, so the generated evaluate method is straight line code: the builtin
+ * operators are emitted as arithmetic instructions and the builtin functions as calls to {@link java.lang.Math},
+ * which lets the JIT inline the whole expression. Custom functions and operators are invoked through their
+ * <code>apply()</code> methods, without boxing for {@link Function1} and {@link Function2}.
+ */
+public final class BytecodeCompiler {
+
+    private static final String BASE_CLASS = "net/objecthunter/exp4j/bytecode/GeneratedExpression";
+    private static final String GENERATED_PREFIX = "net/objecthunter/exp4j/bytecode/Generated";
+    private static final String FUNCTION_CLASS = "net/objecthunter/exp4j/function/Function";
+    private static final String OPERATOR_CLASS = "net/objecthunter/exp4j/operator/Operator";
+    private static final String MATH_CLASS = "java/lang/Math";
+    private static final String FUNCTION1_CLASS = "net/objecthunter/exp4j/function/Function1";
+    private static final String FUNCTION2_CLASS = "net/objecthunter/exp4j/function/Function2";
+    private static final String CONSTRUCTOR_DESCRIPTOR = "([L" + FUNCTION_CLASS + ";[L" + OPERATOR_CLASS + ";)V";
+
+    /* the opcodes used by the compiler */
+    private static final int ICONST_0 = 0x03;
+    private static final int DCONST_0 = 0x0e;
+    private static final int DCONST_1 = 0x0f;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int DLOAD = 0x18;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int DALOAD = 0x31;
+    private static final int AALOAD = 0x32;
+    private static final int DSTORE = 0x39;
+    private static final int DASTORE = 0x52;
+    private static final int DUP = 0x59;
+    private static final int DUP2 = 0x5c;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DNEG = 0x77;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int NEWARRAY = 0xbc;
+    private static final int CHECKCAST = 0xc0;
+    private static final int WIDE = 0xc4;
+    private static final int T_DOUBLE = 7;
+
+    /* local 0 is 'this', local 1 the variable array, the function arguments are stored from local 2 onwards,
+       followed by the temporary slots */
+    private static final int FIRST_ARGUMENT_LOCAL = 2;
+
+    /* the builtin functions mapped onto a static method taking and returning doubles */
+    private static final Map<String, String[]> builtinFunctionMethods = new HashMap<String, String[]>();
+
+    private static final AtomicLong classCounter = new AtomicLong();
+
+    static {
+        final String[] mathFunctions = {"sin", "cos", "tan", "asin", "acos", "atan", "sinh", "cosh", "tanh", "abs",
+                "log", "log10", "log1p", "ceil", "floor", "sqrt", "cbrt", "pow", "exp", "expm1"};
+        for (String name : mathFunctions) {
+            builtinFunctionMethods.put(name, new String[]{MATH_CLASS, name});
+        }
+        builtinFunctionMethods.put("cot", new String[]{BASE_CLASS, "cot"});
+        builtinFunctionMethods.put("log2", new String[]{BASE_CLASS, "log2"});
+        builtinFunctionMethods.put("signum", new String[]{BASE_CLASS, "signum"});
+    }
+
+    private BytecodeCompiler() {
+    }
+
+    /**
+     * Compile an expression to a {@link GeneratedExpression}
+     * @param tokens the expression in reverse polish notation. The index of each
+     *               {@link net.objecthunter.exp4j.tokenizer.VariableToken} is the index of the variable's value in the
+     *               array passed to {@link GeneratedExpression#evaluate(double[])}
+     * @return the compiled expression or null if the tokens do not form a valid expression or if the class could
+     * not be defined in this environment
+     */
+    public static GeneratedExpression compile(final Token[] tokens) {
+        final String className = GENERATED_PREFIX + classCounter.incrementAndGet();
+        final ClassFileWriter cw = new ClassFileWriter(className, BASE_CLASS);
+        final Map<Object, Integer> refIndices = new IdentityHashMap<Object, Integer>();
+        final List<Function> functions = new ArrayList<Function>();
+        final List<Operator> operators = new ArrayList<Operator>();
+
+        final ClassFileWriter.Code code = new ClassFileWriter.Code(FIRST_ARGUMENT_LOCAL);
+        final int firstTempLocal = FIRST_ARGUMENT_LOCAL + 2 * maxArguments(tokens);
+        /* the temporary slots which have been stored, the verifier rejects loading any other */
+        final boolean[] stored = new boolean[tokens.length];
+        /* the number of values on the operand stack */
+        int count = 0;
+        try {
+            for (final Token t : tokens) {
+                switch (t.getType()) {
+                    case Token.TOKEN_NUMBER:
+                        pushDouble(cw, code, ((NumberToken) t).getValue());
+                        count++;
+                        break;
+                    case Token.TOKEN_VARIABLE:
+                        final int idx = ((VariableToken) t).getIndex();
+                        if (idx < 0) {
+                            return null;
+                        }
+                        code.op(ALOAD_1, 1);
+                        pushInt(cw, code, idx);
+                        code.op(DALOAD, 0);
+                        count++;
+                        break;
+                    case Token.TOKEN_OPERATOR:
+                        final Operator op = ((OperatorToken) t).getOperator();
+                        if (count < op.getNumOperands()) {
+                            return null;
+                        }
+                        if (!emitBuiltinOperator(cw, code, op)) {
+                            emitOperatorCall(cw, code, op, index(op, operators, refIndices));
+                        }
+                        count += 1 - op.getNumOperands();
+                        break;
+                    case Token.TOKEN_FUNCTION:
+                        final Function func = ((FunctionToken) t).getFunction();
+                        if (count < func.getNumArguments()) {
+                            return null;
+                        }
+                        if (!emitBuiltinFunction(cw, code, func)) {
+                            emitFunctionCall(cw, code, func, index(func, functions, refIndices));
+                        }
+                        count += 1 - func.getNumArguments();
+                        break;
+                    case Token.TOKEN_STORE:
+                        final int storeIdx = ((StoreToken) t).getIndex();
+                        if (count < 1 || storeIdx < 0 || storeIdx >= stored.length) {
+                            return null;
+                        }
+                        code.useLocals(firstTempLocal + 2 * storeIdx + 2);
+                        code.op(DUP2, 2);
+                        localInstruction(code, DSTORE, firstTempLocal + 2 * storeIdx, -2);
+                        stored[storeIdx] = true;
+                        break;
+                    case Token.TOKEN_LOAD:
+                        final int loadIdx = ((LoadToken) t).getIndex();
+                        if (loadIdx < 0 || loadIdx >= stored.length || !stored[loadIdx]) {
+                            return null;
+                        }
+                        localInstruction(code, DLOAD, firstTempLocal + 2 * loadIdx, 2);
+                        count++;
+                        break;
+                    default:
+                        return null;
+                }
+            }
+            if (count != 1) {
+                return null;
+            }
+            code.op(DRETURN, -2);
+            cw.method(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_FINAL, "evaluate", "([D)D", code);
+            cw.method(ClassFileWriter.ACC_PUBLIC, "<init>", CONSTRUCTOR_DESCRIPTOR, constructor(cw));
+        } catch (IllegalStateException e) {
+            /* the expression exceeds the limits of the class file format */
+            return null;
+        }
+        return define(className.replace('/', '.'), cw.toByteArray(),
+                functions.toArray(new Function[functions.size()]), operators.toArray(new Operator[operators.size()]));
+    }
+
+    /* the maximum number of arguments passed to a function or operator, which determines the locals needed to
+       call custom ones */
+    private static int maxArguments(final Token[] tokens) {
+        int max = 0;
+        for (final Token t : tokens) {
+            if (t.getType() == Token.TOKEN_OPERATOR) {
+                max = Math.max(max, ((OperatorToken) t).getOperator().getNumOperands());
+            } else if (t.getType() == Token.TOKEN_FUNCTION) {
+                max = Math.max(max, ((FunctionToken) t).getFunction().getNumArguments());
+            }
+        }
+        return max;
+    }
+
+    private static <T> int index(T ref, List<T> refs, Map<Object, Integer> refIndices) {
+        Integer idx = refIndices.get(ref);
+        if (idx == null) {
+            idx = refs.size();
+            refs.add(ref);
+            refIndices.put(ref, idx);
+        }
+        return idx;
+    }
+
+    private static ClassFileWriter.Code constructor(ClassFileWriter cw) {
+        final ClassFileWriter.Code code = new ClassFileWriter.Code(3);
+        code.op(ALOAD_0, 1).op(ALOAD_1, 1).op(ALOAD_2, 1);
+        code.op(INVOKESPECIAL, -3).u2(cw.methodConstant(BASE_CLASS, "<init>", CONSTRUCTOR_DESCRIPTOR));
+        code.op(RETURN, 0);
+        return code;
+    }
+
+    private static boolean emitBuiltinOperator(ClassFileWriter cw, ClassFileWriter.Code code, Operator op) {
+        final String symbol = op.getSymbol();
+        if (symbol.length() != 1 || op != Operators.getBuiltinOperator(symbol.charAt(0), op.getNumOperands())) {
+            /* a custom operator, possibly replacing a builtin one */
+            return false;
+        }
+        if (op.getNumOperands() == 1) {
+            if (symbol.charAt(0) == '-') {
+                code.op(DNEG, 0);
+            }
+            /* the unary plus is a no-op */
+            return true;
+        }
+        switch (symbol.charAt(0)) {
+            case '+':
+                code.op(DADD, -2);
+                return true;
+            case '-':
+                code.op(DSUB, -2);
+                return true;
+            case '*':
+                code.op(DMUL, -2);
+                return true;
+            case '/':
+                code.op(INVOKESTATIC, -2).u2(cw.methodConstant(BASE_CLASS, "divide", "(DD)D"));
+                return true;
+            case '%':
+                code.op(INVOKESTATIC, -2).u2(cw.methodConstant(BASE_CLASS, "modulo", "(DD)D"));
+                return true;
+            case '^':
+                code.op(INVOKESTATIC, -2).u2(cw.methodConstant(MATH_CLASS, "pow", "(DD)D"));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean emitBuiltinFunction(ClassFileWriter cw, ClassFileWriter.Code code, Function func) {
+        final String name = func.getName();
+        if (func != Functions.getBuiltinFunction(name)) {
+            /* a custom function, possibly replacing a builtin one */
+            return false;
+        }
+        final String[] method = builtinFunctionMethods.get(name);
+        if (method == null) {
+            return false;
+        }
+        final int numArgs = func.getNumArguments();
+        final StringBuilder descriptor = new StringBuilder("(");
+        for (int i = 0; i < numArgs; i++) {
+            descriptor.append('D');
+        }
+        descriptor.append(")D");
+        code.op(INVOKESTATIC, 2 - 2 * numArgs).u2(cw.methodConstant(method[0], method[1], descriptor.toString()));
+        return true;
+    }
+
+    private static void emitOperatorCall(ClassFileWriter cw, ClassFileWriter.Code code, Operator op, int idx) {
+        final int numOperands = op.getNumOperands();
+        storeArguments(code, numOperands);
+        code.op(ALOAD_0, 1);
+        code.op(GETFIELD, 0).u2(cw.fieldConstant(BASE_CLASS, "operators", "[L" + OPERATOR_CLASS + ";"));
+        pushInt(cw, code, idx);
+        code.op(AALOAD, -1);
+        pushInt(cw, code, numOperands);
+        code.op(NEWARRAY, 0).u1(T_DOUBLE);
+        for (int i = 0; i < numOperands; i++) {
+            code.op(DUP, 1);
+            pushInt(cw, code, i);
+            loadArgument(code, i);
+            code.op(DASTORE, -4);
+        }
+        code.op(INVOKEVIRTUAL, 0).u2(cw.methodConstant(OPERATOR_CLASS, "apply", "([D)D"));
+    }
+
+    private static void emitFunctionCall(ClassFileWriter cw, ClassFileWriter.Code code, Function func, int idx) {
+        final int numArgs = func.getNumArguments();
+        storeArguments(code, numArgs);
+        code.op(ALOAD_0, 1);
+        code.op(GETFIELD, 0).u2(cw.fieldConstant(BASE_CLASS, "functions", "[L" + FUNCTION_CLASS + ";"));
+        pushInt(cw, code, idx);
+        code.op(AALOAD, -1);
+        if (func instanceof Function1 || func instanceof Function2) {
+            /* pass the arguments directly */
+            final String owner = func instanceof Function1 ? FUNCTION1_CLASS : FUNCTION2_CLASS;
+            code.op(CHECKCAST, 0).u2(cw.classConstant(owner));
+            for (int i = 0; i < numArgs; i++) {
+                loadArgument(code, i);
+            }
+            code.op(INVOKEVIRTUAL, 1 - 2 * numArgs).u2(cw.methodConstant(owner, "apply",
+                    numArgs == 1 ? "(D)D" : "(DD)D"));
+            return;
+        }
+        pushInt(cw, code, numArgs);
+        code.op(NEWARRAY, 0).u1(T_DOUBLE);
+        for (int i = 0; i < numArgs; i++) {
+            code.op(DUP, 1);
+            pushInt(cw, code, i);
+            loadArgument(code, i);
+            code.op(DASTORE, -4);
+        }
+        code.op(ICONST_0, 1);
+        code.op(INVOKEVIRTUAL, -1).u2(cw.methodConstant(FUNCTION_CLASS, "apply", "([DI)D"));
+    }
+
+    /* move the arguments from the operand stack to local variables, so that the
+       receiver and the argument array can be pushed beneath them */
+    private static void storeArguments(ClassFileWriter.Code code, int numArgs) {
+        code.useLocals(FIRST_ARGUMENT_LOCAL + 2 * numArgs);
+        for (int i = numArgs - 1; i >= 0; i--) {
+            localInstruction(code, DSTORE, FIRST_ARGUMENT_LOCAL + 2 * i, -2);
+        }
+    }
+
+    private static void loadArgument(ClassFileWriter.Code code, int i) {
+        localInstruction(code, DLOAD, FIRST_ARGUMENT_LOCAL + 2 * i, 2);
+    }
+
+    private static void localInstruction(ClassFileWriter.Code code, int opcode, int local, int stackDelta) {
+        if (local > 0xFF) {
+            code.op(WIDE, 0).op(opcode, stackDelta).u2(local);
+        } else {
+            code.op(opcode, stackDelta).u1(local);
+        }
+    }
+
+    private static void pushDouble(ClassFileWriter cw, ClassFileWriter.Code code, double value) {
+        final long bits = Double.doubleToRawLongBits(value);
+        if (bits == Double.doubleToRawLongBits(0d)) {
+            code.op(DCONST_0, 2);
+        } else if (bits == Double.doubleToRawLongBits(1d)) {
+            code.op(DCONST_1, 2);
+        } else {
+            code.op(LDC2_W, 2).u2(cw.doubleConstant(value));
+        }
+    }
+
+    private static void pushInt(ClassFileWriter cw, ClassFileWriter.Code code, int value) {
+        if (value >= -1 && value <= 5) {
+            code.op(ICONST_0 + value, 1);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.op(BIPUSH, 1).u1(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.op(SIPUSH, 1).u2(value);
+        } else {
+            code.op(LDC_W, 1).u2(cw.intConstant(value));
+        }
+    }
+
+    /* define and instantiate the generated class, null if this is not possible in this environment */
+    static GeneratedExpression define(String className, byte[] bytes, Function[] functions, Operator[] operators) {
+        final Class<?> cls;
+        try {
+            /* every class gets its own loader, so that it can be unloaded together with the expression */
+            cls = new Loader(GeneratedExpression.class.getClassLoader()).define(className, bytes);
+        } catch (SecurityException e) {
+            /* defining classes at runtime is not allowed in this environment */
+            return null;
+        } catch (UnsupportedOperationException e) {
+            return null;
+        } catch (VirtualMachineError e) {
+            throw e;
+        } catch (Error e) {
+            /* a LinkageError such as a ClassFormatError, or the error thrown by a native image, which can not
+               define classes at runtime */
+            return null;
+        }
+        try {
+            return (GeneratedExpression) cls.getConstructor(Function[].class, Operator[].class)
+                    .newInstance(functions, operators);
+        } catch (LinkageError e) {
+            /* the class is verified when it is linked, i.e. when it is instantiated for the first time */
+            return null;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Unable to instantiate the generated class", e);
+        } catch (InstantiationException e) {
+            throw new IllegalStateException("Unable to instantiate the generated class", e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Unable to instantiate the generated class", e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Unable to instantiate the generated class", e);
+        }
+    }
+
+    private static final class Loader extends ClassLoader {
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.bytecode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Minimal writer for the java class file format. It only supports what the {@link BytecodeCompiler} needs: a public
+ * final class without fields or interfaces whose methods consist of straight line code without any branches, so no
+ * stack map frames have to be computed.
+ */
+final class ClassFileWriter {
+
+    /* class file version 50 (Java 6) */
+    private static final int MAJOR_VERSION = 50;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private static final int MAX_POOL_SIZE = 0xFFFF;
+    private static final int MAX_CODE_LENGTH = 0xFFFF;
+    private static final int MAX_LOCALS = 0xFFFF;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndices = new HashMap<String, Integer>();
+    private int poolSize = 1;
+
+    private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+    private final DataOutputStream methods = new DataOutputStream(methodBytes);
+    private int methodCount = 0;
+
+    private final int thisClass;
+    private final int superClass;
+
+    /**
+     * Create a new writer for a class
+     * @param className the internal name of the class e.g. <code>java/lang/Object</code>
+     * @param superName the internal name of the super class
+     */
+    ClassFileWriter(String className, String superName) {
+        this.thisClass = classConstant(className);
+        this.superClass = classConstant(superName);
+    }
+
+    int utf8Constant(String value) {
+        Integer idx = poolIndices.get("U" + value);
+        if (idx == null) {
+            try {
+                pool.writeByte(CONSTANT_UTF8);
+                pool.writeUTF(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            idx = register("U" + value, 1);
+        }
+        return idx;
+    }
+
+    int intConstant(int value) {
+        Integer idx = poolIndices.get("I" + value);
+        if (idx == null) {
+            try {
+                pool.writeByte(CONSTANT_INTEGER);
+                pool.writeInt(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            idx = register("I" + value, 1);
+        }
+        return idx;
+    }
+
+    int doubleConstant(double value) {
+        final long bits = Double.doubleToRawLongBits(value);
+        Integer idx = poolIndices.get("D" + bits);
+        if (idx == null) {
+            try {
+                pool.writeByte(CONSTANT_DOUBLE);
+                pool.writeLong(bits);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            /* doubles take up two entries in the constant pool */
+            idx = register("D" + bits, 2);
+        }
+        return idx;
+    }
+
+    int classConstant(String internalName) {
+        Integer idx = poolIndices.get("C" + internalName);
+        if (idx == null) {
+            final int name = utf8Constant(internalName);
+            write(CONSTANT_CLASS, name);
+            idx = register("C" + internalName, 1);
+        }
+        return idx;
+    }
+
+    int fieldConstant(String owner, String name, String descriptor) {
+        return memberConstant(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    int methodConstant(String owner, String name, String descriptor) {
+        return memberConstant(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    private int memberConstant(int tag, String owner, String name, String descriptor) {
+        final String key = "M" + tag + owner + '.' + name + descriptor;
+        Integer idx = poolIndices.get(key);
+        if (idx == null) {
+            final int cls = classConstant(owner);
+            final int nameAndType = nameAndTypeConstant(name, descriptor);
+            write(tag, cls, nameAndType);
+            idx = register(key, 1);
+        }
+        return idx;
+    }
+
+    private int nameAndTypeConstant(String name, String descriptor) {
+        final String key = "N" + name + ':' + descriptor;
+        Integer idx = poolIndices.get(key);
+        if (idx == null) {
+            final int n = utf8Constant(name);
+            final int d = utf8Constant(descriptor);
+            write(CONSTANT_NAME_AND_TYPE, n, d);
+            idx = register(key, 1);
+        }
+        return idx;
+    }
+
+    private void write(int tag, int... indices) {
+        try {
+            pool.writeByte(tag);
+            for (int i : indices) {
+                pool.writeShort(i);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int register(String key, int entries) {
+        final int idx = poolSize;
+        poolSize += entries;
+        if (poolSize > MAX_POOL_SIZE) {
+            throw new IllegalStateException("The constant pool is too large");
+        }
+        poolIndices.put(key, idx);
+        return idx;
+    }
+
+    /**
+     * Add a method to the class
+     * @param access the access flags of the method
+     * @param name the name of the method
+     * @param descriptor the method descriptor
+     * @param code the method's code
+     */
+    void method(int access, String name, String descriptor, Code code) {
+        if (code.length() > MAX_CODE_LENGTH) {
+            throw new IllegalStateException("The code of method '" + name + "' is too large");
+        }
+        final int nameIdx = utf8Constant(name);
+        final int descIdx = utf8Constant(descriptor);
+        final int codeIdx = utf8Constant("Code");
+        try {
+            methods.writeShort(access);
+            methods.writeShort(nameIdx);
+            methods.writeShort(descIdx);
+            methods.writeShort(1);
+            methods.writeShort(codeIdx);
+            /* max_stack, max_locals, code_length, code, exception_table_length, attributes_count */
+            methods.writeInt(2 + 2 + 4 + code.length() + 2 + 2);
+            methods.writeShort(code.getMaxStack());
+            methods.writeShort(code.getMaxLocals());
+            methods.writeInt(code.length());
+            code.writeTo(methods);
+            methods.writeShort(0);
+            methods.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        methodCount++;
+    }
+
+    /**
+     * Create the binary representation of the class
+     * @return the class file's bytes
+     */
+    byte[] toByteArray() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(poolBytes.size() + methodBytes.size() + 32);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            out.writeShort(poolSize);
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            /* no interfaces, no fields */
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(methodCount);
+            methodBytes.writeTo(out);
+            /* no class attributes */
+            out.writeShort(0);
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * The code of a single method. Keeps track of the operand stack size, so that max_stack can be written to the
+     * class file.
+     */
+    static final class Code {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+
+        Code(int maxLocals) {
+            this.maxLocals = maxLocals;
+        }
+
+        /**
+         * Emit an instruction
+         * @param opcode the instruction's opcode
+         * @param stackDelta the change of the operand stack size in words caused by the instruction
+         * @return this code instance
+         */
+        Code op(int opcode, int stackDelta) {
+            bytes.write(opcode);
+            stack += stackDelta;
+            if (stack > maxStack) {
+                maxStack = stack;
+            }
+            return this;
+        }
+
+        Code u1(int value) {
+            bytes.write(value);
+            return this;
+        }
+
+        Code u2(int value) {
+            bytes.write(value >>> 8);
+            bytes.write(value);
+            return this;
+        }
+
+        void useLocals(int count) {
+            if (count > MAX_LOCALS) {
+                throw new IllegalStateException("Too many local variables");
+            }
+            if (count > maxLocals) {
+                maxLocals = count;
+            }
+        }
+
+        int length() {
+            return bytes.size();
+        }
+
+        int getMaxStack() {
+            return maxStack;
+        }
+
+        int getMaxLocals() {
+            return maxLocals;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            bytes.writeTo(out);
+        }
+    }
+}
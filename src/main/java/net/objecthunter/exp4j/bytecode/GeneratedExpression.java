@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.bytecode;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+
+/**
+ * Base class of the classes generated by the {@link BytecodeCompiler}. Generated classes are defined in their own
+ * class loader, so every member used by the generated code has to be accessible from outside of this package.
+ */
+public abstract class GeneratedExpression {
+
+    /**
+     * The custom functions called by the generated code
+     */
+    protected final Function[] functions;
+
+    /**
+     * The custom operators called by the generated code
+     */
+    protected final Operator[] operators;
+
+    /**
+     * Create a new instance
+     * @param functions the custom functions called by the generated code
+     * @param operators the custom operators called by the generated code
+     */
+    protected GeneratedExpression(Function[] functions, Operator[] operators) {
+        this.functions = functions;
+        this.operators = operators;
+    }
+
+    /**
+     * Evaluate the expression
+     * @param variables the values of the variables in the order passed to the {@link BytecodeCompiler}
+     * @return the result of the evaluation
+     */
+    public abstract double evaluate(double[] variables);
+
+    /* The helpers below mirror the builtin operators and functions which can not be expressed by a single
+       instruction or call to java.lang.Math. They are small enough to be inlined by the JIT */
+
+    protected static double divide(double dividend, double divisor) {
+        if (divisor == 0d) {
+            throw new ArithmeticException("Division by zero!");
+        }
+        return dividend / divisor;
+    }
+
+    protected static double modulo(double dividend, double divisor) {
+        if (divisor == 0d) {
+            throw new ArithmeticException("Division by zero!");
+        }
+        return dividend % divisor;
+    }
+
+    protected static double cot(double arg) {
+        double tan = Math.tan(arg);
+        if (tan == 0d) {
+            throw new ArithmeticException("Division by zero in cotangent!");
+        }
+        return 1d / Math.tan(arg);
+    }
+
+    protected static double log2(double arg) {
+        return Math.log(arg) / Math.log(2d);
+    }
+
+    protected static double signum(double arg) {
+        if (arg > 0) {
+            return 1d;
+        } else if (arg < 0) {
+            return -1d;
+        } else {
+            return 0d;
+        }
+    }
+}
@@ -79,6 +79,58 @@ public abstract class Function <R extends Double, P extends Double> {
      */
     public abstract R apply(P... args);
 
+    /**
+     * Method that calculates the function value given the arguments stored in an array. The evaluator uses this
+     * method to pass the arguments in place on its operand stack. The default implementation boxes the arguments
+     * and calls {@link #apply(Double...)}, while {@link Function1}, {@link Function2} and {@link FunctionN} are
+     * evaluated without boxing.
+     *
+     * @param args the array holding the arguments at the indices <code>offset</code> to
+     *             <code>offset + getNumArguments() - 1</code>. The array must not be modified.
+     * @param offset the index of the first argument
+     * @return the result of the function evaluation
+     */
+    @SuppressWarnings("unchecked")
+    public double apply(double[] args, int offset) {
+        final Double[] boxed = new Double[numArguments];
+        for (int i = 0; i < numArguments; i++) {
+            boxed[i] = args[offset + i];
+        }
+        return apply((P[]) boxed);
+    }
+
+    /**
+     * Method that calculates the function values for a batch of arguments. The batch evaluation uses this method to
+     * apply a function to whole columns of arguments at once. The default implementation calls
+     * {@link #apply(double[], int)} for every row, {@link Function1}, {@link Function2} and the builtin functions
+     * override it with a loop over the argument arrays.
+     *
+     * @param args the arrays holding the arguments: <code>args[offset + i][row]</code> is the i-th argument of a row
+     * @param offset the index of the first argument's array
+     * @param result the array to store the results in, it may be the same as one of the arguments' arrays
+     * @param length the number of rows
+     */
+    public void apply(double[][] args, int offset, double[] result, int length) {
+        final double[] arguments = new double[numArguments];
+        for (int row = 0; row < length; row++) {
+            for (int i = 0; i < numArguments; i++) {
+                arguments[i] = args[offset + i][row];
+            }
+            result[row] = apply(arguments, 0);
+        }
+    }
+
+    /**
+     * Check whether the function always returns the same result for the same arguments and has no side effects.
+     * Identical calls of a deterministic function are evaluated only once per evaluation of an expression.
+     * Override this method to declare a custom function deterministic, the builtin functions always are.
+     *
+     * @return true if the function is deterministic, false otherwise
+     */
+    public boolean isDeterministic() {
+        return false;
+    }
+
     /**
      * Get the set of characters which are allowed for use in Function names.
      * 
@@ -0,0 +1,57 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.function;
+
+/**
+ * A {@link Function} taking a single argument which is evaluated without boxing the argument or the result
+ */
+public abstract class Function1 extends Function<Double, Double> {
+
+    /**
+     * Create a new Function with a given name that takes a single argument
+     *
+     * @param name the name of the Function
+     */
+    public Function1(String name) {
+        super(name, 1);
+    }
+
+    /**
+     * Method that does the actual calculation of the function value given the argument
+     *
+     * @param arg the argument
+     * @return the result of the function evaluation
+     */
+    public abstract double apply(double arg);
+
+    @Override
+    public final double apply(double[] args, int offset) {
+        return apply(args[offset]);
+    }
+
+    @Override
+    public void apply(double[][] args, int offset, double[] result, int length) {
+        final double[] a = args[offset];
+        for (int i = 0; i < length; i++) {
+            result[i] = apply(a[i]);
+        }
+    }
+
+    @Override
+    public final Double apply(Double... args) {
+        return apply(args[0].doubleValue());
+    }
+}
@@ -0,0 +1,59 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.function;
+
+/**
+ * A {@link Function} taking two arguments which is evaluated without boxing the arguments or the result
+ */
+public abstract class Function2 extends Function<Double, Double> {
+
+    /**
+     * Create a new Function with a given name that takes two arguments
+     *
+     * @param name the name of the Function
+     */
+    public Function2(String name) {
+        super(name, 2);
+    }
+
+    /**
+     * Method that does the actual calculation of the function value given the arguments
+     *
+     * @param arg1 the first argument
+     * @param arg2 the second argument
+     * @return the result of the function evaluation
+     */
+    public abstract double apply(double arg1, double arg2);
+
+    @Override
+    public final double apply(double[] args, int offset) {
+        return apply(args[offset], args[offset + 1]);
+    }
+
+    @Override
+    public void apply(double[][] args, int offset, double[] result, int length) {
+        final double[] a = args[offset];
+        final double[] b = args[offset + 1];
+        for (int i = 0; i < length; i++) {
+            result[i] = apply(a[i], b[i]);
+        }
+    }
+
+    @Override
+    public final Double apply(Double... args) {
+        return apply(args[0].doubleValue(), args[1].doubleValue());
+    }
+}
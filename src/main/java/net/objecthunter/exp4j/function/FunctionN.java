@@ -0,0 +1,54 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.function;
+
+/**
+ * A {@link Function} taking an arbitrary number of arguments which is evaluated without boxing the arguments or the
+ * result. The arguments are passed as a range of an array, which is usually the evaluator's operand stack.
+ */
+public abstract class FunctionN extends Function<Double, Double> {
+
+    /**
+     * Create a new Function with a given name and number of arguments
+     *
+     * @param name the name of the Function
+     * @param numArguments the number of arguments the function takes
+     */
+    public FunctionN(String name, int numArguments) {
+        super(name, numArguments);
+    }
+
+    /**
+     * Method that does the actual calculation of the function value given the arguments. The arguments are
+     * stored at the indices <code>offset</code> to <code>offset + getNumArguments() - 1</code> of the array.
+     * The array must not be modified.
+     *
+     * @param args the array holding the arguments
+     * @param offset the index of the first argument
+     * @return the result of the function evaluation
+     */
+    @Override
+    public abstract double apply(double[] args, int offset);
+
+    @Override
+    public final Double apply(Double... args) {
+        final double[] values = new double[args.length];
+        for (int i = 0; i < args.length; i++) {
+            values[i] = args[i];
+        }
+        return apply(values, 0);
+    }
+}
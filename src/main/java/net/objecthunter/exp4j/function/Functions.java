@@ -45,157 +45,383 @@ public class Functions {
 
     private static final Function[] builtinFunctions = new Function[23];
 
+    /* the builtin functions are deterministic, so identical calls can be evaluated once */
+    private abstract static class BuiltinFunction1 extends Function1 {
+        BuiltinFunction1(String name) {
+            super(name);
+        }
+
+        @Override
+        public boolean isDeterministic() {
+            return true;
+        }
+    }
+
+    private abstract static class BuiltinFunction2 extends Function2 {
+        BuiltinFunction2(String name) {
+            super(name);
+        }
+
+        @Override
+        public boolean isDeterministic() {
+            return true;
+        }
+    }
+
     static {
-        builtinFunctions[INDEX_SIN] = new Function<Double, Double>("sin") {
+        builtinFunctions[INDEX_SIN] = new BuiltinFunction1("sin") {
             @Override
-            public Double apply(Double... args) {
-                return Math.sin(args[0]);
+            public double apply(double arg) {
+                return Math.sin(arg);
+            }
+
+            @Override
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.sin(a[i]);
+                }
             }
         };
-        builtinFunctions[INDEX_COS] = new Function<Double, Double>("cos") {
+        builtinFunctions[INDEX_COS] = new BuiltinFunction1("cos") {
             @Override
-            public Double apply(Double... args) {
-                return Math.cos(args[0]);
+            public double apply(double arg) {
+                return Math.cos(arg);
+            }
+
+            @Override
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.cos(a[i]);
+                }
             }
         };
-        builtinFunctions[INDEX_TAN] = new Function<Double, Double>("tan") {
+        builtinFunctions[INDEX_TAN] = new BuiltinFunction1("tan") {
             @Override
-            public Double apply(Double... args) {
-                return Math.tan(args[0]);
+            public double apply(double arg) {
+                return Math.tan(arg);
+            }
+
+            @Override
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.tan(a[i]);
+                }
             }
         };
-        builtinFunctions[INDEX_COT] = new Function<Double, Double>("cot") {
+        builtinFunctions[INDEX_COT] = new BuiltinFunction1("cot") {
             @Override
-            public Double apply(Double... args) {
-                double tan = Math.tan(args[0]);
+            public double apply(double arg) {
+                double tan = Math.tan(arg);
                 if (tan == 0d) {
                     throw new ArithmeticException("Division by zero in cotangent!");
                 }
-                return 1d/Math.tan(args[0]);
+                return 1d/Math.tan(arg);
+            }
+
+            @Override
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    double tan = Math.tan(a[i]);
+                    if (tan == 0d) {
+                        throw new ArithmeticException("Division by zero in cotangent!");
+                    }
+                    result[i] = 1d/Math.tan(a[i]);
+                }
             }
         };
-        builtinFunctions[INDEX_LOG] = new Function<Double, Double>("log") {
+        builtinFunctions[INDEX_LOG] = new BuiltinFunction1("log") {
             @Override
-            public Double apply(Double... args) {
-                return Math.log(args[0]);
+            public double apply(double arg) {
+                return Math.log(arg);
+            }
+
+            @Override
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.log(a[i]);
+                }
             }
         };
-        builtinFunctions[INDEX_LOG2] = new Function<Double, Double>("log2") {
+        builtinFunctions[INDEX_LOG2] = new BuiltinFunction1("log2") {
             @Override
-            public Double apply(Double... args) {
-                return Math.log(args[0]) / Math.log(2d);
+            public double apply(double arg) {
+                return Math.log(arg) / Math.log(2d);
+            }
+
+            @Override
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.log(a[i]) / Math.log(2d);
+                }
             }
         };
-        builtinFunctions[INDEX_LOG10] = new Function<Double, Double>("log10") {
+        builtinFunctions[INDEX_LOG10] = new BuiltinFunction1("log10") {
             @Override
-            public Double apply(Double... args) {
-                return Math.log10(args[0]);
+            public double apply(double arg) {
+                return Math.log10(arg);
+            }
+
+            @Override
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.log10(a[i]);
+                }
             }
         };
-        builtinFunctions[INDEX_LOG1P] = new Function<Double, Double>("log1p") {
+        builtinFunctions[INDEX_LOG1P] = new BuiltinFunction1("log1p") {
+            @Override
+            public double apply(double arg) {
+                return Math.log1p(arg);
+            }
+
             @Override
-            public Double apply(Double... args) {
-                return Math.log1p(args[0]);
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.log1p(a[i]);
+                }
             }
         };
-        builtinFunctions[INDEX_ABS] = new Function<Double, Double>("abs") {
+        builtinFunctions[INDEX_ABS] = new BuiltinFunction1("abs") {
             @Override
-            public Double apply(Double... args) {
-                return Math.abs(args[0]);
+            public double apply(double arg) {
+                return Math.abs(arg);
+            }
+
+            @Override
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.abs(a[i]);
+                }
             }
         };
-        builtinFunctions[INDEX_ACOS] = new Function<Double, Double>("acos") {
+        builtinFunctions[INDEX_ACOS] = new BuiltinFunction1("acos") {
             @Override
-            public Double apply(Double... args) {
-                return Math.acos(args[0]);
+            public double apply(double arg) {
+                return Math.acos(arg);
+            }
+
+            @Override
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.acos(a[i]);
+                }
             }
         };
-        builtinFunctions[INDEX_ASIN] = new Function<Double, Double>("asin") {
+        builtinFunctions[INDEX_ASIN] = new BuiltinFunction1("asin") {
+            @Override
+            public double apply(double arg) {
+                return Math.asin(arg);
+            }
+
             @Override
-            public Double apply(Double... args) {
-                return Math.asin(args[0]);
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.asin(a[i]);
+                }
             }
         };
-        builtinFunctions[INDEX_ATAN] = new Function<Double, Double>("atan") {
+        builtinFunctions[INDEX_ATAN] = new BuiltinFunction1("atan") {
             @Override
-            public Double apply(Double... args) {
-                return Math.atan(args[0]);
+            public double apply(double arg) {
+                return Math.atan(arg);
+            }
+
+            @Override
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.atan(a[i]);
+                }
             }
         };
-        builtinFunctions[INDEX_CBRT] = new Function<Double, Double>("cbrt") {
+        builtinFunctions[INDEX_CBRT] = new BuiltinFunction1("cbrt") {
+            @Override
+            public double apply(double arg) {
+                return Math.cbrt(arg);
+            }
+
             @Override
-            public Double apply(Double... args) {
-                return Math.cbrt(args[0]);
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.cbrt(a[i]);
+                }
             }
         };
-        builtinFunctions[INDEX_FLOOR] = new Function<Double, Double>("floor") {
+        builtinFunctions[INDEX_FLOOR] = new BuiltinFunction1("floor") {
             @Override
-            public Double apply(Double... args) {
-                return Math.floor(args[0]);
+            public double apply(double arg) {
+                return Math.floor(arg);
+            }
+
+            @Override
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.floor(a[i]);
+                }
             }
         };
-        builtinFunctions[INDEX_SINH] = new Function<Double, Double>("sinh") {
+        builtinFunctions[INDEX_SINH] = new BuiltinFunction1("sinh") {
             @Override
-            public Double apply(Double... args) {
-                return Math.sinh(args[0]);
+            public double apply(double arg) {
+                return Math.sinh(arg);
+            }
+
+            @Override
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.sinh(a[i]);
+                }
             }
         };
-        builtinFunctions[INDEX_SQRT] = new Function<Double, Double>("sqrt") {
+        builtinFunctions[INDEX_SQRT] = new BuiltinFunction1("sqrt") {
             @Override
-            public Double apply(Double... args) {
-                return Math.sqrt(args[0]);
+            public double apply(double arg) {
+                return Math.sqrt(arg);
+            }
+
+            @Override
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.sqrt(a[i]);
+                }
             }
         };
-        builtinFunctions[INDEX_TANH] = new Function<Double, Double>("tanh") {
+        builtinFunctions[INDEX_TANH] = new BuiltinFunction1("tanh") {
             @Override
-            public Double apply(Double... args) {
-                return Math.tanh(args[0]);
+            public double apply(double arg) {
+                return Math.tanh(arg);
+            }
+
+            @Override
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.tanh(a[i]);
+                }
             }
         };
-        builtinFunctions[INDEX_COSH] = new Function<Double, Double>("cosh") {
+        builtinFunctions[INDEX_COSH] = new BuiltinFunction1("cosh") {
             @Override
-            public Double apply(Double... args) {
-                return Math.cosh(args[0]);
+            public double apply(double arg) {
+                return Math.cosh(arg);
+            }
+
+            @Override
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.cosh(a[i]);
+                }
             }
         };
-        builtinFunctions[INDEX_CEIL] = new Function<Double, Double>("ceil") {
+        builtinFunctions[INDEX_CEIL] = new BuiltinFunction1("ceil") {
             @Override
-            public Double apply(Double... args) {
-                return Math.ceil(args[0]);
+            public double apply(double arg) {
+                return Math.ceil(arg);
+            }
+
+            @Override
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.ceil(a[i]);
+                }
             }
         };
-        builtinFunctions[INDEX_POW] = new Function<Double, Double>("pow", 2) {
+        builtinFunctions[INDEX_POW] = new BuiltinFunction2("pow") {
             @Override
-            public Double apply(Double... args) {
-                return Math.pow(args[0], args[1]);
+            public double apply(double arg1, double arg2) {
+                return Math.pow(arg1, arg2);
+            }
+
+            @Override
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                final double[] b = args[offset + 1];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.pow(a[i], b[i]);
+                }
             }
         };
-        builtinFunctions[INDEX_EXP] = new Function<Double, Double>("exp", 1) {
+        builtinFunctions[INDEX_EXP] = new BuiltinFunction1("exp") {
+            @Override
+            public double apply(double arg) {
+                return Math.exp(arg);
+            }
+
             @Override
-            public Double apply(Double... args) {
-                return Math.exp(args[0]);
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.exp(a[i]);
+                }
             }
         };
-        builtinFunctions[INDEX_EXPM1] = new Function<Double, Double>("expm1", 1) {
+        builtinFunctions[INDEX_EXPM1] = new BuiltinFunction1("expm1") {
             @Override
-            public Double apply(Double... args) {
-                return Math.expm1(args[0]);
+            public double apply(double arg) {
+                return Math.expm1(arg);
+            }
+
+            @Override
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.expm1(a[i]);
+                }
             }
         };
-        builtinFunctions[INDEX_SGN] = new Function<Double, Double>("signum", 1) {
+        builtinFunctions[INDEX_SGN] = new BuiltinFunction1("signum") {
             @Override
-            public Double apply(Double... args) {
-                if (args[0] > 0) {
+            public double apply(double arg) {
+                if (arg > 0) {
                     return 1d;
-                } else if (args[0] < 0) {
+                } else if (arg < 0) {
                     return -1d;
                 } else {
                     return 0d;
                 }
             }
+
+            @Override
+            public void apply(double[][] args, int offset, double[] result, int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    if (a[i] > 0) {
+                        result[i] = 1d;
+                    } else if (a[i] < 0) {
+                        result[i] = -1d;
+                    } else {
+                        result[i] = 0d;
+                    }
+                }
+            }
         };
     }
 
+    /**
+     * Get all builtin functions
+     * @return a new array holding the builtin functions
+     */
+    public static Function[] getBuiltinFunctions() {
+        return builtinFunctions.clone();
+    }
+
     /**
      * Get the builtin function for a given name
      * @param name te name of the function
@@ -15,6 +15,8 @@
 */
 package net.objecthunter.exp4j.operator;
 
+import java.util.Arrays;
+
 /**
  * Class representing operators that can be used in an expression
  */
@@ -57,6 +59,17 @@ public abstract class Operator {
      */
     public static final char[] ALLOWED_OPERATOR_CHARS = { '+', '-', '*', '/', '%', '^', '!', '#','§', '$', '&', ';', ':', '~', '<', '>', '|', '='};
 
+    /* the index of each allowed operator char in ALLOWED_OPERATOR_CHARS or -1, indexed by the char. All allowed
+       chars are in the Latin-1 range */
+    private static final int[] OPERATOR_CHAR_INDICES = new int[256];
+
+    static {
+        Arrays.fill(OPERATOR_CHAR_INDICES, -1);
+        for (int i = 0; i < ALLOWED_OPERATOR_CHARS.length; i++) {
+            OPERATOR_CHAR_INDICES[ALLOWED_OPERATOR_CHARS[i]] = i;
+        }
+    }
+
     protected final int numOperands;
     protected final boolean leftAssociative;
     protected final String symbol;
@@ -84,12 +97,16 @@ public abstract class Operator {
      * @return true if the char is allowed an an operator symbol, false otherwise
      */
     public static boolean isAllowedOperatorChar(char ch) {
-        for (char allowed: ALLOWED_OPERATOR_CHARS) {
-            if (ch == allowed) {
-                return true;
-            }
-        }
-        return false;
+        return getOperatorCharIndex(ch) >= 0;
+    }
+
+    /**
+     * Get the index of an allowed operator char in {@link #ALLOWED_OPERATOR_CHARS}
+     * @param ch the char
+     * @return the index of the char or -1 if the char is not allowed in an operator symbol
+     */
+    public static int getOperatorCharIndex(char ch) {
+        return ch < OPERATOR_CHAR_INDICES.length ? OPERATOR_CHAR_INDICES[ch] : -1;
     }
 
     /**
@@ -115,6 +132,50 @@ public abstract class Operator {
      */
     public abstract double apply(double ... args);
 
+    /**
+     * Apply the operation on operands stored in an array. The evaluator uses this method to pass the operands in
+     * place on its operand stack. The default implementation copies the operands to a new array and calls
+     * {@link #apply(double...)}, the builtin operators override it to avoid the allocation.
+     * @param args the array holding the operands at the indices <code>offset</code> to
+     *             <code>offset + getNumOperands() - 1</code>. The array must not be modified.
+     * @param offset the index of the first operand
+     * @return the calculated result of the operation
+     */
+    public double apply(double[] args, int offset) {
+        final double[] operands = new double[numOperands];
+        System.arraycopy(args, offset, operands, 0, numOperands);
+        return apply(operands);
+    }
+
+    /**
+     * Apply the operation on a batch of operands. The batch evaluation uses this method to apply an operator to whole
+     * columns of operands at once. The default implementation calls {@link #apply(double...)} for every row, the
+     * builtin operators override it with a loop over the operand arrays.
+     * @param args the arrays holding the operands: <code>args[offset + i][row]</code> is the i-th operand of a row
+     * @param offset the index of the first operand's array
+     * @param result the array to store the results in, it may be the same as one of the operands' arrays
+     * @param length the number of rows
+     */
+    public void apply(double[][] args, int offset, double[] result, int length) {
+        final double[] operands = new double[numOperands];
+        for (int row = 0; row < length; row++) {
+            for (int i = 0; i < numOperands; i++) {
+                operands[i] = args[offset + i][row];
+            }
+            result[row] = apply(operands);
+        }
+    }
+
+    /**
+     * Check whether the operation always returns the same result for the same operands and has no side effects.
+     * Identical operations using a deterministic operator are evaluated only once per evaluation of an expression.
+     * Override this method to declare a custom operator deterministic, the builtin operators always are.
+     * @return true if the operator is deterministic, false otherwise
+     */
+    public boolean isDeterministic() {
+        return false;
+    }
+
     /**
      * Get the operator symbol
      * @return the symbol
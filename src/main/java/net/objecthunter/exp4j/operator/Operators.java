@@ -27,59 +27,186 @@ public abstract class Operators {
 
     private static final Operator[] builtinOperators = new Operator[8];
 
+    /* the builtin operators are deterministic, so identical operations can be evaluated once */
+    private abstract static class BuiltinOperator extends Operator {
+        BuiltinOperator(String symbol, int numberOfOperands, boolean leftAssociative, int precedence) {
+            super(symbol, numberOfOperands, leftAssociative, precedence);
+        }
+
+        @Override
+        public boolean isDeterministic() {
+            return true;
+        }
+    }
+
     static {
-        builtinOperators[INDEX_ADDITION]= new Operator("+", 2, true, Operator.PRECEDENCE_ADDITION) {
+        builtinOperators[INDEX_ADDITION]= new BuiltinOperator("+", 2, true, Operator.PRECEDENCE_ADDITION) {
             @Override
             public double apply(final double... args) {
-                return args[0] + args[1];
+                return apply(args, 0);
+            }
+
+            @Override
+            public double apply(final double[] args, final int offset) {
+                return args[offset] + args[offset + 1];
+            }
+
+            @Override
+            public void apply(final double[][] args, final int offset, final double[] result, final int length) {
+                final double[] a = args[offset];
+                final double[] b = args[offset + 1];
+                for (int i = 0; i < length; i++) {
+                    result[i] = a[i] + b[i];
+                }
             }
         };
-        builtinOperators[INDEX_SUBTRACTION]= new Operator("-", 2, true, Operator.PRECEDENCE_ADDITION) {
+        builtinOperators[INDEX_SUBTRACTION]= new BuiltinOperator("-", 2, true, Operator.PRECEDENCE_ADDITION) {
             @Override
             public double apply(final double... args) {
-                return args[0] - args[1];
+                return apply(args, 0);
+            }
+
+            @Override
+            public double apply(final double[] args, final int offset) {
+                return args[offset] - args[offset + 1];
+            }
+
+            @Override
+            public void apply(final double[][] args, final int offset, final double[] result, final int length) {
+                final double[] a = args[offset];
+                final double[] b = args[offset + 1];
+                for (int i = 0; i < length; i++) {
+                    result[i] = a[i] - b[i];
+                }
             }
         };
-        builtinOperators[INDEX_UNARYMINUS]= new Operator("-", 1, false, Operator.PRECEDENCE_UNARY_MINUS) {
+        builtinOperators[INDEX_UNARYMINUS]= new BuiltinOperator("-", 1, false, Operator.PRECEDENCE_UNARY_MINUS) {
             @Override
             public double apply(final double... args) {
-                return -args[0];
+                return apply(args, 0);
+            }
+
+            @Override
+            public double apply(final double[] args, final int offset) {
+                return -args[offset];
+            }
+
+            @Override
+            public void apply(final double[][] args, final int offset, final double[] result, final int length) {
+                final double[] a = args[offset];
+                for (int i = 0; i < length; i++) {
+                    result[i] = -a[i];
+                }
             }
         };
-        builtinOperators[INDEX_UNARYPLUS]= new Operator("+", 1, false, Operator.PRECEDENCE_UNARY_PLUS) {
+        builtinOperators[INDEX_UNARYPLUS]= new BuiltinOperator("+", 1, false, Operator.PRECEDENCE_UNARY_PLUS) {
             @Override
             public double apply(final double... args) {
-                return args[0];
+                return apply(args, 0);
+            }
+
+            @Override
+            public double apply(final double[] args, final int offset) {
+                return args[offset];
+            }
+
+            @Override
+            public void apply(final double[][] args, final int offset, final double[] result, final int length) {
+                if (args[offset] != result) {
+                    System.arraycopy(args[offset], 0, result, 0, length);
+                }
             }
         };
-        builtinOperators[INDEX_MUTLIPLICATION]= new Operator("*", 2, true, Operator.PRECEDENCE_MULTIPLICATION) {
+        builtinOperators[INDEX_MUTLIPLICATION]= new BuiltinOperator("*", 2, true, Operator.PRECEDENCE_MULTIPLICATION) {
             @Override
             public double apply(final double... args) {
-                return args[0] * args[1];
+                return apply(args, 0);
+            }
+
+            @Override
+            public double apply(final double[] args, final int offset) {
+                return args[offset] * args[offset + 1];
+            }
+
+            @Override
+            public void apply(final double[][] args, final int offset, final double[] result, final int length) {
+                final double[] a = args[offset];
+                final double[] b = args[offset + 1];
+                for (int i = 0; i < length; i++) {
+                    result[i] = a[i] * b[i];
+                }
             }
         };
-        builtinOperators[INDEX_DIVISION]= new Operator("/", 2, true, Operator.PRECEDENCE_DIVISION) {
+        builtinOperators[INDEX_DIVISION]= new BuiltinOperator("/", 2, true, Operator.PRECEDENCE_DIVISION) {
             @Override
             public double apply(final double... args) {
-                if (args[1] == 0d) {
+                return apply(args, 0);
+            }
+
+            @Override
+            public double apply(final double[] args, final int offset) {
+                if (args[offset + 1] == 0d) {
                     throw new ArithmeticException("Division by zero!");
                 }
-                return args[0] / args[1];
+                return args[offset] / args[offset + 1];
+            }
+
+            @Override
+            public void apply(final double[][] args, final int offset, final double[] result, final int length) {
+                final double[] a = args[offset];
+                final double[] b = args[offset + 1];
+                for (int i = 0; i < length; i++) {
+                    if (b[i] == 0d) {
+                        throw new ArithmeticException("Division by zero!");
+                    }
+                    result[i] = a[i] / b[i];
+                }
             }
         };
-        builtinOperators[INDEX_POWER]= new Operator("^", 2, false, Operator.PRECEDENCE_POWER) {
+        builtinOperators[INDEX_POWER]= new BuiltinOperator("^", 2, false, Operator.PRECEDENCE_POWER) {
             @Override
             public double apply(final double... args) {
-                return Math.pow(args[0], args[1]);
+                return apply(args, 0);
+            }
+
+            @Override
+            public double apply(final double[] args, final int offset) {
+                return Math.pow(args[offset], args[offset + 1]);
+            }
+
+            @Override
+            public void apply(final double[][] args, final int offset, final double[] result, final int length) {
+                final double[] a = args[offset];
+                final double[] b = args[offset + 1];
+                for (int i = 0; i < length; i++) {
+                    result[i] = Math.pow(a[i], b[i]);
+                }
             }
         };
-        builtinOperators[INDEX_MODULO]= new Operator("%", 2, true, Operator.PRECEDENCE_MODULO) {
+        builtinOperators[INDEX_MODULO]= new BuiltinOperator("%", 2, true, Operator.PRECEDENCE_MODULO) {
             @Override
             public double apply(final double... args) {
-                if (args[1] == 0d) {
+                return apply(args, 0);
+            }
+
+            @Override
+            public double apply(final double[] args, final int offset) {
+                if (args[offset + 1] == 0d) {
                     throw new ArithmeticException("Division by zero!");
                 }
-                return args[0] % args[1];
+                return args[offset] % args[offset + 1];
+            }
+
+            @Override
+            public void apply(final double[][] args, final int offset, final double[] result, final int length) {
+                final double[] a = args[offset];
+                final double[] b = args[offset + 1];
+                for (int i = 0; i < length; i++) {
+                    if (b[i] == 0d) {
+                        throw new ArithmeticException("Division by zero!");
+                    }
+                    result[i] = a[i] % b[i];
+                }
             }
         };
     }
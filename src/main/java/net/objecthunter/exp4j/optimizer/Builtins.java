@@ -0,0 +1,53 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.optimizer;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+
+/**
+ * Detects the builtin operators and functions, which are known to be side effect free
+ */
+final class Builtins {
+
+    private static final Function[] BUILTIN_FUNCTIONS = Functions.getBuiltinFunctions();
+
+    private Builtins() {
+    }
+
+    /**
+     * Check if an operator is a builtin one. Custom operators replacing a builtin one are not.
+     */
+    static boolean isBuiltin(final Operator op) {
+        final String symbol = op.getSymbol();
+        return symbol.length() == 1 && op == Operators.getBuiltinOperator(symbol.charAt(0), op.getNumOperands());
+    }
+
+    /**
+     * Check if a function is a builtin one. Custom functions replacing a builtin one are not.
+     */
+    static boolean isBuiltin(final Function func) {
+        /* comparing the references is cheaper than looking the function up by its name */
+        for (final Function builtin : BUILTIN_FUNCTIONS) {
+            if (func == builtin) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,256 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.optimizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.LoadToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.StoreToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+/**
+ * Eliminates common subexpressions of an expression in reverse polish notation. Structurally identical subtrees
+ * consisting of numbers, variables and deterministic operators and functions are computed once: the first
+ * occurrence is followed by a {@link StoreToken} saving its value in a temporary slot, every other occurrence is
+ * replaced by a {@link LoadToken}.
+ */
+public final class CommonSubexpressionEliminator {
+
+    private CommonSubexpressionEliminator() {
+    }
+
+    /**
+     * Eliminate the common subexpressions of an expression
+     * @param tokens the expression in reverse polish notation
+     * @return the expression using temporary slots or the passed tokens if there are no common subexpressions
+     */
+    public static Token[] eliminate(final Token[] tokens) {
+        final Node root = buildTree(tokens);
+        if (root == null) {
+            /* not a valid expression in reverse polish notation, leave it to the validation */
+            return tokens;
+        }
+        final int numIds = root.numIds;
+
+        /* find the subtrees which occur more than once, without descending into repeated subtrees, since these
+           are not evaluated again */
+        final boolean[] seen = new boolean[numIds];
+        final boolean[] shared = new boolean[numIds];
+        boolean found = false;
+        final Node[] work = new Node[tokens.length];
+        int top = 0;
+        work[top++] = root;
+        while (top > 0) {
+            final Node node = work[--top];
+            if (node.isShareable()) {
+                if (seen[node.id]) {
+                    shared[node.id] = true;
+                    found = true;
+                    continue;
+                }
+                seen[node.id] = true;
+            }
+            for (int i = node.children.length - 1; i >= 0; i--) {
+                work[top++] = node.children[i];
+            }
+        }
+        if (!found) {
+            return tokens;
+        }
+
+        /* emit the tokens in post order, storing the first occurrence of each shared subtree in a temporary slot
+           and loading it for the others */
+        final int[] temps = new int[numIds];
+        Arrays.fill(temps, -1);
+        int numTemps = 0;
+        final boolean[] expanded = new boolean[tokens.length];
+        final List<Token> output = new ArrayList<Token>(tokens.length);
+        work[top] = root;
+        expanded[top++] = false;
+        while (top > 0) {
+            final Node node = work[top - 1];
+            final boolean isShared = node.isShareable() && shared[node.id];
+            if (!expanded[top - 1]) {
+                if (isShared && temps[node.id] >= 0) {
+                    output.add(new LoadToken(temps[node.id]));
+                    top--;
+                    continue;
+                }
+                expanded[top - 1] = true;
+                for (int i = node.children.length - 1; i >= 0; i--) {
+                    work[top] = node.children[i];
+                    expanded[top++] = false;
+                }
+            } else {
+                top--;
+                output.add(node.token);
+                if (isShared) {
+                    temps[node.id] = numTemps;
+                    output.add(new StoreToken(numTemps++));
+                }
+            }
+        }
+        return output.toArray(new Token[output.size()]);
+    }
+
+    /* build the expression tree, assigning the same id to structurally identical deterministic subtrees */
+    private static Node buildTree(final Token[] tokens) {
+        final Map<Structure, Integer> ids = new HashMap<Structure, Integer>(2 * tokens.length);
+        final Map<Object, Integer> refIds = new IdentityHashMap<Object, Integer>();
+        final Map<String, Integer> variableIds = new HashMap<String, Integer>();
+        final Node[] stack = new Node[tokens.length];
+        int depth = 0;
+        for (final Token t : tokens) {
+            final int kind = t.getType();
+            final long value;
+            final int numArgs;
+            final boolean deterministic;
+            switch (kind) {
+                case Token.TOKEN_NUMBER:
+                    value = Double.doubleToLongBits(((NumberToken) t).getValue());
+                    numArgs = 0;
+                    deterministic = true;
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    final String name = ((VariableToken) t).getName();
+                    Integer variableId = variableIds.get(name);
+                    if (variableId == null) {
+                        variableId = variableIds.size();
+                        variableIds.put(name, variableId);
+                    }
+                    value = variableId;
+                    numArgs = 0;
+                    deterministic = true;
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    final Operator op = ((OperatorToken) t).getOperator();
+                    value = refId(op, refIds);
+                    numArgs = op.getNumOperands();
+                    deterministic = op.isDeterministic();
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    final Function func = ((FunctionToken) t).getFunction();
+                    value = refId(func, refIds);
+                    numArgs = func.getNumArguments();
+                    deterministic = func.isDeterministic();
+                    break;
+                default:
+                    return null;
+            }
+            if (depth < numArgs) {
+                return null;
+            }
+            depth -= numArgs;
+            final Node[] children = new Node[numArgs];
+            System.arraycopy(stack, depth, children, 0, numArgs);
+            int id = -1;
+            if (deterministic) {
+                final int[] childIds = new int[numArgs];
+                boolean identifiable = true;
+                for (int i = 0; i < numArgs && identifiable; i++) {
+                    childIds[i] = children[i].id;
+                    identifiable = childIds[i] >= 0;
+                }
+                if (identifiable) {
+                    final Structure structure = new Structure(kind, value, childIds);
+                    Integer existing = ids.get(structure);
+                    if (existing == null) {
+                        existing = ids.size();
+                        ids.put(structure, existing);
+                    }
+                    id = existing;
+                }
+            }
+            stack[depth++] = new Node(t, children, id);
+        }
+        if (depth != 1) {
+            return null;
+        }
+        stack[0].numIds = ids.size();
+        return stack[0];
+    }
+
+    private static int refId(final Object ref, final Map<Object, Integer> refIds) {
+        Integer id = refIds.get(ref);
+        if (id == null) {
+            id = refIds.size();
+            refIds.put(ref, id);
+        }
+        return id;
+    }
+
+    /* the structure of a subtree: the kind of its token, the number, variable, operator or function it holds and
+       the ids of its children */
+    private static final class Structure {
+        private final int kind;
+        private final long value;
+        private final int[] childIds;
+        private final int hash;
+
+        Structure(int kind, long value, int[] childIds) {
+            this.kind = kind;
+            this.value = value;
+            this.childIds = childIds;
+            this.hash = 31 * (31 * kind + (int) (value ^ (value >>> 32))) + Arrays.hashCode(childIds);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Structure)) {
+                return false;
+            }
+            final Structure other = (Structure) obj;
+            return hash == other.hash && kind == other.kind && value == other.value
+                    && Arrays.equals(childIds, other.childIds);
+        }
+    }
+
+    private static final class Node {
+        private final Token token;
+        private final Node[] children;
+        /* the id of the subtree's structure or -1 if the subtree is not deterministic */
+        private final int id;
+        /* the number of distinct ids, only set on the root */
+        private int numIds;
+
+        Node(Token token, Node[] children, int id) {
+            this.token = token;
+            this.children = children;
+            this.id = id;
+        }
+
+        /* numbers and variables are as cheap to push as a temporary slot */
+        boolean isShareable() {
+            return id >= 0 && (token.getType() == Token.TOKEN_OPERATOR || token.getType() == Token.TOKEN_FUNCTION);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.optimizer;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.program.Program;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.LoadToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.StoreToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+/**
+ * Replaces the subtrees of an expression in reverse polish notation, which only consist of numbers, constants and
+ * builtin operators and functions, by their value. Custom operators and functions are never folded, since they might
+ * not be deterministic.
+ */
+public final class ConstantFolder {
+
+    private ConstantFolder() {
+    }
+
+    /**
+     * Fold the constant subtrees of a program, see {@link #fold(Token[], Map)}.
+     * @param program the expression in reverse polish notation
+     * @param constants the values of the variables which are constant
+     * @return the folded expression
+     */
+    public static Token[] fold(final Program program, final Map<String, Double> constants) {
+        return fold(program, constants, null);
+    }
+
+    /**
+     * Fold the constant subtrees of a program, see {@link #fold(Token[], Map, Set)}. The tokens are created from the
+     * program's pools, so there is one token per distinct number, variable, operator and function, and every
+     * variable is looked up in the constants once.
+     * @param program the expression in reverse polish notation
+     * @param constants the values of the variables which are constant
+     * @param replaced the set the names of the constants replaced by their values are added to or null
+     * @return the folded expression
+     */
+    public static Token[] fold(final Program program, final Map<String, Double> constants,
+            final Set<String> replaced) {
+        final double[] numbers = program.getConstants();
+        final Token[] numberTokens = new Token[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            numberTokens[i] = new NumberToken(numbers[i]);
+        }
+        final String[] variables = program.getVariables();
+        final Token[] variableTokens = new Token[variables.length];
+        for (int i = 0; i < variables.length; i++) {
+            final Double value = constants.get(variables[i]);
+            variableTokens[i] = value != null ? new NumberToken(value) : new VariableToken(variables[i]);
+            if (value != null && replaced != null) {
+                replaced.add(variables[i]);
+            }
+        }
+        final Operator[] operators = program.getOperators();
+        final Token[] operatorTokens = new Token[operators.length];
+        for (int i = 0; i < operators.length; i++) {
+            operatorTokens[i] = new OperatorToken(operators[i]);
+        }
+        final Function[] functions = program.getFunctions();
+        final Token[] functionTokens = new Token[functions.length];
+        for (int i = 0; i < functions.length; i++) {
+            functionTokens[i] = new FunctionToken(functions[i]);
+        }
+        final int[] code = program.getCode();
+        final Token[] tokens = new Token[code.length];
+        for (int i = 0; i < code.length; i++) {
+            final int operand = Program.operand(code[i]);
+            switch (Program.opcode(code[i])) {
+                case Program.CONSTANT:
+                    tokens[i] = numberTokens[operand];
+                    break;
+                case Program.VARIABLE:
+                    tokens[i] = variableTokens[operand];
+                    break;
+                case Program.OPERATOR:
+                    tokens[i] = operatorTokens[operand];
+                    break;
+                case Program.FUNCTION:
+                    tokens[i] = functionTokens[operand];
+                    break;
+                case Program.STORE:
+                    tokens[i] = new StoreToken(operand);
+                    break;
+                default:
+                    tokens[i] = new LoadToken(operand);
+                    break;
+            }
+        }
+        /* the constant variables have been replaced by numbers already */
+        return fold(tokens, Collections.<String, Double>emptyMap(), null);
+    }
+
+    /**
+     * Fold the constant subtrees of an expression, see {@link #fold(Token[], Map, Set)}.
+     * @param tokens the expression in reverse polish notation
+     * @param constants the values of the variables which are constant
+     * @return the folded expression or the passed tokens if nothing could be folded
+     */
+    public static Token[] fold(final Token[] tokens, final Map<String, Double> constants) {
+        return fold(tokens, constants, null);
+    }
+
+    /**
+     * Fold the constant subtrees of an expression. A subtree whose evaluation throws an {@link ArithmeticException}
+     * e.g. a division by zero is left untouched, so that the exception is thrown when the expression is evaluated.
+     * @param tokens the expression in reverse polish notation
+     * @param constants the values of the variables which are constant
+     * @param replaced the set the names of the constants replaced by their values are added to or null
+     * @return the folded expression or the passed tokens if nothing could be folded
+     */
+    public static Token[] fold(final Token[] tokens, final Map<String, Double> constants,
+            final Set<String> replaced) {
+        final Token[] output = new Token[tokens.length];
+        int size = 0;
+        /* for every operand on the simulated stack: the index of its first token in the output and its value if
+           it is constant */
+        final int[] starts = new int[tokens.length];
+        final double[] values = new double[tokens.length];
+        final boolean[] constant = new boolean[tokens.length];
+        final double[] args = new double[tokens.length];
+        int depth = 0;
+        boolean folded = false;
+        for (final Token t : tokens) {
+            int numArgs = 0;
+            Operator op = null;
+            Function func = null;
+            switch (t.getType()) {
+                case Token.TOKEN_NUMBER:
+                    starts[depth] = size;
+                    values[depth] = ((NumberToken) t).getValue();
+                    constant[depth++] = true;
+                    output[size++] = t;
+                    continue;
+                case Token.TOKEN_VARIABLE:
+                    final String name = ((VariableToken) t).getName();
+                    final Double value = constants.get(name);
+                    starts[depth] = size;
+                    if (value != null) {
+                        if (replaced != null) {
+                            replaced.add(name);
+                        }
+                        values[depth] = value;
+                        constant[depth++] = true;
+                        output[size++] = new NumberToken(value);
+                        folded = true;
+                    } else {
+                        constant[depth++] = false;
+                        output[size++] = t;
+                    }
+                    continue;
+                case Token.TOKEN_OPERATOR:
+                    op = ((OperatorToken) t).getOperator();
+                    numArgs = op.getNumOperands();
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    func = ((FunctionToken) t).getFunction();
+                    numArgs = func.getNumArguments();
+                    break;
+                default:
+                    /* not a valid expression in reverse polish notation, leave it to the validation */
+                    return tokens;
+            }
+            if (depth < numArgs) {
+                return tokens;
+            }
+            depth -= numArgs;
+            final int start = numArgs == 0 ? size : starts[depth];
+            boolean foldable = op != null ? Builtins.isBuiltin(op) : Builtins.isBuiltin(func);
+            for (int i = 0; i < numArgs && foldable; i++) {
+                foldable = constant[depth + i];
+                args[i] = values[depth + i];
+            }
+            starts[depth] = start;
+            constant[depth] = false;
+            if (foldable) {
+                try {
+                    values[depth] = op != null ? op.apply(args, 0) : func.apply(args, 0);
+                    constant[depth] = true;
+                } catch (ArithmeticException e) {
+                    /* keep the subtree, so the exception is thrown on evaluation */
+                }
+            }
+            if (constant[depth]) {
+                size = start;
+                output[size++] = new NumberToken(values[depth]);
+                folded = true;
+            } else {
+                output[size++] = t;
+            }
+            depth++;
+        }
+        if (!folded) {
+            return tokens;
+        }
+        final Token[] result = new Token[size];
+        System.arraycopy(output, 0, result, 0, size);
+        return result;
+    }
+}
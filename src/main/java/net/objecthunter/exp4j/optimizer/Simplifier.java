@@ -0,0 +1,430 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.optimizer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.objecthunter.exp4j.ast.AstParser;
+import net.objecthunter.exp4j.ast.ConstantNode;
+import net.objecthunter.exp4j.ast.FunctionNode;
+import net.objecthunter.exp4j.ast.Lowering;
+import net.objecthunter.exp4j.ast.Node;
+import net.objecthunter.exp4j.ast.OperatorNode;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.tokenizer.Token;
+
+/**
+ * Simplifies an expression by rewriting it with algebraic identities of the builtin operators and of the builtin
+ * <code>pow()</code> function. By default only the exact rules are applied, whose result is bit for bit the same as
+ * the original one for every input including NaN, the infinities and the signed zeros, and which throw the same
+ * exceptions. In fast math mode the rules which may change the result are applied as well. Custom operators and
+ * functions are never rewritten.
+ */
+public final class Simplifier {
+
+    /**
+     * The rewrite rules, the operand <code>x</code> stands for any subexpression
+     */
+    public enum Rule {
+        /** <code>+x = x</code> */
+        UNARY_PLUS("+x = x", true),
+        /** <code>-(-x) = x</code> */
+        DOUBLE_NEGATION("-(-x) = x", true),
+        /** <code>x * 1 = 1 * x = x</code> */
+        MULTIPLY_BY_ONE("x * 1 = 1 * x = x", true),
+        /** <code>x * -1 = -1 * x = -x</code> */
+        MULTIPLY_BY_MINUS_ONE("x * -1 = -1 * x = -x", true),
+        /** <code>x / 1 = x</code> */
+        DIVIDE_BY_ONE("x / 1 = x", true),
+        /** <code>x / -1 = -x</code> */
+        DIVIDE_BY_MINUS_ONE("x / -1 = -x", true),
+        /** <code>(-x) * (-y) = x * y</code> and <code>(-x) / (-y) = x / y</code> */
+        NEGATED_OPERANDS("(-x) * (-y) = x * y, (-x) / (-y) = x / y", true),
+        /** <code>x - 0 = x + -0 = -0 + x = x</code> */
+        SUBTRACT_ZERO("x - 0 = x + -0 = -0 + x = x", true),
+        /** <code>x + (-y) = x - y</code> and <code>(-x) + y = y - x</code> if x or y can not throw, e.g. is a number */
+        ADD_NEGATION("x + (-y) = x - y, (-x) + y = y - x", true),
+        /** <code>x - (-y) = x + y</code> */
+        SUBTRACT_NEGATION("x - (-y) = x + y", true),
+        /** <code>x ^ 1 = pow(x, 1) = x</code> */
+        POWER_OF_ONE("x ^ 1 = pow(x, 1) = x", true),
+        /** <code>x + 0 = 0 + x = x - -0 = x</code>, turns the result -0 into 0 */
+        ADD_ZERO("x + 0 = 0 + x = x - -0 = x", false),
+        /** <code>0 - x = -x</code>, turns the result 0 into -0 */
+        SUBTRACT_FROM_ZERO("0 - x = -x", false),
+        /** <code>-(x - y) = y - x</code> if x or y can not throw, e.g. is a number, turns the result -0 into 0 */
+        NEGATED_DIFFERENCE("-(x - y) = y - x", false),
+        /** <code>x - x = 0</code>, even if x is NaN or infinite */
+        SUBTRACT_SELF("x - x = 0", false),
+        /** <code>x * 0 = 0 * x = 0</code>, even if x is NaN, infinite or negative */
+        MULTIPLY_BY_ZERO("x * 0 = 0 * x = 0", false),
+        /** <code>x ^ 0 = pow(x, 0) = 1</code>, x is not evaluated */
+        POWER_OF_ZERO("x ^ 0 = pow(x, 0) = 1", false);
+
+        private final String description;
+
+        private final boolean exact;
+
+        Rule(String description, boolean exact) {
+            this.description = description;
+            this.exact = exact;
+        }
+
+        /**
+         * Get the identity applied by this rule
+         * @return the description e.g. "x * 1 = 1 * x = x"
+         */
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * Check if this rule is applied in the strict mode, i.e. if it never changes the result
+         * @return true if the rule is exact, false if it is only applied in fast math mode
+         */
+        public boolean isExact() {
+            return exact;
+        }
+    }
+
+    private static final Operator NEGATE = Operators.getBuiltinOperator('-', 1);
+
+    private static final Operator ADD = Operators.getBuiltinOperator('+', 2);
+
+    private static final Operator SUBTRACT = Operators.getBuiltinOperator('-', 2);
+
+    private final boolean fastMath;
+
+    private final List<Rule> applied;
+
+    private Simplifier(final boolean fastMath, final List<Rule> applied) {
+        this.fastMath = fastMath;
+        this.applied = applied;
+    }
+
+    /**
+     * Simplify an expression in reverse polish notation
+     * @param tokens the expression in reverse polish notation
+     * @param fastMath set to true to apply the rules which may change the result as well
+     * @param applied the list the rules are added to in the order they are applied or null
+     * @return the simplified expression or the passed tokens if no rule could be applied
+     */
+    public static Token[] simplify(final Token[] tokens, final boolean fastMath, final List<Rule> applied) {
+        final Node root;
+        try {
+            root = AstParser.fromTokens(tokens);
+        } catch (IllegalArgumentException e) {
+            /* not a valid expression, leave it to the validation */
+            return tokens;
+        }
+        final List<Rule> rules = new ArrayList<Rule>();
+        final Node simplified = simplify(root, fastMath, rules);
+        if (rules.isEmpty()) {
+            return tokens;
+        }
+        if (applied != null) {
+            applied.addAll(rules);
+        }
+        return Lowering.toTokens(simplified);
+    }
+
+    /**
+     * Simplify an abstract syntax tree. The rules are applied bottom up until none of them applies anymore. In fast
+     * math mode an operand which is dropped, e.g. the x of <code>x * 0</code>, is not evaluated anymore, so it is
+     * only dropped if it consists of builtin operators and functions.
+     * @param root the root of the tree
+     * @param fastMath set to true to apply the rules which may change the result as well
+     * @param applied the list the rules are added to in the order they are applied or null
+     * @return the root of the simplified tree or the passed root if no rule could be applied
+     */
+    public static Node simplify(final Node root, final boolean fastMath, final List<Rule> applied) {
+        return new Simplifier(fastMath, applied).simplify(root);
+    }
+
+    /*
+     * Simplify the tree bottom up without recursing, so trees of any depth can be simplified. The pending nodes are
+     * kept on a stack together with the index of their next operand to visit, the simplified operands on a second
+     * stack until their parent is rewritten.
+     */
+    private Node simplify(final Node root) {
+        final int capacity = root.size();
+        final Node[] pending = new Node[capacity];
+        final int[] next = new int[capacity];
+        final Node[] simplified = new Node[capacity];
+        int depth = 0;
+        int count = 0;
+        pending[depth++] = root;
+        while (depth > 0) {
+            final Node node = pending[depth - 1];
+            final int numOperands = numOperands(node);
+            if (next[depth - 1] < numOperands) {
+                pending[depth] = operand(node, next[depth - 1]++);
+                next[depth++] = 0;
+                continue;
+            }
+            next[--depth] = 0;
+            if (numOperands == 0) {
+                simplified[count++] = node;
+                continue;
+            }
+            count -= numOperands;
+            simplified[count] = rewrite(rebuild(node, simplified, count));
+            count++;
+        }
+        return simplified[0];
+    }
+
+    /* replace the operands of the node with the simplified ones, the node itself if none of them changed */
+    private static Node rebuild(final Node node, final Node[] simplified, final int offset) {
+        final int numOperands = numOperands(node);
+        boolean changed = false;
+        for (int i = 0; i < numOperands; i++) {
+            changed |= simplified[offset + i] != operand(node, i);
+        }
+        if (!changed) {
+            return node;
+        }
+        final Node[] operands = new Node[numOperands];
+        System.arraycopy(simplified, offset, operands, 0, numOperands);
+        if (node.getType() == Node.NODE_OPERATOR) {
+            return new OperatorNode(((OperatorNode) node).getOperator(), operands);
+        }
+        return new FunctionNode(((FunctionNode) node).getFunction(), operands);
+    }
+
+    /* apply the rules to a node whose operands are simplified until none of them applies */
+    private Node rewrite(Node node) {
+        for (Node next = apply(node); next != null; next = apply(node)) {
+            node = next;
+        }
+        return node;
+    }
+
+    /* apply the first matching rule to the node, null if none matches */
+    private Node apply(final Node node) {
+        if (node.getType() == Node.NODE_FUNCTION) {
+            final FunctionNode function = (FunctionNode) node;
+            if (Builtins.isBuiltin(function.getFunction()) && function.getFunction().getName().equals("pow")) {
+                return power(function.getArgument(0), function.getArgument(1));
+            }
+            return null;
+        }
+        if (node.getType() != Node.NODE_OPERATOR || !Builtins.isBuiltin(((OperatorNode) node).getOperator())) {
+            return null;
+        }
+        final OperatorNode operator = (OperatorNode) node;
+        final char symbol = operator.getOperator().getSymbol().charAt(0);
+        final Node left = operator.getOperand(0);
+        if (operator.getNumOperands() == 1) {
+            if (symbol == '+') {
+                return fire(Rule.UNARY_PLUS, left);
+            }
+            if (symbol == '-' && isOperator(left, '-', 1)) {
+                return fire(Rule.DOUBLE_NEGATION, operand(left, 0));
+            }
+            /* the operands are evaluated in the opposite order, so one of them must not throw */
+            if (symbol == '-' && fastMath && isOperator(left, '-', 2)
+                    && (neverThrows(operand(left, 0)) || neverThrows(operand(left, 1)))) {
+                return fire(Rule.NEGATED_DIFFERENCE, new OperatorNode(SUBTRACT, operand(left, 1), operand(left, 0)));
+            }
+            return null;
+        }
+        final Node right = operator.getOperand(1);
+        switch (symbol) {
+            case '+':
+                if (isNegativeZero(right)) {
+                    return fire(Rule.SUBTRACT_ZERO, left);
+                }
+                if (isNegativeZero(left)) {
+                    return fire(Rule.SUBTRACT_ZERO, right);
+                }
+                if (isOperator(right, '-', 1)) {
+                    return fire(Rule.ADD_NEGATION, new OperatorNode(SUBTRACT, left, operand(right, 0)));
+                }
+                /* the operands are evaluated in the opposite order, so one of them must not throw */
+                if (isOperator(left, '-', 1) && (neverThrows(right) || neverThrows(operand(left, 0)))) {
+                    return fire(Rule.ADD_NEGATION, new OperatorNode(SUBTRACT, right, operand(left, 0)));
+                }
+                if (fastMath && isConstant(right, 0d)) {
+                    return fire(Rule.ADD_ZERO, left);
+                }
+                if (fastMath && isConstant(left, 0d)) {
+                    return fire(Rule.ADD_ZERO, right);
+                }
+                return null;
+            case '-':
+                if (isConstant(right, 0d) && !isNegativeZero(right)) {
+                    return fire(Rule.SUBTRACT_ZERO, left);
+                }
+                if (isOperator(right, '-', 1)) {
+                    return fire(Rule.SUBTRACT_NEGATION, new OperatorNode(ADD, left, operand(right, 0)));
+                }
+                if (fastMath && isNegativeZero(right)) {
+                    return fire(Rule.ADD_ZERO, left);
+                }
+                if (fastMath && isConstant(left, 0d)) {
+                    return fire(Rule.SUBTRACT_FROM_ZERO, new OperatorNode(NEGATE, right));
+                }
+                if (fastMath && left.equals(right) && isPure(left)) {
+                    return fire(Rule.SUBTRACT_SELF, new ConstantNode(0d));
+                }
+                return null;
+            case '*':
+                if (isConstant(right, 1d)) {
+                    return fire(Rule.MULTIPLY_BY_ONE, left);
+                }
+                if (isConstant(left, 1d)) {
+                    return fire(Rule.MULTIPLY_BY_ONE, right);
+                }
+                if (isConstant(right, -1d)) {
+                    return fire(Rule.MULTIPLY_BY_MINUS_ONE, new OperatorNode(NEGATE, left));
+                }
+                if (isConstant(left, -1d)) {
+                    return fire(Rule.MULTIPLY_BY_MINUS_ONE, new OperatorNode(NEGATE, right));
+                }
+                if (isOperator(left, '-', 1) && isOperator(right, '-', 1)) {
+                    return fire(Rule.NEGATED_OPERANDS, new OperatorNode(operator.getOperator(), operand(left, 0),
+                            operand(right, 0)));
+                }
+                if (fastMath && isConstant(right, 0d) && isPure(left)) {
+                    return fire(Rule.MULTIPLY_BY_ZERO, new ConstantNode(0d));
+                }
+                if (fastMath && isConstant(left, 0d) && isPure(right)) {
+                    return fire(Rule.MULTIPLY_BY_ZERO, new ConstantNode(0d));
+                }
+                return null;
+            case '/':
+                if (isConstant(right, 1d)) {
+                    return fire(Rule.DIVIDE_BY_ONE, left);
+                }
+                if (isConstant(right, -1d)) {
+                    return fire(Rule.DIVIDE_BY_MINUS_ONE, new OperatorNode(NEGATE, left));
+                }
+                /* the divisor is checked for zero either way, since -0 == 0 */
+                if (isOperator(left, '-', 1) && isOperator(right, '-', 1)) {
+                    return fire(Rule.NEGATED_OPERANDS, new OperatorNode(operator.getOperator(), operand(left, 0),
+                            operand(right, 0)));
+                }
+                return null;
+            case '^':
+                return power(left, right);
+            default:
+                return null;
+        }
+    }
+
+    /* the rules of the power operator and the pow() function */
+    private Node power(final Node base, final Node exponent) {
+        if (isConstant(exponent, 1d)) {
+            return fire(Rule.POWER_OF_ONE, base);
+        }
+        if (fastMath && isConstant(exponent, 0d) && isPure(base)) {
+            return fire(Rule.POWER_OF_ZERO, new ConstantNode(1d));
+        }
+        return null;
+    }
+
+    private Node fire(final Rule rule, final Node result) {
+        if (applied != null) {
+            applied.add(rule);
+        }
+        return result;
+    }
+
+    /* check if the node is a constant with the given value, 0 matches both zeros */
+    private static boolean isConstant(final Node node, final double value) {
+        return node.getType() == Node.NODE_CONSTANT && ((ConstantNode) node).getValue() == value;
+    }
+
+    private static boolean isNegativeZero(final Node node) {
+        return node.getType() == Node.NODE_CONSTANT
+                && Double.doubleToLongBits(((ConstantNode) node).getValue()) == Double.doubleToLongBits(-0d);
+    }
+
+    /* check if the node applies the builtin operator with the given symbol and number of operands */
+    private static boolean isOperator(final Node node, final char symbol, final int numOperands) {
+        if (node.getType() != Node.NODE_OPERATOR) {
+            return false;
+        }
+        final Operator op = ((OperatorNode) node).getOperator();
+        return op == Operators.getBuiltinOperator(symbol, numOperands);
+    }
+
+    /* the operands of an operator or the arguments of a function */
+    private static int numOperands(final Node node) {
+        switch (node.getType()) {
+            case Node.NODE_OPERATOR:
+                return ((OperatorNode) node).getNumOperands();
+            case Node.NODE_FUNCTION:
+                return ((FunctionNode) node).getNumArguments();
+            default:
+                return 0;
+        }
+    }
+
+    private static Node operand(final Node node, final int index) {
+        if (node.getType() == Node.NODE_FUNCTION) {
+            return ((FunctionNode) node).getArgument(index);
+        }
+        return ((OperatorNode) node).getOperand(index);
+    }
+
+    /* check if the tree consists of builtin operators and functions only, which may be dropped or merged */
+    private static boolean isPure(final Node root) {
+        return consistsOfBuiltins(root, true);
+    }
+
+    /*
+     * check if evaluating the tree can not throw an exception, i.e. it consists of numbers and builtin operators and
+     * functions other than the division, the modulo and cot(), so it may be evaluated in a different order than the
+     * rest. A variable throws if it is not set, and the variables are checked in the order of evaluation.
+     */
+    private static boolean neverThrows(final Node root) {
+        return consistsOfBuiltins(root, false);
+    }
+
+    private static boolean consistsOfBuiltins(final Node root, final boolean throwing) {
+        final Node[] stack = new Node[root.size()];
+        int size = 0;
+        stack[size++] = root;
+        while (size > 0) {
+            final Node node = stack[--size];
+            if (!throwing && node.getType() == Node.NODE_VARIABLE) {
+                return false;
+            }
+            if (node.getType() == Node.NODE_OPERATOR) {
+                final Operator op = ((OperatorNode) node).getOperator();
+                if (!Builtins.isBuiltin(op)
+                        || (!throwing && (op.getSymbol().equals("/") || op.getSymbol().equals("%")))) {
+                    return false;
+                }
+            }
+            if (node.getType() == Node.NODE_FUNCTION) {
+                final Function func = ((FunctionNode) node).getFunction();
+                if (!Builtins.isBuiltin(func) || (!throwing && func.getName().equals("cot"))) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < numOperands(node); i++) {
+                stack[size++] = operand(node, i);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,845 @@
+/*
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package net.objecthunter.exp4j.program;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.objecthunter.exp4j.MissingVariableException;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.LoadToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.StoreToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+/**
+ * Interpreter for an expression in reverse polish notation which has been lowered to parallel arrays of opcodes and
+ * operands. Every builtin operator and function has its own opcode, so the interpreter's loop is a single dense
+ * switch which executes them inline, while custom operators and functions are invoked through their
+ * <code>apply()</code> methods. The results are identical to those of the builtins. Common sequences such as a
+ * variable multiplied by a constant or a builtin function applied to a variable are fused into superinstructions,
+ * which are dispatched once and do not push their operands onto the stack. Raising to the constant power 2 or 0.5
+ * is a multiplication or a square root. Unlike the
+ * {@link net.objecthunter.exp4j.bytecode.BytecodeCompiler} the interpreter does not define any classes, so it works
+ * in every environment. Instances are immutable and can be used by multiple threads at once.
+ */
+public final class Interpreter {
+
+    /* the opcodes are numbered densely, so that the switch is compiled to a jump table */
+    static final int CONSTANT = 0;
+    static final int VARIABLE = 1;
+    static final int STORE = 2;
+    static final int LOAD = 3;
+    static final int UNARY_OPERATOR = 4;
+    static final int BINARY_OPERATOR = 5;
+    static final int FUNCTION = 6;
+    static final int ADD = 7;
+    static final int SUBTRACT = 8;
+    static final int MULTIPLY = 9;
+    static final int DIVIDE = 10;
+    static final int MODULO = 11;
+    static final int POWER = 12;
+    static final int NEGATE = 13;
+    static final int SIN = 14;
+    static final int COS = 15;
+    static final int TAN = 16;
+    static final int COT = 17;
+    static final int ASIN = 18;
+    static final int ACOS = 19;
+    static final int ATAN = 20;
+    static final int SINH = 21;
+    static final int COSH = 22;
+    static final int TANH = 23;
+    static final int ABS = 24;
+    static final int LOG = 25;
+    static final int LOG10 = 26;
+    static final int LOG2 = 27;
+    static final int LOG1P = 28;
+    static final int CEIL = 29;
+    static final int FLOOR = 30;
+    static final int SQRT = 31;
+    static final int CBRT = 32;
+    static final int EXP = 33;
+    static final int EXPM1 = 34;
+    static final int SIGNUM = 35;
+
+    /* the superinstructions, each one replaces a sequence of instructions. The operands are the variable's slot,
+       the constant's index or the exponent in the order of the fused instructions */
+    static final int ADD_VAR_CONST = 36;
+    static final int SUBTRACT_VAR_CONST = 37;
+    static final int MULTIPLY_VAR_CONST = 38;
+    static final int DIVIDE_VAR_CONST = 39;
+    static final int ADD_CONST_VAR = 40;
+    static final int SUBTRACT_CONST_VAR = 41;
+    static final int MULTIPLY_CONST_VAR = 42;
+    static final int DIVIDE_CONST_VAR = 43;
+    static final int ADD_VAR_VAR = 44;
+    static final int SUBTRACT_VAR_VAR = 45;
+    static final int MULTIPLY_VAR_VAR = 46;
+    static final int DIVIDE_VAR_VAR = 47;
+    /* apply an operator to the value on top of the stack and a variable or constant */
+    static final int ADD_VAR = 48;
+    static final int SUBTRACT_VAR = 49;
+    static final int MULTIPLY_VAR = 50;
+    static final int DIVIDE_VAR = 51;
+    static final int ADD_CONST = 52;
+    static final int SUBTRACT_CONST = 53;
+    static final int MULTIPLY_CONST = 54;
+    static final int DIVIDE_CONST = 55;
+    static final int NEGATE_VAR = 56;
+    /* raise a variable or the value on top of the stack to an integer power */
+    static final int POWER_VAR_INT = 57;
+    static final int POWER_INT = 58;
+    /* apply the builtin function given by the second operand to a variable */
+    static final int FUNCTION_VAR = 59;
+
+    /* the power operator and pow() with a constant exponent: x^2 is x * x and x^0.5 is sqrt(x) for x > 0, which
+       is exactly what Math.pow() returns. The remaining ones round after every multiplication, so they are only
+       used in fast math mode. The operand of the last two is the exponent */
+    static final int SQUARE = 60;
+    static final int SQUARE_VAR = 61;
+    static final int POWER_HALF = 62;
+    static final int POWER_BY_SQUARING = 63;
+    static final int POWER_VAR_BY_SQUARING = 64;
+    /* the power operator in fast math mode, checks for an integral exponent at runtime */
+    static final int POWER_INTEGRAL = 65;
+
+    /* the largest exponent raised to by squaring, the rounding errors grow with the exponent */
+    static final int MAX_SQUARING_EXPONENT = 16;
+
+    /* returned for the unary plus, which is not executed at all */
+    static final int NOP = -1;
+
+    /* the opcodes of the builtin functions by name, pow() shares the opcode of the power operator */
+    private static final Map<String, Integer> builtinFunctionOpcodes = new HashMap<String, Integer>();
+
+    static {
+        final String[] names = {"sin", "cos", "tan", "cot", "asin", "acos", "atan", "sinh", "cosh", "tanh", "abs",
+                "log", "log10", "log2", "log1p", "ceil", "floor", "sqrt", "cbrt", "exp", "expm1", "signum"};
+        for (int i = 0; i < names.length; i++) {
+            builtinFunctionOpcodes.put(names[i], SIN + i);
+        }
+        builtinFunctionOpcodes.put("pow", POWER);
+    }
+
+    private final int[] opcodes;
+
+    private final int[] operands;
+
+    /* the second operand of the superinstructions */
+    private final int[] operands2;
+
+    private final double[] constants;
+
+    private final Operator[] operators;
+
+    private final Function[] functions;
+
+    /* the names of the variables by slot, used for error messages */
+    private final String[] variableNames;
+
+    private final int numTemps;
+
+    private final int maxStackDepth;
+
+    private Interpreter(int[] opcodes, int[] operands, int[] operands2, double[] constants, Operator[] operators,
+            Function[] functions, String[] variableNames, int numTemps, int maxStackDepth) {
+        this.opcodes = opcodes;
+        this.operands = operands;
+        this.operands2 = operands2;
+        this.constants = constants;
+        this.operators = operators;
+        this.functions = functions;
+        this.variableNames = variableNames;
+        this.numTemps = numTemps;
+        this.maxStackDepth = maxStackDepth;
+    }
+
+    /**
+     * Lower an expression to an interpreter program using superinstructions
+     * @param tokens the expression in reverse polish notation. The index of each {@link VariableToken} is the index
+     *               of the variable's value in the arrays passed to
+     *               {@link #evaluate(double[], boolean[], double[], int)}
+     * @return the interpreter or null if the tokens do not form a valid expression
+     */
+    public static Interpreter compile(final Token[] tokens) {
+        return compile(tokens, true);
+    }
+
+    /**
+     * Lower an expression to an interpreter program
+     * @param tokens the expression in reverse polish notation. The index of each {@link VariableToken} is the index
+     *               of the variable's value in the arrays passed to
+     *               {@link #evaluate(double[], boolean[], double[], int)}
+     * @param superinstructions set to true to fuse the most common sequences of instructions e.g. multiplying a
+     *                          variable by a constant into single instructions, which saves their dispatch and the
+     *                          pushing and popping of their operands
+     * @return the interpreter or null if the tokens do not form a valid expression
+     */
+    public static Interpreter compile(final Token[] tokens, final boolean superinstructions) {
+        return compile(tokens, superinstructions, false);
+    }
+
+    /**
+     * Lower an expression to an interpreter program
+     * @param tokens the expression in reverse polish notation. The index of each {@link VariableToken} is the index
+     *               of the variable's value in the arrays passed to
+     *               {@link #evaluate(double[], boolean[], double[], int)}
+     * @param superinstructions set to true to fuse the most common sequences of instructions into single
+     *                          instructions
+     * @param fastMath set to true to raise to small integral powers by repeated squaring and to a negative power
+     *                 by the reciprocal, which may differ from {@link Math#pow(double, double)} in the last bits
+     * @return the interpreter or null if the tokens do not form a valid expression
+     */
+    public static Interpreter compile(final Token[] tokens, final boolean superinstructions,
+            final boolean fastMath) {
+        final int[] opcodes = new int[tokens.length];
+        final int[] operands = new int[tokens.length];
+        final List<Double> constants = new ArrayList<Double>();
+        final List<Operator> operators = new ArrayList<Operator>();
+        final List<Function> functions = new ArrayList<Function>();
+        final Map<Object, Integer> refIndices = new IdentityHashMap<Object, Integer>();
+        final List<String> variableNames = new ArrayList<String>();
+        /* the temporary slots which have been stored */
+        final boolean[] stored = new boolean[tokens.length];
+        int numTemps = 0;
+        int count = 0;
+        int maxCount = 0;
+        int size = 0;
+        for (final Token t : tokens) {
+            switch (t.getType()) {
+                case Token.TOKEN_NUMBER:
+                    opcodes[size] = CONSTANT;
+                    operands[size] = constants.size();
+                    constants.add(((NumberToken) t).getValue());
+                    count++;
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    final VariableToken variable = (VariableToken) t;
+                    final int slot = variable.getIndex();
+                    if (slot < 0) {
+                        return null;
+                    }
+                    while (variableNames.size() <= slot) {
+                        variableNames.add(null);
+                    }
+                    variableNames.set(slot, variable.getName());
+                    opcodes[size] = VARIABLE;
+                    operands[size] = slot;
+                    count++;
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    final Operator op = ((OperatorToken) t).getOperator();
+                    final int numOperands = op.getNumOperands();
+                    if ((numOperands != 1 && numOperands != 2) || count < numOperands) {
+                        return null;
+                    }
+                    count += 1 - numOperands;
+                    final int opcode = opcode(op);
+                    if (opcode == NOP) {
+                        continue;
+                    }
+                    opcodes[size] = opcode;
+                    if (opcode == UNARY_OPERATOR || opcode == BINARY_OPERATOR) {
+                        operands[size] = index(op, operators, refIndices);
+                    }
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    final Function func = ((FunctionToken) t).getFunction();
+                    if (count < func.getNumArguments()) {
+                        return null;
+                    }
+                    count += 1 - func.getNumArguments();
+                    opcodes[size] = opcode(func);
+                    if (opcodes[size] == FUNCTION) {
+                        operands[size] = index(func, functions, refIndices);
+                    }
+                    break;
+                case Token.TOKEN_STORE:
+                    final int storeIdx = ((StoreToken) t).getIndex();
+                    if (count < 1 || storeIdx < 0 || storeIdx >= stored.length) {
+                        return null;
+                    }
+                    stored[storeIdx] = true;
+                    numTemps = Math.max(numTemps, storeIdx + 1);
+                    opcodes[size] = STORE;
+                    operands[size] = storeIdx;
+                    break;
+                case Token.TOKEN_LOAD:
+                    final int loadIdx = ((LoadToken) t).getIndex();
+                    if (loadIdx < 0 || loadIdx >= stored.length || !stored[loadIdx]) {
+                        return null;
+                    }
+                    opcodes[size] = LOAD;
+                    operands[size] = loadIdx;
+                    count++;
+                    break;
+                default:
+                    return null;
+            }
+            if (opcodes[size] == POWER) {
+                /* the instruction before the power pushes the exponent */
+                final int reduced = size > 0 && opcodes[size - 1] == CONSTANT
+                        ? power(constants.get(operands[size - 1]), fastMath) : NOP;
+                if (reduced != NOP) {
+                    /* replace the constant exponent */
+                    opcodes[size - 1] = reduced;
+                    operands[size - 1] = (int) (double) constants.get(operands[size - 1]);
+                    continue;
+                }
+                if (fastMath) {
+                    opcodes[size] = POWER_INTEGRAL;
+                }
+            }
+            size++;
+            maxCount = Math.max(maxCount, count);
+        }
+        if (count != 1) {
+            return null;
+        }
+        final double[] constantPool = new double[constants.size()];
+        for (int i = 0; i < constantPool.length; i++) {
+            constantPool[i] = constants.get(i);
+        }
+        final int[] operands2 = new int[size];
+        if (superinstructions) {
+            size = fuse(opcodes, operands, operands2, size, constantPool);
+        }
+        return new Interpreter(Arrays.copyOf(opcodes, size), Arrays.copyOf(operands, size),
+                Arrays.copyOf(operands2, size), constantPool, operators.toArray(new Operator[operators.size()]),
+                functions.toArray(new Function[functions.size()]),
+                variableNames.toArray(new String[variableNames.size()]), numTemps, maxCount);
+    }
+
+    /* the instruction raising to a constant power or NOP if there is none */
+    private static int power(final double exponent, final boolean fastMath) {
+        if (exponent == 2d) {
+            return SQUARE;
+        }
+        if (exponent == 0.5d) {
+            return POWER_HALF;
+        }
+        if (fastMath && isInt(exponent) && Math.abs(exponent) <= MAX_SQUARING_EXPONENT) {
+            return POWER_BY_SQUARING;
+        }
+        return NOP;
+    }
+
+    /* the peephole pass replacing sequences of instructions by superinstructions in place, going from left to right
+       and fusing the longest sequence first. Returns the new number of instructions */
+    private static int fuse(final int[] opcodes, final int[] operands, final int[] operands2, final int size,
+            final double[] constants) {
+        int size2 = 0;
+        for (int i = 0; i < size; i++) {
+            final int opcode = opcodes[i];
+            final int next = i + 1 < size ? opcodes[i + 1] : NOP;
+            final int third = i + 2 < size ? opcodes[i + 2] : NOP;
+            int fused = NOP;
+            int length = 1;
+            if (opcode == VARIABLE && next == CONSTANT && third == POWER && isInt(constants[operands[i + 1]])) {
+                fused = POWER_VAR_INT;
+                length = 3;
+            } else if (opcode == VARIABLE && next == CONSTANT && isArithmetic(third)
+                    && (third != DIVIDE || constants[operands[i + 1]] != 0d)) {
+                /* the division by a constant is only fused if it can not fail */
+                fused = ADD_VAR_CONST + (third - ADD);
+                length = 3;
+            } else if (opcode == CONSTANT && next == VARIABLE && isArithmetic(third)) {
+                fused = ADD_CONST_VAR + (third - ADD);
+                length = 3;
+            } else if (opcode == VARIABLE && next == VARIABLE && isArithmetic(third)) {
+                fused = ADD_VAR_VAR + (third - ADD);
+                length = 3;
+            } else if (opcode == VARIABLE && isArithmetic(next)) {
+                fused = ADD_VAR + (next - ADD);
+                length = 2;
+            } else if (opcode == CONSTANT && isArithmetic(next)
+                    && (next != DIVIDE || constants[operands[i]] != 0d)) {
+                fused = ADD_CONST + (next - ADD);
+                length = 2;
+            } else if (opcode == CONSTANT && next == POWER && isInt(constants[operands[i]])) {
+                fused = POWER_INT;
+                length = 2;
+            } else if (opcode == VARIABLE && next == NEGATE) {
+                fused = NEGATE_VAR;
+                length = 2;
+            } else if (opcode == VARIABLE && next >= SIN && next <= SIGNUM) {
+                fused = FUNCTION_VAR;
+                length = 2;
+            } else if (opcode == VARIABLE && next == SQUARE) {
+                fused = SQUARE_VAR;
+                length = 2;
+            } else if (opcode == VARIABLE && next == POWER_BY_SQUARING) {
+                fused = POWER_VAR_BY_SQUARING;
+                length = 2;
+            }
+            if (fused == NOP) {
+                opcodes[size2] = opcode;
+                operands[size2] = operands[i];
+            } else {
+                opcodes[size2] = fused;
+                operands[size2] = operands[i];
+                /* the exponent, the builtin function or the operand of the second fused instruction */
+                if (fused == POWER_VAR_INT) {
+                    operands2[size2] = (int) constants[operands[i + 1]];
+                } else if (fused == POWER_INT) {
+                    operands[size2] = (int) constants[operands[i]];
+                } else if (fused == FUNCTION_VAR) {
+                    operands2[size2] = next;
+                } else if (fused == POWER_VAR_BY_SQUARING) {
+                    operands2[size2] = operands[i + 1];
+                } else if (length == 3) {
+                    operands2[size2] = operands[i + 1];
+                }
+                i += length - 1;
+            }
+            size2++;
+        }
+        return size2;
+    }
+
+    /* the builtin operators having superinstructions for variable and constant operands */
+    private static boolean isArithmetic(int opcode) {
+        return opcode >= ADD && opcode <= DIVIDE;
+    }
+
+    private static boolean isInt(double value) {
+        return value == (int) value;
+    }
+
+    /* the opcode of an operator, UNARY_OPERATOR or BINARY_OPERATOR for custom ones */
+    static int opcode(final Operator op) {
+        final String symbol = op.getSymbol();
+        final int numOperands = op.getNumOperands();
+        if (symbol.length() != 1 || op != Operators.getBuiltinOperator(symbol.charAt(0), numOperands)) {
+            /* a custom operator, possibly replacing a builtin one */
+            return numOperands == 1 ? UNARY_OPERATOR : BINARY_OPERATOR;
+        }
+        switch (symbol.charAt(0)) {
+            case '+':
+                return numOperands == 1 ? NOP : ADD;
+            case '-':
+                return numOperands == 1 ? NEGATE : SUBTRACT;
+            case '*':
+                return MULTIPLY;
+            case '/':
+                return DIVIDE;
+            case '%':
+                return MODULO;
+            case '^':
+                return POWER;
+            default:
+                return numOperands == 1 ? UNARY_OPERATOR : BINARY_OPERATOR;
+        }
+    }
+
+    /* the opcode of a function, FUNCTION for custom ones */
+    static int opcode(final Function func) {
+        final Integer builtin = builtinFunctionOpcodes.get(func.getName());
+        if (builtin == null || func != Functions.getBuiltinFunction(func.getName())) {
+            /* a custom function, possibly replacing a builtin one */
+            return FUNCTION;
+        }
+        return builtin;
+    }
+
+    static <T> int index(T ref, List<T> refs, Map<Object, Integer> refIndices) {
+        Integer idx = refIndices.get(ref);
+        if (idx == null) {
+            idx = refs.size();
+            refs.add(ref);
+            refIndices.put(ref, idx);
+        }
+        return idx;
+    }
+
+    /**
+     * Get the number of values the stack passed to {@link #evaluate(double[], boolean[], double[], int)} has to hold
+     * above its base: the temporary slots followed by the operands
+     * @return the size of the stack needed by the interpreter
+     */
+    public int getStackSize() {
+        return numTemps + maxStackDepth;
+    }
+
+    /**
+     * Get the number of instructions of the program
+     * @return the number of instructions
+     */
+    public int size() {
+        return opcodes.length;
+    }
+
+    /**
+     * Evaluate the expression
+     * @param values the values of the variables by slot
+     * @param bound whether the value of the variable in a slot has been set
+     * @param stack the stack used for the evaluation. Only the elements from <code>base</code> to
+     *              <code>base + getStackSize() - 1</code> are modified.
+     * @param base the index of the first element of the stack used for the evaluation
+     * @return the result of the evaluation
+     * @throws MissingVariableException if a variable used by the expression has not been set
+     */
+    public double evaluate(final double[] values, final boolean[] bound, final double[] stack, final int base) {
+        final int[] opcodes = this.opcodes;
+        final int[] operands = this.operands;
+        /* the index of the value on top of the stack, the operands start above the temporary slots */
+        int top = base + numTemps - 1;
+        for (int pc = 0; pc < opcodes.length; pc++) {
+            switch (opcodes[pc]) {
+                case CONSTANT:
+                    stack[++top] = constants[operands[pc]];
+                    break;
+                case VARIABLE:
+                    final int slot = operands[pc];
+                    if (!bound[slot]) {
+                        throw new MissingVariableException(variableNames[slot]);
+                    }
+                    stack[++top] = values[slot];
+                    break;
+                case STORE:
+                    stack[base + operands[pc]] = stack[top];
+                    break;
+                case LOAD:
+                    stack[++top] = stack[base + operands[pc]];
+                    break;
+                case UNARY_OPERATOR:
+                    stack[top] = operators[operands[pc]].apply(stack, top);
+                    break;
+                case BINARY_OPERATOR:
+                    top--;
+                    stack[top] = operators[operands[pc]].apply(stack, top);
+                    break;
+                case FUNCTION:
+                    final Function func = functions[operands[pc]];
+                    final int offset = top + 1 - func.getNumArguments();
+                    final double result = func.apply(stack, offset);
+                    top = offset;
+                    stack[top] = result;
+                    break;
+                case ADD:
+                    top--;
+                    stack[top] = stack[top] + stack[top + 1];
+                    break;
+                case SUBTRACT:
+                    top--;
+                    stack[top] = stack[top] - stack[top + 1];
+                    break;
+                case MULTIPLY:
+                    top--;
+                    stack[top] = stack[top] * stack[top + 1];
+                    break;
+                case DIVIDE:
+                    top--;
+                    if (stack[top + 1] == 0d) {
+                        throw new ArithmeticException("Division by zero!");
+                    }
+                    stack[top] = stack[top] / stack[top + 1];
+                    break;
+                case MODULO:
+                    top--;
+                    if (stack[top + 1] == 0d) {
+                        throw new ArithmeticException("Division by zero!");
+                    }
+                    stack[top] = stack[top] % stack[top + 1];
+                    break;
+                case POWER:
+                    top--;
+                    stack[top] = Math.pow(stack[top], stack[top + 1]);
+                    break;
+                case NEGATE:
+                    stack[top] = -stack[top];
+                    break;
+                case SIN:
+                    stack[top] = Math.sin(stack[top]);
+                    break;
+                case COS:
+                    stack[top] = Math.cos(stack[top]);
+                    break;
+                case TAN:
+                    stack[top] = Math.tan(stack[top]);
+                    break;
+                case COT:
+                    if (Math.tan(stack[top]) == 0d) {
+                        throw new ArithmeticException("Division by zero in cotangent!");
+                    }
+                    stack[top] = 1d / Math.tan(stack[top]);
+                    break;
+                case ASIN:
+                    stack[top] = Math.asin(stack[top]);
+                    break;
+                case ACOS:
+                    stack[top] = Math.acos(stack[top]);
+                    break;
+                case ATAN:
+                    stack[top] = Math.atan(stack[top]);
+                    break;
+                case SINH:
+                    stack[top] = Math.sinh(stack[top]);
+                    break;
+                case COSH:
+                    stack[top] = Math.cosh(stack[top]);
+                    break;
+                case TANH:
+                    stack[top] = Math.tanh(stack[top]);
+                    break;
+                case ABS:
+                    stack[top] = Math.abs(stack[top]);
+                    break;
+                case LOG:
+                    stack[top] = Math.log(stack[top]);
+                    break;
+                case LOG10:
+                    stack[top] = Math.log10(stack[top]);
+                    break;
+                case LOG2:
+                    stack[top] = Math.log(stack[top]) / Math.log(2d);
+                    break;
+                case LOG1P:
+                    stack[top] = Math.log1p(stack[top]);
+                    break;
+                case CEIL:
+                    stack[top] = Math.ceil(stack[top]);
+                    break;
+                case FLOOR:
+                    stack[top] = Math.floor(stack[top]);
+                    break;
+                case SQRT:
+                    stack[top] = Math.sqrt(stack[top]);
+                    break;
+                case CBRT:
+                    stack[top] = Math.cbrt(stack[top]);
+                    break;
+                case EXP:
+                    stack[top] = Math.exp(stack[top]);
+                    break;
+                case EXPM1:
+                    stack[top] = Math.expm1(stack[top]);
+                    break;
+                case SIGNUM:
+                    final double arg = stack[top];
+                    stack[top] = arg > 0 ? 1d : arg < 0 ? -1d : 0d;
+                    break;
+                case ADD_VAR_CONST:
+                    stack[++top] = variable(values, bound, operands[pc]) + constants[operands2[pc]];
+                    break;
+                case SUBTRACT_VAR_CONST:
+                    stack[++top] = variable(values, bound, operands[pc]) - constants[operands2[pc]];
+                    break;
+                case MULTIPLY_VAR_CONST:
+                    stack[++top] = variable(values, bound, operands[pc]) * constants[operands2[pc]];
+                    break;
+                case DIVIDE_VAR_CONST:
+                    /* only fused for divisors other than zero */
+                    stack[++top] = variable(values, bound, operands[pc]) / constants[operands2[pc]];
+                    break;
+                case ADD_CONST_VAR:
+                    stack[++top] = constants[operands[pc]] + variable(values, bound, operands2[pc]);
+                    break;
+                case SUBTRACT_CONST_VAR:
+                    stack[++top] = constants[operands[pc]] - variable(values, bound, operands2[pc]);
+                    break;
+                case MULTIPLY_CONST_VAR:
+                    stack[++top] = constants[operands[pc]] * variable(values, bound, operands2[pc]);
+                    break;
+                case DIVIDE_CONST_VAR:
+                    stack[++top] = divide(constants[operands[pc]], variable(values, bound, operands2[pc]));
+                    break;
+                case ADD_VAR_VAR:
+                    stack[++top] = variable(values, bound, operands[pc]) + variable(values, bound, operands2[pc]);
+                    break;
+                case SUBTRACT_VAR_VAR:
+                    stack[++top] = variable(values, bound, operands[pc]) - variable(values, bound, operands2[pc]);
+                    break;
+                case MULTIPLY_VAR_VAR:
+                    stack[++top] = variable(values, bound, operands[pc]) * variable(values, bound, operands2[pc]);
+                    break;
+                case DIVIDE_VAR_VAR:
+                    stack[++top] = divide(variable(values, bound, operands[pc]),
+                            variable(values, bound, operands2[pc]));
+                    break;
+                case ADD_VAR:
+                    stack[top] = stack[top] + variable(values, bound, operands[pc]);
+                    break;
+                case SUBTRACT_VAR:
+                    stack[top] = stack[top] - variable(values, bound, operands[pc]);
+                    break;
+                case MULTIPLY_VAR:
+                    stack[top] = stack[top] * variable(values, bound, operands[pc]);
+                    break;
+                case DIVIDE_VAR:
+                    stack[top] = divide(stack[top], variable(values, bound, operands[pc]));
+                    break;
+                case ADD_CONST:
+                    stack[top] = stack[top] + constants[operands[pc]];
+                    break;
+                case SUBTRACT_CONST:
+                    stack[top] = stack[top] - constants[operands[pc]];
+                    break;
+                case MULTIPLY_CONST:
+                    stack[top] = stack[top] * constants[operands[pc]];
+                    break;
+                case DIVIDE_CONST:
+                    stack[top] = stack[top] / constants[operands[pc]];
+                    break;
+                case NEGATE_VAR:
+                    stack[++top] = -variable(values, bound, operands[pc]);
+                    break;
+                case POWER_VAR_INT:
+                    stack[++top] = Math.pow(variable(values, bound, operands[pc]), operands2[pc]);
+                    break;
+                case POWER_INT:
+                    stack[top] = Math.pow(stack[top], operands[pc]);
+                    break;
+                case FUNCTION_VAR:
+                    stack[++top] = function(operands2[pc], variable(values, bound, operands[pc]));
+                    break;
+                case SQUARE:
+                    stack[top] = stack[top] * stack[top];
+                    break;
+                case SQUARE_VAR:
+                    final double square = variable(values, bound, operands[pc]);
+                    stack[++top] = square * square;
+                    break;
+                case POWER_HALF:
+                    stack[top] = powerHalf(stack[top]);
+                    break;
+                case POWER_BY_SQUARING:
+                    stack[top] = powerBySquaring(stack[top], operands[pc]);
+                    break;
+                case POWER_VAR_BY_SQUARING:
+                    stack[++top] = powerBySquaring(variable(values, bound, operands[pc]), operands2[pc]);
+                    break;
+                case POWER_INTEGRAL:
+                    top--;
+                    stack[top] = powerIntegral(stack[top], stack[top + 1]);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown opcode " + opcodes[pc]);
+            }
+        }
+        return stack[top];
+    }
+
+    private double variable(final double[] values, final boolean[] bound, final int slot) {
+        if (!bound[slot]) {
+            throw new MissingVariableException(variableNames[slot]);
+        }
+        return values[slot];
+    }
+
+    private static double divide(final double dividend, final double divisor) {
+        if (divisor == 0d) {
+            throw new ArithmeticException("Division by zero!");
+        }
+        return dividend / divisor;
+    }
+
+    /* Math.pow(x, 0.5) is sqrt(x) except for -0 and -Infinity, whose square roots are -0 and NaN */
+    private static double powerHalf(final double x) {
+        return x > 0d ? Math.sqrt(x) : Math.pow(x, 0.5d);
+    }
+
+    /* raise to an integral power by repeated squaring, a negative power is the reciprocal of the positive one */
+    private static double powerBySquaring(double base, final int exponent) {
+        int n = exponent < 0 ? -exponent : exponent;
+        double result = 1d;
+        while (n != 0) {
+            if ((n & 1) != 0) {
+                result *= base;
+            }
+            n >>>= 1;
+            if (n != 0) {
+                base *= base;
+            }
+        }
+        return exponent < 0 ? 1d / result : result;
+    }
+
+    /* the fast path for an exponent which turns out to be a small integer at runtime */
+    private static double powerIntegral(final double base, final double exponent) {
+        final int n = (int) exponent;
+        if (n == exponent && n >= -MAX_SQUARING_EXPONENT && n <= MAX_SQUARING_EXPONENT) {
+            return powerBySquaring(base, n);
+        }
+        return Math.pow(base, exponent);
+    }
+
+    /* apply the builtin function with the given opcode */
+    private static double function(final int opcode, final double arg) {
+        switch (opcode) {
+            case SIN:
+                return Math.sin(arg);
+            case COS:
+                return Math.cos(arg);
+            case TAN:
+                return Math.tan(arg);
+            case COT:
+                if (Math.tan(arg) == 0d) {
+                    throw new ArithmeticException("Division by zero in cotangent!");
+                }
+                return 1d / Math.tan(arg);
+            case ASIN:
+                return Math.asin(arg);
+            case ACOS:
+                return Math.acos(arg);
+            case ATAN:
+                return Math.atan(arg);
+            case SINH:
+                return Math.sinh(arg);
+            case COSH:
+                return Math.cosh(arg);
+            case TANH:
+                return Math.tanh(arg);
+            case ABS:
+                return Math.abs(arg);
+            case LOG:
+                return Math.log(arg);
+            case LOG10:
+                return Math.log10(arg);
+            case LOG2:
+                return Math.log(arg) / Math.log(2d);
+            case LOG1P:
+                return Math.log1p(arg);
+            case CEIL:
+                return Math.ceil(arg);
+            case FLOOR:
+                return Math.floor(arg);
+            case SQRT:
+                return Math.sqrt(arg);
+            case CBRT:
+                return Math.cbrt(arg);
+            case EXP:
+                return Math.exp(arg);
+            case EXPM1:
+                return Math.expm1(arg);
+            case SIGNUM:
+                return arg > 0 ? 1d : arg < 0 ? -1d : 0d;
+            default:
+                throw new IllegalStateException("Unknown function opcode " + opcode);
+        }
+    }
+}
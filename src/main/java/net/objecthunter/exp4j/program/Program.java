@@ -0,0 +1,379 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.program;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.LoadToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.StoreToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+/**
+ * A compact encoding of an expression in reverse polish notation. Every instruction is a single int holding the
+ * opcode in its lowest 8 bits and the operand in the remaining bits. Depending on the opcode the operand is an index
+ * into the constant pool, the variable names, the operators or the functions of the program, or the index of a
+ * temporary slot. The program is immutable.
+ */
+public final class Program {
+
+    /**
+     * Push the constant at the operand's index of the constant pool
+     */
+    public static final int CONSTANT = 0;
+
+    /**
+     * Push the value of the variable whose name is at the operand's index of the variable names
+     */
+    public static final int VARIABLE = 1;
+
+    /**
+     * Apply the operator at the operand's index of the operators
+     */
+    public static final int OPERATOR = 2;
+
+    /**
+     * Apply the function at the operand's index of the functions
+     */
+    public static final int FUNCTION = 3;
+
+    /**
+     * Store the value on top of the stack in the temporary slot given by the operand, leaving it on the stack
+     */
+    public static final int STORE = 4;
+
+    /**
+     * Push the value of the temporary slot given by the operand
+     */
+    public static final int LOAD = 5;
+
+    private static final int OPCODE_BITS = 8;
+
+    private static final int OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+
+    /* the largest operand which fits into an instruction */
+    private static final int MAX_OPERAND = Integer.MAX_VALUE >>> OPCODE_BITS;
+
+    private final int[] code;
+
+    private final double[] constants;
+
+    private final String[] variables;
+
+    private final Operator[] operators;
+
+    private final Function[] functions;
+
+    /**
+     * Create a new program
+     * @param code the instructions
+     * @param constants the constant pool
+     * @param variables the variable names
+     * @param operators the operators
+     * @param functions the functions
+     */
+    public Program(int[] code, double[] constants, String[] variables, Operator[] operators, Function[] functions) {
+        for (int instruction : code) {
+            final int operand = operand(instruction);
+            final int limit;
+            switch (opcode(instruction)) {
+                case CONSTANT:
+                    limit = constants.length;
+                    break;
+                case VARIABLE:
+                    limit = variables.length;
+                    break;
+                case OPERATOR:
+                    limit = operators.length;
+                    break;
+                case FUNCTION:
+                    limit = functions.length;
+                    break;
+                case STORE:
+                case LOAD:
+                    limit = MAX_OPERAND + 1;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown opcode " + opcode(instruction));
+            }
+            if (operand >= limit) {
+                throw new IllegalArgumentException("Invalid operand " + operand + " of opcode " + opcode(instruction));
+            }
+        }
+        this.code = code.clone();
+        this.constants = constants.clone();
+        this.variables = variables.clone();
+        this.operators = operators.clone();
+        this.functions = functions.clone();
+    }
+
+    /* used by the builder, whose instructions are valid by construction */
+    private Program(Builder builder) {
+        this.code = Arrays.copyOf(builder.code, builder.size);
+        this.constants = Arrays.copyOf(builder.constants, builder.numConstants);
+        this.variables = builder.variables.toArray(new String[builder.variables.size()]);
+        this.operators = Arrays.copyOf(builder.operators, builder.numOperators);
+        this.functions = Arrays.copyOf(builder.functions, builder.numFunctions);
+    }
+
+    /**
+     * Create an instruction
+     * @param opcode the opcode
+     * @param operand the operand
+     * @return the instruction
+     */
+    public static int instruction(int opcode, int operand) {
+        if (operand < 0 || operand > MAX_OPERAND) {
+            throw new IllegalArgumentException("The operand " + operand + " is out of range");
+        }
+        return operand << OPCODE_BITS | opcode;
+    }
+
+    public static int opcode(int instruction) {
+        return instruction & OPCODE_MASK;
+    }
+
+    public static int operand(int instruction) {
+        return instruction >>> OPCODE_BITS;
+    }
+
+    /**
+     * Convert tokens in reverse polish notation to a program
+     * @param tokens the tokens
+     * @return the program
+     */
+    public static Program fromTokens(Token[] tokens) {
+        final Builder builder = new Builder();
+        for (Token t : tokens) {
+            switch (t.getType()) {
+                case Token.TOKEN_NUMBER:
+                    builder.emit(CONSTANT, builder.constantIndex(((NumberToken) t).getValue()));
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    builder.emit(VARIABLE, builder.variableIndex(((VariableToken) t).getName()));
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    builder.emit(OPERATOR, builder.operatorIndex(((OperatorToken) t).getOperator()));
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    builder.emit(FUNCTION, builder.functionIndex(((FunctionToken) t).getFunction()));
+                    break;
+                case Token.TOKEN_STORE:
+                    builder.emit(STORE, ((StoreToken) t).getIndex());
+                    break;
+                case Token.TOKEN_LOAD:
+                    builder.emit(LOAD, ((LoadToken) t).getIndex());
+                    break;
+                default:
+                    throw new IllegalArgumentException("The token type " + t.getType() + " can not be part of a program");
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Convert the program to tokens in reverse polish notation
+     * @return the tokens
+     */
+    public Token[] toTokens() {
+        final Token[] tokens = new Token[code.length];
+        for (int i = 0; i < code.length; i++) {
+            final int operand = operand(code[i]);
+            switch (opcode(code[i])) {
+                case CONSTANT:
+                    tokens[i] = new NumberToken(constants[operand]);
+                    break;
+                case VARIABLE:
+                    tokens[i] = new VariableToken(variables[operand]);
+                    break;
+                case OPERATOR:
+                    tokens[i] = new OperatorToken(operators[operand]);
+                    break;
+                case FUNCTION:
+                    tokens[i] = new FunctionToken(functions[operand]);
+                    break;
+                case STORE:
+                    tokens[i] = new StoreToken(operand);
+                    break;
+                default:
+                    tokens[i] = new LoadToken(operand);
+                    break;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Get the number of instructions
+     * @return the length of the program
+     */
+    public int size() {
+        return code.length;
+    }
+
+    /**
+     * Get the instructions
+     * @return a copy of the instructions
+     */
+    public int[] getCode() {
+        return code.clone();
+    }
+
+    /**
+     * Get the constant pool
+     * @return a copy of the constant pool
+     */
+    public double[] getConstants() {
+        return constants.clone();
+    }
+
+    /**
+     * Get the variable names
+     * @return a copy of the variable names
+     */
+    public String[] getVariables() {
+        return variables.clone();
+    }
+
+    /**
+     * Get the operators
+     * @return a copy of the operators
+     */
+    public Operator[] getOperators() {
+        return operators.clone();
+    }
+
+    /**
+     * Get the functions
+     * @return a copy of the functions
+     */
+    public Function[] getFunctions() {
+        return functions.clone();
+    }
+
+    /**
+     * Builds a {@link Program} instruction by instruction. The variables, operators and functions are added to their
+     * tables on first use, operators and functions are compared by identity.
+     */
+    public static final class Builder {
+
+        private int[] code = new int[16];
+
+        private int size;
+
+        private double[] constants = new double[8];
+
+        private int numConstants;
+
+        private final Map<String, Integer> variableIndices = new HashMap<String, Integer>();
+
+        private final List<String> variables = new ArrayList<String>();
+
+        /* there are only a few distinct operators and functions, so they are looked up by a linear scan */
+        private Operator[] operators = new Operator[4];
+
+        private int numOperators;
+
+        private Function[] functions = new Function[4];
+
+        private int numFunctions;
+
+        /**
+         * Add an instruction
+         * @param opcode the opcode
+         * @param operand the operand
+         * @return the builder
+         */
+        public Builder emit(int opcode, int operand) {
+            if (size == code.length) {
+                code = Arrays.copyOf(code, 2 * size);
+            }
+            code[size++] = instruction(opcode, operand);
+            return this;
+        }
+
+        /**
+         * Add a constant to the constant pool
+         * @param value the constant
+         * @return the index of the constant
+         */
+        public int constantIndex(double value) {
+            if (numConstants == constants.length) {
+                constants = Arrays.copyOf(constants, 2 * numConstants);
+            }
+            constants[numConstants] = value;
+            return numConstants++;
+        }
+
+        public int variableIndex(String name) {
+            Integer index = variableIndices.get(name);
+            if (index == null) {
+                index = variables.size();
+                variableIndices.put(name, index);
+                variables.add(name);
+            }
+            return index;
+        }
+
+        public int operatorIndex(Operator operator) {
+            for (int i = 0; i < numOperators; i++) {
+                if (operators[i] == operator) {
+                    return i;
+                }
+            }
+            if (numOperators == operators.length) {
+                operators = Arrays.copyOf(operators, 2 * numOperators);
+            }
+            operators[numOperators] = operator;
+            return numOperators++;
+        }
+
+        public int functionIndex(Function function) {
+            for (int i = 0; i < numFunctions; i++) {
+                if (functions[i] == function) {
+                    return i;
+                }
+            }
+            if (numFunctions == functions.length) {
+                functions = Arrays.copyOf(functions, 2 * numFunctions);
+            }
+            functions[numFunctions] = function;
+            return numFunctions++;
+        }
+
+        /**
+         * Get an operator added to the builder
+         * @param index the index of the operator
+         * @return the operator
+         */
+        public Operator getOperator(int index) {
+            return operators[index];
+        }
+
+        public Program build() {
+            return new Program(this);
+        }
+    }
+}
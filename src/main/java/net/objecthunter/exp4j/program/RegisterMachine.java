@@ -0,0 +1,504 @@
+/*
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package net.objecthunter.exp4j.program;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.objecthunter.exp4j.MissingVariableException;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.LoadToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.StoreToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+/**
+ * Virtual machine executing an expression which has been lowered to three address instructions of the form
+ * <code>dst = op(src1, src2)</code> over a register file. Unlike the {@link Interpreter} no intermediate result is
+ * pushed or popped: the operands are read from their registers and the result is written to the destination register
+ * directly. The register file holds the used variables and the constants, which are loaded before the instructions
+ * are executed, followed by the intermediate results. The registers of the intermediate results are assigned by a
+ * linear scan which reuses a register as soon as its value has been read for the last time, so the register file
+ * only grows with the number of values alive at once. Common subexpressions are computed once and read from their
+ * register by every use.
+ * <p>
+ * The instructions use the opcodes of the {@link Interpreter}, so the builtin operators and functions are executed
+ * inline with the same results. Custom operators and functions are invoked through their <code>apply()</code>
+ * methods on the register file, their arguments are copied to consecutive registers first if necessary. Instances
+ * are immutable and can be used by multiple threads at once.
+ */
+public final class RegisterMachine {
+
+    /* the number of ints per instruction */
+    private static final int INSTRUCTION_SIZE = 4;
+
+    /* copies a register, reusing the opcode of loading a temporary slot */
+    static final int MOVE = Interpreter.LOAD;
+
+    /* the kinds of values during the lowering */
+    private static final int KIND_VARIABLE = 0;
+    private static final int KIND_CONSTANT = 1;
+    private static final int KIND_RESULT = 2;
+
+    /* the instructions, each one consisting of four ints: the opcode, the destination register, the first
+       operand's register and the second operand's register. Custom operators and functions read their arguments
+       from the registers starting at the first operand's, the second one is their index. */
+    private final int[] code;
+
+
+    /* the variable slots loaded into the first registers */
+    private final int[] slots;
+
+    private final String[] variableNames;
+
+    /* the constants loaded into the registers following the variables */
+    private final double[] constants;
+
+    private final Operator[] operators;
+
+    private final Function[] functions;
+
+    private final int numRegisters;
+
+    /* the register holding the result */
+    private final int result;
+
+    private RegisterMachine(Lowering lowering) {
+        this.code = Arrays.copyOf(lowering.code, lowering.size);
+        this.slots = new int[lowering.slots.size()];
+        for (int i = 0; i < slots.length; i++) {
+            this.slots[i] = lowering.slots.get(i);
+        }
+        this.variableNames = lowering.variableNames.toArray(new String[lowering.variableNames.size()]);
+        this.constants = new double[lowering.constants.size()];
+        for (int i = 0; i < constants.length; i++) {
+            this.constants[i] = lowering.constants.get(i);
+        }
+        this.operators = lowering.operators.toArray(new Operator[lowering.operators.size()]);
+        this.functions = lowering.functions.toArray(new Function[lowering.functions.size()]);
+        this.numRegisters = lowering.numRegisters;
+        this.result = lowering.result;
+    }
+
+    /**
+     * Lower an expression to a register machine program
+     * @param tokens the expression in reverse polish notation. The index of each {@link VariableToken} is the index
+     *               of the variable's value in the arrays passed to
+     *               {@link #evaluate(double[], boolean[], double[], int)}
+     * @return the register machine or null if the tokens do not form a valid expression
+     */
+    public static RegisterMachine compile(final Token[] tokens) {
+        final Lowering lowering = new Lowering(tokens.length);
+        if (!lowering.values(tokens)) {
+            return null;
+        }
+        lowering.allocate();
+        return new RegisterMachine(lowering);
+    }
+
+    /**
+     * Get the number of registers, which is the number of values the array passed to
+     * {@link #evaluate(double[], boolean[], double[], int)} has to hold above its base
+     * @return the size of the register file
+     */
+    public int getNumRegisters() {
+        return numRegisters;
+    }
+
+    /**
+     * Get the number of instructions of the program, not counting the loading of the variables and constants
+     * @return the number of instructions
+     */
+    public int size() {
+        return code.length / INSTRUCTION_SIZE;
+    }
+
+    /**
+     * Evaluate the expression. The variables are checked before any instruction is executed, so a missing variable
+     * is reported even if an instruction evaluated before it in the expression would throw. To report the first
+     * exception in the order of evaluation, as the {@link Interpreter} does, check the variables beforehand and
+     * evaluate the tokens if one is missing, as {@link net.objecthunter.exp4j.CompiledExpression} does.
+     * @param values the values of the variables by slot
+     * @param bound whether the value of the variable in a slot has been set
+     * @param registers the array holding the register file. Only the elements from <code>base</code> to
+     *                  <code>base + getNumRegisters() - 1</code> are modified.
+     * @param base the index of the first register
+     * @return the result of the evaluation
+     * @throws MissingVariableException if a variable used by the expression has not been set
+     */
+    public double evaluate(final double[] values, final boolean[] bound, final double[] registers, final int base) {
+        final int[] slots = this.slots;
+        for (int i = 0; i < slots.length; i++) {
+            final int slot = slots[i];
+            if (!bound[slot]) {
+                throw new MissingVariableException(variableNames[i]);
+            }
+            registers[base + i] = values[slot];
+        }
+        System.arraycopy(constants, 0, registers, base + slots.length, constants.length);
+        final int[] code = this.code;
+        for (int pc = 0; pc < code.length; pc += INSTRUCTION_SIZE) {
+            switch (code[pc]) {
+                case MOVE:
+                    registers[base + code[pc + 1]] = registers[base + code[pc + 2]];
+                    break;
+                case Interpreter.UNARY_OPERATOR:
+                case Interpreter.BINARY_OPERATOR:
+                    registers[base + code[pc + 1]] = operators[code[pc + 3]].apply(registers, base + code[pc + 2]);
+                    break;
+                case Interpreter.FUNCTION:
+                    registers[base + code[pc + 1]] = functions[code[pc + 3]].apply(registers, base + code[pc + 2]);
+                    break;
+                case Interpreter.ADD:
+                    registers[base + code[pc + 1]] = registers[base + code[pc + 2]] + registers[base + code[pc + 3]];
+                    break;
+                case Interpreter.SUBTRACT:
+                    registers[base + code[pc + 1]] = registers[base + code[pc + 2]] - registers[base + code[pc + 3]];
+                    break;
+                case Interpreter.MULTIPLY:
+                    registers[base + code[pc + 1]] = registers[base + code[pc + 2]] * registers[base + code[pc + 3]];
+                    break;
+                case Interpreter.DIVIDE:
+                    if (registers[base + code[pc + 3]] == 0d) {
+                        throw new ArithmeticException("Division by zero!");
+                    }
+                    registers[base + code[pc + 1]] = registers[base + code[pc + 2]] / registers[base + code[pc + 3]];
+                    break;
+                case Interpreter.MODULO:
+                    if (registers[base + code[pc + 3]] == 0d) {
+                        throw new ArithmeticException("Division by zero!");
+                    }
+                    registers[base + code[pc + 1]] = registers[base + code[pc + 2]] % registers[base + code[pc + 3]];
+                    break;
+                case Interpreter.POWER:
+                    registers[base + code[pc + 1]] = Math.pow(registers[base + code[pc + 2]], registers[base + code[pc + 3]]);
+                    break;
+                case Interpreter.NEGATE:
+                    registers[base + code[pc + 1]] = -registers[base + code[pc + 2]];
+                    break;
+                case Interpreter.SIN:
+                    registers[base + code[pc + 1]] = Math.sin(registers[base + code[pc + 2]]);
+                    break;
+                case Interpreter.COS:
+                    registers[base + code[pc + 1]] = Math.cos(registers[base + code[pc + 2]]);
+                    break;
+                case Interpreter.TAN:
+                    registers[base + code[pc + 1]] = Math.tan(registers[base + code[pc + 2]]);
+                    break;
+                case Interpreter.COT:
+                    if (Math.tan(registers[base + code[pc + 2]]) == 0d) {
+                        throw new ArithmeticException("Division by zero in cotangent!");
+                    }
+                    registers[base + code[pc + 1]] = 1d / Math.tan(registers[base + code[pc + 2]]);
+                    break;
+                case Interpreter.ASIN:
+                    registers[base + code[pc + 1]] = Math.asin(registers[base + code[pc + 2]]);
+                    break;
+                case Interpreter.ACOS:
+                    registers[base + code[pc + 1]] = Math.acos(registers[base + code[pc + 2]]);
+                    break;
+                case Interpreter.ATAN:
+                    registers[base + code[pc + 1]] = Math.atan(registers[base + code[pc + 2]]);
+                    break;
+                case Interpreter.SINH:
+                    registers[base + code[pc + 1]] = Math.sinh(registers[base + code[pc + 2]]);
+                    break;
+                case Interpreter.COSH:
+                    registers[base + code[pc + 1]] = Math.cosh(registers[base + code[pc + 2]]);
+                    break;
+                case Interpreter.TANH:
+                    registers[base + code[pc + 1]] = Math.tanh(registers[base + code[pc + 2]]);
+                    break;
+                case Interpreter.ABS:
+                    registers[base + code[pc + 1]] = Math.abs(registers[base + code[pc + 2]]);
+                    break;
+                case Interpreter.LOG:
+                    registers[base + code[pc + 1]] = Math.log(registers[base + code[pc + 2]]);
+                    break;
+                case Interpreter.LOG10:
+                    registers[base + code[pc + 1]] = Math.log10(registers[base + code[pc + 2]]);
+                    break;
+                case Interpreter.LOG2:
+                    registers[base + code[pc + 1]] = Math.log(registers[base + code[pc + 2]]) / Math.log(2d);
+                    break;
+                case Interpreter.LOG1P:
+                    registers[base + code[pc + 1]] = Math.log1p(registers[base + code[pc + 2]]);
+                    break;
+                case Interpreter.CEIL:
+                    registers[base + code[pc + 1]] = Math.ceil(registers[base + code[pc + 2]]);
+                    break;
+                case Interpreter.FLOOR:
+                    registers[base + code[pc + 1]] = Math.floor(registers[base + code[pc + 2]]);
+                    break;
+                case Interpreter.SQRT:
+                    registers[base + code[pc + 1]] = Math.sqrt(registers[base + code[pc + 2]]);
+                    break;
+                case Interpreter.CBRT:
+                    registers[base + code[pc + 1]] = Math.cbrt(registers[base + code[pc + 2]]);
+                    break;
+                case Interpreter.EXP:
+                    registers[base + code[pc + 1]] = Math.exp(registers[base + code[pc + 2]]);
+                    break;
+                case Interpreter.EXPM1:
+                    registers[base + code[pc + 1]] = Math.expm1(registers[base + code[pc + 2]]);
+                    break;
+                case Interpreter.SIGNUM:
+                    final double arg = registers[base + code[pc + 2]];
+                    registers[base + code[pc + 1]] = arg > 0 ? 1d : arg < 0 ? -1d : 0d;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown opcode " + code[pc]);
+            }
+        }
+        return registers[base + result];
+    }
+
+    /**
+     * Lowers the tokens in two passes. The first one turns the tokens into instructions over values, which are
+     * numbered in the order they are created, and records the last instruction reading each value. The second one
+     * assigns the registers and emits the instructions.
+     */
+    private static final class Lowering {
+
+        /* the values: their kind and the index of the variable, constant or instruction they stem from */
+        private final int[] kinds;
+        private final int[] indices;
+        private final int[] lastUses;
+        private int numValues;
+
+        /* the instructions over values: their opcodes, the values they read, the index of the custom operator or
+           function and the value they create */
+        private final List<int[]> arguments = new ArrayList<int[]>();
+        private final List<Integer> valueOpcodes = new ArrayList<Integer>();
+        private final List<Integer> refs = new ArrayList<Integer>();
+        private final List<Integer> results = new ArrayList<Integer>();
+        private int resultValue;
+
+        private final List<Integer> slots = new ArrayList<Integer>();
+        private final List<String> variableNames = new ArrayList<String>();
+        private final Map<Integer, Integer> variableIndices = new HashMap<Integer, Integer>();
+        private final List<Double> constants = new ArrayList<Double>();
+        private final Map<Long, Integer> constantIndices = new HashMap<Long, Integer>();
+        private final List<Operator> operators = new ArrayList<Operator>();
+        private final List<Function> functions = new ArrayList<Function>();
+        private final Map<Object, Integer> refIndices = new IdentityHashMap<Object, Integer>();
+        private int maxArguments;
+
+        /* the emitted instructions */
+        private int[] code;
+        private int size;
+        private int numRegisters;
+        private int result;
+
+        Lowering(int numTokens) {
+            this.kinds = new int[numTokens];
+            this.indices = new int[numTokens];
+            this.lastUses = new int[numTokens];
+        }
+
+        /* the first pass, returns false if the tokens do not form a valid expression */
+        boolean values(final Token[] tokens) {
+            final int[] stack = new int[tokens.length];
+            /* the values stored in the temporary slots */
+            final int[] temps = new int[tokens.length];
+            Arrays.fill(temps, -1);
+            int top = -1;
+            for (final Token t : tokens) {
+                switch (t.getType()) {
+                    case Token.TOKEN_NUMBER:
+                        final double value = ((NumberToken) t).getValue();
+                        final Long bits = Double.doubleToRawLongBits(value);
+                        Integer constant = constantIndices.get(bits);
+                        if (constant == null) {
+                            constant = constants.size();
+                            constants.add(value);
+                            constantIndices.put(bits, constant);
+                        }
+                        stack[++top] = value(KIND_CONSTANT, constant);
+                        break;
+                    case Token.TOKEN_VARIABLE:
+                        final VariableToken variable = (VariableToken) t;
+                        if (variable.getIndex() < 0) {
+                            return false;
+                        }
+                        Integer idx = variableIndices.get(variable.getIndex());
+                        if (idx == null) {
+                            idx = slots.size();
+                            slots.add(variable.getIndex());
+                            variableNames.add(variable.getName());
+                            variableIndices.put(variable.getIndex(), idx);
+                        }
+                        stack[++top] = value(KIND_VARIABLE, idx);
+                        break;
+                    case Token.TOKEN_OPERATOR:
+                        final Operator op = ((OperatorToken) t).getOperator();
+                        final int numOperands = op.getNumOperands();
+                        if ((numOperands != 1 && numOperands != 2) || top + 1 < numOperands) {
+                            return false;
+                        }
+                        final int opcode = Interpreter.opcode(op);
+                        if (opcode == Interpreter.NOP) {
+                            /* the unary plus leaves its operand as it is */
+                            break;
+                        }
+                        top -= numOperands;
+                        stack[++top] = instruction(opcode, Arrays.copyOfRange(stack, top, top + numOperands),
+                                opcode == Interpreter.UNARY_OPERATOR || opcode == Interpreter.BINARY_OPERATOR
+                                        ? Interpreter.index(op, operators, refIndices) : 0);
+                        break;
+                    case Token.TOKEN_FUNCTION:
+                        final Function func = ((FunctionToken) t).getFunction();
+                        final int numArguments = func.getNumArguments();
+                        if (top + 1 < numArguments) {
+                            return false;
+                        }
+                        final int funcOpcode = Interpreter.opcode(func);
+                        top -= numArguments;
+                        stack[++top] = instruction(funcOpcode, Arrays.copyOfRange(stack, top, top + numArguments),
+                                funcOpcode == Interpreter.FUNCTION ? Interpreter.index(func, functions, refIndices) : 0);
+                        break;
+                    case Token.TOKEN_STORE:
+                        final int storeIdx = ((StoreToken) t).getIndex();
+                        if (top < 0 || storeIdx < 0 || storeIdx >= temps.length) {
+                            return false;
+                        }
+                        temps[storeIdx] = stack[top];
+                        break;
+                    case Token.TOKEN_LOAD:
+                        final int loadIdx = ((LoadToken) t).getIndex();
+                        if (loadIdx < 0 || loadIdx >= temps.length || temps[loadIdx] < 0) {
+                            return false;
+                        }
+                        stack[++top] = temps[loadIdx];
+                        break;
+                    default:
+                        return false;
+                }
+            }
+            if (top != 0) {
+                return false;
+            }
+            resultValue = stack[0];
+            /* the result is read after the last instruction */
+            lastUses[resultValue] = Integer.MAX_VALUE;
+            return true;
+        }
+
+        /* every token creates at most one value, so the arrays do not have to grow */
+        private int value(int kind, int index) {
+            kinds[numValues] = kind;
+            indices[numValues] = index;
+            return numValues++;
+        }
+
+        private int instruction(int opcode, int[] args, int ref) {
+            final int instruction = valueOpcodes.size();
+            for (int arg : args) {
+                lastUses[arg] = instruction;
+            }
+            if (opcode == Interpreter.FUNCTION || opcode == Interpreter.BINARY_OPERATOR) {
+                maxArguments = Math.max(maxArguments, args.length);
+            }
+            valueOpcodes.add(opcode);
+            arguments.add(args);
+            refs.add(ref);
+            final int value = value(KIND_RESULT, instruction);
+            results.add(value);
+            return value;
+        }
+
+        /* the second pass, a linear scan over the instructions assigning the registers */
+        void allocate() {
+            final int numInstructions = valueOpcodes.size();
+            final int argumentBase = slots.size() + constants.size();
+            final int resultBase = argumentBase + maxArguments;
+            code = new int[INSTRUCTION_SIZE * numInstructions * (1 + maxArguments)];
+            /* the registers of the values, the registers free for reuse and the registers used so far */
+            final int[] registers = new int[numValues];
+            final int[] free = new int[numInstructions];
+            int numFree = 0;
+            int numResults = 0;
+            for (int v = 0; v < numValues; v++) {
+                if (kinds[v] == KIND_VARIABLE) {
+                    registers[v] = indices[v];
+                } else if (kinds[v] == KIND_CONSTANT) {
+                    registers[v] = slots.size() + indices[v];
+                }
+            }
+            for (int i = 0; i < numInstructions; i++) {
+                final int[] args = arguments.get(i);
+                final int opcode = valueOpcodes.get(i);
+                final int value = results.get(i);
+                int first = args.length > 0 ? registers[args[0]] : 0;
+                if (opcode == Interpreter.FUNCTION || opcode == Interpreter.BINARY_OPERATOR) {
+                    /* custom functions and operators read their arguments from consecutive registers */
+                    boolean consecutive = true;
+                    for (int a = 1; a < args.length; a++) {
+                        consecutive &= registers[args[a]] == first + a;
+                    }
+                    if (!consecutive) {
+                        for (int a = 0; a < args.length; a++) {
+                            emit(MOVE, argumentBase + a, registers[args[a]], 0);
+                        }
+                        first = argumentBase;
+                    }
+                }
+                /* release the registers read for the last time before assigning the result's register, since
+                   every instruction reads its operands before writing the result */
+                for (int a = 0; a < args.length; a++) {
+                    final int arg = args[a];
+                    if (kinds[arg] == KIND_RESULT && lastUses[arg] == i && !contains(args, a, arg)) {
+                        free[numFree++] = registers[arg];
+                    }
+                }
+                registers[value] = numFree > 0 ? free[--numFree] : resultBase + numResults++;
+                if (opcode == Interpreter.FUNCTION || opcode == Interpreter.UNARY_OPERATOR
+                        || opcode == Interpreter.BINARY_OPERATOR) {
+                    emit(opcode, registers[value], first, refs.get(i));
+                } else {
+                    emit(opcode, registers[value], first, args.length > 1 ? registers[args[1]] : 0);
+                }
+            }
+            numRegisters = resultBase + numResults;
+            result = registers[resultValue];
+        }
+
+        /* whether the value has already been seen among the first arguments, so its register is freed once */
+        private static boolean contains(int[] args, int length, int value) {
+            for (int a = 0; a < length; a++) {
+                if (args[a] == value) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void emit(int opcode, int dst, int src1, int src2) {
+            code[size++] = opcode;
+            code[size++] = dst;
+            code[size++] = src1;
+            code[size++] = src2;
+        }
+    }
+}
@@ -19,7 +19,7 @@ import java.util.*;
 
 import net.objecthunter.exp4j.function.Function;
 import net.objecthunter.exp4j.operator.Operator;
-import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.program.Program;
 import net.objecthunter.exp4j.tokenizer.Token;
 import net.objecthunter.exp4j.tokenizer.Tokenizer;
 
@@ -28,6 +28,11 @@ import net.objecthunter.exp4j.tokenizer.Tokenizer;
  */
 public class ShuntingYard {
 
+    /* the kinds of the entries on the operator stack */
+    private static final int ENTRY_OPEN = 0;
+    private static final int ENTRY_OPERATOR = 1;
+    private static final int ENTRY_FUNCTION = 2;
+
     /**
      * Convert a Set of tokens from infix to reverse polish notation
      * @param expression the expression to convert
@@ -39,67 +44,108 @@ public class ShuntingYard {
      */
     public static Token[] convertToRPN(final String expression, final Map<String, Function> userFunctions,
             final Map<String, Operator> userOperators, final Set<String> variableNames, final boolean implicitMultiplication){
-        final Stack<Token> stack = new Stack<Token>();
-        final List<Token> output = new ArrayList<Token>();
+        return compile(expression, userFunctions, userOperators, variableNames, implicitMultiplication).toTokens();
+    }
+
+    /**
+     * Convert an expression from infix to reverse polish notation in a single pass over its characters. Neither
+     * tokens nor boxed values are created, the operator stack holds primitive entries and the result is emitted
+     * directly into the compact encoding of a {@link Program}.
+     * @param expression the expression to convert
+     * @param userFunctions the custom functions used
+     * @param userOperators the custom operators used
+     * @param variableNames the variable names used in the expression
+     * @param implicitMultiplication set to false to turn off implicit multiplication
+     * @return the program in reverse polish notation
+     */
+    public static Program compile(final String expression, final Map<String, Function> userFunctions,
+            final Map<String, Operator> userOperators, final Set<String> variableNames, final boolean implicitMultiplication) {
+        final Program.Builder program = new Program.Builder();
+        /* the entries hold the kind in the lowest two bits and the index of the operator or function above them */
+        int[] stack = new int[16];
+        int size = 0;
 
         final Tokenizer tokenizer = new Tokenizer(expression, userFunctions, userOperators, variableNames, implicitMultiplication);
         while (tokenizer.hasNext()) {
-            Token token = tokenizer.nextToken();
-            switch (token.getType()) {
+            switch (tokenizer.next()) {
             case Token.TOKEN_NUMBER:
+                program.emit(Program.CONSTANT, program.constantIndex(tokenizer.getNumber()));
+                break;
             case Token.TOKEN_VARIABLE:
-                output.add(token);
+                program.emit(Program.VARIABLE, program.variableIndex(tokenizer.getVariableName()));
                 break;
             case Token.TOKEN_FUNCTION:
-                stack.add(token);
+                if (size == stack.length) {
+                    stack = Arrays.copyOf(stack, 2 * size);
+                }
+                stack[size++] = program.functionIndex(tokenizer.getFunction()) << 2 | ENTRY_FUNCTION;
                 break;
             case Token.TOKEN_SEPARATOR:
-                while (!stack.empty() && stack.peek().getType() != Token.TOKEN_PARENTHESES_OPEN) {
-                    output.add(stack.pop());
+                while (size > 0 && stack[size - 1] != ENTRY_OPEN) {
+                    emit(program, stack[--size]);
                 }
-                if (stack.empty() || stack.peek().getType() != Token.TOKEN_PARENTHESES_OPEN) {
+                if (size == 0) {
                     throw new IllegalArgumentException("Misplaced function separator ',' or mismatched parentheses");
                 }
                 break;
             case Token.TOKEN_OPERATOR:
-                while (!stack.empty() && stack.peek().getType() == Token.TOKEN_OPERATOR) {
-                    OperatorToken o1 = (OperatorToken) token;
-                    OperatorToken o2 = (OperatorToken) stack.peek();
-                    if (o1.getOperator().getNumOperands() == 1 && o2.getOperator().getNumOperands() == 2) {
+                final Operator o1 = tokenizer.getOperator();
+                while (size > 0 && (stack[size - 1] & 3) == ENTRY_OPERATOR) {
+                    final Operator o2 = program.getOperator(stack[size - 1] >>> 2);
+                    if (o1.getNumOperands() == 1 && o2.getNumOperands() == 2) {
                         break;
-                    } else if ((o1.getOperator().isLeftAssociative() && o1.getOperator().getPrecedence() <= o2.getOperator().getPrecedence())
-                            || (o1.getOperator().getPrecedence() < o2.getOperator().getPrecedence())) {
-                        output.add(stack.pop());
-                    }else {
+                    } else if ((o1.isLeftAssociative() && o1.getPrecedence() <= o2.getPrecedence())
+                            || (o1.getPrecedence() < o2.getPrecedence())) {
+                        emit(program, stack[--size]);
+                    } else {
                         break;
                     }
                 }
-                stack.push(token);
+                if (size == stack.length) {
+                    stack = Arrays.copyOf(stack, 2 * size);
+                }
+                stack[size++] = program.operatorIndex(o1) << 2 | ENTRY_OPERATOR;
                 break;
             case Token.TOKEN_PARENTHESES_OPEN:
-                stack.push(token);
+                if (size == stack.length) {
+                    stack = Arrays.copyOf(stack, 2 * size);
+                }
+                stack[size++] = ENTRY_OPEN;
                 break;
             case Token.TOKEN_PARENTHESES_CLOSE:
-                while (stack.peek().getType() != Token.TOKEN_PARENTHESES_OPEN) {
-                    output.add(stack.pop());
+                while (true) {
+                    if (size == 0) {
+                        throw new EmptyStackException();
+                    }
+                    if (stack[size - 1] == ENTRY_OPEN) {
+                        break;
+                    }
+                    emit(program, stack[--size]);
                 }
-                stack.pop();
-                if (!stack.isEmpty() && stack.peek().getType() == Token.TOKEN_FUNCTION) {
-                    output.add(stack.pop());
+                size--;
+                if (size > 0 && (stack[size - 1] & 3) == ENTRY_FUNCTION) {
+                    emit(program, stack[--size]);
                 }
                 break;
             default:
                 throw new IllegalArgumentException("Unknown Token type encountered. This should not happen");
             }
         }
-        while (!stack.empty()) {
-            Token t = stack.pop();
-            if (t.getType() == Token.TOKEN_PARENTHESES_CLOSE || t.getType() == Token.TOKEN_PARENTHESES_OPEN) {
+        while (size > 0) {
+            final int entry = stack[--size];
+            if (entry == ENTRY_OPEN) {
                 throw new IllegalArgumentException("Mismatched parentheses detected. Please check the expression");
-            } else {
-                output.add(t);
             }
+            emit(program, entry);
+        }
+        return program.build();
+    }
+
+    private static void emit(final Program.Builder program, final int entry) {
+        if ((entry & 3) == ENTRY_FUNCTION) {
+            program.emit(Program.FUNCTION, entry >>> 2);
+        } else {
+            program.emit(Program.OPERATOR, entry >>> 2);
         }
-        return (Token[]) output.toArray(new Token[output.size()]);
     }
 }
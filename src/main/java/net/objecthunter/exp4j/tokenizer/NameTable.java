@@ -0,0 +1,132 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.tokenizer;
+
+import java.util.Map;
+import java.util.Set;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+
+/**
+ * An immutable hash table of the names of the variables and functions known to a {@link Tokenizer}. The table is
+ * probed with the hash of a prefix of the expression, which is computed incrementally while scanning the name the
+ * same way {@link String#hashCode()} does. This way finding the longest name at a position of the expression is a
+ * single scan which does not allocate a string for every prefix, and building the table reuses the hash codes
+ * cached by the names.
+ */
+final class NameTable {
+
+    /* the names in the table or null for empty entries */
+    private final String[] names;
+
+    /* the variable names as string and the functions */
+    private final Object[] values;
+
+    private final int mask;
+
+    private final int maxLength;
+
+    /**
+     * Create a new table. If there are multiple variables or functions with the same name, variables take precedence
+     * over custom functions and custom functions take precedence over builtin ones.
+     * @param variableNames the declared variables or null
+     * @param userFunctions the custom functions or null
+     */
+    NameTable(final Set<String> variableNames, final Map<String, Function> userFunctions) {
+        final Function[] builtins = Functions.getBuiltinFunctions();
+        final int count = builtins.length + (variableNames != null ? variableNames.size() : 0)
+                + (userFunctions != null ? userFunctions.size() : 0);
+        /* keep the load factor below 0.5 */
+        int capacity = 16;
+        while (capacity < 2 * count) {
+            capacity <<= 1;
+        }
+        this.names = new String[capacity];
+        this.values = new Object[capacity];
+        this.mask = capacity - 1;
+        int maxLength = 0;
+        if (variableNames != null) {
+            for (String name : variableNames) {
+                maxLength = Math.max(maxLength, put(name, name));
+            }
+        }
+        if (userFunctions != null) {
+            for (Map.Entry<String, Function> f : userFunctions.entrySet()) {
+                maxLength = Math.max(maxLength, put(f.getKey(), f.getValue()));
+            }
+        }
+        for (Function f : builtins) {
+            maxLength = Math.max(maxLength, put(f.getName(), f));
+        }
+        this.maxLength = maxLength;
+    }
+
+    private int put(final String name, final Object value) {
+        int i = index(name.hashCode());
+        while (names[i] != null) {
+            if (names[i].equals(name)) {
+                /* keep the first value */
+                return name.length();
+            }
+            i = (i + 1) & mask;
+        }
+        names[i] = name;
+        values[i] = value;
+        return name.length();
+    }
+
+    private int index(final int hash) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Get the length of the longest name in the table
+     * @return the maximum length of a name
+     */
+    int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Look up a name
+     * @param expression the characters of the expression
+     * @param offset the offset of the name
+     * @param len the length of the name
+     * @param hash the hash of the name as computed by {@link String#hashCode()}
+     * @return the {@link Function} or the name of the variable or null if the name is unknown
+     */
+    Object get(final char[] expression, final int offset, final int len, final int hash) {
+        int i = index(hash);
+        String name;
+        while ((name = names[i]) != null) {
+            if (name.hashCode() == hash && name.length() == len && matches(name, expression, offset)) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    private static boolean matches(final String name, final char[] expression, final int offset) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != expression[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
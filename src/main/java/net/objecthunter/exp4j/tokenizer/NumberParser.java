@@ -0,0 +1,236 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.tokenizer;
+
+import java.math.BigInteger;
+
+/**
+ * Parses decimal number literals directly from the characters of an expression without creating a string. The result
+ * is always the correctly rounded double, i.e. the same value {@link Double#parseDouble(String)} returns.
+ * <p>
+ * Literals with up to 19 significant digits are converted by one of two fast paths: if the digits and the power of
+ * ten are both exactly representable as doubles, a single multiplication or division suffices (Clinger's fast path).
+ * Otherwise the digits are multiplied by a 128 bit approximation of the power of ten (Eisel-Lemire), which yields
+ * the correctly rounded result unless the product is too close to the midpoint of two doubles. These rare cases as
+ * well as longer literals, subnormal results and invalid literals are passed on to {@link Double#parseDouble(String)}.
+ */
+final class NumberParser {
+
+    /* the powers of ten which are exactly representable as doubles */
+    private static final double[] EXACT_POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    /* the largest integer up to which all integers are exactly representable as doubles */
+    private static final long MAX_EXACT_INTEGER = 1L << 53;
+
+    private static final int MAX_DIGITS = 19;
+
+    private static final int MIN_POWER = -325;
+
+    private static final int MAX_POWER = 308;
+
+    private static final long MASK_32 = 0xFFFFFFFFL;
+
+    private NumberParser() {
+    }
+
+    /**
+     * Parse a number literal
+     * @param chars the characters containing the literal
+     * @param offset the offset of the literal
+     * @param len the length of the literal
+     * @return the value of the literal
+     * @throws NumberFormatException if the literal is invalid
+     */
+    static double parseDouble(final char[] chars, final int offset, final int len) {
+        final int end = offset + len;
+        int i = offset;
+        long digits = 0;
+        int numDigits = 0;
+        boolean hasDigits = false;
+        int exponent = 0;
+        /* the integer part */
+        for (; i < end && chars[i] >= '0' && chars[i] <= '9'; i++) {
+            hasDigits = true;
+            if (digits != 0 || chars[i] != '0') {
+                if (++numDigits > MAX_DIGITS) {
+                    return fallback(chars, offset, len);
+                }
+                digits = 10 * digits + (chars[i] - '0');
+            }
+        }
+        /* the fractional part */
+        if (i < end && chars[i] == '.') {
+            for (i++; i < end && chars[i] >= '0' && chars[i] <= '9'; i++) {
+                hasDigits = true;
+                if (digits != 0 || chars[i] != '0') {
+                    if (++numDigits > MAX_DIGITS) {
+                        return fallback(chars, offset, len);
+                    }
+                    digits = 10 * digits + (chars[i] - '0');
+                }
+                exponent--;
+            }
+        }
+        if (!hasDigits) {
+            return fallback(chars, offset, len);
+        }
+        /* the exponent */
+        if (i < end && (chars[i] == 'e' || chars[i] == 'E')) {
+            i++;
+            boolean negative = false;
+            if (i < end && (chars[i] == '+' || chars[i] == '-')) {
+                negative = chars[i] == '-';
+                i++;
+            }
+            if (i == end) {
+                return fallback(chars, offset, len);
+            }
+            int e = 0;
+            for (; i < end && chars[i] >= '0' && chars[i] <= '9'; i++) {
+                if (e > 100000) {
+                    return fallback(chars, offset, len);
+                }
+                e = 10 * e + (chars[i] - '0');
+            }
+            exponent += negative ? -e : e;
+        }
+        if (i != end) {
+            return fallback(chars, offset, len);
+        }
+        if (digits == 0) {
+            return 0d;
+        }
+        /* the digits are unsigned, 19 digits may exceed Long.MAX_VALUE */
+        if (digits > 0 && digits <= MAX_EXACT_INTEGER && exponent >= -22 && exponent <= 22) {
+            /* both operands are exact, so the single rounding of the operation yields the correct result */
+            return exponent >= 0 ? digits * EXACT_POWERS_OF_TEN[exponent] : digits / EXACT_POWERS_OF_TEN[-exponent];
+        }
+        if (exponent >= MIN_POWER && exponent <= MAX_POWER) {
+            final long bits = eiselLemire(digits, exponent);
+            if (bits >= 0) {
+                return Double.longBitsToDouble(bits);
+            }
+        }
+        return fallback(chars, offset, len);
+    }
+
+    private static double fallback(final char[] chars, final int offset, final int len) {
+        return Double.parseDouble(String.valueOf(chars, offset, len));
+    }
+
+    /**
+     * Compute the correctly rounded double closest to <code>digits * 10^power</code>
+     * @param digits the non zero decimal digits
+     * @param power the power of ten
+     * @return the bits of the double or -1 if the result can not be determined
+     */
+    private static long eiselLemire(long digits, final int power) {
+        final long[] powers = PowersOfFive.POWERS;
+        final int index = 2 * (power - MIN_POWER);
+        final long factorHigh = powers[index];
+        final long exponent = ((217706L * power) >> 16) + 1024 + 63;
+        int lz = Long.numberOfLeadingZeros(digits);
+        digits <<= lz;
+        long lower = digits * factorHigh;
+        long upper = multiplyHigh(digits, factorHigh);
+        if ((upper & 0x1FF) == 0x1FF && unsignedLess(lower + digits, lower)) {
+            /* the truncated factor is not precise enough, take its lower 64 bits into account */
+            final long factorLow = powers[index + 1];
+            final long productLow = digits * factorLow;
+            final long middle = lower + multiplyHigh(digits, factorLow);
+            if (unsignedLess(middle, lower)) {
+                upper++;
+            }
+            if (middle + 1 == 0 && (upper & 0x1FF) == 0x1FF && unsignedLess(productLow + digits, productLow)) {
+                return -1;
+            }
+            lower = middle;
+        }
+        final long upperBit = upper >>> 63;
+        long mantissa = upper >>> (upperBit + 9);
+        lz += (int) (1 ^ upperBit);
+        if (lower == 0 && (upper & 0x1FF) == 0 && (mantissa & 3) == 1) {
+            /* the result may lie exactly between two doubles */
+            return -1;
+        }
+        mantissa += mantissa & 1;
+        mantissa >>>= 1;
+        if (mantissa >= (1L << 53)) {
+            mantissa = 1L << 52;
+            lz--;
+        }
+        mantissa &= ~(1L << 52);
+        final long realExponent = exponent - lz;
+        if (realExponent < 1 || realExponent > 2046) {
+            /* subnormal or infinite */
+            return -1;
+        }
+        return mantissa | (realExponent << 52);
+    }
+
+    /* the upper 64 bits of the unsigned 128 bit product */
+    static long multiplyHigh(final long a, final long b) {
+        final long aHigh = a >>> 32;
+        final long aLow = a & MASK_32;
+        final long bHigh = b >>> 32;
+        final long bLow = b & MASK_32;
+        final long lowLow = aLow * bLow;
+        final long highLow = aHigh * bLow;
+        final long lowHigh = aLow * bHigh;
+        final long cross = (lowLow >>> 32) + (highLow & MASK_32) + lowHigh;
+        return aHigh * bHigh + (highLow >>> 32) + (cross >>> 32);
+    }
+
+    private static boolean unsignedLess(final long a, final long b) {
+        return (a ^ Long.MIN_VALUE) < (b ^ Long.MIN_VALUE);
+    }
+
+    /**
+     * The 128 bit approximations of the powers of five from 5^-325 to 5^308, normalized so that the most significant
+     * bit is set. The powers are stored as pairs of their upper and lower 64 bits. The table is computed on first
+     * use, so that literals handled by the other paths do not pay for it.
+     */
+    private static final class PowersOfFive {
+
+        static final long[] POWERS = new long[2 * (MAX_POWER - MIN_POWER + 1)];
+
+        static {
+            final BigInteger two128 = BigInteger.ONE.shiftLeft(128);
+            for (int q = MIN_POWER; q <= MAX_POWER; q++) {
+                BigInteger c;
+                if (q >= 0) {
+                    /* truncate 5^q to 128 bits */
+                    c = BigInteger.valueOf(5).pow(q);
+                    final int shift = c.bitLength() - 128;
+                    c = shift > 0 ? c.shiftRight(shift) : c.shiftLeft(-shift);
+                } else {
+                    /* round 1 / 5^-q up at 128 bits */
+                    final BigInteger power5 = BigInteger.valueOf(5).pow(-q);
+                    final int z = power5.bitLength();
+                    final int b = q >= -27 ? z + 127 : 2 * z + 128;
+                    c = BigInteger.ONE.shiftLeft(b).divide(power5).add(BigInteger.ONE);
+                    while (c.compareTo(two128) >= 0) {
+                        c = c.shiftRight(1);
+                    }
+                }
+                final int index = 2 * (q - MIN_POWER);
+                POWERS[index] = c.shiftRight(64).longValue();
+                POWERS[index + 1] = c.longValue();
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.tokenizer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import net.objecthunter.exp4j.operator.Operator;
+
+/**
+ * An immutable trie of the symbols of the custom operators. Every node has a child for each of the
+ * {@link Operator#ALLOWED_OPERATOR_CHARS}, so finding the longest symbol at a position of the expression takes one
+ * array access per character and no strings have to be built.
+ */
+final class OperatorTrie {
+
+    /* the node every lookup starts at */
+    static final int ROOT = 0;
+
+    /* the children of each node indexed by the index of the operator char, 0 if there is no child. The root is
+       never a child, so 0 can be used as a marker */
+    private final int[][] children;
+
+    /* the operator whose symbol ends at each node or null */
+    private final Operator[] operators;
+
+    /**
+     * Create a new trie
+     * @param userOperators the custom operators by symbol or null
+     */
+    OperatorTrie(final Map<String, Operator> userOperators) {
+        final List<int[]> children = new ArrayList<int[]>();
+        final List<Operator> operators = new ArrayList<Operator>();
+        children.add(new int[Operator.ALLOWED_OPERATOR_CHARS.length]);
+        operators.add(null);
+        if (userOperators != null) {
+            for (Map.Entry<String, Operator> op : userOperators.entrySet()) {
+                final String symbol = op.getKey();
+                int node = ROOT;
+                for (int i = 0; i < symbol.length() && node >= 0; i++) {
+                    final int index = Operator.getOperatorCharIndex(symbol.charAt(i));
+                    if (index < 0) {
+                        /* the tokenizer never passes such a symbol */
+                        node = -1;
+                    } else {
+                        if (children.get(node)[index] == 0) {
+                            children.get(node)[index] = children.size();
+                            children.add(new int[Operator.ALLOWED_OPERATOR_CHARS.length]);
+                            operators.add(null);
+                        }
+                        node = children.get(node)[index];
+                    }
+                }
+                if (node > ROOT) {
+                    operators.set(node, op.getValue());
+                }
+            }
+        }
+        this.children = children.toArray(new int[children.size()][]);
+        this.operators = operators.toArray(new Operator[operators.size()]);
+    }
+
+    /**
+     * Get the child of a node
+     * @param node the node
+     * @param ch the char leading to the child
+     * @return the child or -1 if no symbol continues with the char
+     */
+    int child(final int node, final char ch) {
+        final int index = Operator.getOperatorCharIndex(ch);
+        if (index < 0) {
+            return -1;
+        }
+        final int child = children[node][index];
+        return child == 0 ? -1 : child;
+    }
+
+    /**
+     * Get the operator whose symbol ends at a node
+     * @param node the node
+     * @return the operator or null if no symbol ends at the node
+     */
+    Operator getOperator(final int node) {
+        return operators[node];
+    }
+}
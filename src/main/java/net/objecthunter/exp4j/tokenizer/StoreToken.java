@@ -0,0 +1,41 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.tokenizer;
+
+/**
+ * Copies the value on top of the operand stack to a temporary slot, without removing it from the stack. Store tokens
+ * are not created by the tokenizer, but by the optimizer for values which are used more than once.
+ */
+public final class StoreToken extends Token {
+    private final int index;
+
+    /**
+     * Create a new instance
+     * @param index the index of the temporary slot
+     */
+    public StoreToken(int index) {
+        super(TOKEN_STORE);
+        this.index = index;
+    }
+
+    /**
+     * Get the index of the temporary slot
+     * @return the index
+     */
+    public int getIndex() {
+        return index;
+    }
+}
@@ -26,6 +26,8 @@ public abstract class Token {
     public static final short TOKEN_PARENTHESES_CLOSE = 5;
     public static final short TOKEN_VARIABLE = 6;
     public static final short TOKEN_SEPARATOR = 7;
+    public static final short TOKEN_STORE = 8;
+    public static final short TOKEN_LOAD = 9;
 
     protected final int type;
 
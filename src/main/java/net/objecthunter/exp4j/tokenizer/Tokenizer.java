@@ -19,47 +19,55 @@ import java.util.Map;
 import java.util.Set;
 
 import net.objecthunter.exp4j.function.Function;
-import net.objecthunter.exp4j.function.Functions;
 import net.objecthunter.exp4j.operator.Operator;
 import net.objecthunter.exp4j.operator.Operators;
 
+/**
+ * Splits an expression into its tokens. The tokens can either be obtained as {@link Token} objects via
+ * {@link #nextToken()} or without creating any objects via {@link #next()}, which returns the type of the token and
+ * makes its value available via {@link #getNumber()}, {@link #getOperator()}, {@link #getFunction()} and
+ * {@link #getVariableName()}.
+ */
 public class Tokenizer {
 
     private final char[] expression;
 
     private final int expressionLength;
 
-    private final Map<String, Function> userFunctions;
-
-    private final Map<String, Operator> userOperators;
-
-    private final Set<String> variableNames;
+    /* the custom operators */
+    private final OperatorTrie operators;
 
     private final boolean implicitMultiplication;
 
+    /* the declared variables and the custom functions */
+    private final NameTable names;
+
     private int pos = 0;
 
-    private Token lastToken;
+    /* the type of the last token or 0 before the first token */
+    private int lastType;
+
+    private double number;
+
+    private Operator operator;
+
+    private Function function;
+
+    private String variableName;
 
 
     public Tokenizer(String expression, final Map<String, Function> userFunctions,
             final Map<String, Operator> userOperators, final Set<String> variableNames, final boolean implicitMultiplication) {
         this.expression = expression.trim().toCharArray();
         this.expressionLength = this.expression.length;
-        this.userFunctions = userFunctions;
-        this.userOperators = userOperators;
-        this.variableNames = variableNames;
+        this.operators = new OperatorTrie(userOperators);
         this.implicitMultiplication = implicitMultiplication;
+        this.names = new NameTable(variableNames, userFunctions);
     }
 
     public Tokenizer(String expression, final Map<String, Function> userFunctions,
                      final Map<String, Operator> userOperators, final Set<String> variableNames) {
-        this.expression = expression.trim().toCharArray();
-        this.expressionLength = this.expression.length;
-        this.userFunctions = userFunctions;
-        this.userOperators = userOperators;
-        this.variableNames = variableNames;
-        this.implicitMultiplication = true;
+        this(expression, userFunctions, userOperators, variableNames, true);
     }
 
     public boolean hasNext() {
@@ -67,35 +75,50 @@ public class Tokenizer {
     }
 
     public Token nextToken(){
+        switch (next()) {
+            case Token.TOKEN_NUMBER:
+                return new NumberToken(number);
+            case Token.TOKEN_OPERATOR:
+                return new OperatorToken(operator);
+            case Token.TOKEN_FUNCTION:
+                return new FunctionToken(function);
+            case Token.TOKEN_VARIABLE:
+                return new VariableToken(variableName);
+            case Token.TOKEN_PARENTHESES_OPEN:
+                return new OpenParenthesesToken();
+            case Token.TOKEN_PARENTHESES_CLOSE:
+                return new CloseParenthesesToken();
+            default:
+                return new ArgumentSeparatorToken();
+        }
+    }
+
+    /**
+     * Read the next token without creating a {@link Token} object
+     * @return the type of the token, one of the <code>TOKEN_*</code> constants of {@link Token} except
+     *         {@link Token#TOKEN_STORE} and {@link Token#TOKEN_LOAD}
+     */
+    public int next() {
         char ch = expression[pos];
         while (Character.isWhitespace(ch)) {
             ch = expression[++pos];
         }
         if (Character.isDigit(ch) || ch == '.') {
-            if (lastToken != null) {
-                if (lastToken.getType() == Token.TOKEN_NUMBER) {
+            if (lastType != 0) {
+                if (lastType == Token.TOKEN_NUMBER) {
                     throw new IllegalArgumentException("Unable to parse char '" + ch + "' (Code:" + (int) ch + ") at [" + pos + "]");
-                } else if (implicitMultiplication && (lastToken.getType() != Token.TOKEN_OPERATOR
-                        && lastToken.getType() != Token.TOKEN_PARENTHESES_OPEN
-                        && lastToken.getType() != Token.TOKEN_FUNCTION
-                        && lastToken.getType() != Token.TOKEN_SEPARATOR)) {
+                } else if (implicitMultiplication && isOperand(lastType)) {
                     // insert an implicit multiplication token
-                    lastToken = new OperatorToken(Operators.getBuiltinOperator('*', 2));
-                    return lastToken;
+                    return implicitMultiplication();
                 }
             }
             return parseNumberToken(ch);
         } else if (isArgumentSeparator(ch)) {
             return parseArgumentSeparatorToken(ch);
         } else if (isOpenParentheses(ch)) {
-            if (lastToken != null && implicitMultiplication &&
-                    (lastToken.getType() != Token.TOKEN_OPERATOR
-                            && lastToken.getType() != Token.TOKEN_PARENTHESES_OPEN
-                            && lastToken.getType() != Token.TOKEN_FUNCTION
-                            && lastToken.getType() != Token.TOKEN_SEPARATOR)) {
+            if (lastType != 0 && implicitMultiplication && isOperand(lastType)) {
                 // insert an implicit multiplication token
-                lastToken = new OperatorToken(Operators.getBuiltinOperator('*', 2));
-                return lastToken;
+                return implicitMultiplication();
             }
             return parseParentheses(true);
         } else if (isCloseParentheses(ch)) {
@@ -104,14 +127,9 @@ public class Tokenizer {
             return parseOperatorToken(ch);
         } else if (isAlphabetic(ch) || ch == '_') {
             // parse the name which can be a setVariable or a function
-            if (lastToken != null && implicitMultiplication &&
-                    (lastToken.getType() != Token.TOKEN_OPERATOR
-                            && lastToken.getType() != Token.TOKEN_PARENTHESES_OPEN
-                            && lastToken.getType() != Token.TOKEN_FUNCTION
-                            && lastToken.getType() != Token.TOKEN_SEPARATOR)) {
+            if (lastType != 0 && implicitMultiplication && isOperand(lastType)) {
                 // insert an implicit multiplication token
-                lastToken = new OperatorToken(Operators.getBuiltinOperator('*', 2));
-                return lastToken;
+                return implicitMultiplication();
             }
             return parseFunctionOrVariable();
 
@@ -119,24 +137,63 @@ public class Tokenizer {
         throw new IllegalArgumentException("Unable to parse char '" + ch + "' (Code:" + (int) ch + ") at [" + pos + "]");
     }
 
-    private Token parseArgumentSeparatorToken(char ch) {
+    /**
+     * Get the value of the last number token
+     * @return the value
+     */
+    public double getNumber() {
+        return number;
+    }
+
+    /**
+     * Get the operator of the last operator token
+     * @return the operator
+     */
+    public Operator getOperator() {
+        return operator;
+    }
+
+    /**
+     * Get the function of the last function token
+     * @return the function
+     */
+    public Function getFunction() {
+        return function;
+    }
+
+    /**
+     * Get the name of the last variable token
+     * @return the name
+     */
+    public String getVariableName() {
+        return variableName;
+    }
+
+    /* check whether a token of the given type ends an operand, i.e. an implicit multiplication may follow it */
+    private static boolean isOperand(int type) {
+        return type != Token.TOKEN_OPERATOR
+                && type != Token.TOKEN_PARENTHESES_OPEN
+                && type != Token.TOKEN_FUNCTION
+                && type != Token.TOKEN_SEPARATOR;
+    }
+
+    private int implicitMultiplication() {
+        operator = Operators.getBuiltinOperator('*', 2);
+        return lastType = Token.TOKEN_OPERATOR;
+    }
+
+    private int parseArgumentSeparatorToken(char ch) {
         this.pos++;
-        this.lastToken = new ArgumentSeparatorToken();
-        return lastToken;
+        return lastType = Token.TOKEN_SEPARATOR;
     }
 
     private boolean isArgumentSeparator(char ch) {
         return ch == ',';
     }
 
-    private Token parseParentheses(final boolean open) {
-        if (open) {
-            this.lastToken = new OpenParenthesesToken();
-        } else {
-            this.lastToken = new CloseParenthesesToken();
-        }
+    private int parseParentheses(final boolean open) {
         this.pos++;
-        return lastToken;
+        return lastType = open ? Token.TOKEN_PARENTHESES_OPEN : Token.TOKEN_PARENTHESES_CLOSE;
     }
 
     private boolean isOpenParentheses(char ch) {
@@ -147,110 +204,93 @@ public class Tokenizer {
         return ch == ')' || ch == '}' || ch == ']';
     }
 
-    private Token parseFunctionOrVariable() {
+    private int parseFunctionOrVariable() {
         final int offset = this.pos;
-        int testPos;
-        int lastValidLen = 1;
-        Token lastValidToken = null;
-        int len = 1;
-        if (isEndOfExpression(offset)) {
-            this.pos++;
-        }
-        testPos = offset + len - 1;
-        while (!isEndOfExpression(testPos) &&
-                isVariableOrFunctionCharacter(expression[testPos])) {
-            String name = new String(expression, offset, len);
-            if (variableNames != null && variableNames.contains(name)) {
+        final int maxLength = names.getMaxLength();
+        int lastValidLen = 0;
+        Object lastValid = null;
+        int len = 0;
+        int hash = 0;
+        /* no name is longer than the longest one in the table, so the scan can stop there */
+        while (len < maxLength && !isEndOfExpression(offset + len) &&
+                isVariableOrFunctionCharacter(expression[offset + len])) {
+            /* the hash of the prefix as computed by String.hashCode() */
+            hash = 31 * hash + expression[offset + len];
+            len++;
+            final Object value = names.get(expression, offset, len, hash);
+            if (value != null) {
                 lastValidLen = len;
-                lastValidToken = new VariableToken(name);
-            } else {
-                final Function f = getFunction(name);
-                if (f != null) {
-                    lastValidLen = len;
-                    lastValidToken = new FunctionToken(f);
-                }
+                lastValid = value;
             }
-            len++;
-            testPos = offset + len - 1;
         }
-        if (lastValidToken == null) {
-            throw new UnknownFunctionOrVariableException(new String(expression), pos, len);
+        if (lastValid == null) {
+            while (!isEndOfExpression(offset + len) && isVariableOrFunctionCharacter(expression[offset + len])) {
+                len++;
+            }
+            throw new UnknownFunctionOrVariableException(new String(expression), pos, len + 1);
         }
         pos += lastValidLen;
-        lastToken = lastValidToken;
-        return lastToken;
-    }
-
-    private Function getFunction(String name) {
-        Function f = null;
-        if (this.userFunctions != null) {
-            f = this.userFunctions.get(name);
-        }
-        if (f == null) {
-            f = Functions.getBuiltinFunction(name);
+        if (lastValid instanceof Function) {
+            function = (Function) lastValid;
+            return lastType = Token.TOKEN_FUNCTION;
         }
-        return f;
+        variableName = (String) lastValid;
+        return lastType = Token.TOKEN_VARIABLE;
     }
 
-    private Token parseOperatorToken(char firstChar) {
+    private int parseOperatorToken(char firstChar) {
         final int offset = this.pos;
-        int len = 1;
-        final StringBuilder symbol = new StringBuilder();
+        /* find the longest symbol of a custom operator */
         Operator lastValid = null;
-        symbol.append(firstChar);
-
-        while (!isEndOfExpression(offset + len)  && Operator.isAllowedOperatorChar(expression[offset + len])) {
-            symbol.append(expression[offset + len++]);
-        }
-
-        while (symbol.length() > 0) {
-            Operator op = this.getOperator(symbol.toString());
-            if (op == null) {
-                symbol.setLength(symbol.length() - 1);
-            }else{
+        int lastValidLen = 0;
+        int node = OperatorTrie.ROOT;
+        int len = 0;
+        while (!isEndOfExpression(offset + len) && (node = operators.child(node, expression[offset + len])) >= 0) {
+            len++;
+            final Operator op = operators.getOperator(node);
+            if (op != null) {
                 lastValid = op;
-                break;
+                lastValidLen = len;
             }
         }
+        if (lastValid == null) {
+            lastValid = getBuiltinOperator(firstChar);
+            lastValidLen = 1;
+        }
+        if (lastValid == null) {
+            throw new IllegalArgumentException("Operator is unknown for token.");
+        }
 
-        pos += symbol.length();
-        lastToken = new OperatorToken(lastValid);
-        return lastToken;
+        pos += lastValidLen;
+        operator = lastValid;
+        return lastType = Token.TOKEN_OPERATOR;
     }
 
-    private Operator getOperator(String symbol) {
-        Operator op = null;
-        if (this.userOperators != null) {
-            op = this.userOperators.get(symbol);
-        }
-        if (op == null && symbol.length() == 1) {
-            int argc = 2;
-            if (lastToken == null) {
+    private Operator getBuiltinOperator(char symbol) {
+        int argc = 2;
+        if (lastType == 0) {
+            argc = 1;
+        } else {
+            if (lastType == Token.TOKEN_PARENTHESES_OPEN || lastType == Token.TOKEN_SEPARATOR) {
                 argc = 1;
-            } else {
-                int lastTokenType = lastToken.getType();
-                if (lastTokenType == Token.TOKEN_PARENTHESES_OPEN || lastTokenType == Token.TOKEN_SEPARATOR) {
+            } else if (lastType == Token.TOKEN_OPERATOR) {
+                final Operator lastOp = operator;
+                if (lastOp.getNumOperands() == 2 || (lastOp.getNumOperands() == 1 && !lastOp.isLeftAssociative())) {
                     argc = 1;
-                } else if (lastTokenType == Token.TOKEN_OPERATOR) {
-                    final Operator lastOp = ((OperatorToken) lastToken).getOperator();
-                    if (lastOp.getNumOperands() == 2 || (lastOp.getNumOperands() == 1 && !lastOp.isLeftAssociative())) {
-                        argc = 1;
-                    }
                 }
-
             }
-            op = Operators.getBuiltinOperator(symbol.charAt(0), argc);
+
         }
-        return op;
+        return Operators.getBuiltinOperator(symbol, argc);
     }
 
-    private Token parseNumberToken(final char firstChar) {
+    private int parseNumberToken(final char firstChar) {
         final int offset = this.pos;
         int len = 1;
         this.pos++;
         if (isEndOfExpression(offset + len)) {
-            lastToken = new NumberToken(Double.parseDouble(String.valueOf(firstChar)));
-            return lastToken;
+            number = NumberParser.parseDouble(expression, offset, 1);
+            return lastType = Token.TOKEN_NUMBER;
         }
         while (!isEndOfExpression(offset + len) &&
                 isNumeric(expression[offset + len], expression[offset + len - 1] == 'e' ||
@@ -264,8 +304,8 @@ public class Tokenizer {
             len--;
             pos--;
         }
-        lastToken = new NumberToken(expression, offset, len);
-        return lastToken;
+        number = NumberParser.parseDouble(expression, offset, len);
+        return lastType = Token.TOKEN_NUMBER;
     }
 
     private static boolean isNumeric(char ch, boolean lastCharE) {
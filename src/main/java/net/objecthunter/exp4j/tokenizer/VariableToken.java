@@ -21,6 +21,8 @@ package net.objecthunter.exp4j.tokenizer;
 public class VariableToken extends Token {
     private final String name;
 
+    private final int index;
+
     /**
      * Get the name of the setVariable
      * @return the name
@@ -29,12 +31,30 @@ public class VariableToken extends Token {
         return name;
     }
 
+    /**
+     * Get the index of the slot holding the setVariable's value
+     * @return the index or -1 if no slot has been assigned to the setVariable
+     */
+    public int getIndex() {
+        return index;
+    }
+
     /**
      * Create a new instance
      * @param name the name of the setVariable
      */
     public VariableToken(String name) {
+        this(name, -1);
+    }
+
+    /**
+     * Create a new instance
+     * @param name the name of the setVariable
+     * @param index the index of the slot holding the setVariable's value
+     */
+    public VariableToken(String name, int index) {
         super(TOKEN_VARIABLE);
         this.name = name;
+        this.index = index;
     }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.Test;
+
+/**
+ * Checks that evaluating an expression does not allocate any memory. The JMH benchmarks in exp4j-benchmarks measure
+ * the same with the gc profiler.
+ */
+public class AllocationTest {
+
+    private static final String[] EXPRESSIONS = {"log(x) - y * (sqrt(x^cos(y)))", "2pi*x/360 + (1+0.05)^12 - y%3",
+            "-x + +y * pow(x, 2) + signum(y) - cot(x) + abs(-y)", "3x(y+1)^-2 + log2(x) + floor(x) / ceil(y)"};
+
+    private static final int ITERATIONS = 100000;
+
+    @Test
+    public void testEvaluateDoesNotAllocate() throws Exception {
+        for (String expression : EXPRESSIONS) {
+            assertNoAllocation(new ExpressionBuilder(expression).variables("x", "y").build());
+        }
+    }
+
+    @Test
+    public void testCompiledEvaluateDoesNotAllocate() throws Exception {
+        for (String expression : EXPRESSIONS) {
+            assertNoAllocation(new ExpressionBuilder(expression).variables("x", "y").compiled(true).build());
+        }
+    }
+
+    private static void assertNoAllocation(Expression e) {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        final VariableHandle x = e.handle("x");
+        final VariableHandle y = e.handle("y");
+        final long id = Thread.currentThread().getId();
+        double sum = 0;
+        /* the first evaluation initializes the thread's stack */
+        y.set(0.5d);
+        sum += x.set(0.5d).evaluate();
+        final long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < ITERATIONS; i++) {
+            x.set(0.5d + i);
+            y.set(1.5d + i);
+            sum += e.evaluate();
+        }
+        final long allocated = threads.getThreadAllocatedBytes(id) - before;
+        /* allow for the allocations made by the measurement itself, but not a single object per evaluation */
+        assertTrue("Evaluation allocated " + allocated + " bytes (" + sum + ")", allocated < ITERATIONS);
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function2;
+import net.objecthunter.exp4j.function.FunctionN;
+import net.objecthunter.exp4j.operator.Operator;
+
+import org.junit.Test;
+
+public class BatchEvaluationTest {
+
+    private static final String[] EXPRESSIONS = {"x + y - -x * +y", "x / y + x % y", "x ^ y", "sin(x) + cos(y)",
+            "tan(x) * cot(y)", "asin(x / 10) + acos(y / 10) + atan(x)", "sinh(x) - cosh(y) + tanh(x)",
+            "abs(x) + sqrt(y) + cbrt(x)", "log(y) + log10(y) + log2(y) + log1p(y)", "ceil(x) - floor(y)",
+            "pow(y, x) + exp(x) - expm1(y)", "signum(x) * signum(-y) + signum(x - x)",
+            "sqrt(x^2 + y^2) / (1 + sqrt(x^2 + y^2))", "2pi * x / 360 + e"};
+
+    private static double[] column(int length, double start, double step) {
+        final double[] column = new double[length];
+        for (int i = 0; i < length; i++) {
+            column[i] = start + i * step;
+        }
+        return column;
+    }
+
+    private static void assertBatchMatchesEvaluate(Expression e, double[] xs, double[] ys) {
+        final double[] out = new double[xs.length];
+        e.evaluateBatch(new double[][] {xs, ys}, out, 0, out.length);
+        for (int i = 0; i < xs.length; i++) {
+            e.setVariable("x", xs[i]).setVariable("y", ys[i]);
+            assertEquals(e.evaluate(), out[i], 0d);
+        }
+    }
+
+    @Test
+    public void testBuiltins() throws Exception {
+        final double[] xs = column(1000, -4.9d, 0.0097d);
+        final double[] ys = column(1000, 0.1d, 0.0073d);
+        for (String expression : EXPRESSIONS) {
+            Expression e = new ExpressionBuilder(expression)
+                    .variables("x", "y")
+                    .build();
+            assertBatchMatchesEvaluate(e, xs, ys);
+        }
+    }
+
+    @Test
+    public void testCustomFunctionsAndOperators() throws Exception {
+        Function boxed = new Function("avg", 3) {
+            @Override
+            public Double apply(Double... args) {
+                return (args[0] + args[1] + args[2]) / 3;
+            }
+        };
+        Function2 max = new Function2("max") {
+            @Override
+            public double apply(double arg1, double arg2) {
+                return Math.max(arg1, arg2);
+            }
+        };
+        FunctionN sum = new FunctionN("sum", 2) {
+            @Override
+            public double apply(double[] args, int offset) {
+                return args[offset] + args[offset + 1];
+            }
+        };
+        Operator factorial = new Operator("!", 1, true, Operator.PRECEDENCE_POWER + 1) {
+            @Override
+            public double apply(double... args) {
+                double result = 1;
+                for (int i = 2; i <= (int) args[0]; i++) {
+                    result *= i;
+                }
+                return result;
+            }
+        };
+        Operator gt = new Operator(">", 2, true, Operator.PRECEDENCE_ADDITION - 1) {
+            @Override
+            public double apply(double... args) {
+                return args[0] > args[1] ? 1d : 0d;
+            }
+        };
+        Expression e = new ExpressionBuilder("avg(x, y, 1) + max(x, y) * sum(x, 2) + y! + (x > y)")
+                .functions(boxed, max, sum)
+                .operator(factorial, gt)
+                .variables("x", "y")
+                .build();
+        assertBatchMatchesEvaluate(e, column(100, -5d, 0.1d), column(100, 0d, 0.07d));
+    }
+
+    @Test
+    public void testColumnsByName() throws Exception {
+        Expression e = new ExpressionBuilder("x * y + z")
+                .variables("x", "y", "z")
+                .build()
+                .setVariable("z", 0.5d);
+        final Map<String, double[]> columns = new HashMap<String, double[]>();
+        columns.put("x", new double[] {1d, 2d, 3d});
+        columns.put("y", new double[] {4d, 5d, 6d, 7d});
+        columns.put("unused", new double[] {1d, 1d, 1d});
+        final double[] out = new double[3];
+        e.evaluateBatch(columns, out);
+        assertEquals(4.5d, out[0], 0d);
+        assertEquals(10.5d, out[1], 0d);
+        assertEquals(18.5d, out[2], 0d);
+    }
+
+    @Test
+    public void testRange() throws Exception {
+        Expression e = new ExpressionBuilder("2x")
+                .variables("x")
+                .build();
+        final double[] xs = column(10, 0d, 1d);
+        final double[] out = new double[10];
+        e.evaluateBatch(new double[][] {xs}, out, 3, 7);
+        assertEquals(0d, out[2], 0d);
+        assertEquals(6d, out[3], 0d);
+        assertEquals(12d, out[6], 0d);
+        assertEquals(0d, out[7], 0d);
+        e.evaluateBatch(new double[][] {xs}, out, 5, 5);
+    }
+
+    @Test
+    public void testChunks() throws Exception {
+        Expression e = new ExpressionBuilder("sin(x)^2 + sin(x)^2 * y")
+                .variables("x", "y")
+                .build()
+                .setVariable("y", 3d);
+        final double[] xs = column(1001, 0d, 0.01d);
+        final double[] out = new double[1001];
+        e.evaluateBatch(new double[][] {xs, null}, out, 0, out.length, 7);
+        for (int i = 0; i < xs.length; i++) {
+            final double sin = Math.pow(Math.sin(xs[i]), 2);
+            assertEquals(sin + sin * 3d, out[i], 0d);
+        }
+    }
+
+    @Test
+    public void testBatchBackend() throws Exception {
+        final int[] calls = new int[2];
+        BatchBackend backend = new BatchBackend() {
+            @Override
+            public void apply(Operator operator, double[][] args, int offset, double[] result, int length) {
+                calls[0]++;
+                operator.apply(args, offset, result, length);
+            }
+
+            @Override
+            public void apply(Function function, double[][] args, int offset, double[] result, int length) {
+                calls[1]++;
+                function.apply(args, offset, result, length);
+            }
+        };
+        Expression e = new ExpressionBuilder("sqrt(x) * y + 1")
+                .variables("x", "y")
+                .batchBackend(backend)
+                .build();
+        final double[] out = new double[2];
+        e.evaluateBatch(new double[][] {{4d, 9d}, {2d, 3d}}, out, 0, 2);
+        assertEquals(5d, out[0], 0d);
+        assertEquals(10d, out[1], 0d);
+        assertEquals(2, calls[0]);
+        assertEquals(1, calls[1]);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZero() throws Exception {
+        new ExpressionBuilder("1 / x")
+                .variables("x")
+                .build()
+                .evaluateBatch(new double[][] {{1d, 0d, 2d}}, new double[3], 0, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingVariable() throws Exception {
+        new ExpressionBuilder("x + y")
+                .variables("x", "y")
+                .build()
+                .evaluateBatch(new double[][] {{1d, 2d}}, new double[2], 0, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testColumnTooShort() throws Exception {
+        new ExpressionBuilder("x + 1")
+                .variables("x")
+                .build()
+                .evaluateBatch(new double[][] {{1d, 2d}}, new double[3], 0, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyColumns() throws Exception {
+        new ExpressionBuilder("x + 1")
+                .variables("x")
+                .build()
+                .evaluateBatch(new double[][] {{1d}, {2d}}, new double[1], 0, 1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testInvalidRange() throws Exception {
+        new ExpressionBuilder("x + 1")
+                .variables("x")
+                .build()
+                .evaluateBatch(new double[][] {{1d, 2d}}, new double[2], 1, 3);
+    }
+}
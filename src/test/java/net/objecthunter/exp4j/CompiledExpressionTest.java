@@ -0,0 +1,185 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class CompiledExpressionTest {
+
+    @Test
+    public void testEvaluate() throws Exception {
+        CompiledExpression compiled = new ExpressionBuilder("2x + y")
+                .variables("x", "y")
+                .buildCompiled();
+        Bindings b1 = compiled.bindings().setVariable("x", 1d).setVariable("y", 2d);
+        Bindings b2 = compiled.bindings().setVariables(new double[] {3d, 4d});
+        assertEquals(4d, compiled.evaluate(b1), 0d);
+        assertEquals(10d, compiled.evaluate(b2), 0d);
+    }
+
+    @Test
+    public void testConstants() throws Exception {
+        CompiledExpression compiled = new ExpressionBuilder("x * pi")
+                .variables("x")
+                .buildCompiled();
+        assertEquals(2 * Math.PI, compiled.evaluate(compiled.bindings().setVariable("x", 2d)), 0d);
+    }
+
+    @Test
+    public void testCopyBindings() throws Exception {
+        CompiledExpression compiled = new ExpressionBuilder("x^2")
+                .variables("x")
+                .buildCompiled();
+        Bindings bindings = compiled.bindings().setVariable("x", 2d);
+        Bindings copy = new Bindings(bindings).setVariable("x", 3d);
+        assertEquals(4d, compiled.evaluate(bindings), 0d);
+        assertEquals(9d, compiled.evaluate(copy), 0d);
+    }
+
+    @Test
+    public void testCompiledToBytecode() throws Exception {
+        CompiledExpression compiled = new ExpressionBuilder("sin(x) * y")
+                .variables("x", "y")
+                .compiled(true)
+                .buildCompiled();
+        Bindings bindings = compiled.bindings().setVariable("x", 1d).setVariable("y", 3d);
+        assertEquals(Math.sin(1d) * 3d, compiled.evaluate(bindings), 0d);
+    }
+
+    @Test
+    public void testValidate() throws Exception {
+        CompiledExpression compiled = new ExpressionBuilder("x + 1")
+                .variables("x")
+                .buildCompiled();
+        assertTrue(compiled.validate(null).isValid());
+        assertFalse(compiled.validate(compiled.bindings()).isValid());
+        assertTrue(compiled.validate(compiled.bindings().setVariable("x", 1d)).isValid());
+    }
+
+    @Test
+    public void testEvaluateBatch() throws Exception {
+        CompiledExpression compiled = new ExpressionBuilder("x * y")
+                .variables("x", "y")
+                .buildCompiled();
+        double[] out = new double[3];
+        compiled.evaluateBatch(compiled.bindings().setVariable("y", 2d), new double[][] {{1d, 2d, 3d}}, out, 0, 3);
+        assertEquals(2d, out[0], 0d);
+        assertEquals(4d, out[1], 0d);
+        assertEquals(6d, out[2], 0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingVariable() throws Exception {
+        CompiledExpression compiled = new ExpressionBuilder("x + 1")
+                .variables("x")
+                .buildCompiled();
+        compiled.evaluate(compiled.bindings());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidVariableName() throws Exception {
+        CompiledExpression compiled = new ExpressionBuilder("x + 1")
+                .variables("x")
+                .buildCompiled();
+        compiled.bindings().setVariable("sin", 1d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testForeignBindings() throws Exception {
+        CompiledExpression first = new ExpressionBuilder("x + 1")
+                .variables("x")
+                .buildCompiled();
+        CompiledExpression second = new ExpressionBuilder("x + 1")
+                .variables("x")
+                .buildCompiled();
+        second.evaluate(first.bindings().setVariable("x", 1d));
+    }
+
+    @Test
+    public void testSharedBetweenThreads() throws Exception {
+        final CompiledExpression compiled = new ExpressionBuilder("sin(x) * cos(x) + x^2 / (1 + sin(x) * cos(x))")
+                .variables("x")
+                .buildCompiled();
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 8; i++) {
+                final int thread = i;
+                results.add(exec.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        Bindings bindings = compiled.bindings();
+                        for (int j = 0; j < 10000; j++) {
+                            double x = thread * 10000 + j;
+                            double expected = Math.sin(x) * Math.cos(x) + Math.pow(x, 2) / (1 + Math.sin(x) * Math.cos(x));
+                            if (compiled.evaluate(bindings.setVariable("x", x)) != expected) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            exec.shutdown();
+        }
+    }
+
+    /* the bytecode reports a missing variable only where the interpreter reaches it */
+    @Test
+    public void testCompiledChecksVariablesInOrder() throws Exception {
+        for (boolean compiled : new boolean[] {false, true}) {
+            assertEquals(ArithmeticException.class, evaluationFailure("1/(y-y) + x", compiled, false));
+            assertEquals(MissingVariableException.class, evaluationFailure("x + 1/(y-y)", compiled, false));
+        }
+    }
+
+    @Test
+    public void testRegisterMachineChecksVariablesInOrder() throws Exception {
+        assertEquals(ArithmeticException.class, evaluationFailure("1/(y-y) + x", false, true));
+        assertEquals(MissingVariableException.class, evaluationFailure("x + 1/(y-y)", false, true));
+    }
+
+    /* evaluate with y = 1 and x unset, returning the class of the exception thrown */
+    private static Class<?> evaluationFailure(String expression, boolean compiled, boolean registers) {
+        Expression e = new ExpressionBuilder(expression)
+                .variables("x", "y")
+                .compiled(compiled)
+                .registerMachine(registers)
+                .build()
+                .setVariable("y", 1d);
+        try {
+            e.evaluate();
+        } catch (RuntimeException failure) {
+            return failure.getClass();
+        }
+        throw new AssertionError("No exception thrown by " + expression);
+    }
+}
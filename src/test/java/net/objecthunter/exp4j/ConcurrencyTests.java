@@ -18,13 +18,23 @@ package net.objecthunter.exp4j;
 import org.junit.Test;
 
 import java.text.DateFormat;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import units.qual.*;
 
@@ -64,4 +74,121 @@ public class ConcurrencyTests {
             assertEquals(correct2[i], (@Dimensionless Double) results2[i].get(), 0d);
         }
     }
+
+    @Test
+    public void testAsyncEvaluationUsesVariablesAtSubmission() throws Exception {
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+        final CountDownLatch latch = new CountDownLatch(1);
+        try {
+            /* block the executor until the variable has been changed */
+            exec.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    latch.await();
+                    return null;
+                }
+            });
+            Expression e = new ExpressionBuilder("2x")
+                    .variables("x")
+                    .build()
+                    .setVariable("x", 1d);
+            Future<Double> result = e.evaluateAsync(exec);
+            e.setVariable("x", 2d);
+            latch.countDown();
+            assertEquals(2d, result.get(), 0d);
+            assertEquals(4d, e.evaluate(), 0d);
+        } finally {
+            exec.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelBatchEvaluation() throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        try {
+            Expression e = new ExpressionBuilder("sin(x) * y + sqrt(x^2 + y^2) / (1 + sqrt(x^2 + y^2))")
+                    .variables("x", "y")
+                    .build();
+            final int rows = 100003;
+            final double[] xs = new double[rows];
+            final double[] ys = new double[rows];
+            for (int i = 0; i < rows; i++) {
+                xs[i] = i * 0.001d;
+                ys[i] = (rows - i) * 0.002d;
+            }
+            final double[] expected = new double[rows];
+            final double[] actual = new double[rows];
+            e.evaluateBatch(new double[][] {xs, ys}, expected, 0, rows);
+            e.evaluateBatchParallel(new double[][] {xs, ys}, actual, 0, rows, exec);
+            for (int i = 0; i < rows; i++) {
+                assertEquals(expected[i], actual[i], 0d);
+            }
+
+            final Map<String, double[]> columns = new HashMap<String, double[]>();
+            columns.put("x", xs);
+            e.setVariable("y", 2d);
+            e.evaluateBatchParallel(columns, actual, exec);
+            assertEquals(Math.sin(xs[rows - 1]) * 2d + Math.sqrt(xs[rows - 1] * xs[rows - 1] + 4d) /
+                    (1 + Math.sqrt(xs[rows - 1] * xs[rows - 1] + 4d)), actual[rows - 1], 0d);
+        } finally {
+            exec.shutdown();
+        }
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testParallelBatchEvaluationFails() throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        try {
+            final double[] xs = new double[100000];
+            Arrays.fill(xs, 1d);
+            xs[54321] = 0d;
+            new ExpressionBuilder("1/x")
+                    .variables("x")
+                    .build()
+                    .evaluateBatchParallel(new double[][] {xs}, new double[xs.length], 0, xs.length, exec);
+        } finally {
+            exec.shutdown();
+        }
+    }
+
+    /* once the call has thrown, no task is left which evaluates rows or writes to out */
+    @Test
+    public void testParallelBatchEvaluationStopsOnFailure() throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        try {
+            final AtomicInteger calls = new AtomicInteger();
+            Function slow = new Function1("slow") {
+                @Override
+                public double apply(double arg) {
+                    calls.incrementAndGet();
+                    double sum = arg;
+                    for (int i = 0; i < 1000; i++) {
+                        sum += Math.sqrt(sum + i);
+                    }
+                    return sum;
+                }
+            };
+            final double[] xs = new double[1000000];
+            Arrays.fill(xs, 1d);
+            xs[0] = 0d;
+            final double[] out = new double[xs.length];
+            try {
+                new ExpressionBuilder("slow(x) + 1/x")
+                        .variables("x")
+                        .function(slow)
+                        .build()
+                        .evaluateBatchParallel(new double[][] {xs}, out, 0, xs.length, exec);
+                fail("The division by zero was not reported");
+            } catch (ArithmeticException expected) {
+                final int numCalls = calls.get();
+                final double[] snapshot = out.clone();
+                Thread.sleep(100);
+                assertEquals(numCalls, calls.get());
+                assertArrayEquals(snapshot, out, 0d);
+                assertTrue(numCalls < xs.length);
+            }
+        } finally {
+            exec.shutdown();
+        }
+    }
 }
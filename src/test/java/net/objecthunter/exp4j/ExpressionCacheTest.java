@@ -0,0 +1,202 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+
+import org.junit.Test;
+
+public class ExpressionCacheTest {
+
+    private static Function1 twice() {
+        return new Function1("twice") {
+            @Override
+            public double apply(double arg) {
+                return 2 * arg;
+            }
+        };
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        ExpressionCache cache = new ExpressionCache(10);
+        CompiledExpression first = new ExpressionBuilder("x + 1").variables("x").cache(cache).buildCompiled();
+        CompiledExpression second = new ExpressionBuilder("x + 1").variables("x").cache(cache).buildCompiled();
+        assertSame(first, second);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testBuildExpression() throws Exception {
+        ExpressionCache cache = new ExpressionCache(10);
+        Expression first = new ExpressionBuilder("x + 1").variables("x").cache(cache).build().setVariable("x", 1d);
+        Expression second = new ExpressionBuilder("x + 1").variables("x").cache(cache).build().setVariable("x", 2d);
+        assertEquals(2d, first.evaluate(), 0d);
+        assertEquals(3d, second.evaluate(), 0d);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testKeyIncludesSettings() throws Exception {
+        ExpressionCache cache = new ExpressionCache(10);
+        Function twice = twice();
+        CompiledExpression plain = new ExpressionBuilder("2x").variables("x").cache(cache).buildCompiled();
+        assertNotSame(plain, new ExpressionBuilder("2x").variables("x", "y").cache(cache).buildCompiled());
+        assertNotSame(plain, new ExpressionBuilder("2x").variables("y", "x").cache(cache).buildCompiled());
+        assertNotSame(plain, new ExpressionBuilder("2x").variables("x").function(twice).cache(cache).buildCompiled());
+        assertNotSame(plain, new ExpressionBuilder("2x").variables("x").compiled(true).cache(cache).buildCompiled());
+        assertNotSame(plain, new ExpressionBuilder("2*x").variables("x").cache(cache).buildCompiled());
+        assertEquals(6, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+        /* functions are compared by identity */
+        new ExpressionBuilder("2x").variables("x").function(twice).cache(cache).buildCompiled();
+        new ExpressionBuilder("2x").variables("x").function(twice()).cache(cache).buildCompiled();
+        assertEquals(1, cache.getHitCount());
+        assertEquals(7, cache.getMissCount());
+    }
+
+    /* a function which claims to equal any other function of the same name */
+    private static Function1 times(final double factor) {
+        return new Function1("f") {
+            @Override
+            public double apply(double arg) {
+                return factor * arg;
+            }
+
+            @Override
+            public boolean equals(Object obj) {
+                return obj instanceof Function && ((Function) obj).getName().equals(getName());
+            }
+
+            @Override
+            public int hashCode() {
+                return getName().hashCode();
+            }
+        };
+    }
+
+    /* functions which claim to be equal are still told apart, since they may compute different results */
+    @Test
+    public void testFunctionEqualsIsIgnored() throws Exception {
+        ExpressionCache cache = new ExpressionCache(10);
+        Expression twice = new ExpressionBuilder("f(x)").variables("x").function(times(2d)).cache(cache).build();
+        Expression thrice = new ExpressionBuilder("f(x)").variables("x").function(times(3d)).cache(cache).build();
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2d, twice.setVariable("x", 1d).evaluate(), 0d);
+        assertEquals(3d, thrice.setVariable("x", 1d).evaluate(), 0d);
+    }
+
+    @Test
+    public void testDeclaredOrder() throws Exception {
+        ExpressionCache cache = new ExpressionCache(10);
+        Expression xy = new ExpressionBuilder("x - y").variables("x", "y").cache(cache).build();
+        Expression yx = new ExpressionBuilder("x - y").variables("y", "x").cache(cache).build();
+        assertEquals(-1d, xy.setVariables(new double[] {1d, 2d}).evaluate(), 0d);
+        assertEquals(1d, yx.setVariables(new double[] {1d, 2d}).evaluate(), 0d);
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        ExpressionCache cache = new ExpressionCache(2);
+        CompiledExpression one = new ExpressionBuilder("1").cache(cache).buildCompiled();
+        new ExpressionBuilder("2").cache(cache).buildCompiled();
+        /* use the first expression, so that the second one is the least recently used */
+        assertSame(one, new ExpressionBuilder("1").cache(cache).buildCompiled());
+        new ExpressionBuilder("3").cache(cache).buildCompiled();
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertSame(one, new ExpressionBuilder("1").cache(cache).buildCompiled());
+        new ExpressionBuilder("2").cache(cache).buildCompiled();
+        assertEquals(2, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+        assertEquals(2, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+        ExpressionCache cache = new ExpressionCache(100);
+        for (int i = 0; i < 1000; i++) {
+            new ExpressionBuilder("x + " + i).variables("x").cache(cache).buildCompiled();
+        }
+        assertEquals(100, cache.size());
+        assertEquals(900, cache.getEvictionCount());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testErrorsAreNotCached() throws Exception {
+        ExpressionCache cache = new ExpressionCache(10);
+        for (int i = 0; i < 2; i++) {
+            try {
+                new ExpressionBuilder("x + 1").cache(cache).buildCompiled();
+            } catch (IllegalArgumentException expected) {
+                // the variable has not been declared
+            }
+        }
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() throws Exception {
+        new ExpressionCache(0);
+    }
+
+    @Test
+    public void testConcurrentLookups() throws Exception {
+        final ExpressionCache cache = new ExpressionCache(64);
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Double>> results = new ArrayList<Future<Double>>();
+            for (int i = 0; i < 1000; i++) {
+                final int n = i % 32;
+                results.add(exec.submit(new Callable<Double>() {
+                    @Override
+                    public Double call() throws Exception {
+                        return new ExpressionBuilder("x * " + n)
+                                .variables("x")
+                                .cache(cache)
+                                .build()
+                                .setVariable("x", 2d)
+                                .evaluate();
+                    }
+                }));
+            }
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(2d * (i % 32), results.get(i).get(), 0d);
+            }
+        } finally {
+            exec.shutdown();
+        }
+        assertEquals(32, cache.size());
+        assertEquals(1000, cache.getHitCount() + cache.getMissCount());
+    }
+}
@@ -0,0 +1,131 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.objecthunter.exp4j.function.Function1;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExpressionLibraryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final Function1 TWICE = new Function1("twice") {
+        @Override
+        public double apply(double arg) {
+            return 2 * arg;
+        }
+    };
+
+    private static Map<String, String> formulas(int count) {
+        Map<String, String> formulas = new LinkedHashMap<String, String>();
+        for (int i = 0; i < count; i++) {
+            formulas.put("formula-" + i, "x^" + (i % 5) + " * sin(y / " + (i + 1) + ") - twice(" + i + ".25)");
+        }
+        return formulas;
+    }
+
+    private File writeLibrary(Map<String, String> formulas) throws Exception {
+        Map<String, CompiledExpression> expressions = new LinkedHashMap<String, CompiledExpression>();
+        for (Map.Entry<String, String> formula : formulas.entrySet()) {
+            expressions.put(formula.getKey(), new ExpressionBuilder(formula.getValue())
+                    .variables("x", "y")
+                    .function(TWICE)
+                    .buildCompiled());
+        }
+        File file = folder.newFile("library.bin");
+        ExpressionLibrary.write(expressions, file, new ExpressionSerializer());
+        return file;
+    }
+
+    @Test
+    public void testBitIdenticalResults() throws Exception {
+        Map<String, String> formulas = formulas(500);
+        ExpressionLibrary library = ExpressionLibrary.open(writeLibrary(formulas),
+                new ExpressionSerializer().function(TWICE));
+        assertEquals(500, library.size());
+        for (Map.Entry<String, String> formula : formulas.entrySet()) {
+            Expression built = new ExpressionBuilder(formula.getValue())
+                    .variables("x", "y")
+                    .function(TWICE)
+                    .build()
+                    .setVariable("x", 1.75d)
+                    .setVariable("y", -0.3d);
+            CompiledExpression mapped = library.get(formula.getKey());
+            double result = mapped.evaluate(mapped.bindings().setVariable("x", 1.75d).setVariable("y", -0.3d));
+            assertEquals(formula.getKey(), Double.doubleToRawLongBits(built.evaluate()),
+                    Double.doubleToRawLongBits(result));
+        }
+    }
+
+    @Test
+    public void testLazyRead() throws Exception {
+        ExpressionLibrary library = ExpressionLibrary.open(writeLibrary(formulas(10)),
+                new ExpressionSerializer().function(TWICE));
+        CompiledExpression first = library.get("formula-3");
+        assertSame(first, library.get("formula-3"));
+        assertTrue(library.contains("formula-9"));
+        assertFalse(library.contains("formula-10"));
+        assertNull(library.get("formula-10"));
+        assertEquals(formulas(10).keySet(), library.getNames());
+    }
+
+    @Test
+    public void testEmptyLibrary() throws Exception {
+        ExpressionLibrary library = ExpressionLibrary.open(writeLibrary(formulas(0)), new ExpressionSerializer());
+        assertEquals(0, library.size());
+        assertNull(library.get("formula-0"));
+        assertTrue(library.getNames().isEmpty());
+    }
+
+    @Test
+    public void testOpenBuffer() throws Exception {
+        File file = writeLibrary(formulas(3));
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        byte[] bytes = new byte[(int) raf.length()];
+        raf.readFully(bytes);
+        raf.close();
+        ExpressionLibrary library = ExpressionLibrary.open(ByteBuffer.wrap(bytes),
+                new ExpressionSerializer().function(TWICE));
+        CompiledExpression e = library.get("formula-1");
+        assertEquals(-2.5d, e.evaluate(e.bindings().setVariable("x", 2d).setVariable("y", 0d)), 0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFile() throws Exception {
+        File file = folder.newFile("invalid.bin");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+        out.close();
+        ExpressionLibrary.open(file, new ExpressionSerializer());
+    }
+}
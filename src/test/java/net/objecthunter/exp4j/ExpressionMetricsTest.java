@@ -0,0 +1,172 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class ExpressionMetricsTest {
+
+    @Test
+    public void testBuildAndEvaluate() throws Exception {
+        ExpressionMetrics metrics = new ExpressionMetrics();
+        Expression e = new ExpressionBuilder("2x + 1")
+                .variables("x")
+                .listener(metrics)
+                .build()
+                .setVariable("x", 3d);
+        assertEquals(1, metrics.getBuildCount());
+        assertEquals(5, metrics.getTokenCount());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(7d, e.evaluate(), 0d);
+        }
+        assertEquals(10, metrics.getEvaluationCount());
+        assertEquals(10, metrics.getEvaluationTimes().getCount());
+        assertTrue(metrics.getEvaluationTimes().getMax() >= metrics.getEvaluationTimes().getValueAtPercentile(50d));
+    }
+
+    @Test
+    public void testCopiesShareTheListener() throws Exception {
+        ExpressionMetrics metrics = new ExpressionMetrics();
+        Expression e = new ExpressionBuilder("x")
+                .variables("x")
+                .listener(metrics)
+                .compiled(true)
+                .build()
+                .setVariable("x", 1d);
+        new Expression(e).evaluate();
+        e.evaluate();
+        assertEquals(2, metrics.getEvaluationCount());
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        ExpressionMetrics metrics = new ExpressionMetrics();
+        Expression e = new ExpressionBuilder("y + 1 / x")
+                .variables("x", "y")
+                .listener(metrics)
+                .build()
+                .setVariable("x", 0d);
+        try {
+            e.evaluate();
+            fail("The evaluation should fail since y has not been set");
+        } catch (MissingVariableException expected) {
+            assertEquals("y", expected.getVariableName());
+        }
+        e.setVariable("y", 1d);
+        try {
+            e.evaluate();
+            fail("The evaluation should fail on the division by zero");
+        } catch (ArithmeticException expected) {
+            // expected
+        }
+        assertEquals(1, metrics.getMissingVariableCount());
+        assertEquals(1, metrics.getDivisionByZeroCount());
+        assertEquals(0, metrics.getOtherErrorCount());
+        assertEquals(0, metrics.getEvaluationCount());
+    }
+
+    @Test
+    public void testValidate() throws Exception {
+        ExpressionMetrics metrics = new ExpressionMetrics();
+        Expression e = new ExpressionBuilder("x + 1")
+                .variables("x")
+                .listener(metrics)
+                .build();
+        e.validate();
+        e.setVariable("x", 1d).validate();
+        assertEquals(2, metrics.getValidationCount());
+        assertEquals(1, metrics.getValidationFailureCount());
+    }
+
+    @Test
+    public void testCacheSeparatesListeners() throws Exception {
+        ExpressionCache cache = new ExpressionCache(10);
+        ExpressionMetrics first = new ExpressionMetrics();
+        ExpressionMetrics second = new ExpressionMetrics();
+        CompiledExpression a = new ExpressionBuilder("1 + 2").cache(cache).listener(first).buildCompiled();
+        CompiledExpression b = new ExpressionBuilder("1 + 2").cache(cache).listener(second).buildCompiled();
+        assertNotSame(a, b);
+        new ExpressionBuilder("1 + 2").cache(cache).listener(first).buildCompiled();
+        assertEquals(1, first.getBuildCount());
+        assertEquals(1, second.getBuildCount());
+    }
+
+    @Test
+    public void testHistogram() throws Exception {
+        ExpressionMetrics.Histogram histogram = new ExpressionMetrics.Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000L, histogram.getMax());
+        assertEquals(500500d, histogram.getMean(), 0d);
+        assertEquals(500000d, histogram.getValueAtPercentile(50d), 500000 * 0.04d);
+        assertEquals(990000d, histogram.getValueAtPercentile(99d), 990000 * 0.04d);
+        assertEquals(1000000L, histogram.getValueAtPercentile(100d), 1000000 * 0.04d);
+    }
+
+    @Test
+    public void testHistogramBuckets() throws Exception {
+        long[] values = {0, 1, 31, 32, 33, 63, 64, 65, 1000, 123456789L, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = ExpressionMetrics.Histogram.index(value);
+            long lowest = ExpressionMetrics.Histogram.lowestValue(index);
+            assertTrue(Long.toString(value), lowest <= value);
+            assertTrue(Long.toString(value), value - lowest <= value / 32);
+        }
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final ExpressionMetrics metrics = new ExpressionMetrics();
+        final CompiledExpression compiled = new ExpressionBuilder("x * 2")
+                .variables("x")
+                .listener(metrics)
+                .buildCompiled();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Double>> futures = new ArrayList<Future<Double>>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(new Callable<Double>() {
+                @Override
+                public Double call() throws Exception {
+                    Bindings bindings = compiled.bindings().setVariable("x", 2d);
+                    double sum = 0;
+                    for (int i = 0; i < 10000; i++) {
+                        sum += compiled.evaluate(bindings);
+                    }
+                    return sum;
+                }
+            }));
+        }
+        for (Future<Double> future : futures) {
+            assertEquals(40000d, future.get(), 0d);
+        }
+        executor.shutdown();
+        assertEquals(40000, metrics.getEvaluationCount());
+    }
+}
@@ -0,0 +1,190 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j;
+
+import static net.objecthunter.exp4j.TestUtil.FACTORIAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import net.objecthunter.exp4j.function.Function1;
+
+import org.junit.Test;
+
+public class ExpressionSerializerTest {
+
+    private static final String[] EXPRESSIONS = {"2x + 1", "sin(x)^2 + cos(y)^2", "-x^-y % 3", "pow(x, y) * log(x)",
+            "(x + y) * (x + y) - pi", "3.5e-3 * x / (y - 1)", "abs(x) + signum(-y) + 2^0.5"};
+
+    private static final Function1 TWICE = new Function1("twice") {
+        @Override
+        public double apply(double arg) {
+            return 2 * arg;
+        }
+    };
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        ExpressionSerializer serializer = new ExpressionSerializer();
+        for (String expression : EXPRESSIONS) {
+            CompiledExpression original = new ExpressionBuilder(expression)
+                    .variables("x", "y")
+                    .buildCompiled();
+            CompiledExpression read = serializer.read(serializer.toByteArray(original));
+            for (double x = -2d; x <= 2d; x += 0.5d) {
+                Bindings a = original.bindings().setVariable("x", x).setVariable("y", 0.75d);
+                Bindings b = read.bindings().setVariable("x", x).setVariable("y", 0.75d);
+                assertEquals(expression, original.evaluate(a), read.evaluate(b), 0d);
+            }
+        }
+    }
+
+    /* fast math raises to integral powers by multiplications, which may differ in the last bits */
+    @Test
+    public void testRoundTripFastMath() throws Exception {
+        ExpressionSerializer serializer = new ExpressionSerializer();
+        CompiledExpression original = new ExpressionBuilder("x^3 + x^7")
+                .variables("x")
+                .fastMath(true)
+                .buildCompiled();
+        CompiledExpression read = serializer.read(serializer.toByteArray(original));
+        for (double x = -3d; x <= 3d; x += 0.01d) {
+            assertEquals(Double.doubleToLongBits(original.evaluate(original.bindings().setVariable("x", x))),
+                    Double.doubleToLongBits(read.evaluate(read.bindings().setVariable("x", x))));
+        }
+    }
+
+    /* the read expression still rejects setting a constant, which has been folded into it */
+    @Test
+    public void testRoundTripFoldedConstants() throws Exception {
+        ExpressionSerializer serializer = new ExpressionSerializer();
+        CompiledExpression read = serializer.read(serializer.toByteArray(new ExpressionBuilder("2pi*x")
+                .variables("x")
+                .buildCompiled()));
+        assertEquals(new HashSet<String>(Arrays.asList("x", "pi")), read.getVariableNames());
+        try {
+            read.bindings().setVariable("pi", 3d);
+            fail("Setting the folded constant was accepted");
+        } catch (IllegalArgumentException expected) {
+            /* pi has been folded */
+        }
+        assertEquals(4 * Math.PI, read.evaluate(read.bindings().setVariable("x", 2d).setVariable("e", 1d)), 0d);
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        ExpressionSerializer serializer = new ExpressionSerializer();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String expression : EXPRESSIONS) {
+            serializer.write(new ExpressionBuilder(expression).variables("x", "y").buildCompiled(), out);
+        }
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        for (String expression : EXPRESSIONS) {
+            CompiledExpression read = serializer.read(in);
+            Bindings bindings = read.bindings().setVariable("x", 1.5d).setVariable("y", 2d);
+            assertEquals(expression, new ExpressionBuilder(expression).variables("x", "y").build()
+                    .setVariable("x", 1.5d).setVariable("y", 2d).evaluate(), read.evaluate(bindings), 0d);
+        }
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testByteBuffer() throws Exception {
+        ExpressionSerializer serializer = new ExpressionSerializer();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        serializer.write(new ExpressionBuilder("x * 2").variables("x").buildCompiled(), buffer);
+        serializer.write(new ExpressionBuilder("x - 2").variables("x").buildCompiled(), buffer);
+        buffer.flip();
+        CompiledExpression first = serializer.read(buffer);
+        CompiledExpression second = serializer.read(buffer);
+        assertFalse(buffer.hasRemaining());
+        assertEquals(6d, first.evaluate(first.bindings().setVariable("x", 3d)), 0d);
+        assertEquals(1d, second.evaluate(second.bindings().setVariable("x", 3d)), 0d);
+    }
+
+    @Test
+    public void testDeclaredVariables() throws Exception {
+        ExpressionSerializer serializer = new ExpressionSerializer();
+        CompiledExpression read = serializer.read(serializer.toByteArray(new ExpressionBuilder("y - x")
+                .variables("x", "y", "unused")
+                .buildCompiled()));
+        assertEquals(2d, read.evaluate(read.bindings().setVariables(new double[]{1d, 3d})), 0d);
+        read.bindings().setVariable("unused", 1d);
+    }
+
+    @Test
+    public void testCustomFunctionsAndOperators() throws Exception {
+        CompiledExpression original = new ExpressionBuilder("twice(x)!")
+                .variables("x")
+                .function(TWICE)
+                .operator(FACTORIAL)
+                .buildCompiled();
+        byte[] bytes = new ExpressionSerializer().toByteArray(original);
+        CompiledExpression read = new ExpressionSerializer()
+                .function(TWICE)
+                .operator(FACTORIAL)
+                .compiled(true)
+                .read(bytes);
+        assertEquals(24d, read.evaluate(read.bindings().setVariable("x", 2d)), 0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownFunction() throws Exception {
+        CompiledExpression original = new ExpressionBuilder("twice(x)")
+                .variables("x")
+                .function(TWICE)
+                .buildCompiled();
+        ExpressionSerializer serializer = new ExpressionSerializer();
+        serializer.read(serializer.toByteArray(original));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMagic() throws Exception {
+        new ExpressionSerializer().read(new byte[]{1, 2, 3, 4, 0, 1, 0, 0, 0, 0});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncated() throws Exception {
+        ExpressionSerializer serializer = new ExpressionSerializer();
+        byte[] bytes = serializer.toByteArray(new ExpressionBuilder("x + 1").variables("x").buildCompiled());
+        serializer.read(ByteBuffer.wrap(bytes, 0, bytes.length - 1));
+    }
+
+    @Test(expected = EOFException.class)
+    public void testTruncatedStream() throws Exception {
+        ExpressionSerializer serializer = new ExpressionSerializer();
+        byte[] bytes = serializer.toByteArray(new ExpressionBuilder("x + 1").variables("x").buildCompiled());
+        serializer.read(new ByteArrayInputStream(bytes, 0, bytes.length - 1));
+    }
+
+    /* the length in the header is not trusted, the data ends long before */
+    @Test(expected = EOFException.class)
+    public void testCorruptLengthInStream() throws Exception {
+        byte[] header = ByteBuffer.allocate(10)
+                .putInt(0x65787034)
+                .putShort((short) ExpressionSerializer.VERSION)
+                .putInt(Integer.MAX_VALUE)
+                .array();
+        new ExpressionSerializer().read(new ByteArrayInputStream(header));
+    }
+}
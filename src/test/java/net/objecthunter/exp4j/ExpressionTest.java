@@ -19,6 +19,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import net.objecthunter.exp4j.function.Function1;
 import net.objecthunter.exp4j.function.Functions;
 import net.objecthunter.exp4j.operator.Operator;
 import net.objecthunter.exp4j.operator.Operators;
@@ -226,6 +227,134 @@ public class ExpressionTest {
         assertFalse(e.validate().isValid());
     }
 
+    @Test
+    public void testVariableHandle() throws Exception {
+        Expression e = new ExpressionBuilder("x * y")
+                .variables("x", "y")
+                .build();
+        VariableHandle x = e.handle("x");
+        VariableHandle y = e.handle("y");
+        x.set(2d);
+        assertEquals(6d, y.set(3d).evaluate(), 0d);
+        assertEquals(2d, x.get(), 0d);
+        assertEquals("y", y.getName());
+        x.set(4d);
+        assertEquals(12d, e.evaluate(), 0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVariableHandleUnknownVariable() throws Exception {
+        Expression e = new ExpressionBuilder("x * 2")
+                .variables("x")
+                .build();
+        e.handle("y");
+    }
+
+    @Test
+    public void testVariableHandleConstant() throws Exception {
+        /* only constants declared as variables can be changed, the others are folded */
+        Expression e = new ExpressionBuilder("2pi")
+                .variables("pi")
+                .build();
+        assertEquals(Math.PI, e.handle("pi").get(), 0d);
+        e.handle("pi").set(3d);
+        assertEquals(6d, e.evaluate(), 0d);
+    }
+
+    @Test
+    public void testSetVariablesArray() throws Exception {
+        Expression e = new ExpressionBuilder("x - y")
+                .variables("x", "y")
+                .build();
+        assertEquals(2d, e.setVariables(new double[] {5d, 3d}).evaluate(), 0d);
+        e = new ExpressionBuilder("x - y")
+                .variables("y")
+                .variable("x")
+                .build();
+        assertEquals(-2d, e.setVariables(new double[] {5d, 3d}).evaluate(), 0d);
+        assertTrue(e.validate().isValid());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetVariablesArrayTooLong() throws Exception {
+        Expression e = new ExpressionBuilder("x - 1")
+                .variables("x")
+                .build();
+        e.setVariables(new double[] {5d, 3d});
+    }
+
+    @Test
+    public void testCopyHasOwnVariables() throws Exception {
+        Expression e = new ExpressionBuilder("x + 1")
+                .variables("x")
+                .build()
+                .setVariable("x", 1d);
+        Expression copy = new Expression(e);
+        copy.handle("x").set(2d);
+        assertEquals(2d, e.evaluate(), 0d);
+        assertEquals(3d, copy.evaluate(), 0d);
+    }
+
+    @Test
+    public void testMaxStackDepth() throws Exception {
+        assertEquals(1, new ExpressionBuilder("-1").build().getMaxStackDepth());
+        assertEquals(2, new ExpressionBuilder("x+2+3+4").variables("x").build().getMaxStackDepth());
+        assertEquals(4, new ExpressionBuilder("x+(x+(x+x))").variables("x").build().getMaxStackDepth());
+        assertEquals(3, new ExpressionBuilder("x^x^x").variables("x").build().getMaxStackDepth());
+        assertEquals(3, new ExpressionBuilder("pow(x, sin(y) * 2)").variables("x", "y").build().getMaxStackDepth());
+    }
+
+    @Test
+    public void testDeepExpression() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append("(x+");
+        }
+        sb.append('x');
+        for (int i = 0; i < 100; i++) {
+            sb.append(')');
+        }
+        Expression e = new ExpressionBuilder(sb.toString())
+                .variables("x")
+                .build()
+                .setVariable("x", 1d);
+        assertEquals(101, e.getMaxStackDepth());
+        assertEquals(101d, e.evaluate(), 0d);
+    }
+
+    @Test
+    public void testNestedEvaluation() throws Exception {
+        final Expression inner = new ExpressionBuilder("2 * y + 1")
+                .variables("y")
+                .build();
+        Function1 f = new Function1("f") {
+            @Override
+            public double apply(double arg) {
+                return inner.setVariable("y", arg).evaluate();
+            }
+        };
+        Expression e = new ExpressionBuilder("3 + 4 * f(x + 1) - f(2)")
+                .function(f)
+                .variables("x")
+                .build()
+                .setVariable("x", 1d);
+        assertEquals(3d + 4d * 5d - 5d, e.evaluate(), 0d);
+    }
+
+    @Test
+    public void testStackIsResetAfterException() throws Exception {
+        Expression e = new ExpressionBuilder("1 + 2 + 3/x")
+                .variables("x")
+                .build()
+                .setVariable("x", 0d);
+        try {
+            e.evaluate();
+        } catch (ArithmeticException expected) {
+        }
+        assertEquals(3d, new ExpressionBuilder("1 + 2").build().evaluate(), 0d);
+        assertEquals(6d, e.setVariable("x", 1d).evaluate(), 0d);
+    }
+
     @Test
     @Ignore
     // If Expression should be threads safe this test must pass
@@ -16,6 +16,11 @@
 package net.objecthunter.exp4j;
 
 import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.function.Function2;
+import net.objecthunter.exp4j.function.FunctionN;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operators;
 import org.junit.Test;
 
 import java.util.ArrayList;
@@ -185,4 +190,110 @@ public class FunctionsTest {
         assertFalse(Function.isValidFunctionName("perc%"));
         assertFalse(Function.isValidFunctionName("del$a"));
     }
+
+    @Test
+    public void testFunction1() throws Exception {
+        Function1 half = new Function1("half") {
+            @Override
+            public double apply(double arg) {
+                return arg / 2d;
+            }
+        };
+        assertEquals(1, half.getNumArguments());
+        assertEquals(1.5d, half.apply(3d), 0d);
+        assertEquals(1.5d, half.apply(new Double[] {3d}), 0d);
+        assertEquals(2d, half.apply(new double[] {1d, 4d}, 1), 0d);
+        Expression e = new ExpressionBuilder("half(x) + half(4)")
+                .function(half)
+                .variables("x")
+                .build()
+                .setVariable("x", 3d);
+        assertEquals(3.5d, e.evaluate(), 0d);
+    }
+
+    @Test
+    public void testFunction2() throws Exception {
+        Function2 max = new Function2("max") {
+            @Override
+            public double apply(double arg1, double arg2) {
+                return Math.max(arg1, arg2);
+            }
+        };
+        assertEquals(2, max.getNumArguments());
+        assertEquals(3d, max.apply(new double[] {1d, 2d, 3d}, 1), 0d);
+        Expression e = new ExpressionBuilder("max(x, 2) * max(-1, -2)")
+                .function(max)
+                .variables("x")
+                .build()
+                .setVariable("x", 3d);
+        assertEquals(-3d, e.evaluate(), 0d);
+    }
+
+    @Test
+    public void testFunctionN() throws Exception {
+        FunctionN avg = new FunctionN("avg", 4) {
+            @Override
+            public double apply(double[] args, int offset) {
+                double sum = 0;
+                for (int i = offset; i < offset + 4; i++) {
+                    sum += args[i];
+                }
+                return sum / 4;
+            }
+        };
+        assertEquals(2.5d, avg.apply(1d, 2d, 3d, 4d), 0d);
+        Expression e = new ExpressionBuilder("1 + avg(x, 2, 3, avg(1, 2, 3, 4) + 1.5)")
+                .function(avg)
+                .variables("x")
+                .build()
+                .setVariable("x", 1d);
+        assertEquals(3.5d, e.evaluate(), 0d);
+    }
+
+    @Test
+    public void testFunctionNZeroArgs() throws Exception {
+        FunctionN answer = new FunctionN("answer", 0) {
+            @Override
+            public double apply(double[] args, int offset) {
+                return 42d;
+            }
+        };
+        Expression e = new ExpressionBuilder("answer() + answer()")
+                .function(answer)
+                .build();
+        assertEquals(84d, e.evaluate(), 0d);
+    }
+
+    @Test
+    public void testBoxedFunctionArrayApply() throws Exception {
+        Function<Double, Double> sub = new Function<Double, Double>("sub", 2) {
+            @Override
+            public Double apply(Double... args) {
+                return args[0] - args[1];
+            }
+        };
+        assertEquals(-1d, sub.apply(new double[] {5d, 2d, 3d}, 1), 0d);
+    }
+
+    @Test
+    public void testBuiltinFunctionsArePrimitive() throws Exception {
+        String[] names = {"sin", "cos", "tan", "cot", "asin", "acos", "atan", "sinh", "cosh", "tanh", "abs", "log",
+                "log10", "log2", "log1p", "ceil", "floor", "sqrt", "cbrt", "exp", "expm1", "signum"};
+        for (String name : names) {
+            assertTrue(name, Functions.getBuiltinFunction(name) instanceof Function1);
+        }
+        assertTrue(Functions.getBuiltinFunction("pow") instanceof Function2);
+    }
+
+    @Test
+    public void testBuiltinsAreDeterministic() throws Exception {
+        for (Function<?, ?> f : Functions.getBuiltinFunctions()) {
+            assertTrue(f.getName(), f.isDeterministic());
+        }
+        for (char symbol : "+-*/^%".toCharArray()) {
+            assertTrue(String.valueOf(symbol), Operators.getBuiltinOperator(symbol, 2).isDeterministic());
+        }
+        assertTrue(Operators.getBuiltinOperator('-', 1).isDeterministic());
+        assertTrue(Operators.getBuiltinOperator('+', 1).isDeterministic());
+    }
 }
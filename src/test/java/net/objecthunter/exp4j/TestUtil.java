@@ -18,12 +18,51 @@ package net.objecthunter.exp4j;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.Arrays;
+
+import net.objecthunter.exp4j.operator.Operator;
 import net.objecthunter.exp4j.tokenizer.*;
 
 import org.junit.Assert;
 
 public abstract class TestUtil {
 
+    /* expressions in x and y using every builtin operator and function, shared by the tests of the evaluators */
+    public static final String[] EXPRESSIONS = {"log(x) - y * (sqrt(x^cos(y)))", "-x + +y - -2", "x % y + x / y",
+            "sin(x)*cos(y)-tan(x)", "asin(x/8)+acos(y/8)+atan(x*y)", "sinh(x)-cosh(y)+tanh(x*y)",
+            "abs(-x) + log10(y) + log2(x) + log1p(y)", "ceil(x/3) + floor(y/3) + cbrt(x*y)", "pow(x, y) + exp(-x)",
+            "expm1(y) * signum(x - y) * signum(y - x) * signum(x)", "3x(y+1)^-2",
+            "x/y + 2/x - x/0.5 + y^3 + (x-y)^-2 - 3 - x + -y", "(x+1)*2 + (x-y)/4 * y - (y*x) * 3 / x - 2^x",
+            "x", "2", "+y"};
+
+    /* the values the variables of the expressions are set to, including the special ones */
+    public static final double[] VALUES = {-4d, -0.5d, -0d, 0d, 0.25d, 1d, 3d, Double.NaN,
+            Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE};
+
+    /* a postfix operator, the factorial of anything above 170 is infinite anyway */
+    public static final Operator FACTORIAL = new Operator("!", 1, true, Operator.PRECEDENCE_POWER + 1) {
+        @Override
+        public double apply(double... args) {
+            double result = 1;
+            for (int i = 2; i <= (int) Math.min(args[0], 171d); i++) {
+                result *= i;
+            }
+            return result;
+        }
+    };
+
+    /* assign the variables the slots of their position in the given names */
+    public static Token[] withSlots(Token[] tokens, String... variables) {
+        Token[] result = tokens.clone();
+        for (int i = 0; i < result.length; i++) {
+            if (result[i].getType() == Token.TOKEN_VARIABLE) {
+                String name = ((VariableToken) result[i]).getName();
+                result[i] = new VariableToken(name, Arrays.asList(variables).indexOf(name));
+            }
+        }
+        return result;
+    }
+
     public static void assertVariableToken(Token token, String name) {
         assertEquals(Token.TOKEN_VARIABLE, token.getType());
         Assert.assertEquals(name, ((VariableToken) token).getName());
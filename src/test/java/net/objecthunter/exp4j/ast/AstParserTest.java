@@ -0,0 +1,284 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.ast;
+
+import static net.objecthunter.exp4j.TestUtil.FACTORIAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.program.Program;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+import org.junit.Test;
+
+public class AstParserTest {
+
+    private static final Set<String> VARIABLES = new HashSet<String>(Arrays.asList("x", "y", "z"));
+
+    private static final String[] EXPRESSIONS = {"2+3", "2+3*4", "2*3+4", "1-2-3", "8/4/2", "2^3^2", "-2^2",
+            "2^-3", "-x*y", "--x", "-+x", "x-(-y)", "(x+y)*(x-y)", "2x(y+1)", "3x^2y", "x%3/2*y",
+            "sin(x)^2 + cos(x)^2", "pow(x, y - 1) * log(z)", "-sin(-x)", "2z", "exp(-(x/y)^2/2)",
+            "((((x))))", "x^-y^z", "-x^-y", "cos(x)(y)", "signum(x) * abs(-y) - sqrt(z)"};
+
+    /* a postfix operator binding looser than the multiplication */
+    private static final Operator PERCENT = new Operator("#", 1, true, Operator.PRECEDENCE_ADDITION - 1) {
+        @Override
+        public double apply(double... args) {
+            return args[0] / 100d;
+        }
+    };
+
+    private static final Operator NOT = new Operator("~", 1, false, Operator.PRECEDENCE_UNARY_MINUS) {
+        @Override
+        public double apply(double... args) {
+            return args[0] == 0d ? 1d : 0d;
+        }
+    };
+
+    private static final Operator GREATER = new Operator(">=", 2, true, Operator.PRECEDENCE_ADDITION - 2) {
+        @Override
+        public double apply(double... args) {
+            return args[0] >= args[1] ? 1d : 0d;
+        }
+    };
+
+    private static final Function AVG = new Function("avg", 3) {
+        @Override
+        public Double apply(Double... args) {
+            return (args[0] + args[1] + args[2]) / 3d;
+        }
+    };
+
+    @Test
+    public void testLoweringMatchesShuntingYard() throws Exception {
+        for (String expression : EXPRESSIONS) {
+            assertLoweringMatches(expression, null, null);
+        }
+    }
+
+    @Test
+    public void testLoweringMatchesShuntingYardCustom() throws Exception {
+        Map<String, Operator> operators = new HashMap<String, Operator>();
+        operators.put("!", FACTORIAL);
+        operators.put("#", PERCENT);
+        operators.put("~", NOT);
+        operators.put(">=", GREATER);
+        Map<String, Function> functions = new HashMap<String, Function>();
+        functions.put("avg", AVG);
+        String[] expressions = {"3!", "3!^2", "2^3!", "-3!", "x! + y!", "2*3#", "x*y# + 1", "x#*y", "~x + 1",
+                "~~x", "x >= y + 1", "~x >= y!", "avg(x, y!, -z) >= 2", "avg(1, 2, 3)#", "(x + y)!#"};
+        for (String expression : expressions) {
+            assertLoweringMatches(expression, functions, operators);
+        }
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        Node root = AstParser.parse("2x + sin(y)", null, null, VARIABLES, true);
+        Operator plus = Operators.getBuiltinOperator('+', 2);
+        Operator times = Operators.getBuiltinOperator('*', 2);
+        Node expected = new OperatorNode(plus,
+                new OperatorNode(times, new ConstantNode(2d), new VariableNode("x")),
+                new FunctionNode(Functions.getBuiltinFunction("sin"), new VariableNode("y")));
+        assertEquals(expected, root);
+        assertEquals(expected.hashCode(), root.hashCode());
+        assertEquals(6, root.size());
+        assertEquals("((2.0 * x) + sin(y))", root.toString());
+    }
+
+    @Test
+    public void testPrecedence() throws Exception {
+        assertEquals("(-(2.0 ^ 2.0))", AstParser.parse("-2^2", null, null, null, true).toString());
+        assertEquals("(2.0 ^ (3.0 ^ 2.0))", AstParser.parse("2^3^2", null, null, null, true).toString());
+        assertEquals("((1.0 - 2.0) - 3.0)", AstParser.parse("1-2-3", null, null, null, true).toString());
+    }
+
+    @Test
+    public void testPostfixOperator() throws Exception {
+        Map<String, Operator> operators = new HashMap<String, Operator>();
+        operators.put("!", FACTORIAL);
+        OperatorNode root = (OperatorNode) AstParser.parse("x!", null, operators, VARIABLES, true);
+        assertSame(FACTORIAL, root.getOperator());
+        assertEquals(new VariableNode("x"), root.getOperand(0));
+    }
+
+    @Test
+    public void testConstantEquality() throws Exception {
+        assertEquals(new ConstantNode(Double.NaN), new ConstantNode(Double.NaN));
+        assertNotEquals(new ConstantNode(0d), new ConstantNode(-0d));
+    }
+
+    @Test
+    public void testFromTokens() throws Exception {
+        for (String expression : EXPRESSIONS) {
+            Token[] tokens = ShuntingYard.convertToRPN(expression, null, null, VARIABLES, true);
+            assertEquals(expression, AstParser.parse(expression, null, null, VARIABLES, true),
+                    AstParser.fromTokens(tokens));
+        }
+    }
+
+    @Test
+    public void testToProgram() throws Exception {
+        Program program = Lowering.toProgram(AstParser.parse("x * x + 1", null, null, VARIABLES, true));
+        assertEquals(5, program.size());
+        assertEquals(1, program.getVariables().length);
+        assertEquals(2, program.getOperators().length);
+    }
+
+    /* left and right leaning trees, too deep to be lowered recursively */
+    @Test
+    public void testLowerDeepTree() throws Exception {
+        StringBuilder sum = new StringBuilder("x");
+        StringBuilder power = new StringBuilder("x");
+        for (int i = 0; i < 20000; i++) {
+            sum.append("+x");
+            power.append("^y");
+        }
+        for (String expression : new String[]{sum.toString(), power.toString()}) {
+            Token[] tokens = ShuntingYard.convertToRPN(expression, null, null, VARIABLES, true);
+            Node root = AstParser.fromTokens(tokens);
+            Token[] lowered = Lowering.toTokens(root);
+            assertEquals(tokens.length, lowered.length);
+            for (int i = 0; i < tokens.length; i++) {
+                assertEquals(tokens[i].getType(), lowered[i].getType());
+            }
+            assertEquals(tokens.length, Lowering.toProgram(root).size());
+        }
+    }
+
+    /* nested parentheses, prefix operators and right associative powers, too deep to be parsed recursively */
+    @Test
+    public void testParseDeepExpression() throws Exception {
+        StringBuilder parentheses = new StringBuilder("x");
+        StringBuilder negation = new StringBuilder("x");
+        StringBuilder power = new StringBuilder("x");
+        for (int i = 0; i < 20000; i++) {
+            parentheses.insert(0, '(').append(')');
+            negation.insert(0, '-');
+            power.append("^x");
+        }
+        assertEquals(new VariableNode("x"), AstParser.parse(parentheses.toString(), null, null, VARIABLES, true));
+        for (String expression : new String[]{negation.toString(), power.toString()}) {
+            Token[] tokens = ShuntingYard.convertToRPN(expression, null, null, VARIABLES, true);
+            Node root = AstParser.parse(expression, null, null, VARIABLES, true);
+            assertEquals(tokens.length, root.size());
+            assertEquals(AstParser.fromTokens(tokens), root);
+        }
+    }
+
+    @Test
+    public void testDeepToString() throws Exception {
+        StringBuilder negation = new StringBuilder("x");
+        StringBuilder expected = new StringBuilder("x");
+        for (int i = 0; i < 20000; i++) {
+            negation.insert(0, '-');
+            expected.insert(0, "(-").append(')');
+        }
+        assertEquals(expected.toString(), AstParser.parse(negation.toString(), null, null, VARIABLES, true).toString());
+    }
+
+    @Test
+    public void testParseFunctions() throws Exception {
+        Map<String, Function> functions = new HashMap<String, Function>();
+        functions.put("avg", AVG);
+        assertEquals("avg(x, (y + 1.0), pow((-z), 2.0))",
+                AstParser.parse("avg(x, y + 1, pow(-z, 2))", functions, null, VARIABLES, true).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMisplacedSeparator() throws Exception {
+        AstParser.parse("(x, y)", null, null, VARIABLES, true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingArgument() throws Exception {
+        AstParser.parse("pow(x, )", null, null, VARIABLES, true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMismatchedParentheses() throws Exception {
+        AstParser.parse("(x + 1", null, null, VARIABLES, true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMismatchedParentheses2() throws Exception {
+        AstParser.parse("x + 1)", null, null, VARIABLES, true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidNumberOfArguments() throws Exception {
+        AstParser.parse("pow(x)", null, null, VARIABLES, true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingOperand() throws Exception {
+        AstParser.parse("x +", null, null, VARIABLES, true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingOperator() throws Exception {
+        AstParser.parse("2x", null, null, VARIABLES, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmpty() throws Exception {
+        AstParser.parse("", null, null, VARIABLES, true);
+    }
+
+    private static void assertLoweringMatches(String expression, Map<String, Function> functions,
+            Map<String, Operator> operators) {
+        Token[] expected = ShuntingYard.convertToRPN(expression, functions, operators, VARIABLES, true);
+        Token[] actual = Lowering.toTokens(AstParser.parse(expression, functions, operators, VARIABLES, true));
+        assertEquals(expression, expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expression, expected[i].getType(), actual[i].getType());
+            switch (expected[i].getType()) {
+                case Token.TOKEN_NUMBER:
+                    assertEquals(expression, ((NumberToken) expected[i]).getValue(),
+                            ((NumberToken) actual[i]).getValue(), 0d);
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    assertEquals(expression, ((VariableToken) expected[i]).getName(),
+                            ((VariableToken) actual[i]).getName());
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    assertSame(expression, ((OperatorToken) expected[i]).getOperator(),
+                            ((OperatorToken) actual[i]).getOperator());
+                    break;
+                default:
+                    assertSame(expression, ((FunctionToken) expected[i]).getFunction(),
+                            ((FunctionToken) actual[i]).getFunction());
+                    break;
+            }
+        }
+    }
+}
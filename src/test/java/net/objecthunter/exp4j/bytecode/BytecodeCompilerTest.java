@@ -0,0 +1,266 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.bytecode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.function.Function2;
+import net.objecthunter.exp4j.function.FunctionN;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+import org.junit.Test;
+
+public class BytecodeCompilerTest {
+
+    private static final String[] EXPRESSIONS = {"log(x) - y * (sqrt(x^cos(y)))", "-x + +y - -2", "x % y + x / y",
+            "sin(x)*cos(y)-tan(x)/cot(y)", "asin(x/8)+acos(y/8)+atan(x*y)", "sinh(x)-cosh(y)+tanh(x*y)",
+            "abs(-x) + log10(y) + log2(x) + log1p(y)", "ceil(x/3) + floor(y/3) + cbrt(x*y)", "pow(x, y) + exp(-x)",
+            "expm1(y) * signum(x - y) * signum(y - x) * signum(0)", "2pi*x/360 + e^y", "3x(y+1)^-2"};
+
+    @Test
+    public void testCompiledMatchesInterpreted() throws Exception {
+        for (String expression : EXPRESSIONS) {
+            Expression interpreted = new ExpressionBuilder(expression)
+                    .variables("x", "y")
+                    .build();
+            Expression compiled = new ExpressionBuilder(expression)
+                    .variables("x", "y")
+                    .compiled(true)
+                    .build();
+            for (double x = -4d; x <= 4d; x += 0.75d) {
+                for (double y = 0.25d; y <= 4d; y += 0.5d) {
+                    interpreted.setVariable("x", x).setVariable("y", y);
+                    compiled.setVariable("x", x).setVariable("y", y);
+                    assertEquals(expression, interpreted.evaluate(), compiled.evaluate(), 0d);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCompile() throws Exception {
+        Token[] tokens = new Token[] {
+                new NumberToken(2d),
+                new VariableToken("x", 1),
+                new OperatorToken(Operators.getBuiltinOperator('*', 2)),
+                new VariableToken("y", 0),
+                new OperatorToken(Operators.getBuiltinOperator('+', 2))
+        };
+        GeneratedExpression generated = BytecodeCompiler.compile(tokens);
+        assertNotNull(generated);
+        assertEquals(2d * 3d + 5d, generated.evaluate(new double[]{5d, 3d}), 0d);
+    }
+
+    @Test
+    public void testCompileInvalid() throws Exception {
+        Token[] tokens = ShuntingYard.convertToRPN("2+", null, null, null, true);
+        assertNull(BytecodeCompiler.compile(tokens));
+    }
+
+    @Test
+    public void testCompileUnresolvedVariable() throws Exception {
+        Token[] tokens = ShuntingYard.convertToRPN("2x", null, null, new HashSet<String>(Arrays.asList("x")), true);
+        assertNull(BytecodeCompiler.compile(tokens));
+    }
+
+    /* a class which can not be defined is reported as null, so the expression falls back to the interpreter */
+    @Test
+    public void testDefineInvalidClass() throws Exception {
+        assertNull(BytecodeCompiler.define("net.objecthunter.exp4j.bytecode.Invalid", new byte[]{1, 2, 3},
+                new Function[0], new Operator[0]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompiledInvalidFallsBack() throws Exception {
+        Expression e = new ExpressionBuilder("2+")
+                .compiled(true)
+                .build();
+        e.evaluate();
+    }
+
+    @Test
+    public void testCustomFunctions() throws Exception {
+        Function avg = new Function("avg", 4) {
+            @Override
+            public Double apply(Double... args) {
+                double sum = 0;
+                for (Double arg : args) {
+                    sum += arg;
+                }
+                return sum / args.length;
+            }
+        };
+        Function rnd = new Function("answer", 0) {
+            @Override
+            public Double apply(Double... args) {
+                return 42d;
+            }
+        };
+        Expression e = new ExpressionBuilder("avg(x, 2, 3, 4) + answer() * avg(1, 1, 1, 1)")
+                .variables("x")
+                .functions(avg, rnd)
+                .compiled(true)
+                .build()
+                .setVariable("x", 1d);
+        assertEquals(2.5d + 42d, e.evaluate(), 0d);
+    }
+
+    @Test
+    public void testCustomOperators() throws Exception {
+        Operator factorial = new Operator("!", 1, true, Operator.PRECEDENCE_POWER + 1) {
+            @Override
+            public double apply(double... args) {
+                double result = 1;
+                for (int i = 2; i <= (int) args[0]; i++) {
+                    result *= i;
+                }
+                return result;
+            }
+        };
+        /* replaces the builtin addition */
+        Operator plus = new Operator("+", 2, true, Operator.PRECEDENCE_ADDITION) {
+            @Override
+            public double apply(double... args) {
+                return args[0] + 2 * args[1];
+            }
+        };
+        Expression e = new ExpressionBuilder("3! + 1")
+                .operator(factorial, plus)
+                .compiled(true)
+                .build();
+        assertEquals(8d, e.evaluate(), 0d);
+    }
+
+    @Test
+    public void testCustomFunctionReplacingBuiltin() throws Exception {
+        Function sin = new Function("sin") {
+            @Override
+            public Double apply(Double... args) {
+                return 2 * args[0];
+            }
+        };
+        Expression e = new ExpressionBuilder("sin(3)")
+                .function(sin)
+                .compiled(true)
+                .build();
+        assertEquals(6d, e.evaluate(), 0d);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZero() throws Exception {
+        Expression e = new ExpressionBuilder("1/x")
+                .variables("x")
+                .compiled(true)
+                .build()
+                .setVariable("x", 0d);
+        e.evaluate();
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testInvalidCotangent() throws Exception {
+        Expression e = new ExpressionBuilder("cot(0)")
+                .compiled(true)
+                .build();
+        e.evaluate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingVariable() throws Exception {
+        Expression e = new ExpressionBuilder("x+1")
+                .variables("x")
+                .compiled(true)
+                .build();
+        e.evaluate();
+    }
+
+    @Test
+    public void testCopy() throws Exception {
+        Map<String, Double> vars = new HashMap<String, Double>();
+        vars.put("x", 2d);
+        Expression e = new ExpressionBuilder("x^3")
+                .variables("x")
+                .compiled(true)
+                .build()
+                .setVariables(vars);
+        Expression copy = new Expression(e).setVariable("x", 3d);
+        assertEquals(8d, e.evaluate(), 0d);
+        assertEquals(27d, copy.evaluate(), 0d);
+    }
+
+    @Test
+    public void testLongExpression() throws Exception {
+        StringBuilder sb = new StringBuilder("x");
+        for (int i = 0; i < 2000; i++) {
+            sb.append(i % 2 == 0 ? "+x*" : "-").append(i);
+        }
+        Expression interpreted = new ExpressionBuilder(sb.toString())
+                .variables("x")
+                .build()
+                .setVariable("x", 0.5d);
+        Expression compiled = new ExpressionBuilder(sb.toString())
+                .variables("x")
+                .compiled(true)
+                .build()
+                .setVariable("x", 0.5d);
+        assertEquals(interpreted.evaluate(), compiled.evaluate(), 0d);
+    }
+
+    @Test
+    public void testPrimitiveFunctions() throws Exception {
+        Function1 half = new Function1("half") {
+            @Override
+            public double apply(double arg) {
+                return arg / 2d;
+            }
+        };
+        Function2 max = new Function2("max") {
+            @Override
+            public double apply(double arg1, double arg2) {
+                return Math.max(arg1, arg2);
+            }
+        };
+        FunctionN sum = new FunctionN("sum", 3) {
+            @Override
+            public double apply(double[] args, int offset) {
+                return args[offset] + args[offset + 1] + args[offset + 2];
+            }
+        };
+        Expression e = new ExpressionBuilder("half(x) + max(x, 4) * sum(1, x, 3)")
+                .functions(half, max, sum)
+                .variables("x")
+                .compiled(true)
+                .build()
+                .setVariable("x", 3d);
+        assertEquals(1.5d + 4d * 7d, e.evaluate(), 0d);
+    }
+}
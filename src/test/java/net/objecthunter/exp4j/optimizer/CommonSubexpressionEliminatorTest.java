@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.optimizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.LoadToken;
+import net.objecthunter.exp4j.tokenizer.StoreToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+
+import org.junit.Test;
+
+public class CommonSubexpressionEliminatorTest {
+
+    private static Token[] eliminate(String expression, Map<String, Function> functions) {
+        return CommonSubexpressionEliminator.eliminate(ShuntingYard.convertToRPN(expression, functions, null,
+                new HashSet<String>(Arrays.asList("x", "y", "a", "t", "w")), true));
+    }
+
+    private static int count(Token[] tokens, int type) {
+        int count = 0;
+        for (Token t : tokens) {
+            if (t.getType() == type) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testEliminate() throws Exception {
+        Token[] tokens = eliminate("sqrt(x^2+y^2) / (1 + sqrt(x^2+y^2))", null);
+        assertEquals(1, count(tokens, Token.TOKEN_STORE));
+        assertEquals(1, count(tokens, Token.TOKEN_LOAD));
+        assertEquals(1, count(tokens, Token.TOKEN_FUNCTION));
+        /* the load follows the constant */
+        assertEquals(Token.TOKEN_NUMBER, tokens[tokens.length - 4].getType());
+        assertEquals(0, ((LoadToken) tokens[tokens.length - 3]).getIndex());
+    }
+
+    @Test
+    public void testEliminateMultiple() throws Exception {
+        Token[] tokens = eliminate("exp(-a*t)*cos(w*t) + exp(-a*t)*sin(w*t)", null);
+        assertEquals(2, count(tokens, Token.TOKEN_STORE));
+        assertEquals(2, count(tokens, Token.TOKEN_LOAD));
+        assertEquals(0, ((StoreToken) tokens[5]).getIndex());
+        assertEquals(1, ((StoreToken) tokens[9]).getIndex());
+    }
+
+    @Test
+    public void testNestedSubexpressionIsStoredOnce() throws Exception {
+        Token[] tokens = eliminate("(x*y+1)*(x*y+1)", null);
+        assertEquals(1, count(tokens, Token.TOKEN_STORE));
+        assertEquals(1, count(tokens, Token.TOKEN_LOAD));
+    }
+
+    @Test
+    public void testNothingToEliminate() throws Exception {
+        Token[] tokens = ShuntingYard.convertToRPN("x*x + y", null, null,
+                new HashSet<String>(Arrays.asList("x", "y")), true);
+        assertSame(tokens, CommonSubexpressionEliminator.eliminate(tokens));
+        tokens = ShuntingYard.convertToRPN("2+", null, null, null, true);
+        assertSame(tokens, CommonSubexpressionEliminator.eliminate(tokens));
+    }
+
+    @Test
+    public void testNonDeterministicFunction() throws Exception {
+        final Map<String, Function> functions = new HashMap<String, Function>();
+        functions.put("rnd", new Function1("rnd") {
+            @Override
+            public double apply(double arg) {
+                return Math.random() * arg;
+            }
+        });
+        Token[] tokens = eliminate("rnd(x+1) - rnd(x+1)", functions);
+        /* only the argument is shared */
+        assertEquals(1, count(tokens, Token.TOKEN_STORE));
+        assertEquals(2, count(tokens, Token.TOKEN_FUNCTION));
+    }
+
+    @Test
+    public void testDeterministicFunction() throws Exception {
+        final int[] calls = new int[1];
+        Function1 square = new Function1("square") {
+            @Override
+            public double apply(double arg) {
+                calls[0]++;
+                return arg * arg;
+            }
+
+            @Override
+            public boolean isDeterministic() {
+                return true;
+            }
+        };
+        Expression e = new ExpressionBuilder("square(x) + 1 / square(x)")
+                .function(square)
+                .variables("x")
+                .build()
+                .setVariable("x", 2d);
+        assertEquals(4.25d, e.evaluate(), 0d);
+        assertEquals(1, calls[0]);
+    }
+
+    @Test
+    public void testEvaluate() throws Exception {
+        final double x = 1.5d, y = -2d, a = 0.25d, t = 3d, w = 0.5d;
+        final String[] expressions = {"sqrt(x^2+y^2) / (1 + sqrt(x^2+y^2))",
+                "exp(-a*t)*cos(w*t) + exp(-a*t)*sin(w*t)", "(x*y+1)*(x*y+1) - (x*y+1)", "sin(x)^2 + sin(x)^2 * sin(x)"};
+        final double[] expected = {Math.sqrt(x * x + y * y) / (1 + Math.sqrt(x * x + y * y)),
+                Math.exp(-a * t) * Math.cos(w * t) + Math.exp(-a * t) * Math.sin(w * t),
+                (x * y + 1) * (x * y + 1) - (x * y + 1),
+                Math.pow(Math.sin(x), 2) + Math.pow(Math.sin(x), 2) * Math.sin(x)};
+        for (int i = 0; i < expressions.length; i++) {
+            for (boolean compiled : new boolean[] {false, true}) {
+                Expression e = new ExpressionBuilder(expressions[i])
+                        .variables("x", "y", "a", "t", "w")
+                        .compiled(compiled)
+                        .build()
+                        .setVariable("x", x)
+                        .setVariable("y", y)
+                        .setVariable("a", a)
+                        .setVariable("t", t)
+                        .setVariable("w", w);
+                assertTrue(e.validate().isValid());
+                assertEquals(expressions[i], expected[i], e.evaluate(), 0d);
+            }
+        }
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZero() throws Exception {
+        new ExpressionBuilder("1/x + 1/x")
+                .variables("x")
+                .build()
+                .setVariable("x", 0d)
+                .evaluate();
+    }
+}
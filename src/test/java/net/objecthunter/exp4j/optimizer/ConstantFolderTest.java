@@ -0,0 +1,232 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.optimizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.objecthunter.exp4j.ExpressionBuilder;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+import org.junit.Test;
+
+public class ConstantFolderTest {
+
+    private static Token[] fold(String expression, Map<String, Function> functions,
+            Map<String, Operator> operators) {
+        final Map<String, Double> constants = new HashMap<String, Double>();
+        constants.put("pi", Math.PI);
+        constants.put("e", Math.E);
+        final Set<String> variables = new HashSet<String>(Arrays.asList("x", "pi", "e"));
+        return ConstantFolder.fold(ShuntingYard.convertToRPN(expression, functions, operators, variables, true),
+                constants);
+    }
+
+    private static Token[] fold(String expression) {
+        return fold(expression, null, null);
+    }
+
+    private static void assertNumber(Token[] tokens, double expected) {
+        assertEquals(1, tokens.length);
+        assertEquals(Token.TOKEN_NUMBER, tokens[0].getType());
+        assertEquals(expected, ((NumberToken) tokens[0]).getValue(), 0d);
+    }
+
+    @Test
+    public void testFoldOperators() throws Exception {
+        assertNumber(fold("2*pi/360"), 2 * Math.PI / 360);
+        assertNumber(fold("(1+0.05)^12"), Math.pow(1 + 0.05, 12));
+        assertNumber(fold("-3 + +2 % 3"), -1d);
+    }
+
+    @Test
+    public void testFoldFunctions() throws Exception {
+        assertNumber(fold("sqrt(2)"), Math.sqrt(2));
+        assertNumber(fold("pow(e, cos(pi))"), Math.pow(Math.E, Math.cos(Math.PI)));
+        assertNumber(fold("log(-1)"), Double.NaN);
+    }
+
+    @Test
+    public void testFoldSubtrees() throws Exception {
+        Token[] tokens = fold("x * sqrt(2) + (1 + 2) * x");
+        assertEquals(7, tokens.length);
+        assertEquals("x", ((VariableToken) tokens[0]).getName());
+        assertEquals(Math.sqrt(2), ((NumberToken) tokens[1]).getValue(), 0d);
+        assertEquals("*", ((OperatorToken) tokens[2]).getOperator().getSymbol());
+        assertEquals(3d, ((NumberToken) tokens[3]).getValue(), 0d);
+    }
+
+    @Test
+    public void testFoldProgram() throws Exception {
+        final Map<String, Double> constants = new HashMap<String, Double>();
+        constants.put("pi", Math.PI);
+        final Set<String> variables = new HashSet<String>(Arrays.asList("x", "pi"));
+        for (String expression : new String[]{"x * sqrt(2) + (1 + 2) * x", "2*pi/360", "x", "1 + 2/0 - pi * x"}) {
+            Token[] expected = fold(expression);
+            Token[] actual = ConstantFolder.fold(ShuntingYard.compile(expression, null, null, variables, true),
+                    constants);
+            assertEquals(expression, expected.length, actual.length);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expression, expected[i].getType(), actual[i].getType());
+                if (expected[i].getType() == Token.TOKEN_NUMBER) {
+                    assertEquals(expression, ((NumberToken) expected[i]).getValue(),
+                            ((NumberToken) actual[i]).getValue(), 0d);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNothingToFold() throws Exception {
+        Token[] tokens = ShuntingYard.convertToRPN("x * 2", null, null, new HashSet<String>(Arrays.asList("x")),
+                true);
+        assertSame(tokens, ConstantFolder.fold(tokens, new HashMap<String, Double>()));
+    }
+
+    @Test
+    public void testInvalidExpression() throws Exception {
+        Token[] tokens = ShuntingYard.convertToRPN("2+", null, null, null, true);
+        assertSame(tokens, ConstantFolder.fold(tokens, new HashMap<String, Double>()));
+    }
+
+    @Test
+    public void testDivisionByZeroIsNotFolded() throws Exception {
+        Token[] tokens = fold("1 + 2/0");
+        assertEquals(5, tokens.length);
+        tokens = fold("cot(0) + sqrt(4)");
+        assertEquals(4, tokens.length);
+        assertEquals(Token.TOKEN_FUNCTION, tokens[1].getType());
+        assertEquals(2d, ((NumberToken) tokens[2]).getValue(), 0d);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZeroOnEvaluation() throws Exception {
+        new ExpressionBuilder("2*pi/(1-1)").build().evaluate();
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testInvalidCotangentOnEvaluation() throws Exception {
+        new ExpressionBuilder("cot(2 * 0)").build().evaluate();
+    }
+
+    @Test
+    public void testCustomFunctionIsNotFolded() throws Exception {
+        final Map<String, Function> functions = new HashMap<String, Function>();
+        functions.put("sqrt", new Function("sqrt") {
+            @Override
+            public Double apply(Double... args) {
+                return 2 * args[0];
+            }
+        });
+        Token[] tokens = fold("sqrt(1 + 1)", functions, null);
+        assertEquals(2, tokens.length);
+        assertEquals(2d, ((NumberToken) tokens[0]).getValue(), 0d);
+        assertSame(functions.get("sqrt"), ((FunctionToken) tokens[1]).getFunction());
+    }
+
+    @Test
+    public void testCustomOperatorIsNotFolded() throws Exception {
+        final Map<String, Operator> operators = new HashMap<String, Operator>();
+        operators.put("+", new Operator("+", 2, true, Operator.PRECEDENCE_ADDITION) {
+            @Override
+            public double apply(double... args) {
+                return args[0] - args[1];
+            }
+        });
+        assertEquals(3, fold("1 + 2", null, operators).length);
+    }
+
+    @Test
+    public void testDeclaredConstantIsNotFolded() throws Exception {
+        assertEquals(2 * Math.PI, new ExpressionBuilder("2pi").build().evaluate(), 0d);
+        assertEquals(6d, new ExpressionBuilder("2pi")
+                .variables("pi")
+                .build()
+                .setVariable("pi", 3d)
+                .evaluate(), 0d);
+    }
+
+    /* setting a folded constant would silently have no effect */
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetFoldedConstant() throws Exception {
+        new ExpressionBuilder("2pi").build().setVariable("pi", 3d);
+    }
+
+    @Test
+    public void testReplacedConstants() throws Exception {
+        final Map<String, Double> constants = new HashMap<String, Double>();
+        constants.put("pi", Math.PI);
+        constants.put("e", Math.E);
+        final Set<String> variables = new HashSet<String>(Arrays.asList("x", "pi", "e"));
+        final Set<String> replaced = new HashSet<String>();
+        ConstantFolder.fold(ShuntingYard.convertToRPN("2pi*x", null, null, variables, true), constants, replaced);
+        assertEquals(Collections.singleton("pi"), replaced);
+        replaced.clear();
+        ConstantFolder.fold(ShuntingYard.compile("2pi*x", null, null, variables, true), constants, replaced);
+        assertEquals(Collections.singleton("pi"), replaced);
+    }
+
+    /* only the constants used by the expression have been folded */
+    @Test
+    public void testSetUnusedConstant() throws Exception {
+        assertEquals(4d, new ExpressionBuilder("x+1")
+                .variables("x")
+                .build()
+                .setVariable("e", 1d)
+                .setVariable("x", 3d)
+                .evaluate(), 0d);
+        final Map<String, Double> values = new HashMap<String, Double>();
+        values.put("x", 3d);
+        values.put("pi", 3d);
+        values.put("e", 1d);
+        assertEquals(4d, new ExpressionBuilder("x+1")
+                .variables("x")
+                .build()
+                .setVariables(values)
+                .evaluate(), 0d);
+    }
+
+    @Test
+    public void testVariableNamesContainFoldedConstants() throws Exception {
+        assertEquals(new HashSet<String>(Arrays.asList("x", "pi")), new ExpressionBuilder("2pi*x")
+                .variables("x")
+                .build()
+                .getVariableNames());
+    }
+
+    @Test
+    public void testSetUnusedVariable() throws Exception {
+        assertEquals(2 * Math.PI, new ExpressionBuilder("2pi")
+                .variables("x")
+                .build()
+                .setVariable("x", 3d)
+                .evaluate(), 0d);
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.optimizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import net.objecthunter.exp4j.MissingVariableException;
+import net.objecthunter.exp4j.ast.AstParser;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.Token;
+
+import org.junit.Test;
+
+public class SimplifierTest {
+
+    /* expressions which are simplified by the exact rules */
+    private static final String[] EXACT = {"x * 1", "1 * x", "x / 1", "+x", "--x", "-(-(-x))", "x^1", "pow(x, 1)",
+            "x - 0", "x + -0", "x * -1", "-1 * x", "x / -1", "x + -y", "-x + 2", "x - -y", "-x * -y", "-x / -y",
+            "(x * 1 + +y) / 1 - --x^1"};
+
+    private static final double[] VALUES = {-4d, -1d, -0.5d, -0d, 0d, 0.25d, 1d, 3d, Double.NaN,
+            Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, -Double.MAX_VALUE};
+
+    private static String simplify(String expression, boolean fastMath, List<Simplifier.Rule> applied) {
+        final Map<String, Double> constants = new HashMap<String, Double>();
+        final Token[] tokens = ConstantFolder.fold(ShuntingYard.convertToRPN(expression, null, null,
+                new HashSet<String>(Arrays.asList("x", "y")), true), constants);
+        return AstParser.fromTokens(Simplifier.simplify(tokens, fastMath, applied)).toString();
+    }
+
+    private static String simplify(String expression, boolean fastMath) {
+        return simplify(expression, fastMath, null);
+    }
+
+    @Test
+    public void testExactRules() throws Exception {
+        assertEquals("x", simplify("x * 1", false));
+        assertEquals("x", simplify("1 * x", false));
+        assertEquals("x", simplify("x / 1", false));
+        assertEquals("x", simplify("+x", false));
+        assertEquals("x", simplify("--x", false));
+        assertEquals("(-x)", simplify("-(-(-x))", false));
+        assertEquals("x", simplify("x^1", false));
+        assertEquals("x", simplify("pow(x, 1)", false));
+        assertEquals("x", simplify("x - 0", false));
+        assertEquals("x", simplify("x + -0", false));
+        assertEquals("(-x)", simplify("x * -1", false));
+        assertEquals("(-x)", simplify("x / -1", false));
+        assertEquals("(x - y)", simplify("x + -y", false));
+        assertEquals("(2.0 - x)", simplify("-x + 2", false));
+        assertEquals("(x + y)", simplify("x - -y", false));
+        assertEquals("(x * y)", simplify("-x * -y", false));
+        assertEquals("((x + y) - x)", simplify("(x * 1 + +y) / 1 - --x^1", false));
+    }
+
+    @Test
+    public void testValueChangingRulesAreNotApplied() throws Exception {
+        assertEquals("(x + 0.0)", simplify("x + 0", false));
+        assertEquals("(0.0 * x)", simplify("0 * x", false));
+        assertEquals("(x - x)", simplify("x - x", false));
+        assertEquals("(0.0 - x)", simplify("0 - x", false));
+        assertEquals("(x ^ 0.0)", simplify("x^0", false));
+        assertEquals("(-(x - y))", simplify("-(x - y)", false));
+        assertEquals("(-(x - 2.0))", simplify("-(x - 2)", false));
+    }
+
+    @Test
+    public void testFastMathRules() throws Exception {
+        assertEquals("x", simplify("x + 0", true));
+        assertEquals("x", simplify("0 + x", true));
+        assertEquals("0.0", simplify("0 * x", true));
+        assertEquals("0.0", simplify("sin(x) * 0", true));
+        assertEquals("0.0", simplify("(x + y) - (x + y)", true));
+        assertEquals("(-x)", simplify("0 - x", true));
+        assertEquals("1.0", simplify("x^0", true));
+        assertEquals("1.0", simplify("pow(x, 0)", true));
+        assertEquals("(2.0 - x)", simplify("-(x - 2)", true));
+        /* the exact rules are applied as well */
+        assertEquals("x", simplify("(x + 0) * 1", true));
+    }
+
+    /* the exact rules do not change a single bit of the result */
+    @Test
+    public void testExact() throws Exception {
+        for (String expression : EXACT) {
+            Expression plain = new ExpressionBuilder(expression)
+                    .variables("x", "y")
+                    .build();
+            Expression simplified = new ExpressionBuilder(expression)
+                    .variables("x", "y")
+                    .simplify(true)
+                    .build();
+            assertTrue(expression, simplified.getSimplifications().size() > 0);
+            for (double x : VALUES) {
+                for (double y : VALUES) {
+                    double expected;
+                    try {
+                        expected = plain.setVariable("x", x).setVariable("y", y).evaluate();
+                    } catch (ArithmeticException e) {
+                        try {
+                            simplified.setVariable("x", x).setVariable("y", y).evaluate();
+                            fail("Expected an ArithmeticException for " + expression + " " + x + " " + y);
+                        } catch (ArithmeticException expectedException) {
+                            /* both throw */
+                        }
+                        continue;
+                    }
+                    double actual = simplified.setVariable("x", x).setVariable("y", y).evaluate();
+                    /* all NaNs are equal, while the zeros are told apart by their sign */
+                    assertEquals(expression + " " + x + " " + y, Double.doubleToLongBits(expected),
+                            Double.doubleToLongBits(actual));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAppliedRules() throws Exception {
+        List<Simplifier.Rule> applied = new ArrayList<Simplifier.Rule>();
+        simplify("--x * 1 + 0", true, applied);
+        assertEquals(Arrays.asList(Simplifier.Rule.DOUBLE_NEGATION, Simplifier.Rule.MULTIPLY_BY_ONE,
+                Simplifier.Rule.ADD_ZERO), applied);
+        assertTrue(Simplifier.Rule.MULTIPLY_BY_ONE.isExact());
+        assertTrue(!Simplifier.Rule.ADD_ZERO.isExact());
+    }
+
+    @Test
+    public void testBuilder() throws Exception {
+        Expression e = new ExpressionBuilder("x * 1 + 2pi - -x")
+                .variables("x")
+                .simplify(true)
+                .build()
+                .setVariable("x", 3d);
+        assertEquals(Arrays.asList(Simplifier.Rule.MULTIPLY_BY_ONE, Simplifier.Rule.SUBTRACT_NEGATION),
+                e.getSimplifications());
+        assertEquals(3d + 2 * Math.PI + 3d, e.evaluate(), 0d);
+        assertEquals(Collections.emptyList(), new ExpressionBuilder("x * 1")
+                .variables("x")
+                .build()
+                .getSimplifications());
+        /* the folded constants are simplified, too */
+        Expression folded = new ExpressionBuilder("x * (3 - 2) + y * 0")
+                .variables("x", "y")
+                .fastMath(true)
+                .build()
+                .setVariable("x", 5d);
+        assertEquals(5d, folded.evaluate(), 0d);
+        assertEquals(Collections.singleton("x"), folded.getVariableNames());
+    }
+
+    @Test
+    public void testCustomFunctionsAreNotDropped() throws Exception {
+        final int[] calls = new int[1];
+        Function count = new Function("count", 0) {
+            @Override
+            public Double apply(Double... args) {
+                return (double) calls[0]++;
+            }
+        };
+        Expression e = new ExpressionBuilder("count() * 0 + (count() - count())")
+                .function(count)
+                .fastMath(true)
+                .build();
+        assertEquals(-1d, e.evaluate(), 0d);
+        assertEquals(3, calls[0]);
+    }
+
+    /* rules swapping the operands keep the order of evaluation if both of them have side effects */
+    @Test
+    public void testOrderOfSideEffects() throws Exception {
+        final List<String> calls = new ArrayList<String>();
+        Function f = new Function("f") {
+            @Override
+            public Double apply(Double... args) {
+                calls.add("f");
+                throw new IllegalStateException("f");
+            }
+        };
+        Function g = new Function("g") {
+            @Override
+            public Double apply(Double... args) {
+                calls.add("g");
+                throw new IllegalStateException("g");
+            }
+        };
+        for (String expression : new String[]{"-f(x) + g(x)", "-(f(x) - g(x))"}) {
+            Expression e = new ExpressionBuilder(expression)
+                    .functions(f, g)
+                    .variables("x")
+                    .simplify(true)
+                    .fastMath(true)
+                    .build()
+                    .setVariable("x", 1d);
+            assertEquals(expression, Collections.emptyList(), e.getSimplifications());
+            try {
+                e.evaluate();
+                fail("The exception of f was not thrown");
+            } catch (IllegalStateException expected) {
+                assertEquals(expression, "f", expected.getMessage());
+            }
+        }
+        assertEquals(Arrays.asList("f", "f"), calls);
+        /* an operand which can not throw may be evaluated later */
+        assertEquals(Arrays.asList(Simplifier.Rule.ADD_NEGATION), new ExpressionBuilder("-g(x) + 2")
+                .function(g)
+                .variables("x")
+                .simplify(true)
+                .build()
+                .getSimplifications());
+        assertEquals(Collections.emptyList(), new ExpressionBuilder("-(1 / x) + g(x)")
+                .function(g)
+                .variables("x")
+                .simplify(true)
+                .build()
+                .getSimplifications());
+    }
+
+    /* a variable which is not set throws, so operands with variables are not swapped */
+    @Test
+    public void testOrderOfMissingVariables() throws Exception {
+        assertEquals("((-x) + y)", simplify("-x + y", false));
+        assertEquals("((-x) + y)", simplify("-x + y", true));
+        assertEquals("(-(x - y))", simplify("-(x - y)", true));
+        for (boolean simplify : new boolean[] {false, true}) {
+            try {
+                new ExpressionBuilder("-x + 1/(y-y)")
+                        .variables("x", "y")
+                        .simplify(simplify)
+                        .build()
+                        .setVariable("y", 1d)
+                        .evaluate();
+                fail("The missing variable was not reported");
+            } catch (MissingVariableException expected) {
+                assertEquals("x", expected.getVariableName());
+            }
+            try {
+                new ExpressionBuilder("-x + y")
+                        .variables("x", "y")
+                        .simplify(simplify)
+                        .build()
+                        .evaluate();
+                fail("The missing variable was not reported");
+            } catch (MissingVariableException expected) {
+                assertEquals("x", expected.getVariableName());
+            }
+        }
+    }
+
+    @Test(expected = MissingVariableException.class)
+    public void testStrictKeepsVariables() throws Exception {
+        new ExpressionBuilder("x * 1 + y * 1")
+                .variables("x", "y")
+                .simplify(true)
+                .build()
+                .setVariable("x", 1d)
+                .evaluate();
+    }
+
+    /* long sums and deeply nested negations, too deep to be simplified recursively */
+    @Test
+    public void testDeepExpression() throws Exception {
+        StringBuilder sum = new StringBuilder("x");
+        StringBuilder negation = new StringBuilder("x");
+        for (int i = 0; i < 5000; i++) {
+            sum.append("+x*1");
+            negation.insert(0, "-(").append(')');
+        }
+        Expression e = new ExpressionBuilder(sum.toString())
+                .variables("x")
+                .simplify(true)
+                .build()
+                .setVariable("x", 2d);
+        assertEquals(5000, e.getSimplifications().size());
+        assertEquals(10002d, e.evaluate(), 0d);
+        Expression negated = new ExpressionBuilder(negation.toString())
+                .variables("x")
+                .fastMath(true)
+                .build()
+                .setVariable("x", 2d);
+        assertEquals(2500, negated.getSimplifications().size());
+        assertEquals(2d, negated.evaluate(), 0d);
+    }
+
+    /* the operands of x - x are too deep to be compared recursively */
+    @Test
+    public void testDeepSubtractSelf() throws Exception {
+        StringBuilder nested = new StringBuilder("x");
+        for (int i = 0; i < 5000; i++) {
+            nested.insert(0, '(').append("+1)");
+        }
+        Expression e = new ExpressionBuilder(nested + "-" + nested)
+                .variables("x")
+                .simplify(true)
+                .fastMath(true)
+                .build()
+                .setVariable("x", 2d);
+        assertEquals(Collections.singletonList(Simplifier.Rule.SUBTRACT_SELF), e.getSimplifications());
+        assertEquals(0d, e.evaluate(), 0d);
+    }
+
+    @Test
+    public void testNothingToSimplify() throws Exception {
+        Token[] tokens = ShuntingYard.convertToRPN("x * 2 + 0", null, null, new HashSet<String>(Arrays.asList("x")),
+                true);
+        assertSame(tokens, Simplifier.simplify(tokens, false, null));
+        Token[] invalid = ShuntingYard.convertToRPN("2+", null, null, null, true);
+        assertSame(invalid, Simplifier.simplify(invalid, true, null));
+    }
+}
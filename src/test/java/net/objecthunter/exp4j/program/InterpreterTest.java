@@ -0,0 +1,349 @@
+/*
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package net.objecthunter.exp4j.program;
+
+import static net.objecthunter.exp4j.TestUtil.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import net.objecthunter.exp4j.MissingVariableException;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Function1;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.optimizer.ConstantFolder;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.LoadToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.StoreToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+import org.junit.Test;
+
+public class InterpreterTest {
+
+    @Test
+    public void testMatchesBuiltins() throws Exception {
+        for (String expression : EXPRESSIONS) {
+            Token[] tokens = withSlots(ShuntingYard.convertToRPN(expression, null, null,
+                    new HashSet<String>(Arrays.asList("x", "y")), true), "x", "y");
+            Interpreter interpreter = Interpreter.compile(tokens);
+            assertNotNull(expression, interpreter);
+            for (double x : VALUES) {
+                for (double y : VALUES) {
+                    double[] values = {x, y};
+                    double[] stack = new double[interpreter.getStackSize()];
+                    double expected;
+                    try {
+                        expected = reference(tokens, values);
+                    } catch (ArithmeticException e) {
+                        try {
+                            interpreter.evaluate(values, new boolean[]{true, true}, stack, 0);
+                            fail("Expected an ArithmeticException for " + expression + " " + x + " " + y);
+                        } catch (ArithmeticException expectedException) {
+                            /* both throw */
+                        }
+                        continue;
+                    }
+                    double actual = interpreter.evaluate(values, new boolean[]{true, true}, stack, 0);
+                    /* all NaNs are equal, while the zeros are told apart by their sign */
+                    assertEquals(expression + " " + x + " " + y, Double.doubleToLongBits(expected),
+                            Double.doubleToLongBits(actual));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesBuiltinsInExpression() throws Exception {
+        for (String expression : EXPRESSIONS) {
+            Expression e = new ExpressionBuilder(expression)
+                    .variables("x", "y")
+                    .build()
+                    .setVariable("x", 2.5d)
+                    .setVariable("y", 0.75d);
+            Token[] tokens = withSlots(ShuntingYard.convertToRPN(expression, null, null,
+                    new HashSet<String>(Arrays.asList("x", "y")), true), "x", "y");
+            assertEquals(expression, reference(tokens, new double[]{2.5d, 0.75d}), e.evaluate(), 0d);
+        }
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        assertNull(Interpreter.compile(ShuntingYard.convertToRPN("2+", null, null, null, true)));
+        assertNull(Interpreter.compile(new Token[]{new NumberToken(1d), new NumberToken(2d)}));
+        assertNull(Interpreter.compile(new Token[]{new LoadToken(0)}));
+        assertNull(Interpreter.compile(new Token[]{new VariableToken("x")}));
+    }
+
+    @Test
+    public void testUnaryPlusIsSkipped() throws Exception {
+        Interpreter interpreter = Interpreter.compile(new Token[]{
+                new VariableToken("x", 0),
+                new OperatorToken(Operators.getBuiltinOperator('+', 1)),
+                new OperatorToken(Operators.getBuiltinOperator('+', 1))
+        });
+        assertEquals(1, interpreter.size());
+        assertEquals(Double.doubleToLongBits(-0d), Double.doubleToLongBits(
+                interpreter.evaluate(new double[]{-0d}, new boolean[]{true}, new double[1], 0)));
+    }
+
+    @Test
+    public void testSuperinstructions() throws Exception {
+        String[] expressions = {"x * 0.5", "2 * y", "x - y", "-x", "x^3", "(x + y)^4", "sqrt(x)", "(x + y) * y",
+                "(x * y) / 4", "x / 0", "(x * y) / 0"};
+        int[] sizes = {1, 1, 1, 1, 1, 2, 1, 2, 2, 3, 3};
+        for (int i = 0; i < expressions.length; i++) {
+            Token[] tokens = withSlots(ShuntingYard.convertToRPN(expressions[i], null, null,
+                    new HashSet<String>(Arrays.asList("x", "y")), true), "x", "y");
+            Interpreter fused = Interpreter.compile(tokens);
+            Interpreter plain = Interpreter.compile(tokens, false);
+            assertEquals(expressions[i], sizes[i], fused.size());
+            assertEquals(expressions[i], tokens.length, plain.size());
+            for (double x : VALUES) {
+                double[] values = {x, 1.5d};
+                boolean[] bound = {true, true};
+                try {
+                    double expected = plain.evaluate(values, bound, new double[plain.getStackSize()], 0);
+                    assertEquals(expressions[i], Double.doubleToLongBits(expected), Double.doubleToLongBits(
+                            fused.evaluate(values, bound, new double[fused.getStackSize()], 0)));
+                } catch (ArithmeticException e) {
+                    /* the division by a zero constant is not fused and fails as well */
+                    try {
+                        fused.evaluate(values, bound, new double[fused.getStackSize()], 0);
+                        fail("Expected an ArithmeticException for " + expressions[i]);
+                    } catch (ArithmeticException expected) {
+                        /* both throw */
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPowerStrengthReduction() throws Exception {
+        /* a constant exponent 2 or 0.5 needs no call to Math.pow(), and the results are the same */
+        String[] expressions = {"x^2", "(x + y)^2", "pow(x, 2)", "x^0.5", "pow(x * y, 0.5)", "2^x^2"};
+        int[] sizes = {1, 2, 1, 2, 2, 3};
+        double[] values = new double[VALUES.length + 1000];
+        System.arraycopy(VALUES, 0, values, 0, VALUES.length);
+        Random random = new Random(42);
+        for (int i = VALUES.length; i < values.length; i++) {
+            values[i] = Math.pow(10, random.nextInt(40) - 20) * random.nextDouble();
+        }
+        for (int i = 0; i < expressions.length; i++) {
+            Token[] tokens = withSlots(ShuntingYard.convertToRPN(expressions[i], null, null,
+                    new HashSet<String>(Arrays.asList("x", "y")), true), "x", "y");
+            Interpreter interpreter = Interpreter.compile(tokens);
+            assertEquals(expressions[i], sizes[i], interpreter.size());
+            for (double x : values) {
+                double[] variables = {x, 1.5d};
+                assertEquals(expressions[i] + " " + x, Double.doubleToLongBits(reference(tokens, variables)),
+                        Double.doubleToLongBits(interpreter.evaluate(variables, new boolean[]{true, true},
+                                new double[interpreter.getStackSize()], 0)));
+            }
+        }
+    }
+
+    @Test
+    public void testPowerBySquaring() throws Exception {
+        String[] expressions = {"x^3", "x^-1", "(x + 1)^-2", "x^16", "x^17", "x^y", "pow(x, y)", "x^2.5"};
+        int[] sizes = {1, 1, 2, 1, 3, 3, 3, 3};
+        double[] exponents = {-3d, -1d, -0d, 2d, 0.5d, 5d, 16d, 17d};
+        for (int i = 0; i < expressions.length; i++) {
+            /* the negative exponents are folded to constants like ExpressionBuilder does */
+            Token[] tokens = withSlots(ConstantFolder.fold(ShuntingYard.convertToRPN(expressions[i], null, null,
+                    new HashSet<String>(Arrays.asList("x", "y")), true), new HashMap<String, Double>()), "x", "y");
+            Interpreter interpreter = Interpreter.compile(tokens, true, true);
+            assertEquals(expressions[i], sizes[i], interpreter.size());
+            for (double x : VALUES) {
+                for (double y : exponents) {
+                    double[] variables = {x, y};
+                    double expected = reference(tokens, variables);
+                    double actual = interpreter.evaluate(variables, new boolean[]{true, true},
+                            new double[interpreter.getStackSize()], 0);
+                    /* the special values are the same, the others may differ in the last bits */
+                    if (Double.isNaN(expected) || Double.isInfinite(expected) || expected == 0d) {
+                        assertEquals(expressions[i] + " " + x + " " + y, Double.doubleToLongBits(expected),
+                                Double.doubleToLongBits(actual));
+                    } else {
+                        assertEquals(expressions[i] + " " + x + " " + y, expected, actual,
+                                Math.abs(expected) * 1e-14);
+                    }
+                }
+            }
+        }
+        Expression e = new ExpressionBuilder("x^3 - x^n")
+                .variables("x", "n")
+                .fastMath(true)
+                .build()
+                .setVariable("x", 1.5d)
+                .setVariable("n", -2d);
+        assertEquals(1.5d * 1.5d * 1.5d - 1 / (1.5d * 1.5d), e.evaluate(), 0d);
+    }
+
+    @Test
+    public void testSuperinstructionMissingVariable() throws Exception {
+        Interpreter interpreter = Interpreter.compile(new Token[]{
+                new VariableToken("x", 0),
+                new VariableToken("y", 1),
+                new OperatorToken(Operators.getBuiltinOperator('/', 2))
+        });
+        assertEquals(1, interpreter.size());
+        try {
+            interpreter.evaluate(new double[2], new boolean[]{true, false}, new double[1], 0);
+            fail("Expected a MissingVariableException");
+        } catch (MissingVariableException e) {
+            assertEquals("y", e.getVariableName());
+        }
+    }
+
+    @Test
+    public void testStoreAndLoad() throws Exception {
+        /* (x + 1) * (x + 1) */
+        Interpreter interpreter = Interpreter.compile(new Token[]{
+                new VariableToken("x", 0),
+                new NumberToken(1d),
+                new OperatorToken(Operators.getBuiltinOperator('+', 2)),
+                new StoreToken(0),
+                new LoadToken(0),
+                new OperatorToken(Operators.getBuiltinOperator('*', 2))
+        });
+        assertEquals(3, interpreter.getStackSize());
+        /* the values below the base are not modified */
+        double[] stack = {7d, 7d, 0d, 0d, 0d};
+        assertEquals(9d, interpreter.evaluate(new double[]{2d}, new boolean[]{true}, stack, 2), 0d);
+        assertEquals(7d, stack[0], 0d);
+        assertEquals(7d, stack[1], 0d);
+    }
+
+    @Test
+    public void testMissingVariable() throws Exception {
+        Interpreter interpreter = Interpreter.compile(new Token[]{
+                new VariableToken("x", 0),
+                new VariableToken("y", 1),
+                new OperatorToken(Operators.getBuiltinOperator('-', 2))
+        });
+        try {
+            interpreter.evaluate(new double[2], new boolean[]{true, false}, new double[2], 0);
+            fail("Expected a MissingVariableException");
+        } catch (MissingVariableException e) {
+            assertEquals("y", e.getVariableName());
+        }
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZero() throws Exception {
+        new ExpressionBuilder("1/x")
+                .variables("x")
+                .build()
+                .setVariable("x", -0d)
+                .evaluate();
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testInvalidCotangent() throws Exception {
+        new ExpressionBuilder("cot(x)")
+                .variables("x")
+                .build()
+                .setVariable("x", 0d)
+                .evaluate();
+    }
+
+    @Test
+    public void testCustomReplacingBuiltins() throws Exception {
+        Function sin = new Function("sin") {
+            @Override
+            public Double apply(Double... args) {
+                return 2 * args[0];
+            }
+        };
+        Operator plus = new Operator("+", 2, true, Operator.PRECEDENCE_ADDITION) {
+            @Override
+            public double apply(double... args) {
+                return args[0] + 2 * args[1];
+            }
+        };
+        Operator minus = new Operator("-", 1, false, Operator.PRECEDENCE_UNARY_MINUS) {
+            @Override
+            public double apply(double... args) {
+                return args[0] - 1;
+            }
+        };
+        Expression e = new ExpressionBuilder("sin(x) + -x")
+                .variables("x")
+                .function(sin)
+                .operator(plus, minus)
+                .build()
+                .setVariable("x", 3d);
+        assertEquals(6d + 2 * 2d, e.evaluate(), 0d);
+    }
+
+    @Test
+    public void testNestedEvaluation() throws Exception {
+        final Expression inner = new ExpressionBuilder("(y + 1) * (y + 1) + sin(y) * 0")
+                .variables("y")
+                .build();
+        Function square = new Function1("square") {
+            @Override
+            public double apply(double arg) {
+                return inner.setVariable("y", arg - 1).evaluate();
+            }
+        };
+        Expression e = new ExpressionBuilder("x + square(x) * 2 + (x + 1) * (x + 1)")
+                .variables("x")
+                .function(square)
+                .build()
+                .setVariable("x", 3d);
+        assertEquals(3d + 9d * 2 + 16d, e.evaluate(), 0d);
+    }
+
+    /* evaluates the tokens using the apply() methods of the operators and functions */
+    private static double reference(Token[] tokens, double[] values) {
+        double[] stack = new double[tokens.length];
+        int top = -1;
+        for (Token t : tokens) {
+            if (t.getType() == Token.TOKEN_NUMBER) {
+                stack[++top] = ((NumberToken) t).getValue();
+            } else if (t.getType() == Token.TOKEN_VARIABLE) {
+                stack[++top] = values[((VariableToken) t).getIndex()];
+            } else if (t.getType() == Token.TOKEN_OPERATOR) {
+                Operator op = ((OperatorToken) t).getOperator();
+                int offset = top + 1 - op.getNumOperands();
+                stack[offset] = op.apply(stack, offset);
+                top = offset;
+            } else {
+                Function func = ((FunctionToken) t).getFunction();
+                int offset = top + 1 - func.getNumArguments();
+                stack[offset] = func.apply(stack, offset);
+                top = offset;
+            }
+        }
+        return stack[top];
+    }
+}
@@ -0,0 +1,108 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.program;
+
+import static net.objecthunter.exp4j.TestUtil.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.LoadToken;
+import net.objecthunter.exp4j.tokenizer.StoreToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+
+import org.junit.Test;
+
+public class ProgramTest {
+
+    @Test
+    public void testCompile() throws Exception {
+        Program program = ShuntingYard.compile("2 * x + sin(x) / 4", null, null,
+                new HashSet<String>(Arrays.asList("x")), true);
+        int[] code = program.getCode();
+        assertEquals(8, program.size());
+        assertEquals(Program.CONSTANT, Program.opcode(code[0]));
+        assertEquals(Program.VARIABLE, Program.opcode(code[1]));
+        assertEquals(Program.OPERATOR, Program.opcode(code[2]));
+        assertEquals(Program.VARIABLE, Program.opcode(code[3]));
+        assertEquals(Program.FUNCTION, Program.opcode(code[4]));
+        assertEquals(Program.CONSTANT, Program.opcode(code[5]));
+        assertEquals(Program.OPERATOR, Program.opcode(code[6]));
+        assertEquals(Program.OPERATOR, Program.opcode(code[7]));
+        assertArrayEquals(new double[]{2d, 4d}, program.getConstants(), 0d);
+        assertArrayEquals(new String[]{"x"}, program.getVariables());
+        assertEquals(Program.operand(code[1]), Program.operand(code[3]));
+        assertEquals(3, program.getOperators().length);
+        assertEquals("sin", program.getFunctions()[0].getName());
+    }
+
+    @Test
+    public void testOperatorsAreShared() throws Exception {
+        Program program = ShuntingYard.compile("1+2+3+4", null, null, null, true);
+        assertEquals(1, program.getOperators().length);
+        assertSame(Operators.getBuiltinOperator('+', 2), program.getOperators()[0]);
+    }
+
+    @Test
+    public void testToTokens() throws Exception {
+        Token[] tokens = ShuntingYard.compile("x^2 - 1", null, null, new HashSet<String>(Arrays.asList("x")), true)
+                .toTokens();
+        assertEquals(5, tokens.length);
+        assertVariableToken(tokens[0], "x");
+        assertNumberToken(tokens[1], 2d);
+        assertOperatorToken(tokens[2], "^", 2, Operator.PRECEDENCE_POWER);
+        assertNumberToken(tokens[3], 1d);
+        assertOperatorToken(tokens[4], "-", 2, Operator.PRECEDENCE_ADDITION);
+    }
+
+    @Test
+    public void testFromTokens() throws Exception {
+        Token[] tokens = ShuntingYard.convertToRPN("log(x) * 3", null, null,
+                new HashSet<String>(Arrays.asList("x")), true);
+        tokens = Arrays.copyOf(tokens, tokens.length + 2);
+        tokens[tokens.length - 2] = new StoreToken(0);
+        tokens[tokens.length - 1] = new LoadToken(0);
+        Token[] converted = Program.fromTokens(tokens).toTokens();
+        assertEquals(tokens.length, converted.length);
+        for (int i = 0; i < tokens.length; i++) {
+            assertEquals(tokens[i].getType(), converted[i].getType());
+        }
+        assertEquals(0, ((LoadToken) converted[converted.length - 1]).getIndex());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidOperand() throws Exception {
+        new Program(new int[]{Program.instruction(Program.CONSTANT, 1)}, new double[]{1d}, new String[0],
+                new Operator[0], new Function[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMismatchedParentheses() throws Exception {
+        ShuntingYard.compile("(1+2", null, null, null, true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMisplacedSeparator() throws Exception {
+        ShuntingYard.compile("1,2", null, null, null, true);
+    }
+}
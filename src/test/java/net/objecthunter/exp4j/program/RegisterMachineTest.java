@@ -0,0 +1,236 @@
+/*
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package net.objecthunter.exp4j.program;
+
+import static net.objecthunter.exp4j.TestUtil.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import net.objecthunter.exp4j.MissingVariableException;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.FunctionN;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.LoadToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.StoreToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+import org.junit.Test;
+
+public class RegisterMachineTest {
+
+    /* custom functions and operators, which the register machine calls like the interpreter */
+    private static final String CUSTOM_EXPRESSION =
+            "mid(y, x, 2) * mid(1, 2, x) - mid(x * y, y, mid(x, y, 3)) ! ! + x !";
+
+    private static final Function MID = new FunctionN("mid", 3) {
+        @Override
+        public double apply(double[] args, int offset) {
+            return args[offset] - 2 * args[offset + 1] + 3 * args[offset + 2];
+        }
+    };
+
+    @Test
+    public void testMatchesInterpreter() throws Exception {
+        Map<String, Function> functions = new HashMap<String, Function>();
+        functions.put("mid", MID);
+        Map<String, Operator> operators = new HashMap<String, Operator>();
+        operators.put("!", FACTORIAL);
+        List<String> expressions = new ArrayList<String>(Arrays.asList(EXPRESSIONS));
+        expressions.add(CUSTOM_EXPRESSION);
+        for (String expression : expressions) {
+            Token[] tokens = withSlots(ShuntingYard.convertToRPN(expression, functions, operators,
+                    new HashSet<String>(Arrays.asList("x", "y")), true), "x", "y");
+            Interpreter interpreter = Interpreter.compile(tokens);
+            RegisterMachine registerMachine = RegisterMachine.compile(tokens);
+            assertNotNull(expression, registerMachine);
+            for (double x : VALUES) {
+                for (double y : VALUES) {
+                    double[] values = {x, y};
+                    boolean[] bound = {true, true};
+                    double expected;
+                    try {
+                        expected = interpreter.evaluate(values, bound, new double[interpreter.getStackSize()], 0);
+                    } catch (ArithmeticException e) {
+                        try {
+                            registerMachine.evaluate(values, bound, new double[registerMachine.getNumRegisters()], 0);
+                            fail("Expected an ArithmeticException for " + expression + " " + x + " " + y);
+                        } catch (ArithmeticException expectedException) {
+                            /* both throw */
+                        }
+                        continue;
+                    }
+                    double actual = registerMachine.evaluate(values, bound,
+                            new double[registerMachine.getNumRegisters()], 0);
+                    /* all NaNs are equal, while the zeros are told apart by their sign */
+                    assertEquals(expression + " " + x + " " + y, Double.doubleToLongBits(expected),
+                            Double.doubleToLongBits(actual));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        assertNull(RegisterMachine.compile(ShuntingYard.convertToRPN("2+", null, null, null, true)));
+        assertNull(RegisterMachine.compile(new Token[]{new NumberToken(1d), new NumberToken(2d)}));
+        assertNull(RegisterMachine.compile(new Token[]{new LoadToken(0)}));
+        assertNull(RegisterMachine.compile(new Token[]{new VariableToken("x")}));
+        assertNull(RegisterMachine.compile(new Token[0]));
+    }
+
+    @Test
+    public void testThreeAddressInstructions() throws Exception {
+        /* two multiplications and an addition, the operands are read from their registers directly */
+        Token[] tokens = withSlots(ShuntingYard.convertToRPN("2 * x + y * 3", null, null,
+                new HashSet<String>(Arrays.asList("x", "y")), true), "x", "y");
+        RegisterMachine registerMachine = RegisterMachine.compile(tokens);
+        assertEquals(3, registerMachine.size());
+        /* two variables, two constants and the two products, the sum reuses the register of one of them */
+        assertEquals(6, registerMachine.getNumRegisters());
+        assertEquals(2 * 5d + 7d * 3, registerMachine.evaluate(new double[]{5d, 7d}, new boolean[]{true, true},
+                new double[6], 0), 0d);
+    }
+
+    @Test
+    public void testRegistersAreReused() throws Exception {
+        StringBuilder sb = new StringBuilder("x");
+        for (int i = 0; i < 1000; i++) {
+            sb.append(i % 2 == 0 ? " + x * " : " - sin(x) / ").append(i % 7 + 1);
+        }
+        Token[] tokens = withSlots(ShuntingYard.convertToRPN(sb.toString(), null, null,
+                new HashSet<String>(Arrays.asList("x")), true), "x");
+        RegisterMachine registerMachine = RegisterMachine.compile(tokens);
+        Interpreter interpreter = Interpreter.compile(tokens, false);
+        /* one variable, seven constants and the few values alive at once */
+        assertTrue(registerMachine.getNumRegisters() < 12);
+        /* neither the variables nor the constants are loaded by instructions */
+        assertTrue(registerMachine.size() * 5 < interpreter.size() * 3);
+        assertEquals(interpreter.evaluate(new double[]{0.5d}, new boolean[]{true}, new double[16], 0),
+                registerMachine.evaluate(new double[]{0.5d}, new boolean[]{true}, new double[16], 0), 0d);
+    }
+
+    @Test
+    public void testCommonSubexpressions() throws Exception {
+        /* (x + 1) * (x + 1) - (x + 1) */
+        RegisterMachine registerMachine = RegisterMachine.compile(new Token[]{
+                new VariableToken("x", 0),
+                new NumberToken(1d),
+                new OperatorToken(Operators.getBuiltinOperator('+', 2)),
+                new StoreToken(0),
+                new LoadToken(0),
+                new OperatorToken(Operators.getBuiltinOperator('*', 2)),
+                new LoadToken(0),
+                new OperatorToken(Operators.getBuiltinOperator('-', 2))
+        });
+        /* the sum is computed once and read from its register */
+        assertEquals(3, registerMachine.size());
+        assertEquals(6d, registerMachine.evaluate(new double[]{2d}, new boolean[]{true},
+                new double[registerMachine.getNumRegisters()], 0), 0d);
+    }
+
+    @Test
+    public void testBase() throws Exception {
+        Token[] tokens = withSlots(ShuntingYard.convertToRPN("x * x - 1", null, null,
+                new HashSet<String>(Arrays.asList("x")), true), "x");
+        RegisterMachine registerMachine = RegisterMachine.compile(tokens);
+        double[] registers = new double[registerMachine.getNumRegisters() + 2];
+        registers[0] = 7d;
+        registers[1] = 7d;
+        assertEquals(8d, registerMachine.evaluate(new double[]{3d}, new boolean[]{true}, registers, 2), 0d);
+        assertEquals(7d, registers[0], 0d);
+        assertEquals(7d, registers[1], 0d);
+    }
+
+    @Test
+    public void testMissingVariable() throws Exception {
+        Expression e = new ExpressionBuilder("x - y")
+                .variables("x", "y")
+                .registerMachine(true)
+                .build()
+                .setVariable("x", 1d);
+        try {
+            e.evaluate();
+            fail("Expected a MissingVariableException");
+        } catch (MissingVariableException ex) {
+            assertEquals("y", ex.getVariableName());
+        }
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZero() throws Exception {
+        new ExpressionBuilder("1/x")
+                .variables("x")
+                .registerMachine(true)
+                .build()
+                .setVariable("x", 0d)
+                .evaluate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidExpressionFallsBack() throws Exception {
+        new ExpressionBuilder("2+")
+                .registerMachine(true)
+                .build()
+                .evaluate();
+    }
+
+    @Test
+    public void testExpression() throws Exception {
+        Expression e = new ExpressionBuilder("mid(x, y, 2) + (x + y) * (x + y) + 2pi")
+                .variables("x", "y")
+                .function(MID)
+                .registerMachine(true)
+                .build()
+                .setVariable("x", 1d)
+                .setVariable("y", 2d);
+        assertEquals(1d - 4d + 6d + 9d + 2 * Math.PI, e.evaluate(), 0d);
+        /* a nested evaluation uses the registers above the outer one's */
+        final Expression inner = new ExpressionBuilder("x * 2 + 1")
+                .variables("x")
+                .registerMachine(true)
+                .build();
+        Function twice = new Function("twice") {
+            @Override
+            public Double apply(Double... args) {
+                return inner.setVariable("x", args[0]).evaluate();
+            }
+        };
+        Expression outer = new ExpressionBuilder("x + twice(x + 1) * (x - 1)")
+                .variables("x")
+                .function(twice)
+                .registerMachine(true)
+                .build()
+                .setVariable("x", 3d);
+        assertEquals(3d + 9d * 2d, outer.evaluate(), 0d);
+    }
+}
@@ -0,0 +1,93 @@
+/* 
+* Copyright 2014 Frank Asseg
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License. 
+*/
+package net.objecthunter.exp4j.tokenizer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NumberParserTest {
+
+    private static void assertParsed(String literal) {
+        final char[] chars = ("(" + literal + ")").toCharArray();
+        final double expected = Double.parseDouble(literal);
+        final double actual = NumberParser.parseDouble(chars, 1, literal.length());
+        assertEquals(literal, Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(actual));
+    }
+
+    @Test
+    public void testLiterals() throws Exception {
+        String[] literals = {"0", "0.0", "000.000", ".5", "5.", "42", "3.14159", "1e0", "1E+0", "2e-3", "2.5E10",
+                "0.30000000000000004", "9007199254740993", "9999999999999999999", "18446744073709551615",
+                "123456789012345678901234567890", "1e22", "1e23", "1e-22", "1e-23", "1e308", "1.7976931348623157e308",
+                "1.7976931348623159e308", "1e309", "2.2250738585072014E-308", "4.9e-324", "1e-324", "1e-400",
+                "0.000000000000000000000000000000000000000001", "00000000000000000000000000001"};
+        for (String literal : literals) {
+            assertParsed(literal);
+        }
+    }
+
+    @Test
+    public void testRandomLiterals() throws Exception {
+        final Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            final double bits = Double.longBitsToDouble(random.nextLong() & Long.MAX_VALUE);
+            if (!Double.isNaN(bits) && !Double.isInfinite(bits)) {
+                assertParsed(Double.toString(bits));
+            }
+            assertParsed(Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20)));
+            final StringBuilder digits = new StringBuilder();
+            for (int j = random.nextInt(22); j >= 0; j--) {
+                digits.append((char) ('0' + random.nextInt(10)));
+            }
+            digits.insert(random.nextInt(digits.length() + 1), '.');
+            digits.append('e').append(random.nextInt(700) - 350);
+            assertParsed(digits.toString());
+        }
+    }
+
+    @Test
+    public void testHalfwayCases() throws Exception {
+        final Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            final double x = random.nextDouble() * Math.pow(10, random.nextInt(600) - 300);
+            /* the exact midpoint between x and the next double and its neighbours at 19 and 17 digits */
+            final BigDecimal mid = new BigDecimal(x).add(new BigDecimal(Math.nextUp(x))).divide(BigDecimal.valueOf(2));
+            assertParsed(mid.toString());
+            assertParsed(mid.round(new MathContext(19)).toString());
+            assertParsed(mid.round(new MathContext(17)).toString());
+        }
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testInvalidLiteral1() throws Exception {
+        NumberParser.parseDouble("1.2.3".toCharArray(), 0, 5);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testInvalidLiteral2() throws Exception {
+        NumberParser.parseDouble(".".toCharArray(), 0, 1);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testInvalidLiteral3() throws Exception {
+        NumberParser.parseDouble("1e+".toCharArray(), 0, 3);
+    }
+}
@@ -22,6 +22,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import net.objecthunter.exp4j.function.Function;
 import net.objecthunter.exp4j.operator.Operator;
@@ -551,4 +552,145 @@ public class TokenizerTest {
 
         assertFalse(tokenizer.hasNext());
     }
+
+    @Test
+    public void testLongestName() throws Exception {
+        final Set<String> variables = new HashSet<String>(Arrays.asList("portfolio", "portfolio_weight", "portfolio_weight_equity_emea"));
+        final Tokenizer tokenizer = new Tokenizer("portfolio_weight_equity*portfolio_weight_equity_emea", null, null, variables);
+
+        /* the longest declared name is used, the remaining characters form the next token */
+        assertTrue(tokenizer.hasNext());
+        assertVariableToken(tokenizer.nextToken(), "portfolio_weight");
+
+        assertTrue(tokenizer.hasNext());
+        assertOperatorToken(tokenizer.nextToken(), "*", 2, Operator.PRECEDENCE_MULTIPLICATION);
+
+        assertTrue(tokenizer.hasNext());
+        try {
+            tokenizer.nextToken();
+            fail("'_equity' is not a valid name");
+        } catch (UnknownFunctionOrVariableException e) {
+            assertEquals("_equity", e.getToken());
+        }
+    }
+
+    @Test
+    public void testVariableShadowsFunction() throws Exception {
+        final Map<String, Function> functions = new HashMap<String, Function>();
+        functions.put("sinus", new Function("sinus") {
+            @Override
+            public Double apply(Double... args) {
+                return 0d;
+            }
+        });
+        final Set<String> variables = new HashSet<String>(Arrays.asList("sinus"));
+        final Tokenizer tokenizer = new Tokenizer("sinus(sinx)", functions, null, variables);
+
+        assertTrue(tokenizer.hasNext());
+        assertVariableToken(tokenizer.nextToken(), "sinus");
+
+        assertTrue(tokenizer.hasNext());
+        assertOperatorToken(tokenizer.nextToken(), "*", 2, Operator.PRECEDENCE_MULTIPLICATION);
+
+        assertTrue(tokenizer.hasNext());
+        assertOpenParenthesesToken(tokenizer.nextToken());
+
+        /* the builtin function is the longest match */
+        assertTrue(tokenizer.hasNext());
+        assertFunctionToken(tokenizer.nextToken(), "sin", 1);
+    }
+
+    @Test
+    public void testUserFunctionShadowsBuiltin() throws Exception {
+        final Function log = new Function("log") {
+            @Override
+            public Double apply(Double... args) {
+                return 0d;
+            }
+        };
+        final Map<String, Function> functions = new HashMap<String, Function>();
+        functions.put("log", log);
+        final Tokenizer tokenizer = new Tokenizer("log10(log(2))", functions, null, null);
+
+        assertTrue(tokenizer.hasNext());
+        assertFunctionToken(tokenizer.nextToken(), "log10", 1);
+
+        assertTrue(tokenizer.hasNext());
+        assertOpenParenthesesToken(tokenizer.nextToken());
+
+        assertTrue(tokenizer.hasNext());
+        assertSame(log, ((FunctionToken) tokenizer.nextToken()).getFunction());
+    }
+
+    @Test
+    public void testUnknownName() throws Exception {
+        final Tokenizer tokenizer = new Tokenizer("2*sinx_y", null, null, null);
+        tokenizer.nextToken();
+        tokenizer.nextToken();
+        assertFunctionToken(tokenizer.nextToken(), "sin", 1);
+        try {
+            tokenizer.nextToken();
+            fail("'x_y' is not a valid name");
+        } catch (UnknownFunctionOrVariableException e) {
+            assertEquals("x_y", e.getToken());
+            assertEquals(5, e.getPosition());
+        }
+    }
+
+    private static Operator comparison(String symbol) {
+        return new Operator(symbol, 2, true, Operator.PRECEDENCE_ADDITION - 1) {
+            @Override
+            public double apply(double... args) {
+                return 0d;
+            }
+        };
+    }
+
+    @Test
+    public void testMultiCharOperators() throws Exception {
+        final Map<String, Operator> operators = new HashMap<String, Operator>();
+        for (String symbol : new String[] {">", ">=", "==", "===", "&&"}) {
+            operators.put(symbol, comparison(symbol));
+        }
+        final Tokenizer tokenizer = new Tokenizer("1>=-2==3===4>5&&6==-7", null, operators, null);
+
+        assertNumberToken(tokenizer.nextToken(), 1d);
+        assertOperatorToken(tokenizer.nextToken(), ">=", 2, Operator.PRECEDENCE_ADDITION - 1);
+        /* the builtin unary minus follows the longest custom symbol */
+        assertOperatorToken(tokenizer.nextToken(), "-", 1, Operator.PRECEDENCE_UNARY_MINUS);
+        assertNumberToken(tokenizer.nextToken(), 2d);
+        assertOperatorToken(tokenizer.nextToken(), "==", 2, Operator.PRECEDENCE_ADDITION - 1);
+        assertNumberToken(tokenizer.nextToken(), 3d);
+        assertOperatorToken(tokenizer.nextToken(), "===", 2, Operator.PRECEDENCE_ADDITION - 1);
+        assertNumberToken(tokenizer.nextToken(), 4d);
+        assertOperatorToken(tokenizer.nextToken(), ">", 2, Operator.PRECEDENCE_ADDITION - 1);
+        assertNumberToken(tokenizer.nextToken(), 5d);
+        assertOperatorToken(tokenizer.nextToken(), "&&", 2, Operator.PRECEDENCE_ADDITION - 1);
+        assertNumberToken(tokenizer.nextToken(), 6d);
+        assertOperatorToken(tokenizer.nextToken(), "==", 2, Operator.PRECEDENCE_ADDITION - 1);
+        assertOperatorToken(tokenizer.nextToken(), "-", 1, Operator.PRECEDENCE_UNARY_MINUS);
+        assertNumberToken(tokenizer.nextToken(), 7d);
+        assertFalse(tokenizer.hasNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownOperator() throws Exception {
+        final Map<String, Operator> operators = new HashMap<String, Operator>();
+        operators.put("<=", comparison("<="));
+        final Tokenizer tokenizer = new Tokenizer("1<2", null, operators, null);
+        tokenizer.nextToken();
+        tokenizer.nextToken();
+    }
+
+    @Test
+    public void testOperatorChars() throws Exception {
+        for (int i = 0; i < Operator.ALLOWED_OPERATOR_CHARS.length; i++) {
+            assertTrue(Operator.isAllowedOperatorChar(Operator.ALLOWED_OPERATOR_CHARS[i]));
+            assertEquals(i, Operator.getOperatorCharIndex(Operator.ALLOWED_OPERATOR_CHARS[i]));
+        }
+        assertFalse(Operator.isAllowedOperatorChar('a'));
+        assertFalse(Operator.isAllowedOperatorChar('('));
+        assertFalse(Operator.isAllowedOperatorChar('\u2264'));
+        assertEquals(-1, Operator.getOperatorCharIndex('\uffff'));
+    }
 }